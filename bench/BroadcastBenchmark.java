@@ -0,0 +1,160 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * The BroadcastBenchmark class measures the cost of sending one message to every player in a
+ * large game. It compares encoding the message again for each player with encoding it once
+ * and sharing the bytes, reporting the time and bytes allocated per broadcast. The players'
+ * sockets are replaced by connections that drop their output, so only the server's own work
+ * is measured.
+ *
+ * <pre>
+ * javac -d out server/*.java protocol/*.java bench/BroadcastBenchmark.java
+ * java -cp out BroadcastBenchmark 200 binary
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class BroadcastBenchmark {
+	private static final int WARMUP_ROUNDS = 20000;
+	private static final int MEASURED_ROUNDS = 100000;
+
+	private static final String MESSAGE = "CHAT alice has anyone found the exit yet?";
+
+	/**
+	 * The DroppedConnection class is a connection whose output goes nowhere
+	 */
+	private static class DroppedConnection extends Connection {
+		/**
+		 * Constructor passes parameter values to the super class
+		 *
+		 * @param game The game the client will join
+		 */
+		public DroppedConnection(Game game) {
+			super(game);
+		}
+
+		@Override
+		protected void write(byte[][] segments, int length) {
+			// Dropped
+		}
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args The number of players and the framing mode (<code>text</code>,
+	 *             <code>lines</code> or <code>binary</code>)
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.out.println("Usage: BroadcastBenchmark <players> <text|lines|binary>");
+			return;
+		}
+
+		int players = Integer.parseInt(args[0]);
+		int framing = Connection.FRAMING_TEXT;
+		if (args[1].equals("lines")) {
+			framing = Connection.FRAMING_LINES;
+		} else if (args[1].equals("binary")) {
+			framing = Connection.FRAMING_BINARY;
+		}
+
+		Game game = new Game(createMap(players).getPath());
+		for (int i = 0; i < players; i++) {
+			Connection client = new DroppedConnection(game);
+			client.setUsername();
+			if (framing != Connection.FRAMING_TEXT) {
+				client.enableFraming(framing);
+			}
+			game.join(client);
+		}
+
+		run(game, true, WARMUP_ROUNDS);
+		run(game, false, WARMUP_ROUNDS);
+
+		System.out.println("players: " + players + ", framing: " + args[1]);
+		report(game, "encode per player", true);
+		report(game, "encode once", false);
+		System.exit(0);
+	}
+
+	/**
+	 * Writes a square map file with room for every player
+	 *
+	 * @param players      The number of players
+	 * @return             The map file, which is deleted when the JVM exits
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	private static File createMap(int players) throws IOException {
+		int size = (int) Math.ceil(Math.sqrt(players * 2)) + 1;
+
+		File file = File.createTempFile("broadcast", ".txt");
+		file.deleteOnExit();
+
+		FileWriter writer = new FileWriter(file);
+		writer.write("name Broadcast Benchmark\nwin 1\n");
+		for (int row = 0; row < size; row++) {
+			StringBuilder line = new StringBuilder();
+			for (int col = 0; col < size; col++) {
+				line.append(row == 0 && col == 0 ? 'G' : '.');
+			}
+			writer.write(line.append('\n').toString());
+		}
+		writer.close();
+		return file;
+	}
+
+	/**
+	 * Measures and prints one way of broadcasting
+	 *
+	 * @param game      The game to broadcast to
+	 * @param name      The name of the method
+	 * @param perPlayer <code>true</code> to encode for every player, <code>false</code> to encode once
+	 */
+	private static void report(Game game, String name, boolean perPlayer) {
+		long startBytes = allocatedBytes();
+		long startTime = System.nanoTime();
+		run(game, perPlayer, MEASURED_ROUNDS);
+		long time = System.nanoTime() - startTime;
+		long bytes = allocatedBytes() - startBytes;
+
+		System.out.println(String.format("%-18s %10.1f us/broadcast %12.1f B/broadcast", name,
+				(double) time / MEASURED_ROUNDS / 1000, (double) bytes / MEASURED_ROUNDS));
+	}
+
+	/**
+	 * Broadcasts the message a number of times
+	 *
+	 * @param game      The game to broadcast to
+	 * @param perPlayer <code>true</code> to encode for every player, <code>false</code> to encode once
+	 * @param rounds    The number of broadcasts
+	 */
+	private static void run(Game game, boolean perPlayer, int rounds) {
+		for (int i = 0; i < rounds; i++) {
+			if (perPlayer) {
+				for (Player p : game.getPlayers()) {
+					p.getClient().sendMessage(MESSAGE);
+				}
+			} else {
+				game.sendToAll(MESSAGE);
+			}
+		}
+	}
+
+	/**
+	 * Gets the bytes allocated by the current thread
+	 *
+	 * @return The allocated bytes, <code>-1</code> if the JVM cannot report them
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,184 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The ChunkedMapBenchmark class compares a large dungeon loaded whole onto the heap with the
+ * same dungeon loaded in chunks, see {@link ChunkedTileStore}. Players walk across the map,
+ * mostly keeping their heading so that they keep reaching new chunks, and LOOK after every
+ * move. The load time, the memory held once loaded and after playing, and the time of each
+ * move and LOOK are reported, with the slowest steps showing whether players had to wait for a chunk to load.
+ *
+ * <pre>
+ * javac -d out server/*.java protocol/*.java bench/ChunkedMapBenchmark.java
+ * java -Xmx2g -cp out ChunkedMapBenchmark 8192 256
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class ChunkedMapBenchmark {
+	private static final int PLAYERS = 64;
+	private static final int WARMUP_STEPS = 50000;
+	private static final int MEASURED_STEPS = 400000;
+
+	private static final char[] DIRECTIONS = {'N', 'E', 'S', 'W'};
+
+	/**
+	 * The DroppedConnection class is a connection whose output goes nowhere
+	 */
+	private static class DroppedConnection extends Connection {
+		/**
+		 * Constructor passes parameter values to the super class
+		 *
+		 * @param game The game the client will join
+		 */
+		public DroppedConnection(Game game) {
+			super(game);
+		}
+
+		@Override
+		protected void write(byte[][] segments, int length) {
+			// Dropped
+		}
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args The width and height of the map, and the most chunks kept in memory
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.out.println("Usage: ChunkedMapBenchmark <size> <chunks>");
+			return;
+		}
+
+		int size = Integer.parseInt(args[0]);
+		File file = createMap(size);
+		Map.setMaxChunks(Integer.parseInt(args[1]));
+
+		System.out.println("map: " + size + "x" + size + ", " + file.length() / 1048576 + " MB file, " + PLAYERS + " players");
+		System.out.println(String.format("%-10s %10s %10s %10s %12s %12s %12s", "storage", "load ms", "heap MB", "played MB", "mean ns", "p99.9 ns", "max us"));
+
+		run("heap", Map.STORAGE_HEAP, file);
+		run("chunked", Map.STORAGE_CHUNKED, file);
+		System.exit(0);
+	}
+
+	/**
+	 * Loads the map and walks the players across it
+	 *
+	 * @param name    The name of the storage mode
+	 * @param storage One of the <code>Map.STORAGE_*</code> modes
+	 * @param file    The map file
+	 */
+	private static void run(String name, int storage, File file) {
+		Map.setStorage(storage);
+		long heap = usedMemory();
+		long start = System.nanoTime();
+		Game game = new Game(file.getPath());
+		double loadTime = (System.nanoTime() - start) / 1000000.0;
+		long heapBytes = usedMemory() - heap;
+
+		for (int i = 0; i < PLAYERS; i++) {
+			Connection client = new DroppedConnection(game);
+			client.setUsername("player" + i);
+			client.enableFraming(Connection.FRAMING_LINES);
+			game.join(client);
+		}
+
+		Random random = new Random(1);
+		int[] headings = new int[PLAYERS];
+		walk(game, headings, random, new long[WARMUP_STEPS]);
+
+		long[] times = new long[MEASURED_STEPS];
+		walk(game, headings, random, times);
+		long playedBytes = usedMemory() - heap;
+		Arrays.sort(times);
+		long total = 0;
+		for (long time : times) {
+			total += time;
+		}
+
+		System.out.println(String.format("%-10s %10.1f %10.1f %10.1f %12.1f %12d %12.1f", name, loadTime, heapBytes / 1048576.0,
+				playedBytes / 1048576.0, (double) total / times.length, times[(int) (times.length * 0.999)], times[times.length - 1] / 1000.0));
+		if (game.getMap().getStore() instanceof ChunkedTileStore) {
+			System.out.println("  " + game.getMap().getStore());
+		}
+	}
+
+	/**
+	 * Moves players one at a time, each player looking after it moves
+	 *
+	 * @param game     The game
+	 * @param headings The direction each player is walking in
+	 * @param random   The source of turns
+	 * @param times    Filled with the time of each step in nanoseconds
+	 */
+	private static void walk(Game game, int[] headings, Random random, long[] times) {
+		for (int i = 0; i < times.length; i++) {
+			int index = i % PLAYERS;
+			Player player = game.getPlayers().get(index);
+
+			// Mostly keep walking the same way, and turn when blocked
+			if (random.nextInt(32) == 0) {
+				headings[index] = random.nextInt(DIRECTIONS.length);
+			}
+			int oldX = player.getX();
+			int oldY = player.getY();
+
+			long start = System.nanoTime();
+			game.setPlayer(player);
+			player.setAp(100);
+			game.playerMove(DIRECTIONS[headings[index]]);
+			game.playerLook(player);
+			times[i] = System.nanoTime() - start;
+
+			if (player.getX() == oldX && player.getY() == oldY) {
+				headings[index] = random.nextInt(DIRECTIONS.length);
+			}
+		}
+	}
+
+	/**
+	 * Writes a square map file of mostly floor with some walls
+	 *
+	 * @param size         The width and height of the map
+	 * @return             The map file, which is deleted when the JVM exits
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	private static File createMap(int size) throws IOException {
+		Random random = new Random(1);
+
+		File file = File.createTempFile("chunked", ".txt");
+		file.deleteOnExit();
+
+		FileWriter writer = new FileWriter(file);
+		writer.write("name Chunked Benchmark\nwin 1\n");
+		for (int row = 0; row < size; row++) {
+			StringBuilder line = new StringBuilder(size + 1);
+			for (int col = 0; col < size; col++) {
+				line.append(row == 0 && col == 0 ? 'G' : random.nextInt(16) == 0 ? '#' : '.');
+			}
+			writer.write(line.append('\n').toString());
+		}
+		writer.close();
+		return file;
+	}
+
+	/**
+	 * Gets the heap in use after collecting garbage
+	 *
+	 * @return The bytes in use
+	 */
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
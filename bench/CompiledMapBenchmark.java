@@ -0,0 +1,115 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The CompiledMapBenchmark class measures how long a large map takes to load from its text file
+ * compared with loading it from the compiled form in the map cache, see {@link CompiledMap}. The
+ * first load with the cache turned on parses the map and compiles it, and every later load reads
+ * the compiled map.
+ *
+ * <pre>
+ * javac -d out server/*.java protocol/*.java bench/CompiledMapBenchmark.java
+ * java -Xmx4g -cp out CompiledMapBenchmark 10240
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class CompiledMapBenchmark {
+	private static final int ROUNDS = 3;
+
+	private static int sink;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args The width and height of the map
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: CompiledMapBenchmark <size>");
+			return;
+		}
+
+		int size = Integer.parseInt(args[0]);
+		File file = createMap(size);
+		File cache = File.createTempFile("cache", "");
+		cache.delete();
+		System.out.println("map: " + size + "x" + size + ", " + file.length() / 1048576 + " MB file");
+		System.out.println(String.format("%-10s %12s %12s %12s", "storage", "text ms", "compile ms", "cached ms"));
+
+		String[] names = {"heap", "off-heap", "chunked"};
+		int[] storages = {Map.STORAGE_HEAP, Map.STORAGE_OFF_HEAP, Map.STORAGE_CHUNKED};
+		for (int i = 0; i < names.length; i++) {
+			Map.setStorage(storages[i]);
+
+			Map.setCacheDirectory(null);
+			long text = Long.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				text = Math.min(text, load(file, size));
+			}
+
+			Map.setCacheDirectory(cache);
+			long compile = load(file, size);
+			long cached = Long.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				cached = Math.min(cached, load(file, size));
+			}
+			for (File compiled : cache.listFiles()) {
+				compiled.delete();
+			}
+
+			System.out.println(String.format("%-10s %12.1f %12.1f %12.1f", names[i], text / 1000000.0, compile / 1000000.0, cached / 1000000.0));
+		}
+		cache.delete();
+		System.exit(0);
+	}
+
+	/**
+	 * Loads the map once
+	 *
+	 * @param file The map file
+	 * @param size The width and height of the map
+	 * @return     The load time in nanoseconds
+	 */
+	private static long load(File file, int size) {
+		long start = System.nanoTime();
+		Map map = new Map(file.getPath());
+		long time = System.nanoTime() - start;
+
+		if (!map.getReport().isValid()) {
+			throw new IllegalStateException(map.getReport().toString());
+		}
+		sink += map.getBase(size - 1, size - 1);
+		return time;
+	}
+
+	/**
+	 * Writes a square map file of mostly floor with some walls and items
+	 *
+	 * @param size         The width and height of the map
+	 * @return             The map file, which is deleted when the JVM exits
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	private static File createMap(int size) throws IOException {
+		String tiles = "........####GSAHLE";
+		Random random = new Random(1);
+
+		File file = File.createTempFile("compiled", ".txt");
+		file.deleteOnExit();
+
+		FileWriter writer = new FileWriter(file);
+		writer.write("name Compiled Benchmark\nwin 1\n");
+		for (int row = 0; row < size; row++) {
+			StringBuilder line = new StringBuilder(size + 1);
+			for (int col = 0; col < size; col++) {
+				line.append(tiles.charAt(random.nextInt(tiles.length())));
+			}
+			writer.write(line.append('\n').toString());
+		}
+		writer.close();
+		return file;
+	}
+}
@@ -0,0 +1,220 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+
+/**
+ * The IdleConnectionBenchmark class measures what idle clients cost the server in each I/O mode.
+ * A second JVM opens a number of client sockets that never send anything, then the server
+ * process reports its live thread count, heap and resident memory, and the context switches it
+ * made while the clients sat idle. Keeping the clients in their own process leaves their sockets
+ * and memory out of the figures.
+ *
+ * Compile against the server classes and run one mode per JVM, for example:
+ * <pre>
+ * javac -d out server/*.java protocol/*.java bench/IdleConnectionBenchmark.java
+ * java -Xms1g -Xmx1g -cp out IdleConnectionBenchmark thread 1000
+ * java -Xms1g -Xmx1g -cp out IdleConnectionBenchmark virtual 10000
+ * </pre>
+ * A fixed heap size stops heap resizing from skewing the resident memory. Each client uses a
+ * file descriptor in both processes, so <code>ulimit -n</code> must be above the client count.
+ * Context switches are read from <code>/proc</code> and are only reported on Linux.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class IdleConnectionBenchmark {
+	private static final int IDLE_MILLIS = 5000;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args The I/O mode (<code>thread</code>, <code>virtual</code> or <code>nio</code>) and
+	 *             the number of idle clients
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length == 3 && args[0].equals("connect")) {
+			connect(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+			return;
+		}
+		if (args.length != 2) {
+			System.out.println("Usage: IdleConnectionBenchmark <thread|virtual|nio> <clients>");
+			return;
+		}
+
+		String mode = args[0];
+		int clients = Integer.parseInt(args[1]);
+
+		long baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+		long baseHeap = usedHeap();
+		long baseRss = residentMemory();
+
+		Game game = new Game();
+		Listener listener = createListener(mode, game);
+		int port = listener.getPort();
+
+		Process clientProcess = startClients(port, clients);
+
+		// Give the server time to accept and park every client
+		Thread.sleep(2000);
+
+		long startSwitches = contextSwitches();
+		Thread.sleep(IDLE_MILLIS);
+		long endSwitches = contextSwitches();
+
+		long threads = ManagementFactory.getThreadMXBean().getThreadCount() - baseThreads;
+		long heap = usedHeap() - baseHeap;
+		long rss = residentMemory() - baseRss;
+
+		System.out.println("mode:                " + mode);
+		System.out.println("idle clients:        " + clients);
+		System.out.println("extra live threads:  " + threads);
+		System.out.println("extra heap:          " + (heap / 1024) + " KB (" + (heap / clients) + " B per client)");
+		if (baseRss >= 0) {
+			System.out.println("extra resident:      " + (rss / 1024) + " KB (" + (rss / clients) + " B per client)");
+		}
+		if (startSwitches >= 0) {
+			System.out.println("context switches/s:  " + ((endSwitches - startSwitches) * 1000 / IDLE_MILLIS));
+		}
+
+		clientProcess.destroy();
+		listener.close();
+		System.exit(0);
+	}
+
+	/**
+	 * Starts a JVM that opens the idle clients, and waits until they have all connected
+	 *
+	 * @param port         The port the server listens on
+	 * @param clients      The number of clients
+	 * @return             The client process
+	 * @throws IOException Thrown if the process could not be started or failed to connect
+	 */
+	private static Process startClients(int port, int clients) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process process = new ProcessBuilder(java, "-Xss256k", "-cp", System.getProperty("java.class.path"),
+				"IdleConnectionBenchmark", "connect", Integer.toString(port), Integer.toString(clients))
+				.redirectErrorStream(true).start();
+
+		BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+		String line = output.readLine();
+		if (!"connected".equals(line)) {
+			process.destroy();
+			throw new IOException("The clients could not connect: " + line);
+		}
+		return process;
+	}
+
+	/**
+	 * Opens idle client sockets and keeps them open until the process is killed. Run in the
+	 * client JVM.
+	 *
+	 * @param port         The port the server listens on
+	 * @param clients      The number of clients
+	 * @throws IOException Thrown if a client could not connect
+	 */
+	private static void connect(int port, int clients) throws Exception {
+		ArrayList<Socket> sockets = new ArrayList<Socket>();
+		for (int i = 0; i < clients; i++) {
+			sockets.add(new Socket("localhost", port));
+		}
+		System.out.println("connected");
+		System.out.flush();
+
+		while (true) {
+			Thread.sleep(Long.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Starts a listener on a free port in the given I/O mode
+	 *
+	 * @param mode         The I/O mode
+	 * @param game         The game clients will join
+	 * @return             The listener
+	 * @throws IOException Thrown if the listener could not be started
+	 */
+	private static Listener createListener(String mode, Game game) throws IOException {
+		if (mode.equals(ServerConfig.IO_NIO)) {
+			ServerSocketChannel serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(0), 1024);
+			return new NioListener(serverChannel, game, new ServerConfig().getIoThreads());
+		} else if (mode.equals(ServerConfig.IO_VIRTUAL)) {
+			return new Listener(new ServerSocket(0, 1024), game, VirtualThreads.newPerTaskExecutor());
+		}
+		return new Listener(new ServerSocket(0, 1024), game);
+	}
+
+	/**
+	 * Gets the used heap after a garbage collection
+	 *
+	 * @return The used heap in bytes
+	 */
+	private static long usedHeap() {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Gets the resident memory of the process
+	 *
+	 * @return The resident memory in bytes, <code>-1</code> if it cannot be read
+	 */
+	private static long residentMemory() {
+		return readStatus(new File("/proc/self/status"), "VmRSS:") * 1024;
+	}
+
+	/**
+	 * Gets the total context switches made by every thread of the process
+	 *
+	 * @return The number of context switches, <code>-1</code> if they cannot be read
+	 */
+	private static long contextSwitches() {
+		File[] tasks = new File("/proc/self/task").listFiles();
+		if (tasks == null) {
+			return -1;
+		}
+
+		long total = 0;
+		for (File task : tasks) {
+			File status = new File(task, "status");
+			total += Math.max(0, readStatus(status, "voluntary_ctxt_switches:"));
+			total += Math.max(0, readStatus(status, "nonvoluntary_ctxt_switches:"));
+		}
+		return total;
+	}
+
+	/**
+	 * Reads a number from a <code>/proc</code> status file
+	 *
+	 * @param status The status file
+	 * @param field  The field name, including the colon
+	 * @return       The field value, <code>-1</code> if it cannot be read
+	 */
+	private static long readStatus(File status, String field) {
+		try {
+			BufferedReader reader = new BufferedReader(new FileReader(status));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith(field)) {
+						return Long.parseLong(line.substring(field.length()).trim().split(" ")[0]);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			// The thread may have exited, or this is not Linux
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,133 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The JournalBenchmark class measures what keeping a {@link GameJournal} costs the game thread,
+ * and how quickly a {@link JournalReplayer} rebuilds the game from it. Players join a game and
+ * a long run of moves, turns, missed attacks and gold pickups is recorded, each applied to the
+ * players as well so that the replay has a real final state to check against.
+ *
+ * <pre>
+ * javac -d out server/*.java protocol/*.java bench/JournalBenchmark.java
+ * java -cp out JournalBenchmark 20000000
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class JournalBenchmark {
+	private static final int PLAYERS = 64;
+
+	/**
+	 * The DroppedConnection class is a connection whose output goes nowhere
+	 */
+	private static class DroppedConnection extends Connection {
+		/**
+		 * Constructor passes parameter values to the super class
+		 *
+		 * @param game The game the client will join
+		 */
+		public DroppedConnection(Game game) {
+			super(game);
+		}
+
+		@Override
+		protected void write(byte[][] segments, int length) {
+			// Dropped
+		}
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args The number of records to write
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: JournalBenchmark <records>");
+			return;
+		}
+
+		int records = Integer.parseInt(args[0]);
+		File directory = File.createTempFile("journals", "");
+		directory.delete();
+		Game.setJournalDirectory(directory);
+
+		Game game = new Game(createMap().getPath());
+		for (int i = 0; i < PLAYERS; i++) {
+			Connection client = new DroppedConnection(game);
+			client.setUsername("player" + i);
+			client.enableFraming(Connection.FRAMING_LINES);
+			game.join(client);
+		}
+		GameJournal journal = game.getJournal();
+
+		// Record and apply the same changes the game would make
+		Random random = new Random(1);
+		long start = System.nanoTime();
+		for (int i = 0; i < records; i++) {
+			Player player = game.getPlayers().get(i % PLAYERS);
+			int action = random.nextInt(20);
+			if (action < 14) {
+				int x = random.nextInt(1000);
+				int y = random.nextInt(1000);
+				player.setX(x);
+				player.setY(y);
+				journal.move(player, x, y);
+			} else if (action < 18) {
+				journal.turn(player);
+			} else if (action < 19) {
+				journal.attack(player, game.getPlayers().get((i + 1) % PLAYERS), -1);
+			} else {
+				player.addGold(1);
+				journal.pickUp(player, Tile.GOLD, 1);
+			}
+		}
+		double recordTime = (System.nanoTime() - start) / (double) records;
+		long dropped = journal.getDropped();
+
+		start = System.nanoTime();
+		game.setPlayer(game.getPlayers().get(0));
+		game.closeJournal();
+		double closeTime = (System.nanoTime() - start) / 1000000.0;
+
+		File file = journal.getFile();
+		System.out.println(String.format("recorded %d records in %.1f ns each, %d dropped, closed in %.1f ms, %.1f MB journal",
+				records, recordTime, dropped, closeTime, file.length() / 1048576.0));
+
+		for (int round = 0; round < 3; round++) {
+			JournalReplayer replayer = new JournalReplayer();
+			start = System.nanoTime();
+			replayer.replay(file.getPath());
+			double seconds = (System.nanoTime() - start) / 1000000000.0;
+			System.out.println(String.format("replayed %d records in %.1f ms, %.1f million a second, final state %s",
+					replayer.getRecords(), seconds * 1000, replayer.getRecords() / seconds / 1000000,
+					replayer.matches() ? "matches" : "differs " + replayer.getDifferences()));
+		}
+
+		file.delete();
+		directory.delete();
+		System.exit(0);
+	}
+
+	/**
+	 * Writes a map file with room for every player
+	 *
+	 * @return             The map file, which is deleted when the JVM exits
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	private static File createMap() throws IOException {
+		File file = File.createTempFile("journal", ".txt");
+		file.deleteOnExit();
+
+		FileWriter writer = new FileWriter(file);
+		writer.write("name Journal Benchmark\nwin 1\nG");
+		for (int row = 0; row < 32; row++) {
+			writer.write("................................".substring(row == 0 ? 1 : 0) + "\n");
+		}
+		writer.close();
+		return file;
+	}
+}
@@ -0,0 +1,151 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * The MapParserBenchmark class measures how long a large map file takes to load. The way maps
+ * used to be read, as a list of line strings each checked with a regular expression, is
+ * compared with {@link MapParser} loading the map into each kind of store.
+ *
+ * <pre>
+ * javac -d out server/*.java protocol/*.java bench/MapParserBenchmark.java
+ * java -Xmx4g -cp out MapParserBenchmark 10240
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class MapParserBenchmark {
+	private static final int ROUNDS = 3;
+
+	private static int sink;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args The width and height of the map
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: MapParserBenchmark <size>");
+			return;
+		}
+
+		int size = Integer.parseInt(args[0]);
+		File file = createMap(size);
+		System.out.println("map: " + size + "x" + size + ", " + file.length() / 1048576 + " MB file, "
+				+ Runtime.getRuntime().availableProcessors() + " processors");
+		System.out.println(String.format("%-16s %10s %10s", "loader", "best ms", "MB/s"));
+
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			long start = System.nanoTime();
+			sink += loadLines(file.getPath()).length;
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		report("line strings", file, best);
+
+		String[] names = {"parser heap", "parser off-heap", "parser chunked"};
+		int[] storages = {Map.STORAGE_HEAP, Map.STORAGE_OFF_HEAP, Map.STORAGE_CHUNKED};
+		for (int i = 0; i < names.length; i++) {
+			Map.setStorage(storages[i]);
+			best = Long.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++) {
+				long start = System.nanoTime();
+				Map map = new Map(file.getPath());
+				best = Math.min(best, System.nanoTime() - start);
+				if (!map.getReport().isValid()) {
+					throw new IllegalStateException(map.getReport().toString());
+				}
+				sink += map.getBase(size - 1, size - 1);
+			}
+			report(names[i], file, best);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Prints the results for one loader
+	 *
+	 * @param name The name of the loader
+	 * @param file The map file
+	 * @param time The best load time in nanoseconds
+	 */
+	private static void report(String name, File file, long time) {
+		System.out.println(String.format("%-16s %10.1f %10.1f", name, time / 1000000.0, file.length() / 1048576.0 / (time / 1000000000.0)));
+	}
+
+	/**
+	 * Loads a map file the way maps used to be loaded, reading every line into a string, checking
+	 * each row with a regular expression and counting gold, then copying the tiles into an array
+	 *
+	 * @param fileName     The name of the map file
+	 * @return             The tiles
+	 * @throws IOException Thrown if the file could not be read
+	 */
+	private static byte[] loadLines(String fileName) throws IOException {
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lines.add(line);
+		}
+		reader.close();
+
+		int height = lines.size() - 2;
+		int width = lines.get(3).length();
+		int goldCount = 0;
+		for (int row = 0; row < height; row++) {
+			String rowString = lines.get(row + 2);
+			if (!rowString.matches("[ASLGHE.#]*")) {
+				throw new IllegalStateException("Invalid map characters");
+			}
+			for (int col = 0; col < width; col++) {
+				if (rowString.charAt(col) == 'G') {
+					goldCount++;
+				}
+			}
+		}
+
+		byte[] tiles = new byte[width * height];
+		for (int row = 0; row < height; row++) {
+			String rowString = lines.get(row + 2);
+			for (int col = 0; col < width; col++) {
+				tiles[row * width + col] = (byte) rowString.charAt(col);
+			}
+		}
+		sink += goldCount;
+		return tiles;
+	}
+
+	/**
+	 * Writes a square map file of mostly floor with some walls and items
+	 *
+	 * @param size         The width and height of the map
+	 * @return             The map file, which is deleted when the JVM exits
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	private static File createMap(int size) throws IOException {
+		String tiles = "........####GSAHL";
+		Random random = new Random(1);
+
+		File file = File.createTempFile("parser", ".txt");
+		file.deleteOnExit();
+
+		FileWriter writer = new FileWriter(file);
+		writer.write("name Parser Benchmark\nwin 1\n");
+		for (int row = 0; row < size; row++) {
+			StringBuilder line = new StringBuilder(size + 1);
+			for (int col = 0; col < size; col++) {
+				line.append(tiles.charAt(random.nextInt(tiles.length())));
+			}
+			writer.write(line.append('\n').toString());
+		}
+		writer.close();
+		return file;
+	}
+}
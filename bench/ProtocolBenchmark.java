@@ -0,0 +1,157 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The ProtocolBenchmark class compares the text protocol with the binary protocol. For a mix of
+ * typical messages it reports the bytes on the wire and the CPU time spent encoding the message
+ * on one side and decoding it on the other.
+ *
+ * Text decoding is measured as turning the bytes back into a string and splitting off the
+ * command, which is the least work any text client has to do.
+ *
+ * <pre>
+ * javac -d out server/*.java protocol/*.java bench/ProtocolBenchmark.java
+ * java -cp out ProtocolBenchmark
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class ProtocolBenchmark {
+	private static final int WARMUP_ROUNDS = 200000;
+	private static final int MEASURED_ROUNDS = 1000000;
+
+	// Messages sent by the server while a game is being played
+	private static final String[] SERVER_MESSAGES = {
+		"CHANGE",
+		"LOOKREPLY\nX##AX\n##EP.\n#LG.H\n##S.A\nX##SX",
+		"LOOKREPLY\nXX###XX\nX#####X\n##.G.##\n#L.P.H#\n##S.A##\nX#..#.X\nXX###XX",
+		"HITMOD -1",
+		"TREASUREMOD 1",
+		"MESSAGE It is now alice's turn.",
+		"CHAT alice anyone found the exit yet?",
+		"PLAYERS 4\nalice 0 0\nbob 0 1\ncarol 1 1\nPlayer 4 0 1"
+	};
+
+	// Messages sent by the client while a game is being played
+	private static final String[] CLIENT_MESSAGES = {
+		"LOOK",
+		"MOVE N",
+		"ATTACK E",
+		"PICKUP",
+		"CHAT anyone found the exit yet?"
+	};
+
+	private static volatile Object sink;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args Not used
+	 */
+	public static void main(String[] args) throws IOException {
+		System.out.println(String.format("%-10s %-14s %10s %10s %12s %12s", "direction", "command", "text B", "binary B", "text ns", "binary ns"));
+
+		report("server", SERVER_MESSAGES, true);
+		report("client", CLIENT_MESSAGES, false);
+	}
+
+	/**
+	 * Measures and prints every message in a set
+	 *
+	 * @param direction    The name of the sending side
+	 * @param messages     The messages
+	 * @param fromServer   <code>true</code> for server messages, <code>false</code> for client messages
+	 * @throws IOException Thrown if a frame cannot be decoded
+	 */
+	private static void report(String direction, String[] messages, boolean fromServer) throws IOException {
+		long textBytes = 0;
+		long binaryBytes = 0;
+		double textNanos = 0;
+		double binaryNanos = 0;
+
+		for (String message : messages) {
+			int text = encodeText(message).length;
+			int binary = fromServer ? BinaryCodec.encodeServerMessage(message).length : BinaryCodec.encodeClientMessage(message).length;
+
+			runText(message, WARMUP_ROUNDS);
+			runBinary(message, fromServer, WARMUP_ROUNDS);
+			double textTime = runText(message, MEASURED_ROUNDS);
+			double binaryTime = runBinary(message, fromServer, MEASURED_ROUNDS);
+
+			String command = message.split("[ \n]", 2)[0];
+			System.out.println(String.format("%-10s %-14s %10d %10d %12.1f %12.1f", direction, command, text, binary, textTime, binaryTime));
+
+			textBytes += text;
+			binaryBytes += binary;
+			textNanos += textTime;
+			binaryNanos += binaryTime;
+		}
+
+		int count = messages.length;
+		System.out.println(String.format("%-10s %-14s %10.1f %10.1f %12.1f %12.1f", direction, "average", (double) textBytes / count,
+				(double) binaryBytes / count, textNanos / count, binaryNanos / count));
+	}
+
+	/**
+	 * Encodes and decodes a message in the text protocol
+	 *
+	 * @param message The message
+	 * @param rounds  The number of times to repeat
+	 * @return        The CPU time per round in nanoseconds
+	 */
+	private static double runText(String message, int rounds) {
+		long start = cpuTime();
+		for (int i = 0; i < rounds; i++) {
+			byte[] bytes = encodeText(message);
+			String decoded = new String(bytes, 0, bytes.length - Connection.LINE_SEPARATOR.length(), Connection.CHARSET);
+			sink = BinaryCodec.Message.parse(decoded);
+		}
+		return (double) (cpuTime() - start) / rounds;
+	}
+
+	/**
+	 * Encodes and decodes a message in the binary protocol
+	 *
+	 * @param message      The message
+	 * @param fromServer   <code>true</code> for server messages, <code>false</code> for client messages
+	 * @param rounds       The number of times to repeat
+	 * @return             The CPU time per round in nanoseconds
+	 * @throws IOException Thrown if a frame cannot be decoded
+	 */
+	private static double runBinary(String message, boolean fromServer, int rounds) throws IOException {
+		long start = cpuTime();
+		for (int i = 0; i < rounds; i++) {
+			if (fromServer) {
+				byte[] frame = BinaryCodec.encodeServerMessage(message);
+				sink = BinaryCodec.decodeServerMessage(BinaryCodec.readFrame(new ByteArrayInputStream(frame)));
+			} else {
+				byte[] frame = BinaryCodec.encodeClientMessage(message);
+				sink = BinaryCodec.decodeClientMessage(BinaryCodec.readFrame(new ByteArrayInputStream(frame)));
+			}
+		}
+		return (double) (cpuTime() - start) / rounds;
+	}
+
+	/**
+	 * Encodes a message as a text line
+	 *
+	 * @param message The message
+	 * @return        The bytes sent on the wire
+	 */
+	private static byte[] encodeText(String message) {
+		return (message + Connection.LINE_SEPARATOR).getBytes(Connection.CHARSET);
+	}
+
+	/**
+	 * Gets the CPU time used by the current thread
+	 *
+	 * @return The CPU time in nanoseconds
+	 */
+	private static long cpuTime() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		return threads.getCurrentThreadCpuTime();
+	}
+}
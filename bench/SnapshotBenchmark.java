@@ -0,0 +1,112 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The SnapshotBenchmark class measures how long taking a {@link GameSnapshot} holds up a game on
+ * a large map. Between snapshots a number of random tiles have their gold taken, as players
+ * picking up gold would, and the time to copy just the changed regions is compared with the
+ * time to copy every tile of the map.
+ *
+ * <pre>
+ * javac -d out server/*.java protocol/*.java bench/SnapshotBenchmark.java
+ * java -Xmx2g -cp out SnapshotBenchmark 16384 1000
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class SnapshotBenchmark {
+	private static final int SNAPSHOTS = 20;
+
+	private static long sink;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args The width and height of the map, and the number of tiles changed between snapshots
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.out.println("Usage: SnapshotBenchmark <size> <changes>");
+			return;
+		}
+
+		int size = Integer.parseInt(args[0]);
+		int changes = Integer.parseInt(args[1]);
+		File directory = File.createTempFile("snapshots", "");
+		directory.delete();
+
+		Map.setCacheDirectory(null);
+		Game game = new Game(createMap(size).getPath());
+		Map map = game.getMap();
+		SnapshotWriter writer = new SnapshotWriter(game, new File(directory, GameSnapshot.FILE_NAME), Integer.MAX_VALUE);
+		System.out.println("map: " + size + "x" + size + ", " + map.getRegionCount() + " regions, " + changes + " changes between snapshots");
+		System.out.println(String.format("%-10s %10s %12s %12s %12s %12s", "snapshot", "regions", "capture us", "full us", "write ms", "size KB"));
+
+		Random random = new Random(1);
+		byte[] row = new byte[size];
+		for (int i = 0; i < SNAPSHOTS; i++) {
+			for (int j = 0; j < changes; j++) {
+				int x = 1 + random.nextInt(size - 2);
+				int y = 1 + random.nextInt(size - 2);
+				if (map.getBase(x, y) == Tile.GOLD) {
+					map.popGold(x, y);
+				} else {
+					map.setGold(x, y, 1 + random.nextInt(5));
+				}
+			}
+
+			writer.snapshot();
+
+			// Copying every tile, as a snapshot without dirty regions would
+			long start = System.nanoTime();
+			for (int y = 0; y < size; y++) {
+				map.getStore().getBases((long) y * size, row, 0, size);
+				sink += row[y % size];
+			}
+			long fullTime = System.nanoTime() - start;
+
+			System.out.println(String.format("%-10d %10d %12.1f %12.1f %12.1f %12.1f", i + 1, writer.getCopiedRegions(),
+					writer.getCaptureTime() / 1000.0, fullTime / 1000.0, writer.getWriteTime() / 1000000.0, writer.getSize() / 1024.0));
+		}
+
+		writer.close();
+		new File(directory, GameSnapshot.FILE_NAME).delete();
+		directory.delete();
+		System.exit(0);
+	}
+
+	/**
+	 * Writes a map file of floor surrounded by walls
+	 *
+	 * @param size         The width and height of the map
+	 * @return             The map file, which is deleted when the JVM exits
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	private static File createMap(int size) throws IOException {
+		File file = File.createTempFile("snapshot", ".txt");
+		file.deleteOnExit();
+
+		StringBuilder wall = new StringBuilder();
+		StringBuilder floor = new StringBuilder("#");
+		for (int x = 0; x < size; x++) {
+			wall.append('#');
+		}
+		for (int x = 2; x < size; x++) {
+			floor.append('.');
+		}
+		floor.append('#');
+
+		FileWriter writer = new FileWriter(file);
+		writer.write("name Snapshot Benchmark\nwin 1\n");
+		writer.write(wall + "\n");
+		for (int y = 2; y < size; y++) {
+			writer.write((y == 2 ? "#G" + floor.substring(2) : floor) + "\n");
+		}
+		writer.write(wall + "\n");
+		writer.close();
+		return file;
+	}
+}
@@ -0,0 +1,188 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The SpatialIndexBenchmark class measures the cost of finding the players that can see a map
+ * change. It compares checking every player in the game with checking only the players the
+ * spatial index returns, in games with different numbers of players and different crowding.
+ * Both ways are checked to find the same players.
+ *
+ * <pre>
+ * javac -d out server/*.java protocol/*.java bench/SpatialIndexBenchmark.java
+ * java -cp out SpatialIndexBenchmark
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class SpatialIndexBenchmark {
+	private static final int WARMUP_ROUNDS = 200000;
+	private static final int MEASURED_ROUNDS = 1000000;
+
+	// Players and the tiles per player for each game measured
+	private static final int[][] GAMES = {
+		{500, 20}, {2000, 20}, {4000, 20}, {500, 4}, {2000, 4}
+	};
+
+	private static int sink;
+
+	/**
+	 * The DroppedConnection class is a connection whose output goes nowhere
+	 */
+	private static class DroppedConnection extends Connection {
+		/**
+		 * Constructor passes parameter values to the super class
+		 *
+		 * @param game The game the client will join
+		 */
+		public DroppedConnection(Game game) {
+			super(game);
+		}
+
+		@Override
+		protected void write(byte[][] segments, int length) {
+			// Dropped
+		}
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args Not used
+	 */
+	public static void main(String[] args) throws IOException {
+		System.out.println(String.format("%8s %8s %10s %12s %12s %10s", "players", "map", "viewers", "scan ns", "index ns", "checked"));
+
+		for (int[] settings : GAMES) {
+			run(settings[0], settings[1]);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Measures one game
+	 *
+	 * @param players        The number of players
+	 * @param tilesPerPlayer The number of floor tiles for each player
+	 * @throws IOException   Thrown if the map file could not be written
+	 */
+	private static void run(int players, int tilesPerPlayer) throws IOException {
+		int size = (int) Math.ceil(Math.sqrt((double) players * tilesPerPlayer));
+		Game game = new Game(createMap(size).getPath());
+		for (int i = 0; i < players; i++) {
+			Connection client = new DroppedConnection(game);
+			client.setUsername("player" + i);
+			client.enableFraming(Connection.FRAMING_LINES);
+			game.join(client);
+		}
+
+		Random random = new Random(1);
+		int[] xs = new int[1024];
+		int[] ys = new int[1024];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = random.nextInt(size);
+			ys[i] = random.nextInt(size);
+		}
+
+		long viewers = 0;
+		long checked = 0;
+		for (int i = 0; i < xs.length; i++) {
+			int scanned = scan(game, xs[i], ys[i]);
+			int indexed = index(game, xs[i], ys[i]);
+			if (scanned != indexed) {
+				throw new IllegalStateException("The index missed a player at " + xs[i] + "," + ys[i]);
+			}
+			viewers += scanned;
+			checked += game.getSpatialIndex().getPlayersNear(xs[i], ys[i], xs[i], ys[i]).size();
+		}
+
+		measure(game, xs, ys, true, WARMUP_ROUNDS);
+		measure(game, xs, ys, false, WARMUP_ROUNDS);
+		double scanTime = measure(game, xs, ys, true, MEASURED_ROUNDS);
+		double indexTime = measure(game, xs, ys, false, MEASURED_ROUNDS);
+
+		System.out.println(String.format("%8d %8s %10.1f %12.1f %12.1f %10.1f", players, size + "x" + size,
+				(double) viewers / xs.length, scanTime, indexTime, (double) checked / xs.length));
+	}
+
+	/**
+	 * Finds the viewers of many locations
+	 *
+	 * @param game   The game
+	 * @param xs     The X positions of the locations
+	 * @param ys     The Y positions of the locations
+	 * @param scan   <code>true</code> to check every player, <code>false</code> to use the index
+	 * @param rounds The number of locations to check
+	 * @return       The time per location in nanoseconds
+	 */
+	private static double measure(Game game, int[] xs, int[] ys, boolean scan, int rounds) {
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			int location = i & (xs.length - 1);
+			sink += scan ? scan(game, xs[location], ys[location]) : index(game, xs[location], ys[location]);
+		}
+		return (double) (System.nanoTime() - start) / rounds;
+	}
+
+	/**
+	 * Counts the players that can see a location by checking every player
+	 *
+	 * @param game The game
+	 * @param x    The X position of the location
+	 * @param y    The Y position of the location
+	 * @return     The number of players that can see the location
+	 */
+	private static int scan(Game game, int x, int y) {
+		int count = 0;
+		for (Player p : game.getPlayers()) {
+			if (p.canSeeLocation(x, y)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the players that can see a location using the spatial index
+	 *
+	 * @param game The game
+	 * @param x    The X position of the location
+	 * @param y    The Y position of the location
+	 * @return     The number of players that can see the location
+	 */
+	private static int index(Game game, int x, int y) {
+		int count = 0;
+		for (Player p : game.getSpatialIndex().getPlayersNear(x, y, x, y)) {
+			if (p.canSeeLocation(x, y)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Writes a square map file of floor tiles
+	 *
+	 * @param size         The width and height of the map
+	 * @return             The map file, which is deleted when the JVM exits
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	private static File createMap(int size) throws IOException {
+		File file = File.createTempFile("spatial", ".txt");
+		file.deleteOnExit();
+
+		FileWriter writer = new FileWriter(file);
+		writer.write("name Spatial Benchmark\nwin 1\n");
+		for (int row = 0; row < size; row++) {
+			StringBuilder line = new StringBuilder();
+			for (int col = 0; col < size; col++) {
+				line.append(row == 0 && col == 0 ? 'G' : '.');
+			}
+			writer.write(line.append('\n').toString());
+		}
+		writer.close();
+		return file;
+	}
+}
@@ -0,0 +1,139 @@
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * The SpawnBenchmark class measures how long it takes to find a random free tile as a map fills
+ * up. The way players used to be placed, retrying random positions until one is free, is
+ * compared with picking from the map's {@link FreeTileIndex}. The map is mostly walls, and
+ * players are placed until every free tile is taken, the time of each placement being recorded
+ * against how full the map was.
+ *
+ * <pre>
+ * javac -d out server/*.java protocol/*.java bench/SpawnBenchmark.java
+ * java -cp out SpawnBenchmark 512
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class SpawnBenchmark {
+	// How full the map is at each report, in percent of the free tiles
+	private static final int[] FILLS = {10, 50, 90, 99, 100};
+
+	// Fraction of tiles that are walls
+	private static final double WALLS = 0.75;
+
+	private static long sink;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args The width and height of the map
+	 */
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.out.println("Usage: SpawnBenchmark <size>");
+			return;
+		}
+
+		int size = Integer.parseInt(args[0]);
+		boolean[] walls = createWalls(size);
+		long free = 0;
+		for (boolean wall : walls) {
+			free += wall ? 0 : 1;
+		}
+		System.out.println("map: " + size + "x" + size + ", " + (int) (WALLS * 100) + "% walls, " + free + " free tiles");
+		System.out.println(String.format("%-10s %14s %14s", "filled", "retry ns", "index ns"));
+
+		// Warm up both, then measure
+		fillByRetrying(size, walls, free, new long[FILLS.length]);
+		fillFromIndex(size, walls, free, new long[FILLS.length]);
+		long[] retry = new long[FILLS.length];
+		long[] index = new long[FILLS.length];
+		fillByRetrying(size, walls, free, retry);
+		fillFromIndex(size, walls, free, index);
+
+		for (int i = 0; i < FILLS.length; i++) {
+			System.out.println(String.format("%-10s %14d %14d", "to " + FILLS[i] + "%", retry[i], index[i]));
+		}
+		System.out.println("placing once every tile is taken: retry never ends, index returns "
+				+ new FreeTileIndex(size, size).pick(new SplittableRandom(1)));
+	}
+
+	/**
+	 * Fills the map by retrying random positions until a free one is found
+	 *
+	 * @param size  The width and height of the map
+	 * @param walls Whether each tile is a wall
+	 * @param free  The number of free tiles
+	 * @param times Filled with the mean time of a placement in nanoseconds, for each fill level
+	 */
+	private static void fillByRetrying(int size, boolean[] walls, long free, long[] times) {
+		boolean[] occupied = new boolean[walls.length];
+		Random random = new Random(1);
+		long placed = 0;
+
+		for (int i = 0; i < FILLS.length; i++) {
+			long target = free * FILLS[i] / 100;
+			long start = System.nanoTime();
+			long count = target - placed;
+			while (placed < target) {
+				int tile;
+				do {
+					tile = random.nextInt(size) * size + random.nextInt(size);
+				} while (walls[tile] || occupied[tile]);
+				occupied[tile] = true;
+				placed++;
+			}
+			times[i] = count == 0 ? 0 : (System.nanoTime() - start) / count;
+		}
+		sink += placed;
+	}
+
+	/**
+	 * Fills the map by picking from an index of the free tiles
+	 *
+	 * @param size  The width and height of the map
+	 * @param walls Whether each tile is a wall
+	 * @param free  The number of free tiles
+	 * @param times Filled with the mean time of a placement in nanoseconds, for each fill level
+	 */
+	private static void fillFromIndex(int size, boolean[] walls, long free, long[] times) {
+		FreeTileIndex index = new FreeTileIndex(size, size);
+		for (int tile = 0; tile < walls.length; tile++) {
+			if (!walls[tile]) {
+				index.add(tile % size, tile / size);
+			}
+		}
+
+		SplittableRandom random = new SplittableRandom(1);
+		long placed = 0;
+		for (int i = 0; i < FILLS.length; i++) {
+			long target = free * FILLS[i] / 100;
+			long start = System.nanoTime();
+			long count = target - placed;
+			while (placed < target) {
+				long tile = index.pick(random);
+				index.remove((int) (tile % size), (int) (tile / size));
+				placed++;
+			}
+			times[i] = count == 0 ? 0 : (System.nanoTime() - start) / count;
+		}
+		sink += placed;
+	}
+
+	/**
+	 * Chooses which tiles are walls
+	 *
+	 * @param size The width and height of the map
+	 * @return     Whether each tile is a wall
+	 */
+	private static boolean[] createWalls(int size) {
+		Random random = new Random(1);
+		boolean[] walls = new boolean[size * size];
+		for (int tile = 0; tile < walls.length; tile++) {
+			walls[tile] = random.nextDouble() < WALLS;
+		}
+		return walls;
+	}
+}
@@ -0,0 +1,269 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * The TileStorageBenchmark class compares the memory and LOOK speed of a large dungeon stored
+ * as one object per tile, the way maps used to be stored, with the packed arrays of
+ * {@link Map} on and off the heap. Views are rendered from random positions, so most of them
+ * have to be read from main memory rather than the processor's caches. The time of a full
+ * garbage collection with each map loaded shows what the map costs every game on the server.
+ *
+ * <pre>
+ * javac -d out server/*.java protocol/*.java bench/TileStorageBenchmark.java
+ * java -Xmx3g -XX:MaxDirectMemorySize=3g -cp out TileStorageBenchmark 4096
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class TileStorageBenchmark {
+	private static final int WARMUP_ROUNDS = 1000000;
+	private static final int MEASURED_ROUNDS = 5000000;
+	private static final int VISION = 3;
+
+	private static int sink;
+
+	/**
+	 * The ObjectTile class holds a tile the way the old Tile class did
+	 */
+	private static class ObjectTile {
+		private char base;
+		private int gold;
+		private Player player;
+
+		/**
+		 * Constructor initialises the base tile and item fields
+		 *
+		 * @param base The base tile content
+		 */
+		public ObjectTile(char base) {
+			this.base = base;
+			gold = base == Tile.GOLD ? 1 : 0;
+			player = null;
+		}
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args The width and height of the map
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.out.println("Usage: TileStorageBenchmark <size>");
+			return;
+		}
+
+		int size = Integer.parseInt(args[0]);
+		File file = createMap(size);
+
+		Random random = new Random(1);
+		int[] xs = new int[1 << 16];
+		int[] ys = new int[xs.length];
+		for (int i = 0; i < xs.length; i++) {
+			xs[i] = random.nextInt(size);
+			ys[i] = random.nextInt(size);
+		}
+
+		System.out.println("map: " + size + "x" + size);
+		System.out.println(String.format("%-16s %10s %10s %10s %12s %10s", "layout", "heap MB", "direct MB", "B/tile", "ns/LOOK", "GC ms"));
+
+		long heap = usedMemory();
+		long direct = directMemory();
+		ObjectTile[][] objects = createObjectTiles(new Map(file.getPath()));
+		long heapBytes = usedMemory() - heap;
+		long directBytes = directMemory() - direct;
+		lookObjects(objects, size, xs, ys, WARMUP_ROUNDS);
+		report("Tile objects", size, heapBytes, directBytes, lookObjects(objects, size, xs, ys, MEASURED_ROUNDS));
+		sink += objects.length;
+		objects = null;
+
+		for (boolean offHeap : new boolean[] {false, true}) {
+			Map.setStorage(offHeap ? Map.STORAGE_OFF_HEAP : Map.STORAGE_HEAP);
+			heap = usedMemory();
+			direct = directMemory();
+			Map map = new Map(file.getPath());
+			heapBytes = usedMemory() - heap;
+			directBytes = directMemory() - direct;
+			lookPacked(map, xs, ys, WARMUP_ROUNDS);
+			report(offHeap ? "packed off-heap" : "packed heap", size, heapBytes, directBytes, lookPacked(map, xs, ys, MEASURED_ROUNDS));
+			sink += map.getWidth();
+		}
+	}
+
+	/**
+	 * Prints the results for one layout, including the time of a full garbage collection while
+	 * the map is still loaded
+	 *
+	 * @param name        The name of the layout
+	 * @param size        The width and height of the map
+	 * @param heapBytes   The heap used by the map
+	 * @param directBytes The direct memory used by the map
+	 * @param lookTime    The time per LOOK in nanoseconds
+	 */
+	private static void report(String name, int size, long heapBytes, long directBytes, double lookTime) {
+		long start = System.nanoTime();
+		System.gc();
+		double gcTime = (System.nanoTime() - start) / 1000000.0;
+
+		System.out.println(String.format("%-16s %10.1f %10.1f %10.1f %12.1f %10.1f", name, heapBytes / 1048576.0,
+				directBytes / 1048576.0, (double) (heapBytes + directBytes) / size / size, lookTime, gcTime));
+	}
+
+	/**
+	 * Renders views from tile objects
+	 *
+	 * @param tiles  The tiles
+	 * @param size   The width and height of the map
+	 * @param xs     The X positions of the views
+	 * @param ys     The Y positions of the views
+	 * @param rounds The number of views to render
+	 * @return       The time per view in nanoseconds
+	 */
+	private static double lookObjects(ObjectTile[][] tiles, int size, int[] xs, int[] ys, int rounds) {
+		char[][] look = new char[VISION * 2 + 1][VISION * 2 + 1];
+		long start = System.nanoTime();
+
+		for (int i = 0; i < rounds; i++) {
+			int centerX = xs[i & (xs.length - 1)];
+			int centerY = ys[i & (ys.length - 1)];
+
+			for (int row = -VISION; row <= VISION; row++) {
+				for (int col = -VISION; col <= VISION; col++) {
+					int xPos = centerX + col;
+					int yPos = centerY + row;
+					char tile;
+
+					if (Math.abs(row) + Math.abs(col) > VISION + 1) {
+						tile = 'X';
+					} else if (xPos < 0 || yPos < 0 || xPos >= size || yPos >= size) {
+						tile = '#';
+					} else if ((row != 0 || col != 0) && tiles[yPos][xPos].player != null) {
+						tile = 'P';
+					} else {
+						tile = tiles[yPos][xPos].base;
+					}
+					look[row + VISION][col + VISION] = tile;
+				}
+			}
+			sink += look[VISION][VISION];
+		}
+		return (double) (System.nanoTime() - start) / rounds;
+	}
+
+	/**
+	 * Renders views from the packed map
+	 *
+	 * @param map    The map
+	 * @param xs     The X positions of the views
+	 * @param ys     The Y positions of the views
+	 * @param rounds The number of views to render
+	 * @return       The time per view in nanoseconds
+	 */
+	private static double lookPacked(Map map, int[] xs, int[] ys, int rounds) {
+		char[][] look = new char[VISION * 2 + 1][VISION * 2 + 1];
+		int width = map.getWidth();
+		int height = map.getHeight();
+		long start = System.nanoTime();
+
+		for (int i = 0; i < rounds; i++) {
+			int centerX = xs[i & (xs.length - 1)];
+			int centerY = ys[i & (ys.length - 1)];
+
+			for (int row = -VISION; row <= VISION; row++) {
+				for (int col = -VISION; col <= VISION; col++) {
+					int xPos = centerX + col;
+					int yPos = centerY + row;
+					char tile;
+
+					if (Math.abs(row) + Math.abs(col) > VISION + 1) {
+						tile = 'X';
+					} else if (xPos < 0 || yPos < 0 || xPos >= width || yPos >= height) {
+						tile = '#';
+					} else if ((row != 0 || col != 0) && map.isOccupied(xPos, yPos)) {
+						tile = 'P';
+					} else {
+						tile = map.getBase(xPos, yPos);
+					}
+					look[row + VISION][col + VISION] = tile;
+				}
+			}
+			sink += look[VISION][VISION];
+		}
+		return (double) (System.nanoTime() - start) / rounds;
+	}
+
+	/**
+	 * Copies a map into one object per tile
+	 *
+	 * @param map The map
+	 * @return    The tiles, by row then column
+	 */
+	private static ObjectTile[][] createObjectTiles(Map map) {
+		ObjectTile[][] tiles = new ObjectTile[map.getHeight()][map.getWidth()];
+		for (int row = 0; row < map.getHeight(); row++) {
+			for (int col = 0; col < map.getWidth(); col++) {
+				tiles[row][col] = new ObjectTile(map.getBase(col, row));
+			}
+		}
+		return tiles;
+	}
+
+	/**
+	 * Writes a square map file of mostly floor with some walls and items
+	 *
+	 * @param size         The width and height of the map
+	 * @return             The map file, which is deleted when the JVM exits
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	private static File createMap(int size) throws IOException {
+		String tiles = "........####GSAHL";
+		Random random = new Random(1);
+
+		File file = File.createTempFile("tiles", ".txt");
+		file.deleteOnExit();
+
+		FileWriter writer = new FileWriter(file);
+		writer.write("name Tile Benchmark\nwin 1\n");
+		for (int row = 0; row < size; row++) {
+			StringBuilder line = new StringBuilder(size + 1);
+			for (int col = 0; col < size; col++) {
+				line.append(row == 0 && col == 0 ? Tile.GOLD : tiles.charAt(random.nextInt(tiles.length())));
+			}
+			writer.write(line.append('\n').toString());
+		}
+		writer.close();
+		return file;
+	}
+
+	/**
+	 * Gets the direct memory in use
+	 *
+	 * @return The bytes of direct memory in use
+	 */
+	private static long directMemory() {
+		for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+			if (pool.getName().equals("direct")) {
+				return pool.getMemoryUsed();
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Gets the heap in use after collecting garbage
+	 *
+	 * @return The bytes in use
+	 */
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
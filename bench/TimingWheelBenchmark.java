@@ -0,0 +1,154 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The TimingWheelBenchmark class measures what turn timers cost. Many games each set a turn
+ * deadline and cancel it when the turn ends early, which is what nearly every turn does, with a
+ * number of deadlines always waiting. A {@link TimingWheel} is compared with a
+ * <code>ScheduledThreadPoolExecutor</code>, and then a batch of timers is left to go off to see
+ * how late each wheel runs them.
+ *
+ * <pre>
+ * javac -d out server/*.java protocol/*.java bench/TimingWheelBenchmark.java
+ * java -cp out TimingWheelBenchmark 100000 2000000
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class TimingWheelBenchmark {
+	// Delay of the timers that are cancelled, and of those left to go off, in milliseconds
+	private static final int TURN_TIMEOUT = 60000;
+	private static final int FIRE_DELAY = 500;
+	private static final int FIRED = 10000;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args The number of timers always waiting, and the number of turns to time
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length != 2) {
+			System.out.println("Usage: TimingWheelBenchmark <waiting> <turns>");
+			return;
+		}
+
+		int waiting = Integer.parseInt(args[0]);
+		int turns = Integer.parseInt(args[1]);
+		TimingWheel wheel = new TimingWheel("Benchmark wheel", TimingWheel.DEFAULT_TICK, TimingWheel.DEFAULT_WHEEL_SIZE);
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+		executor.setRemoveOnCancelPolicy(true);
+
+		System.out.println(waiting + " timers waiting, " + turns + " turns each setting and cancelling a deadline");
+		for (int round = 0; round < 3; round++) {
+			System.out.println(String.format("timing wheel  %8.1f ns a turn", timeWheel(wheel, waiting, turns)));
+			System.out.println(String.format("executor      %8.1f ns a turn", timeExecutor(executor, waiting, turns)));
+		}
+
+		// A new wheel, so the cancelled timers still waiting to be dropped from the old one are not counted
+		TimingWheel fresh = new TimingWheel("Benchmark wheel", TimingWheel.DEFAULT_TICK, TimingWheel.DEFAULT_WHEEL_SIZE);
+		System.out.println(String.format("timing wheel  %8.1f ms late on average, tick %d ms", lateness(fresh), TimingWheel.DEFAULT_TICK));
+		executor.shutdownNow();
+		System.exit(0);
+	}
+
+	/**
+	 * Times setting and cancelling deadlines on a timing wheel
+	 *
+	 * @param wheel   The wheel
+	 * @param waiting The number of timers kept waiting
+	 * @param turns   The number of deadlines to set and cancel
+	 * @return        The mean time of a turn in nanoseconds
+	 */
+	private static double timeWheel(TimingWheel wheel, int waiting, int turns) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				// Never due
+			}
+		};
+
+		TimingWheel.Timeout[] deadlines = new TimingWheel.Timeout[waiting];
+		for (int i = 0; i < waiting; i++) {
+			deadlines[i] = wheel.schedule(task, TURN_TIMEOUT);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < turns; i++) {
+			int game = i % waiting;
+			deadlines[game].cancel();
+			deadlines[game] = wheel.schedule(task, TURN_TIMEOUT);
+		}
+		long time = System.nanoTime() - start;
+
+		for (TimingWheel.Timeout deadline : deadlines) {
+			deadline.cancel();
+		}
+		return (double) time / turns;
+	}
+
+	/**
+	 * Times setting and cancelling deadlines on a scheduled executor
+	 *
+	 * @param executor The executor
+	 * @param waiting  The number of timers kept waiting
+	 * @param turns    The number of deadlines to set and cancel
+	 * @return         The mean time of a turn in nanoseconds
+	 */
+	private static double timeExecutor(ScheduledThreadPoolExecutor executor, int waiting, int turns) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				// Never due
+			}
+		};
+
+		ScheduledFuture<?>[] deadlines = new ScheduledFuture<?>[waiting];
+		for (int i = 0; i < waiting; i++) {
+			deadlines[i] = executor.schedule(task, TURN_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < turns; i++) {
+			int game = i % waiting;
+			deadlines[game].cancel(false);
+			deadlines[game] = executor.schedule(task, TURN_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		long time = System.nanoTime() - start;
+
+		for (ScheduledFuture<?> deadline : deadlines) {
+			deadline.cancel(false);
+		}
+		return (double) time / turns;
+	}
+
+	/**
+	 * Lets a batch of timers go off and measures how late they run
+	 *
+	 * @param wheel The wheel
+	 * @return      The mean lateness in milliseconds
+	 */
+	private static double lateness(TimingWheel wheel) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(FIRED);
+		final AtomicLong totalLate = new AtomicLong();
+
+		for (int i = 0; i < FIRED; i++) {
+			// Delays spread over a tick, so the timers are due at every point within one
+			int delay = FIRE_DELAY + i % TimingWheel.DEFAULT_TICK;
+			final long due = System.nanoTime() + delay * 1000000L;
+			wheel.schedule(new Runnable() {
+				@Override
+				public void run() {
+					totalLate.addAndGet(System.nanoTime() - due);
+					done.countDown();
+				}
+			}, delay);
+		}
+
+		done.await();
+		return totalLate.get() / 1000000.0 / FIRED;
+	}
+}
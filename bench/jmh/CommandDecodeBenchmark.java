@@ -0,0 +1,172 @@
+package jmh;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The CommandDecodeBenchmark class measures the cost of working out what a client's message
+ * asks for, before any game logic runs. It compares the old decoding, which split the message
+ * twice, walked a chain of <code>equals</code> checks and matched directions with a regular
+ * expression, with the table lookups <code>ClientMessage</code> now makes in place.
+ *
+ * Run it with the JMH GC profiler to see the bytes allocated per command next to the time:
+ * <pre>
+ * mvn -B package -pl bench -am
+ * java -jar bench/target/benchmarks.jar CommandDecodeBenchmark -prof gc
+ * </pre>
+ * The <code>gc.alloc.rate.norm</code> line is the bytes allocated per decoded command.
+ *
+ * JMH only runs benchmarks in a named package, which cannot import the game's classes in the
+ * default package, so the command tables are reached through constant method handles. The JIT
+ * inlines these like direct calls.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CommandDecodeBenchmark {
+	// A typical mix of messages sent by a client during a game
+	private static final String[] MESSAGES = {
+		"LOOK", "MOVE N", "LOOK", "MOVE E", "ATTACK W", "PICKUP", "LOOK", "ENDTURN",
+		"STARTTYPING", "CHAT /lol", "CHAT /HUG bob", "ENDTYPING"
+	};
+
+	private static final String[] OLD_COMMANDS = {
+		"HELLO", "FRAMING", "LOOK", "MOVE", "ATTACK", "PICKUP", "SHOUT", "ENDTURN", "STARTTYPING",
+		"ENDTYPING", "CHAT"
+	};
+	private static final String[] OLD_CHAT_COMMANDS = {
+		"/whisper", "/hug", "/agree", "/disagree", "/lol", "/coffee", "/beer", "/gift", "/angry",
+		"/confused", "/tired", "/pizza", "/love", "/brb", "/kiss", "/waiting"
+	};
+
+	// The game's command tables, looked up once
+	private static final MethodHandle CLIENT_OPCODE = opcodeLookup("ClientCommands");
+	private static final MethodHandle CHAT_OPCODE = opcodeLookup("ChatCommands");
+	private static final int MOVE = constant("ClientCommands", "MOVE");
+	private static final int ATTACK = constant("ClientCommands", "ATTACK");
+	private static final int CHAT = constant("ClientCommands", "CHAT");
+
+	// Index of the next message, so each call decodes a different message of the mix
+	private int next;
+
+	/**
+	 * Gets the next message of the mix
+	 *
+	 * @return The next message
+	 */
+	private String nextMessage() {
+		String message = MESSAGES[next];
+		next = (next + 1) % MESSAGES.length;
+		return message;
+	}
+
+	/**
+	 * Decodes a message the way <code>ClientMessage</code> used to
+	 *
+	 * @return The decoded opcode, returned so the work is not optimised away
+	 */
+	@Benchmark
+	public int splitAndEquals() {
+		String message = nextMessage();
+
+		String command = message.split(" ", 2)[0];
+		String parameter = null;
+		if (message.contains(" ")) {
+			parameter = message.split(" ", 2)[1];
+		}
+
+		int opcode = 0;
+		for (int c = 0; c < OLD_COMMANDS.length; c++) {
+			if (command.equals(OLD_COMMANDS[c])) {
+				opcode = c + 1;
+				break;
+			}
+		}
+
+		if ((command.equals("MOVE") || command.equals("ATTACK")) && parameter.matches("[NSEW]")) {
+			opcode += parameter.charAt(0);
+		} else if (command.equals("CHAT") && parameter.charAt(0) == '/') {
+			String chatCommand = parameter.split(" ", 3)[0];
+			for (int c = 0; c < OLD_CHAT_COMMANDS.length; c++) {
+				if (chatCommand.equalsIgnoreCase(OLD_CHAT_COMMANDS[c])) {
+					opcode += c;
+					break;
+				}
+			}
+		}
+		return opcode;
+	}
+
+	/**
+	 * Decodes a message with the command tables, as <code>ClientMessage</code> now does
+	 *
+	 * @return The decoded opcode, returned so the work is not optimised away
+	 */
+	@Benchmark
+	public int commandTable() throws Throwable {
+		String message = nextMessage();
+
+		int space = message.indexOf(' ');
+		int opcode = (int) CLIENT_OPCODE.invokeExact(message, 0, space < 0 ? message.length() : space, false);
+
+		if ((opcode == MOVE || opcode == ATTACK) && message.length() == space + 2) {
+			char direction = message.charAt(space + 1);
+			if (direction == 'N' || direction == 'S' || direction == 'E' || direction == 'W') {
+				opcode += direction;
+			}
+		} else if (opcode == CHAT && message.charAt(space + 1) == '/') {
+			int chatEnd = message.indexOf(' ', space + 1);
+			opcode += (int) CHAT_OPCODE.invokeExact(message, space + 1, chatEnd < 0 ? message.length() : chatEnd, true);
+		}
+		return opcode;
+	}
+
+	/**
+	 * Looks up <code>getOpcode(String, int, int, boolean)</code> on the table of a commands class
+	 *
+	 * @param owner The commands class, which holds its table in <code>TABLE</code>
+	 * @return      The method handle, bound to the table
+	 */
+	private static MethodHandle opcodeLookup(String owner) {
+		try {
+			Object table = Class.forName(owner).getField("TABLE").get(null);
+			MethodType type = MethodType.methodType(int.class, String.class, int.class, int.class, boolean.class);
+			return MethodHandles.publicLookup().findVirtual(table.getClass(), "getOpcode", type).bindTo(table);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Unable to find the command table of " + owner + ".", e);
+		}
+	}
+
+	/**
+	 * Reads an opcode constant from a commands class
+	 *
+	 * @param owner The commands class
+	 * @param name  The name of the constant
+	 * @return      The value of the constant
+	 */
+	private static int constant(String owner, String name) {
+		try {
+			return Class.forName(owner).getField(name).getInt(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Unable to read " + owner + "." + name + ".", e);
+		}
+	}
+}
@@ -1,8 +1,9 @@
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.charset.Charset;
 import java.net.UnknownHostException;
 
 import javax.swing.JOptionPane;
@@ -14,6 +15,10 @@ import javax.swing.JOptionPane;
  *
  */
 public class Client extends Thread {
+	// How often and how far apart reconnecting is tried after the connection is lost
+	private static final int RECONNECT_ATTEMPTS = 10;
+	private static final int RECONNECT_DELAY = 1000;
+	
 	private String username;
 	private String host;
 	private int port;
@@ -21,8 +26,13 @@ public class Client extends Thread {
 	private PlayModel model;
 	
 	private Socket sock;
-	private BufferedReader input;
-	private PrintWriter output;
+	private InputStream input;
+	private MessageReader reader;
+	private OutputStream output;
+	private int framing;
+	
+	// Token for resuming the session after the connection is lost, null if the server does not allow it
+	private volatile String session;
 	
 	/**
 	 * Constructor passes parameter values to the fields
@@ -42,16 +52,25 @@ public class Client extends Thread {
 	 * 
 	 * @return The input stream for the client socket
 	 */
-	public BufferedReader getInput() {
+	public InputStream getInput() {
 		return input;
 	}
 
+	/**
+	 * Gets the reader that decodes whole messages from the client socket
+	 * 
+	 * @return The message reader
+	 */
+	public MessageReader getReader() {
+		return reader;
+	}
+
 	/**
 	 * Gets the output stream for the client socket
 	 * 
 	 * @return The output stream for the client socket
 	 */
-	public PrintWriter getOutput() {
+	public OutputStream getOutput() {
 		return output;
 	}
 
@@ -127,19 +146,50 @@ public class Client extends Thread {
 		this.model = model;
 	}
 	
+	/**
+	 * Gets the token for resuming the session after the connection is lost
+	 * 
+	 * @return The session token, <code>null</code> if the server does not allow resuming
+	 */
+	public String getSession() {
+		return session;
+	}
+	
+	/**
+	 * Sets the token for resuming the session after the connection is lost
+	 * 
+	 * @param session The session token sent by the server
+	 */
+	public void setSession(String session) {
+		this.session = session;
+	}
+	
 	/**
 	 * Connects to the server using the <code>host</code> and <code>port</code> field values
 	 * 
 	 * @return <code>null</code> if the connection was successful, otherwise an error message is returned
 	 */
 	public String connect() {
+		return connect("HELLO " + username);
+	}
+	
+	/**
+	 * Connects to the server and sends the first message
+	 * 
+	 * @param greeting The first message, <code>HELLO</code> or <code>RESUME</code>
+	 * @return         <code>null</code> if the connection was successful, otherwise an error message is returned
+	 */
+	private String connect(String greeting) {
 		try {
 			sock = new Socket(host, port);
 			
-			input = new BufferedReader(new InputStreamReader(sock.getInputStream()));
-			output = new PrintWriter(sock.getOutputStream(), false);
+			// Lines are read from the raw bytes so the stream can switch to binary frames part way
+			input = new BufferedInputStream(sock.getInputStream());
+			reader = new MessageReader(input, this);
+			output = sock.getOutputStream();
+			framing = MessageReader.TEXT;
 			
-			sendMessage("HELLO " + username);
+			sendMessage(greeting);
 		} catch (UnknownHostException e) {
 			return e.getMessage();
 		} catch (IOException e) {
@@ -152,33 +202,105 @@ public class Client extends Thread {
 	 * Listens for messages received from the server
 	 */
 	public void run() {
-		try {
-			while (true) {
-				// Read messages from the server
-				String message = input.readLine();
-				
-				// If the connection is broken, throw IOException
-				if (message == null) {
-					throw new IOException();
+		while (true) {
+			try {
+				while (true) {
+					// Read and handle whole messages from the server
+					ServerMessage serverMessage = reader.readMessage();
+					serverMessage.handle();
+				}
+			} catch (IOException e) {
+				if (!reconnect()) {
+					JOptionPane.showMessageDialog(null, "Lost connection to the server.", "Lost Connection", JOptionPane.ERROR_MESSAGE);
+					System.exit(1);
 				}
-				
-				// Handle the message from the server
-				ServerMessage serverMessage = new ServerMessage(message, this);
-				serverMessage.handle();
 			}
-		} catch (IOException e) {
-			JOptionPane.showMessageDialog(null, "Lost connection to the server.", "Lost Connection", JOptionPane.ERROR_MESSAGE);
-			System.exit(1);
 		}
 	}
 	
+	/**
+	 * Tries to connect to the server again and resume the session, if the server allows it
+	 * 
+	 * @return <code>true</code> if a new connection was made, <code>false</code> otherwise
+	 */
+	private boolean reconnect() {
+		String resumed = session;
+		if (resumed == null) {
+			return false;
+		}
+		
+		model.addGameMessage("Lost connection to the server, reconnecting...", GameMessage.WARNING);
+		for (int attempt = 0; attempt < RECONNECT_ATTEMPTS; attempt++) {
+			try {
+				Thread.sleep(RECONNECT_DELAY);
+			} catch (InterruptedException e) {
+				return false;
+			}
+			
+			if (connect("RESUME " + resumed) == null) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * Sends a message to the server
 	 * 
 	 * @param message The message to send to the server
 	 */
-	public void sendMessage(String message) {
-		output.println(message);
-		output.flush();
+	public synchronized void sendMessage(String message) {
+		byte[] bytes;
+		
+		if (framing == MessageReader.BINARY) {
+			bytes = BinaryCodec.encodeClientMessage(message);
+		} else if (framing == MessageReader.LINES) {
+			bytes = (lineCount(message) + " " + message + System.lineSeparator()).getBytes(Charset.defaultCharset());
+		} else {
+			bytes = (message + System.lineSeparator()).getBytes(Charset.defaultCharset());
+		}
+		
+		try {
+			output.write(bytes);
+			output.flush();
+		} catch (IOException e) {
+			// The listening thread reports the lost connection
+		}
+	}
+	
+	/**
+	 * Accepts the richest framing mode offered by the server. Every message sent after the
+	 * acceptance is framed.
+	 * 
+	 * @param offered The modes offered by the server, for example <code>LINES BINARY</code>
+	 */
+	public synchronized void acceptFraming(String offered) {
+		if (framing != MessageReader.TEXT) {
+			return;
+		}
+		
+		if ((" " + offered + " ").contains(" BINARY ")) {
+			sendMessage("FRAMING ACCEPT BINARY");
+			framing = MessageReader.BINARY;
+		} else if ((" " + offered + " ").contains(" LINES ")) {
+			sendMessage("FRAMING ACCEPT LINES");
+			framing = MessageReader.LINES;
+		}
+	}
+	
+	/**
+	 * Counts the lines in a message
+	 * 
+	 * @param message The message
+	 * @return        The number of lines
+	 */
+	private int lineCount(String message) {
+		int count = 1;
+		for (int i = 0; i < message.length(); i++) {
+			if (message.charAt(i) == '\n') {
+				count++;
+			}
+		}
+		return count;
 	}
 }
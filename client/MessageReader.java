@@ -0,0 +1,168 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * The MessageReader class is the decoding stage between the socket and <code>ServerMessage</code>.
+ * It reads whole messages, including the extra lines of multi-line messages, so that messages
+ * can be handled without going back to the socket.
+ * 
+ * In the default text mode the extra lines of <code>LOOKREPLY</code> and <code>PLAYERS</code>
+ * are worked out from the message contents. Once framing has been negotiated every message
+ * either starts with its line count, for example <code>6 LOOKREPLY</code>, or is a binary frame.
+ * 
+ * @author Sean Stinson, ss938
+ *
+ */
+public class MessageReader {
+	// Framing modes
+	public static final int TEXT   = 0;
+	public static final int LINES  = 1;
+	public static final int BINARY = 2;
+	
+	private static final Charset CHARSET = Charset.defaultCharset();
+	
+	private InputStream input;
+	private Client client;
+	private volatile int framing;
+	
+	private ByteArrayOutputStream lineBuffer;
+	private boolean skipLineFeed;
+	
+	/**
+	 * Constructor passes parameter values to the fields
+	 * 
+	 * @param input  The buffered input stream of the client socket
+	 * @param client The connection to the server
+	 */
+	public MessageReader(InputStream input, Client client) {
+		this.input = input;
+		this.client = client;
+		framing = TEXT;
+		lineBuffer = new ByteArrayOutputStream();
+	}
+	
+	/**
+	 * Gets the framing mode messages are read in
+	 * 
+	 * @return {@link #TEXT}, {@link #LINES} or {@link #BINARY}
+	 */
+	public int getFraming() {
+		return framing;
+	}
+	
+	/**
+	 * Sets the framing mode messages are read in
+	 * 
+	 * @param framing {@link #TEXT}, {@link #LINES} or {@link #BINARY}
+	 */
+	public void setFraming(int framing) {
+		this.framing = framing;
+	}
+	
+	/**
+	 * Reads the next whole message from the server
+	 * 
+	 * @return             The message
+	 * @throws IOException Thrown if the connection is broken
+	 */
+	public ServerMessage readMessage() throws IOException {
+		if (framing == BINARY) {
+			BinaryCodec.Message message = BinaryCodec.decodeServerMessage(readFrame());
+			return new ServerMessage(message.command, message.parameter, message.lines, client);
+		}
+		
+		String first = readLine();
+		
+		int lineCount;
+		if (framing == LINES) {
+			String[] frame = first.split(" ", 2);
+			if (!frame[0].matches("[0-9]{1,9}") || frame.length < 2) {
+				throw new IOException("Invalid frame header.");
+			}
+			
+			lineCount = Integer.parseInt(frame[0]);
+			first = frame[1];
+		} else {
+			lineCount = textLineCount(first);
+		}
+		
+		StringBuilder message = new StringBuilder(first);
+		for (int i = 1; i < lineCount; i++) {
+			String line = readLine();
+			
+			// In text mode a LOOKREPLY's size is only known from its first row
+			if (framing == TEXT && i == 1 && first.equals("LOOKREPLY")) {
+				lineCount = 1 + line.length();
+			}
+			message.append('\n').append(line);
+		}
+		
+		return new ServerMessage(message.toString(), client);
+	}
+	
+	/**
+	 * Works out the number of lines in a text mode message from its first line
+	 * 
+	 * @param first The first line of the message
+	 * @return      The number of lines, or at least 2 for a <code>LOOKREPLY</code> whose size is not known yet
+	 */
+	private int textLineCount(String first) {
+		if (first.equals("LOOKREPLY")) {
+			return 2;
+		} else if (first.matches("PLAYERS [0-9]{1,9}")) {
+			return 1 + Integer.parseInt(first.substring("PLAYERS ".length()));
+		}
+		return 1;
+	}
+	
+	/**
+	 * Reads a single line from the server. Lines end with \n, \r or \r\n, as in
+	 * <code>BufferedReader.readLine()</code>.
+	 * 
+	 * @return             The line
+	 * @throws IOException Thrown if the connection is broken
+	 */
+	private String readLine() throws IOException {
+		while (true) {
+			int b = input.read();
+			
+			// If the connection is broken, throw IOException
+			if (b < 0) {
+				throw new IOException();
+			}
+			
+			if (b == '\n' && skipLineFeed) {
+				skipLineFeed = false;
+			} else if (b == '\n' || b == '\r') {
+				skipLineFeed = (b == '\r');
+				String line = new String(lineBuffer.toByteArray(), CHARSET);
+				lineBuffer.reset();
+				return line;
+			} else {
+				skipLineFeed = false;
+				lineBuffer.write(b);
+			}
+		}
+	}
+	
+	/**
+	 * Reads a binary frame from the server
+	 * 
+	 * @return             The frame body
+	 * @throws IOException Thrown if the connection is broken or the frame is malformed
+	 */
+	private byte[] readFrame() throws IOException {
+		// Skip the \n of a \r\n that ended the last text line
+		if (skipLineFeed) {
+			skipLineFeed = false;
+			input.mark(1);
+			if (input.read() != '\n') {
+				input.reset();
+			}
+		}
+		
+		return BinaryCodec.readFrame(input);
+	}
+}
@@ -1,5 +1,4 @@
 import java.io.File;
-import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 
@@ -17,18 +16,24 @@ public class ServerMessage {
 	
 	private String command;
 	private String parameter;
+	private String[] lines;
 	
 	/**
 	 * Constructor initialises the fields and passes the message and client as parameters
 	 * 
-	 * @param message The message sent by the server
+	 * @param message The message sent by the server, with the lines of multi-line messages
+	 *                separated by <code>\n</code>
 	 * @param client  The connection to the server
 	 */
 	public ServerMessage(String message, Client client) {
 		this.client = client;
 		model = client.getModel();
 		
-		String[] splitMessage = message.split(" ", 2);
+		String[] splitLines = message.split("\n", -1);
+		lines = new String[splitLines.length - 1];
+		System.arraycopy(splitLines, 1, lines, 0, lines.length);
+		
+		String[] splitMessage = splitLines[0].split(" ", 2);
 		command = splitMessage[0];
 		if (splitMessage.length == 2) {
 			parameter = splitMessage[1];
@@ -37,6 +42,23 @@ public class ServerMessage {
 		}
 	}
 	
+	/**
+	 * Constructor for messages that have already been split, such as binary frames
+	 * 
+	 * @param command   The server message command
+	 * @param parameter The server message parameter, <code>null</code> if there is none
+	 * @param lines     The lines that follow the first line
+	 * @param client    The connection to the server
+	 */
+	public ServerMessage(String command, String parameter, String[] lines, Client client) {
+		this.client = client;
+		model = client.getModel();
+		
+		this.command = command;
+		this.parameter = parameter;
+		this.lines = lines;
+	}
+	
 	/**
 	 * Gets the server message command
 	 * 
@@ -73,96 +95,175 @@ public class ServerMessage {
 		this.parameter = parameter;
 	}
 
+	/**
+	 * Gets the lines that follow the first line of a multi-line message
+	 * 
+	 * @return The extra lines, empty for single line messages
+	 */
+	public String[] getLines() {
+		return lines;
+	}
+
 	/**
 	 * Handles the message with the appropriate action
 	 */
 	public void handle() {
-		if (command.equals("HELLO") && parameter != null) {
-			serverHello();
-		} else if (command.equals("GOAL") && parameter != null) {
-			serverGoal();
-		} else if (command.equals("WIN")) {
-			serverWin();
-		} else if (command.equals("LOSE")) {
-			serverLose();
-		} else if (command.equals("CHANGE")) {
-			serverChange();
-		} else if (command.equals("STARTTURN")) {
-			serverStartTurn();
-		} else if (command.equals("ENDTURN")) {
-			serverEndTurn();
-		} else if (command.equals("HITMOD") && parameter != null) {
-			serverHitMod();
-		} else if (command.equals("TREASUREMOD") && parameter != null) {
-			serverTreasureMod();
-		} else if (command.equals("MESSAGE") && parameter != null) {
-			serverMessage();
-		} else if (command.equals("FAIL") && parameter != null) {
-			serverFail();
-		} else if (command.equals("LOOKREPLY")) {
-			serverLookReply();
-		} else if (command.equals("DUNGEON") && parameter != null) {
-			serverDungeon();
-		} else if (command.equals("SWORDMOD")) {
-			serverSwordMod();
-		} else if (command.equals("ARMOURMOD")) {
-			serverArmourMod();
-		} else if (command.equals("LANTERNMOD")) {
-			serverLanternMod();
-		} else if (command.equals("SHOUT") && parameter != null) {
-			serverShout();
-		} else if (command.equals("PLAYERS") && parameter != null) {
-			serverPlayers();
-		} else if (command.equals("STARTTYPING") && parameter != null) {
-			serverStartTyping();
-		} else if (command.equals("ENDTYPING") && parameter != null) {
-			serverEndTyping();
-		} else if (command.equals("CHAT") && parameter != null) {
-			serverChat();
-		} else if (command.equals("WHISPERTO") && parameter != null) {
-			serverWhisperTo();
-		} else if (command.equals("WHISPERFROM") && parameter != null) {
-			serverWhisperFrom();
-		} else if (command.equals("HUG") && parameter != null) {
-			serverHug();
-		} else if (command.equals("AGREE") && parameter != null) {
-			serverAgree();
-		} else if (command.equals("DISAGREE") && parameter != null) {
-			serverDisagree();
-		} else if (command.equals("LOL") && parameter != null) {
-			serverLol();
-		} else if (command.equals("COFFEE") && parameter != null) {
-			serverCoffee();
-		} else if (command.equals("BEER") && parameter != null) {
-			serverBeer();
-		} else if (command.equals("GIFT") && parameter != null) {
-			serverGift();
-		} else if (command.equals("ANGRY") && parameter != null) {
-			serverAngry();
-		} else if (command.equals("CONFUSED") && parameter != null) {
-			serverConfused();
-		} else if (command.equals("TIRED") && parameter != null) {
-			serverTired();
-		} else if (command.equals("PIZZA") && parameter != null) {
-			serverPizza();
-		} else if (command.equals("LOVE") && parameter != null) {
-			serverLove();
-		} else if (command.equals("BRB") && parameter != null) {
-			serverBrb();
-		} else if (command.equals("KISS") && parameter != null) {
-			serverKiss();
-		} else if (command.equals("WAITING") && parameter != null) {
-			serverWaiting();
-		} else if (command.equals("MUTE")) {
-			serverMute();
-		} else if (command.equals("UNMUTE")) {
-			serverUnmute();
-		} else if (command.equals("ATTACKWARNING") && parameter != null) {
-			serverAttackWarning();
-		} else if (command.equals("ATTACKSUCCEED") && parameter != null) {
-			serverAttackSucceed();
-		} else if (command.equals("DEATH") && parameter != null) {
-			serverDeath();
+		int opcode = ServerCommands.TABLE.getOpcode(command);
+		if (opcode == CommandTable.UNKNOWN || (ServerCommands.TABLE.needsParameter(opcode) && parameter == null)) {
+			return;
+		}
+		
+		switch (opcode) {
+			case ServerCommands.HELLO:
+				serverHello();
+				break;
+			case ServerCommands.GOAL:
+				serverGoal();
+				break;
+			case ServerCommands.WIN:
+				serverWin();
+				break;
+			case ServerCommands.LOSE:
+				serverLose();
+				break;
+			case ServerCommands.CHANGE:
+				serverChange();
+				break;
+			case ServerCommands.STARTTURN:
+				serverStartTurn();
+				break;
+			case ServerCommands.ENDTURN:
+				serverEndTurn();
+				break;
+			case ServerCommands.HITMOD:
+				serverHitMod();
+				break;
+			case ServerCommands.TREASUREMOD:
+				serverTreasureMod();
+				break;
+			case ServerCommands.MESSAGE:
+				serverMessage();
+				break;
+			case ServerCommands.FAIL:
+				serverFail();
+				break;
+			case ServerCommands.LOOKREPLY:
+				serverLookReply();
+				break;
+			case ServerCommands.DUNGEON:
+				serverDungeon();
+				break;
+			case ServerCommands.SWORDMOD:
+				serverSwordMod();
+				break;
+			case ServerCommands.ARMOURMOD:
+				serverArmourMod();
+				break;
+			case ServerCommands.LANTERNMOD:
+				serverLanternMod();
+				break;
+			case ServerCommands.SHOUT:
+				serverShout();
+				break;
+			case ServerCommands.PLAYERS:
+				serverPlayers();
+				break;
+			case ServerCommands.STARTTYPING:
+				serverStartTyping();
+				break;
+			case ServerCommands.ENDTYPING:
+				serverEndTyping();
+				break;
+			case ServerCommands.CHAT:
+				serverChat();
+				break;
+			case ServerCommands.WHISPERTO:
+				serverWhisperTo();
+				break;
+			case ServerCommands.WHISPERFROM:
+				serverWhisperFrom();
+				break;
+			case ServerCommands.HUG:
+				serverHug();
+				break;
+			case ServerCommands.AGREE:
+				serverAgree();
+				break;
+			case ServerCommands.DISAGREE:
+				serverDisagree();
+				break;
+			case ServerCommands.LOL:
+				serverLol();
+				break;
+			case ServerCommands.COFFEE:
+				serverCoffee();
+				break;
+			case ServerCommands.BEER:
+				serverBeer();
+				break;
+			case ServerCommands.GIFT:
+				serverGift();
+				break;
+			case ServerCommands.ANGRY:
+				serverAngry();
+				break;
+			case ServerCommands.CONFUSED:
+				serverConfused();
+				break;
+			case ServerCommands.TIRED:
+				serverTired();
+				break;
+			case ServerCommands.PIZZA:
+				serverPizza();
+				break;
+			case ServerCommands.LOVE:
+				serverLove();
+				break;
+			case ServerCommands.BRB:
+				serverBrb();
+				break;
+			case ServerCommands.KISS:
+				serverKiss();
+				break;
+			case ServerCommands.WAITING:
+				serverWaiting();
+				break;
+			case ServerCommands.MUTE:
+				serverMute();
+				break;
+			case ServerCommands.UNMUTE:
+				serverUnmute();
+				break;
+			case ServerCommands.ATTACKWARNING:
+				serverAttackWarning();
+				break;
+			case ServerCommands.ATTACKSUCCEED:
+				serverAttackSucceed();
+				break;
+			case ServerCommands.DEATH:
+				serverDeath();
+				break;
+			case ServerCommands.FRAMING:
+				serverFraming();
+				break;
+			case ServerCommands.VIEWUPDATE:
+				serverViewUpdate();
+				break;
+			case ServerCommands.PLAYERJOIN:
+				serverPlayerJoin();
+				break;
+			case ServerCommands.PLAYERLEAVE:
+				serverPlayerLeave();
+				break;
+			case ServerCommands.SESSION:
+				serverSession();
+				break;
+			case ServerCommands.RESUMED:
+				serverResumed();
+				break;
+			case ServerCommands.STATE:
+				serverState();
+				break;
 		}
 	}
 	
@@ -238,6 +339,41 @@ public class ServerMessage {
 		client.sendMessage("LOOK");
 	}
 	
+	/**
+	 * Handles the server SESSION command
+	 */
+	private void serverSession() {
+		client.setSession(parameter);
+	}
+	
+	/**
+	 * Handles the server RESUMED command, sent instead of HELLO when the session is resumed
+	 */
+	private void serverResumed() {
+		model.getUsername().setValue(parameter);
+		model.getTurn().setValue(false);
+		model.addGameMessage("Reconnected to the server.", GameMessage.SUCCEED);
+		client.sendMessage("LOOK");
+	}
+	
+	/**
+	 * Handles the server STATE command, which gives the goal, hit points, gold, lantern, sword
+	 * and armour of a resumed player
+	 */
+	private void serverState() {
+		String[] values = parameter.split(" ");
+		if (values.length < 6) {
+			return;
+		}
+		
+		model.getGoal().setValue(Integer.parseInt(values[0]));
+		model.getHp().setValue(Integer.parseInt(values[1]));
+		model.getGold().setValue(Integer.parseInt(values[2]));
+		model.getLantern().setValue(values[3].equals("1"));
+		model.getSword().setValue(values[4].equals("1"));
+		model.getArmour().setValue(values[5].equals("1"));
+	}
+	
 	/**
 	 * Handles the server GOAL command
 	 */
@@ -338,34 +474,67 @@ public class ServerMessage {
 			}
 		}
 		
-		try {
-			String rowString = client.getInput().readLine();
+		if (lines.length == 0) {
+			return;
+		}
+		
+		// If player has lantern, offSet the look vision to leave borders as unknown 'X'
+		int offSet = 1;
+		if (lines[0].length() == 7) {
+			offSet = 0;
+		}
+		
+		for (int row = 0; row < lines.length; row++) {
+			String currentRow = lines[row];
 			
-			// If player has lantern, offSet the look vision to leave borders as unknown 'X'
-			int offSet = 1;
-			if (rowString.length() == 7) {
-				offSet = 0;
+			for (int col = 0; col < currentRow.length(); col++) {
+				lookReply[row + offSet][col + offSet] = currentRow.charAt(col);
 			}
-			
-			ArrayList<String> rows = new ArrayList<String>();
-			rows.add(rowString);
-			for (int i = 1; i < rowString.length(); i++) {
-				rowString = client.getInput().readLine();
-				rows.add(rowString);
+		}
+		
+		model.getMap().setValue(lookReply);
+	}
+	
+	/**
+	 * Handles the server VIEWUPDATE command. The view is shifted by how far the player moved
+	 * and then the changed tiles are replaced.
+	 */
+	private void serverViewUpdate() {
+		String[] update = parameter.split(" ");
+		if (update.length < 2) {
+			return;
+		}
+		
+		int dx = Integer.parseInt(update[0]);
+		int dy = Integer.parseInt(update[1]);
+		char[][] oldView = model.getMap().getValue();
+		char[][] view = new char[7][7];
+		
+		for (int row = 0; row < 7; row++) {
+			for (int col = 0; col < 7; col++) {
+				int oldRow = row + dy;
+				int oldCol = col + dx;
+				if (oldRow >= 0 && oldCol >= 0 && oldRow < 7 && oldCol < 7) {
+					view[row][col] = oldView[oldRow][oldCol];
+				} else {
+					view[row][col] = 'X';
+				}
 			}
-			
-			for (int row = 0; row < rows.size(); row++) {
-				String currentRow = rows.get(row);
-				
-				for (int col = 0; col < currentRow.length(); col++) {
-					lookReply[row + offSet][col + offSet] = currentRow.charAt(col);
+		}
+		
+		// Each change is a column digit, a row digit and the new tile
+		for (int i = 2; i < update.length; i++) {
+			String change = update[i];
+			if (change.length() == 3) {
+				int col = change.charAt(0) - '0';
+				int row = change.charAt(1) - '0';
+				if (col >= 0 && row >= 0 && col < 7 && row < 7) {
+					view[row][col] = change.charAt(2);
 				}
 			}
-			
-			model.getMap().setValue(lookReply);
-		} catch (IOException e) {
-			return;
 		}
+		
+		model.getMap().setValue(view);
 	}
 	
 	/**
@@ -412,28 +581,42 @@ public class ServerMessage {
 	 */
 	private void serverPlayers() {
 		int count = Integer.parseInt(parameter);
+		ArrayList<Player> players = new ArrayList<Player>();
 		
-		try {
-			ArrayList<Player> players = new ArrayList<Player>();
-			
-			for (int i = 0; i < count; i++) {
-				String playerLine = client.getInput().readLine();
-				String[] playerParameters = playerLine.split(" ", 3);
-				
-				String username = playerParameters[0];
-				int status = Integer.parseInt(playerParameters[1]);
-				boolean chat = false;
-				if (playerParameters[2].equals("1")) {
-					chat = true;
-				}
-				
-				players.add(new Player(status, username, chat));
+		for (int i = 0; i < count && i < lines.length; i++) {
+			// Names may contain spaces, so the flags are read from the end of the line
+			String line = lines[i];
+			if (line.length() < 5) {
+				continue;
 			}
 			
-			model.getPlayers().clear();
-			model.getPlayers().addAll(players);
-		} catch(IOException e) {
-			return;
+			String username = line.substring(0, line.length() - 4);
+			int status = line.charAt(line.length() - 3) - '0';
+			boolean chat = line.charAt(line.length() - 1) == '1';
+			
+			players.add(new Player(status, username, chat));
+		}
+		
+		model.getPlayers().clear();
+		model.getPlayers().addAll(players);
+	}
+	
+	/**
+	 * Handles the server PLAYERJOIN command
+	 */
+	private void serverPlayerJoin() {
+		if (model.getPlayer(parameter) == null) {
+			model.getPlayers().add(new Player(Player.ALIVE, parameter, true));
+		}
+	}
+	
+	/**
+	 * Handles the server PLAYERLEAVE command
+	 */
+	private void serverPlayerLeave() {
+		Player player = model.getPlayer(parameter);
+		if (player != null) {
+			model.getPlayers().remove(player);
 		}
 	}
 	
@@ -669,4 +852,20 @@ public class ServerMessage {
 		model.addGameMessage("<b>" + escapeHTML(parameter) + "</b> has died.", GameMessage.DEATH);
 		model.getPlayer(parameter).setStatus(Player.DEAD);
 	}
+	
+	/**
+	 * Handles the server FRAMING command
+	 */
+	private void serverFraming() {
+		if (parameter.startsWith("OFFER")) {
+			client.acceptFraming(parameter.substring("OFFER".length()).trim());
+			
+			// Servers that offer framing can also push view updates instead of CHANGE
+			client.sendMessage("VIEW UPDATES");
+		} else if (parameter.equals("ON")) {
+			client.getReader().setFraming(MessageReader.LINES);
+		} else if (parameter.equals("ON BINARY")) {
+			client.getReader().setFraming(MessageReader.BINARY);
+		}
+	}
 }
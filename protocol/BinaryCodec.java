@@ -0,0 +1,539 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * The BinaryCodec class converts messages to and from the compact binary protocol (version 2).
+ *
+ * Each frame is a varint length followed by a one byte opcode and its arguments. Strings are a
+ * varint length followed by UTF-8 bytes, numbers are zigzag varints, directions are a single
+ * byte, <code>LOOKREPLY</code> grids are packed four bits per tile and <code>PLAYERS</code>
+ * rosters carry the dead and chat flags in one byte per player. A message that does not fit
+ * its opcode's layout is sent with the {@link #TEXT} opcode as a plain string, so every text
+ * message can be carried.
+ *
+ * Opcodes and layouts come from {@link ServerCommands} and {@link ClientCommands}, which both
+ * the client and the server are built with.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class BinaryCodec {
+	public static final int VERSION = 2;
+
+	// Opcode carrying a whole text message
+	public static final int TEXT = 0;
+
+	// Largest frame body accepted from the other side
+	public static final int MAX_FRAME = 1 << 20;
+
+	// LOOKREPLY tiles, indexed by their four bit code
+	private static final String TILES = "X#.EGSALHP";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The Message class is a decoded message, split into its command, parameter and extra lines
+	 */
+	public static class Message {
+		public final String command;
+		public final String parameter;
+		public final String[] lines;
+
+		/**
+		 * Constructor passes parameter values to the fields
+		 *
+		 * @param command   The command word
+		 * @param parameter The rest of the first line, <code>null</code> if there is none
+		 * @param lines     The lines after the first line
+		 */
+		public Message(String command, String parameter, String[] lines) {
+			this.command = command;
+			this.parameter = parameter;
+			this.lines = lines;
+		}
+
+		/**
+		 * Splits a text message into its command, parameter and extra lines
+		 *
+		 * @param text The text message, with lines separated by <code>\n</code>
+		 * @return     The split message
+		 */
+		public static Message parse(String text) {
+			String[] allLines = text.split("\n", -1);
+			String[] lines = new String[allLines.length - 1];
+			System.arraycopy(allLines, 1, lines, 0, lines.length);
+
+			String first = allLines[0];
+			int space = first.indexOf(' ');
+			if (space < 0) {
+				return new Message(first, null, lines);
+			}
+			return new Message(first.substring(0, space), first.substring(space + 1), lines);
+		}
+
+		/**
+		 * Joins the message back into its text form
+		 *
+		 * @return The text message, with lines separated by <code>\n</code>
+		 */
+		@Override
+		public String toString() {
+			StringBuilder text = new StringBuilder(command);
+			if (parameter != null) {
+				text.append(' ').append(parameter);
+			}
+			for (String line : lines) {
+				text.append('\n').append(line);
+			}
+			return text.toString();
+		}
+	}
+
+	/**
+	 * Encodes a message sent by the server as a binary frame
+	 *
+	 * @param message The text message
+	 * @return        The frame, including its length
+	 */
+	public static byte[] encodeServerMessage(String message) {
+		return encode(message, ServerCommands.TABLE);
+	}
+
+	/**
+	 * Encodes a message sent by the client as a binary frame
+	 *
+	 * @param message The text message
+	 * @return        The frame, including its length
+	 */
+	public static byte[] encodeClientMessage(String message) {
+		return encode(message, ClientCommands.TABLE);
+	}
+
+	/**
+	 * Decodes the body of a frame sent by the server
+	 *
+	 * @param body         The frame, without its length
+	 * @return             The decoded message
+	 * @throws IOException Thrown if the frame is malformed
+	 */
+	public static Message decodeServerMessage(byte[] body) throws IOException {
+		return decode(body, ServerCommands.TABLE);
+	}
+
+	/**
+	 * Decodes the body of a frame sent by the client. Client commands are a single line of
+	 * text, so control characters are refused rather than passed on to other clients.
+	 *
+	 * @param body         The frame, without its length
+	 * @return             The decoded message
+	 * @throws IOException Thrown if the frame is malformed or holds a control character
+	 */
+	public static Message decodeClientMessage(byte[] body) throws IOException {
+		Message message = decode(body, ClientCommands.TABLE);
+		if (message.lines.length > 0 || hasControlCharacter(message.command) || hasControlCharacter(message.parameter)) {
+			throw new IOException("Invalid character.");
+		}
+		return message;
+	}
+
+	/**
+	 * Reads the body of the next frame from a stream
+	 *
+	 * @param input        The stream to read from
+	 * @return             The frame, without its length
+	 * @throws IOException Thrown if the stream ends or the frame is malformed
+	 */
+	public static byte[] readFrame(InputStream input) throws IOException {
+		int length = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = input.read();
+			if (b < 0 || shift > 28) {
+				throw new IOException("Invalid frame length.");
+			}
+			length |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				break;
+			}
+		}
+		if (length < 0 || length > MAX_FRAME) {
+			throw new IOException("Frame too large.");
+		}
+
+		byte[] body = new byte[length];
+		int read = 0;
+		while (read < length) {
+			int count = input.read(body, read, length - read);
+			if (count < 0) {
+				throw new IOException("Frame ended early.");
+			}
+			read += count;
+		}
+		return body;
+	}
+
+	/**
+	 * Encodes a message using a command table
+	 *
+	 * @param message The text message
+	 * @param table   The commands of the sending side
+	 * @return        The frame, including its length
+	 */
+	private static byte[] encode(String message, CommandTable table) {
+		Message split = Message.parse(message);
+		int opcode = table.getOpcode(split.command);
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream(message.length() + 4);
+		if (opcode == CommandTable.UNKNOWN || !encodeArguments(split, table.getLayout(opcode), opcode, body)) {
+			body.reset();
+			body.write(TEXT);
+			writeString(body, message);
+		}
+
+		ByteArrayOutputStream frame = new ByteArrayOutputStream(body.size() + 5);
+		writeVarint(frame, body.size());
+		byte[] bodyBytes = body.toByteArray();
+		frame.write(bodyBytes, 0, bodyBytes.length);
+		return frame.toByteArray();
+	}
+
+	/**
+	 * Writes the opcode and arguments of a message
+	 *
+	 * @param message The split message
+	 * @param layout  The argument layout of the opcode
+	 * @param opcode  The opcode
+	 * @param body    The frame body to write to
+	 * @return        <code>true</code> if the message fits the layout, <code>false</code> if it must be sent as text
+	 */
+	private static boolean encodeArguments(Message message, int layout, int opcode, ByteArrayOutputStream body) {
+		String parameter = message.parameter;
+		if (layout != CommandTable.PLAYERS && layout != CommandTable.LOOK && message.lines.length > 0) {
+			return false;
+		}
+
+		body.write(opcode);
+		switch (layout) {
+			case CommandTable.NONE:
+				return parameter == null;
+
+			case CommandTable.STRING:
+				if (parameter == null) {
+					return false;
+				}
+				writeString(body, parameter);
+				return true;
+
+			case CommandTable.NUMBER:
+				if (!isNumber(parameter)) {
+					return false;
+				}
+				int number = Integer.parseInt(parameter);
+				writeVarint(body, (number << 1) ^ (number >> 31));
+				return true;
+
+			case CommandTable.CHAR:
+				if (parameter == null || parameter.length() != 1 || parameter.charAt(0) > 0x7F) {
+					return false;
+				}
+				body.write(parameter.charAt(0));
+				return true;
+
+			case CommandTable.LOOK:
+				return parameter == null && encodeLook(message.lines, body);
+
+			case CommandTable.PLAYERS:
+				return parameter != null && encodePlayers(parameter, message.lines, body);
+		}
+		return false;
+	}
+
+	/**
+	 * Packs a square LOOKREPLY grid at four bits per tile
+	 *
+	 * @param rows The rows of the grid
+	 * @param body The frame body to write to
+	 * @return     <code>true</code> if the grid could be packed, <code>false</code> otherwise
+	 */
+	private static boolean encodeLook(String[] rows, ByteArrayOutputStream body) {
+		int size = rows.length;
+		body.write(size);
+
+		int packed = 0;
+		int tile = 0;
+		for (String row : rows) {
+			if (row.length() != size) {
+				return false;
+			}
+			for (int col = 0; col < size; col++) {
+				int code = TILES.indexOf(row.charAt(col));
+				if (code < 0) {
+					return false;
+				}
+
+				if (tile % 2 == 0) {
+					packed = code << 4;
+				} else {
+					body.write(packed | code);
+				}
+				tile++;
+			}
+		}
+		if (tile % 2 == 1) {
+			body.write(packed);
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a PLAYERS roster with one flag byte per player
+	 *
+	 * @param count   The number of players given in the message
+	 * @param players The player lines, each <code>name dead chat</code>
+	 * @param body    The frame body to write to
+	 * @return        <code>true</code> if the roster could be encoded, <code>false</code> otherwise
+	 */
+	private static boolean encodePlayers(String count, String[] players, ByteArrayOutputStream body) {
+		if (!count.equals(Integer.toString(players.length))) {
+			return false;
+		}
+
+		writeVarint(body, players.length);
+		for (String player : players) {
+			// Names may contain spaces, so the flags are read from the end of the line
+			int length = player.length();
+			if (length < 5 || player.charAt(length - 2) != ' ' || player.charAt(length - 4) != ' ') {
+				return false;
+			}
+			char dead = player.charAt(length - 3);
+			char chat = player.charAt(length - 1);
+			if ((dead != '0' && dead != '1') || (chat != '0' && chat != '1')) {
+				return false;
+			}
+
+			writeString(body, player.substring(0, length - 4));
+			body.write((dead - '0') | ((chat - '0') << 1));
+		}
+		return true;
+	}
+
+	/**
+	 * Decodes a frame body using a command table
+	 *
+	 * @param body         The frame, without its length
+	 * @param table        The commands of the sending side
+	 * @return             The decoded message
+	 * @throws IOException Thrown if the frame is malformed
+	 */
+	private static Message decode(byte[] body, CommandTable table) throws IOException {
+		if (body.length == 0 || (body[0] & 0xFF) >= table.size()) {
+			throw new IOException("Unknown opcode.");
+		}
+
+		int[] position = {1};
+		int opcode = body[0] & 0xFF;
+		if (opcode == TEXT) {
+			return Message.parse(readString(body, position));
+		}
+
+		String command = table.getName(opcode);
+		String[] noLines = new String[0];
+		switch (table.getLayout(opcode)) {
+			case CommandTable.STRING:
+				return new Message(command, readString(body, position), noLines);
+
+			case CommandTable.NUMBER:
+				int zigzag = readVarint(body, position);
+				return new Message(command, Integer.toString((zigzag >>> 1) ^ -(zigzag & 1)), noLines);
+
+			case CommandTable.CHAR:
+				checkRemaining(body, position[0], 1);
+				return new Message(command, String.valueOf((char) body[position[0]]), noLines);
+
+			case CommandTable.LOOK:
+				return new Message(command, null, decodeLook(body, position));
+
+			case CommandTable.PLAYERS:
+				String[] players = decodePlayers(body, position);
+				return new Message(command, Integer.toString(players.length), players);
+		}
+		return new Message(command, null, noLines);
+	}
+
+	/**
+	 * Unpacks a LOOKREPLY grid
+	 *
+	 * @param body         The frame body
+	 * @param position     The read position, which is advanced
+	 * @return             The rows of the grid
+	 * @throws IOException Thrown if the grid is malformed
+	 */
+	private static String[] decodeLook(byte[] body, int[] position) throws IOException {
+		checkRemaining(body, position[0], 1);
+		int size = body[position[0]++] & 0xFF;
+		checkRemaining(body, position[0], (size * size + 1) / 2);
+
+		String[] rows = new String[size];
+		char[] row = new char[size];
+		int tile = 0;
+		for (int r = 0; r < size; r++) {
+			for (int col = 0; col < size; col++) {
+				int packed = body[position[0] + tile / 2] & 0xFF;
+				int code = (tile % 2 == 0) ? packed >> 4 : packed & 0x0F;
+				if (code >= TILES.length()) {
+					throw new IOException("Unknown tile.");
+				}
+				row[col] = TILES.charAt(code);
+				tile++;
+			}
+			rows[r] = new String(row);
+		}
+		position[0] += (size * size + 1) / 2;
+		return rows;
+	}
+
+	/**
+	 * Decodes a PLAYERS roster back into <code>name dead chat</code> lines
+	 *
+	 * @param body         The frame body
+	 * @param position     The read position, which is advanced
+	 * @return             The player lines
+	 * @throws IOException Thrown if the roster is malformed
+	 */
+	private static String[] decodePlayers(byte[] body, int[] position) throws IOException {
+		int count = readVarint(body, position);
+		if (count > body.length) {
+			throw new IOException("Invalid player count.");
+		}
+
+		String[] players = new String[count];
+		for (int i = 0; i < count; i++) {
+			String name = readString(body, position);
+			checkRemaining(body, position[0], 1);
+			int flags = body[position[0]++];
+			players[i] = name + " " + (flags & 1) + " " + ((flags >> 1) & 1);
+		}
+		return players;
+	}
+
+	/**
+	 * Checks if a parameter is a whole number that fits in an int
+	 *
+	 * @param parameter The parameter
+	 * @return          <code>true</code> if the parameter is a number, <code>false</code> otherwise
+	 */
+	private static boolean isNumber(String parameter) {
+		if (parameter == null) {
+			return false;
+		}
+
+		int start = parameter.startsWith("-") ? 1 : 0;
+		int length = parameter.length() - start;
+		if (length < 1 || length > 9) {
+			return false;
+		}
+		for (int i = start; i < parameter.length(); i++) {
+			if (parameter.charAt(i) < '0' || parameter.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes an unsigned varint
+	 *
+	 * @param out   The stream to write to
+	 * @param value The value, treated as unsigned
+	 */
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Reads an unsigned varint
+	 *
+	 * @param body         The frame body
+	 * @param position     The read position, which is advanced
+	 * @return             The value
+	 * @throws IOException Thrown if the varint is malformed
+	 */
+	private static int readVarint(byte[] body, int[] position) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift <= 28; shift += 7) {
+			checkRemaining(body, position[0], 1);
+			int b = body[position[0]++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid varint.");
+	}
+
+	/**
+	 * Writes a length prefixed UTF-8 string
+	 *
+	 * @param out   The stream to write to
+	 * @param value The string
+	 */
+	private static void writeString(ByteArrayOutputStream out, String value) {
+		byte[] bytes = value.getBytes(UTF8);
+		writeVarint(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Reads a length prefixed UTF-8 string
+	 *
+	 * @param body         The frame body
+	 * @param position     The read position, which is advanced
+	 * @return             The string
+	 * @throws IOException Thrown if the string is malformed
+	 */
+	private static String readString(byte[] body, int[] position) throws IOException {
+		int length = readVarint(body, position);
+		checkRemaining(body, position[0], length);
+
+		String value = new String(body, position[0], length, UTF8);
+		position[0] += length;
+		return value;
+	}
+
+	/**
+	 * Checks a string for control characters, such as line breaks
+	 *
+	 * @param value The string to check, may be <code>null</code>
+	 * @return      <code>true</code> if the string has a control character, <code>false</code> otherwise
+	 */
+	private static boolean hasControlCharacter(String value) {
+		if (value == null) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (Character.isISOControl(value.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks that a frame body has enough bytes left
+	 *
+	 * @param body         The frame body
+	 * @param position     The read position
+	 * @param needed       The number of bytes needed
+	 * @throws IOException Thrown if the body is too short
+	 */
+	private static void checkRemaining(byte[] body, int position, int needed) throws IOException {
+		if (needed < 0 || position + needed > body.length) {
+			throw new IOException("Frame ended early.");
+		}
+	}
+}
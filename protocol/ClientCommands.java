@@ -0,0 +1,38 @@
+/**
+ * The ClientCommands class defines every command the client can send to the server. The
+ * constants are the opcodes of the commands in {@link #TABLE}.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class ClientCommands {
+	public static final int HELLO       = 1;
+	public static final int LOOK        = 2;
+	public static final int MOVE        = 3;
+	public static final int ATTACK      = 4;
+	public static final int PICKUP      = 5;
+	public static final int SHOUT       = 6;
+	public static final int ENDTURN     = 7;
+	public static final int STARTTYPING = 8;
+	public static final int ENDTYPING   = 9;
+	public static final int CHAT        = 10;
+	public static final int FRAMING     = 11;
+	public static final int VIEW        = 12;
+	public static final int RESUME      = 13;
+
+	public static final CommandTable TABLE = new CommandTable(
+		"HELLO",       CommandTable.STRING,
+		"LOOK",        CommandTable.NONE,
+		"MOVE",        CommandTable.CHAR,
+		"ATTACK",      CommandTable.CHAR,
+		"PICKUP",      CommandTable.NONE,
+		"SHOUT",       CommandTable.STRING,
+		"ENDTURN",     CommandTable.NONE,
+		"STARTTYPING", CommandTable.NONE,
+		"ENDTYPING",   CommandTable.NONE,
+		"CHAT",        CommandTable.STRING,
+		"FRAMING",     CommandTable.STRING,
+		"VIEW",        CommandTable.STRING,
+		"RESUME",      CommandTable.STRING
+	);
+}
@@ -0,0 +1,143 @@
+/**
+ * The CommandTable class lists the commands one side of the protocol can send. A command's
+ * opcode is its index in the table, which is also the opcode used in binary frames, so the
+ * text and binary forms of a command cannot drift apart.
+ *
+ * Commands are looked up in an open addressed hash table straight from the characters of the
+ * received line, so finding a command does not create any objects.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class CommandTable {
+	// Opcode returned for commands that are not in the table
+	public static final int UNKNOWN = -1;
+
+	// Argument layouts
+	public static final int NONE    = 0;
+	public static final int STRING  = 1;
+	public static final int NUMBER  = 2;
+	public static final int CHAR    = 3;
+	public static final int LOOK    = 4;
+	public static final int PLAYERS = 5;
+
+	private String[] names;
+	private int[] layouts;
+	private int[] slots;
+
+	/**
+	 * Constructor builds the table from pairs of command names and argument layouts
+	 *
+	 * @param commands The name and layout of each command, in opcode order starting from opcode 1
+	 */
+	public CommandTable(Object... commands) {
+		int count = commands.length / 2 + 1;
+		names = new String[count];
+		layouts = new int[count];
+		slots = new int[Integer.highestOneBit(count) * 4];
+
+		// Opcode 0 carries any message as plain text
+		layouts[0] = STRING;
+
+		for (int opcode = 1; opcode < count; opcode++) {
+			names[opcode] = (String) commands[opcode * 2 - 2];
+			layouts[opcode] = (Integer) commands[opcode * 2 - 1];
+			int slot = hash(names[opcode], 0, names[opcode].length());
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & (slots.length - 1);
+			}
+			slots[slot] = opcode;
+		}
+	}
+
+	/**
+	 * Gets the number of opcodes in the table, including opcode 0
+	 *
+	 * @return The number of opcodes
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Gets the opcode of a command
+	 *
+	 * @param name The command word
+	 * @return     The opcode, {@link #UNKNOWN} if the command is not in the table
+	 */
+	public int getOpcode(String name) {
+		return getOpcode(name, 0, name.length(), false);
+	}
+
+	/**
+	 * Gets the opcode of a command word found inside a longer piece of text
+	 *
+	 * @param text       The text holding the command word
+	 * @param start      The index of the first character of the command word
+	 * @param end        The index after the last character of the command word
+	 * @param ignoreCase <code>true</code> to match the command word in any case
+	 * @return           The opcode, {@link #UNKNOWN} if the command is not in the table
+	 */
+	public int getOpcode(String text, int start, int end, boolean ignoreCase) {
+		int length = end - start;
+		int slot = hash(text, start, end);
+
+		while (slots[slot] != 0) {
+			String name = names[slots[slot]];
+			if (name.length() == length && name.regionMatches(ignoreCase, 0, text, start, length)) {
+				return slots[slot];
+			}
+			slot = (slot + 1) & (slots.length - 1);
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * Gets the command word of an opcode
+	 *
+	 * @param opcode The opcode
+	 * @return       The command word, <code>null</code> for opcode 0
+	 */
+	public String getName(int opcode) {
+		return names[opcode];
+	}
+
+	/**
+	 * Gets the argument layout of an opcode
+	 *
+	 * @param opcode The opcode
+	 * @return       One of the layout constants
+	 */
+	public int getLayout(int opcode) {
+		return layouts[opcode];
+	}
+
+	/**
+	 * Checks if a command must be sent with a parameter
+	 *
+	 * @param opcode The opcode
+	 * @return       <code>true</code> if the command needs a parameter, <code>false</code> otherwise
+	 */
+	public boolean needsParameter(int opcode) {
+		int layout = layouts[opcode];
+		return layout == STRING || layout == NUMBER || layout == CHAR || layout == PLAYERS;
+	}
+
+	/**
+	 * Finds the first slot for a command word. Letters are hashed the same in either case so
+	 * commands can also be matched without regard to case.
+	 *
+	 * @param text  The text holding the command word
+	 * @param start The index of the first character of the command word
+	 * @param end   The index after the last character of the command word
+	 * @return      The slot index
+	 */
+	private int hash(String text, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = hash * 31 + Character.toUpperCase(text.charAt(i));
+		}
+		hash ^= hash >>> 16;
+		return hash & (slots.length - 1);
+	}
+}
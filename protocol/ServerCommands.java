@@ -0,0 +1,114 @@
+/**
+ * The ServerCommands class defines every command the server can send to the client. The
+ * constants are the opcodes of the commands in {@link #TABLE}.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class ServerCommands {
+	public static final int HELLO         = 1;
+	public static final int GOAL          = 2;
+	public static final int WIN           = 3;
+	public static final int LOSE          = 4;
+	public static final int CHANGE        = 5;
+	public static final int STARTTURN     = 6;
+	public static final int ENDTURN       = 7;
+	public static final int HITMOD        = 8;
+	public static final int TREASUREMOD   = 9;
+	public static final int MESSAGE       = 10;
+	public static final int FAIL          = 11;
+	public static final int LOOKREPLY     = 12;
+	public static final int DUNGEON       = 13;
+	public static final int SWORDMOD      = 14;
+	public static final int ARMOURMOD     = 15;
+	public static final int LANTERNMOD    = 16;
+	public static final int SHOUT         = 17;
+	public static final int PLAYERS       = 18;
+	public static final int STARTTYPING   = 19;
+	public static final int ENDTYPING     = 20;
+	public static final int CHAT          = 21;
+	public static final int WHISPERTO     = 22;
+	public static final int WHISPERFROM   = 23;
+	public static final int HUG           = 24;
+	public static final int AGREE         = 25;
+	public static final int DISAGREE      = 26;
+	public static final int LOL           = 27;
+	public static final int COFFEE        = 28;
+	public static final int BEER          = 29;
+	public static final int GIFT          = 30;
+	public static final int ANGRY         = 31;
+	public static final int CONFUSED      = 32;
+	public static final int TIRED         = 33;
+	public static final int PIZZA         = 34;
+	public static final int LOVE          = 35;
+	public static final int BRB           = 36;
+	public static final int KISS          = 37;
+	public static final int WAITING       = 38;
+	public static final int MUTE          = 39;
+	public static final int UNMUTE        = 40;
+	public static final int ATTACKWARNING = 41;
+	public static final int ATTACKSUCCEED = 42;
+	public static final int DEATH         = 43;
+	public static final int SUCCEED       = 44;
+	public static final int FRAMING       = 45;
+	public static final int PLAYERJOIN    = 46;
+	public static final int PLAYERLEAVE   = 47;
+	public static final int VIEWUPDATE    = 48;
+	public static final int SESSION       = 49;
+	public static final int RESUMED       = 50;
+	public static final int STATE         = 51;
+
+	public static final CommandTable TABLE = new CommandTable(
+		"HELLO",         CommandTable.STRING,
+		"GOAL",          CommandTable.NUMBER,
+		"WIN",           CommandTable.NONE,
+		"LOSE",          CommandTable.NONE,
+		"CHANGE",        CommandTable.NONE,
+		"STARTTURN",     CommandTable.NONE,
+		"ENDTURN",       CommandTable.NONE,
+		"HITMOD",        CommandTable.NUMBER,
+		"TREASUREMOD",   CommandTable.NUMBER,
+		"MESSAGE",       CommandTable.STRING,
+		"FAIL",          CommandTable.STRING,
+		"LOOKREPLY",     CommandTable.LOOK,
+		"DUNGEON",       CommandTable.STRING,
+		"SWORDMOD",      CommandTable.NONE,
+		"ARMOURMOD",     CommandTable.NONE,
+		"LANTERNMOD",    CommandTable.NONE,
+		"SHOUT",         CommandTable.STRING,
+		"PLAYERS",       CommandTable.PLAYERS,
+		"STARTTYPING",   CommandTable.STRING,
+		"ENDTYPING",     CommandTable.STRING,
+		"CHAT",          CommandTable.STRING,
+		"WHISPERTO",     CommandTable.STRING,
+		"WHISPERFROM",   CommandTable.STRING,
+		"HUG",           CommandTable.STRING,
+		"AGREE",         CommandTable.STRING,
+		"DISAGREE",      CommandTable.STRING,
+		"LOL",           CommandTable.STRING,
+		"COFFEE",        CommandTable.STRING,
+		"BEER",          CommandTable.STRING,
+		"GIFT",          CommandTable.STRING,
+		"ANGRY",         CommandTable.STRING,
+		"CONFUSED",      CommandTable.STRING,
+		"TIRED",         CommandTable.STRING,
+		"PIZZA",         CommandTable.STRING,
+		"LOVE",          CommandTable.STRING,
+		"BRB",           CommandTable.STRING,
+		"KISS",          CommandTable.STRING,
+		"WAITING",       CommandTable.STRING,
+		"MUTE",          CommandTable.NONE,
+		"UNMUTE",        CommandTable.NONE,
+		"ATTACKWARNING", CommandTable.STRING,
+		"ATTACKSUCCEED", CommandTable.STRING,
+		"DEATH",         CommandTable.STRING,
+		"SUCCEED",       CommandTable.STRING,
+		"FRAMING",       CommandTable.STRING,
+		"PLAYERJOIN",    CommandTable.STRING,
+		"PLAYERLEAVE",   CommandTable.STRING,
+		"VIEWUPDATE",    CommandTable.STRING,
+		"SESSION",       CommandTable.STRING,
+		"RESUMED",       CommandTable.STRING,
+		"STATE",         CommandTable.STRING
+	);
+}
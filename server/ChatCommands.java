@@ -0,0 +1,80 @@
+/**
+ * The ChatCommands class defines the commands a player can type in the chat, such as
+ * <code>/hug bob</code>. The constants are the opcodes of the commands in {@link #TABLE}. Chat
+ * commands that take a player use the <code>STRING</code> layout, the others use
+ * <code>NONE</code>.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class ChatCommands {
+	public static final int WHISPER  = 1;
+	public static final int HUG      = 2;
+	public static final int AGREE    = 3;
+	public static final int DISAGREE = 4;
+	public static final int LOL      = 5;
+	public static final int COFFEE   = 6;
+	public static final int BEER     = 7;
+	public static final int GIFT     = 8;
+	public static final int ANGRY    = 9;
+	public static final int CONFUSED = 10;
+	public static final int TIRED    = 11;
+	public static final int PIZZA    = 12;
+	public static final int LOVE     = 13;
+	public static final int BRB      = 14;
+	public static final int KISS     = 15;
+	public static final int WAITING  = 16;
+
+	public static final CommandTable TABLE = new CommandTable(
+		"/whisper",  CommandTable.STRING,
+		"/hug",      CommandTable.STRING,
+		"/agree",    CommandTable.STRING,
+		"/disagree", CommandTable.STRING,
+		"/lol",      CommandTable.NONE,
+		"/coffee",   CommandTable.NONE,
+		"/beer",     CommandTable.NONE,
+		"/gift",     CommandTable.STRING,
+		"/angry",    CommandTable.NONE,
+		"/confused", CommandTable.NONE,
+		"/tired",    CommandTable.NONE,
+		"/pizza",    CommandTable.NONE,
+		"/love",     CommandTable.STRING,
+		"/brb",      CommandTable.NONE,
+		"/kiss",     CommandTable.STRING,
+		"/waiting",  CommandTable.NONE
+	);
+
+	// Message sent to every player, indexed by opcode
+	private static final String[] BROADCASTS = {
+		null, null, "HUG ", "AGREE ", "DISAGREE ", "LOL ", "COFFEE ", "BEER ", "GIFT ", "ANGRY ",
+		"CONFUSED ", "TIRED ", "PIZZA ", "LOVE ", "BRB ", "KISS ", "WAITING "
+	};
+
+	// What the FAIL message asks for when the player is left out, indexed by opcode
+	private static final String[] MISSING_PLAYER = {
+		null, "FAIL Must include a player to whisper to.", "FAIL Must include a player to hug.",
+		"FAIL Must include a player to agree with.", "FAIL Must include a player to disagree with.",
+		null, null, null, "FAIL Must include a player to give a gift.", null, null, null, null,
+		"FAIL Must include a player to love.", null, "FAIL Must include a player to kiss.", null
+	};
+
+	/**
+	 * Gets the start of the message sent to every player for a chat command
+	 *
+	 * @param opcode The opcode of the chat command
+	 * @return       The server command followed by a space
+	 */
+	public static String getBroadcast(int opcode) {
+		return BROADCASTS[opcode];
+	}
+
+	/**
+	 * Gets the FAIL message sent when a chat command is missing its player
+	 *
+	 * @param opcode The opcode of the chat command
+	 * @return       The FAIL message
+	 */
+	public static String getMissingPlayer(int opcode) {
+		return MISSING_PLAYER[opcode];
+	}
+}
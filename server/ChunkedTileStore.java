@@ -0,0 +1,521 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ChunkedTileStore class keeps only part of a map in memory, so that dungeons larger than
+ * the memory of the server can be played. The map is split into square chunks, which are read
+ * from the map file the first time a tile in them is used. When too many chunks are loaded the
+ * least recently used chunks with no players in or next to them are dropped, after any changes
+ * to them have been written to a swap file that they are read back from next time.
+ * 
+ * Loading a chunk while a player waits would stall their move or LOOK, so the chunks around a
+ * player are loaded ahead of time on a background thread, see {@link #prefetch}.
+ * 
+ * Each region's version is set from a clock shared by the whole store, rather than counted
+ * from zero, so a region that is dropped and loaded again never repeats an old version.
+ * 
+ * @author Sean Stinson, ss938
+ *
+ */
+public class ChunkedTileStore extends TileStore {
+	// Width and height of a chunk in tiles, a multiple of the region size
+	public static final int CHUNK_SIZE = 64;
+	
+	// Distance from the edge of a chunk in tiles at which the chunk past the edge is loaded
+	public static final int PREFETCH_DISTANCE = CHUNK_SIZE / 4;
+	
+	// Default number of chunks kept in memory
+	public static final int DEFAULT_MAX_CHUNKS = 1024;
+	
+	private static final int CHUNK_TILES = CHUNK_SIZE * CHUNK_SIZE;
+	private static final int CHUNK_REGIONS = CHUNK_SIZE / Map.REGION_SIZE;
+	
+	private int width;
+	private int height;
+	private int chunkColumns;
+	private int chunkRows;
+	private int regionColumns;
+	private int maxChunks;
+	private int evictionThreshold;
+	
+	// Where each row of tiles starts in the map file
+	private long[] rowOffsets;
+	private FileChannel source;
+	
+	// Chunks that have been dropped after being changed, stored at a fixed place for each chunk
+	private File swapFile;
+	private FileChannel swap;
+	private ConcurrentHashMap<Long, Boolean> swapped;
+	
+	private ConcurrentHashMap<Long, Chunk> chunks;
+	private volatile Chunk lastChunk;
+	private ConcurrentHashMap<Long, Boolean> pending;
+	private ExecutorService prefetcher;
+	private Object loadLock;
+	private Object writeLock;
+	
+	private AtomicInteger clock;
+	private long useCount;
+	
+	// Statistics
+	private AtomicLong loads;
+	private AtomicLong prefetches;
+	private AtomicLong stalls;
+	private AtomicLong evictions;
+	private AtomicLong writeBacks;
+	
+	/**
+	 * The Chunk class is one loaded square of tiles
+	 */
+	private static class Chunk {
+		private long index;
+		private byte[] bases;
+		private int[] occupants;
+		private int[] versions;
+		private int occupantCount;
+		private boolean dirty;
+		private volatile long lastUsed;
+		private volatile boolean evicted;
+		
+		/**
+		 * Constructor creates an empty chunk
+		 * 
+		 * @param index   The chunk number
+		 * @param version The version every region of the chunk starts at
+		 */
+		public Chunk(long index, int version) {
+			this.index = index;
+			bases = new byte[CHUNK_TILES];
+			occupants = new int[CHUNK_TILES];
+			versions = new int[CHUNK_REGIONS * CHUNK_REGIONS];
+			Arrays.fill(versions, version);
+		}
+	}
+	
+	/**
+	 * Constructor opens a map file whose rows have already been found
+	 * 
+	 * @param fileName     The name of the map file
+	 * @param rowOffsets   The position in the file of the first tile of each row
+	 * @param width        The width of the map
+	 * @param maxChunks    The most chunks kept in memory, more are kept if they all have players nearby
+	 * @throws IOException Thrown if the map file or the swap file could not be opened
+	 */
+	public ChunkedTileStore(String fileName, long[] rowOffsets, int width, int maxChunks) throws IOException {
+		this.width = width;
+		this.rowOffsets = rowOffsets;
+		this.maxChunks = Math.max(1, maxChunks);
+		evictionThreshold = this.maxChunks;
+		height = rowOffsets.length;
+		chunkColumns = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		chunkRows = (height + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		regionColumns = (width + Map.REGION_SIZE - 1) / Map.REGION_SIZE;
+		
+		source = new RandomAccessFile(fileName, "r").getChannel();
+		swapFile = File.createTempFile("dungeon", ".chunks");
+		swapFile.deleteOnExit();
+		swap = new RandomAccessFile(swapFile, "rw").getChannel();
+		swapped = new ConcurrentHashMap<Long, Boolean>();
+		
+		chunks = new ConcurrentHashMap<Long, Chunk>();
+		pending = new ConcurrentHashMap<Long, Boolean>();
+		loadLock = new Object();
+		writeLock = new Object();
+		prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "Chunk prefetcher");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		clock = new AtomicInteger();
+		loads = new AtomicLong();
+		prefetches = new AtomicLong();
+		stalls = new AtomicLong();
+		evictions = new AtomicLong();
+		writeBacks = new AtomicLong();
+	}
+	
+	@Override
+	public char getBase(long tile) {
+		long row = tile / width;
+		int column = (int) (tile - row * width);
+		return (char) (chunkAt(row, column).bases[offsetOf(row, column)] & 0xFF);
+	}
+	
+	@Override
+	public void getBases(long tile, byte[] bytes, int offset, int length) {
+		while (length > 0) {
+			// Copy up to the edge of the chunk or the end of the row, whichever comes first
+			long row = tile / width;
+			int column = (int) (tile - row * width);
+			int count = Math.min(length, Math.min(CHUNK_SIZE - column % CHUNK_SIZE, width - column));
+			System.arraycopy(chunkAt(row, column).bases, offsetOf(row, column), bytes, offset, count);
+			tile += count;
+			offset += count;
+			length -= count;
+		}
+	}
+	
+	@Override
+	public void setBase(long tile, char base) {
+		long row = tile / width;
+		int column = (int) (tile - row * width);
+		
+		while (true) {
+			Chunk chunk = chunkAt(row, column);
+			
+			synchronized (writeLock) {
+				// The chunk may have been dropped since it was found, in which case find it again
+				if (!chunk.evicted) {
+					chunk.bases[offsetOf(row, column)] = (byte) base;
+					chunk.dirty = true;
+					return;
+				}
+			}
+		}
+	}
+	
+	@Override
+	public int getOccupant(long tile) {
+		long row = tile / width;
+		int column = (int) (tile - row * width);
+		return chunkAt(row, column).occupants[offsetOf(row, column)];
+	}
+	
+	@Override
+	public void setOccupant(long tile, int id) {
+		long row = tile / width;
+		int column = (int) (tile - row * width);
+		int offset = offsetOf(row, column);
+		
+		while (true) {
+			Chunk chunk = chunkAt(row, column);
+			
+			synchronized (writeLock) {
+				if (!chunk.evicted) {
+					if (chunk.occupants[offset] == 0 && id != 0) {
+						chunk.occupantCount++;
+					} else if (chunk.occupants[offset] != 0 && id == 0) {
+						chunk.occupantCount--;
+					}
+					chunk.occupants[offset] = id;
+					return;
+				}
+			}
+		}
+	}
+	
+	@Override
+	public int getVersion(long region) {
+		long regionRow = region / regionColumns;
+		long regionColumn = region % regionColumns;
+		Chunk chunk = getChunk(regionRow / CHUNK_REGIONS * chunkColumns + regionColumn / CHUNK_REGIONS);
+		
+		synchronized (chunk) {
+			return chunk.versions[(int) (regionRow % CHUNK_REGIONS * CHUNK_REGIONS + regionColumn % CHUNK_REGIONS)];
+		}
+	}
+	
+	@Override
+	public void incrementVersion(long region) {
+		long regionRow = region / regionColumns;
+		long regionColumn = region % regionColumns;
+		Chunk chunk = getChunk(regionRow / CHUNK_REGIONS * chunkColumns + regionColumn / CHUNK_REGIONS);
+		
+		synchronized (chunk) {
+			chunk.versions[(int) (regionRow % CHUNK_REGIONS * CHUNK_REGIONS + regionColumn % CHUNK_REGIONS)] = clock.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Starts loading the chunks next to a position in the background, so that they are ready
+	 * before a player standing there walks or looks into them. Only chunks less than
+	 * {@link #PREFETCH_DISTANCE} tiles away are checked, so a player in the middle of a chunk
+	 * costs nothing.
+	 * 
+	 * @param x The X position
+	 * @param y The Y position
+	 */
+	@Override
+	public void prefetch(int x, int y) {
+		int chunkColumn = x / CHUNK_SIZE;
+		int chunkRow = y / CHUNK_SIZE;
+		int firstColumn = x % CHUNK_SIZE < PREFETCH_DISTANCE ? chunkColumn - 1 : chunkColumn;
+		int lastColumn = x % CHUNK_SIZE >= CHUNK_SIZE - PREFETCH_DISTANCE ? chunkColumn + 1 : chunkColumn;
+		int firstRow = y % CHUNK_SIZE < PREFETCH_DISTANCE ? chunkRow - 1 : chunkRow;
+		int lastRow = y % CHUNK_SIZE >= CHUNK_SIZE - PREFETCH_DISTANCE ? chunkRow + 1 : chunkRow;
+		
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				if (row < 0 || column < 0 || row >= chunkRows || column >= chunkColumns || (row == chunkRow && column == chunkColumn)) {
+					continue;
+				}
+				
+				final long chunk = (long) row * chunkColumns + column;
+				if (!chunks.containsKey(chunk) && pending.putIfAbsent(chunk, Boolean.TRUE) == null) {
+					prefetcher.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								load(chunk, true);
+							} finally {
+								pending.remove(chunk);
+							}
+						}
+					});
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of chunks in memory
+	 * 
+	 * @return The number of loaded chunks
+	 */
+	public int getLoadedChunks() {
+		return chunks.size();
+	}
+	
+	/**
+	 * Gets the number of chunks loaded
+	 * 
+	 * @return The number of loads, including prefetches
+	 */
+	public long getLoads() {
+		return loads.get();
+	}
+	
+	/**
+	 * Gets the number of chunks loaded in the background before they were needed
+	 * 
+	 * @return The number of prefetches
+	 */
+	public long getPrefetches() {
+		return prefetches.get();
+	}
+	
+	/**
+	 * Gets the number of times a tile was used before its chunk had been loaded, so the
+	 * thread using it had to wait for the load
+	 * 
+	 * @return The number of stalls
+	 */
+	public long getStalls() {
+		return stalls.get();
+	}
+	
+	/**
+	 * Gets the number of chunks dropped from memory
+	 * 
+	 * @return The number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * Gets the number of changed chunks written to the swap file
+	 * 
+	 * @return The number of write backs
+	 */
+	public long getWriteBacks() {
+		return writeBacks.get();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d chunks loaded, %d loads (%d prefetched, %d stalls), %d evictions, %d written back",
+				getLoadedChunks(), getLoads(), getPrefetches(), getStalls(), getEvictions(), getWriteBacks());
+	}
+	
+	/**
+	 * Gets the loaded chunk holding a tile, loading it if needed
+	 * 
+	 * @param row    The row of the tile
+	 * @param column The column of the tile
+	 * @return       The chunk
+	 */
+	private Chunk chunkAt(long row, int column) {
+		return getChunk(row / CHUNK_SIZE * chunkColumns + column / CHUNK_SIZE);
+	}
+	
+	/**
+	 * Gets a loaded chunk, loading it if needed
+	 * 
+	 * @param index The chunk number
+	 * @return      The chunk
+	 */
+	private Chunk getChunk(long index) {
+		// Most uses are of the same chunk as the last one, which saves looking it up
+		Chunk chunk = lastChunk;
+		if (chunk == null || chunk.index != index || chunk.evicted) {
+			chunk = chunks.get(index);
+			if (chunk == null) {
+				chunk = load(index, false);
+			}
+			lastChunk = chunk;
+		}
+		
+		// Racy on purpose, the order of uses only needs to be roughly right
+		chunk.lastUsed = ++useCount;
+		return chunk;
+	}
+	
+	/**
+	 * Gets a chunk of the map into memory, making room for it first
+	 * 
+	 * @param index    The chunk number
+	 * @param prefetch <code>true</code> if the chunk is being loaded ahead of time
+	 * @return         The chunk
+	 */
+	private Chunk load(long index, boolean prefetch) {
+		synchronized (loadLock) {
+			Chunk chunk = chunks.get(index);
+			if (chunk != null) {
+				return chunk;
+			}
+			
+			// Only one chunk is loaded at a time, so the file is read without holding up changes to loaded chunks
+			chunk = new Chunk(index, clock.incrementAndGet());
+			try {
+				if (swapped.containsKey(index)) {
+					swap.read(ByteBuffer.wrap(chunk.bases), index * CHUNK_TILES);
+				} else {
+					readSource(index, chunk);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to load part of the map", e);
+			}
+			
+			chunk.lastUsed = useCount;
+			synchronized (writeLock) {
+				if (chunks.size() >= evictionThreshold) {
+					evict();
+				}
+				chunks.put(index, chunk);
+			}
+			
+			loads.incrementAndGet();
+			if (prefetch) {
+				prefetches.incrementAndGet();
+			} else {
+				stalls.incrementAndGet();
+			}
+			return chunk;
+		}
+	}
+	
+	/**
+	 * Reads the tiles of a chunk from the map file
+	 * 
+	 * @param index        The chunk number
+	 * @param chunk        The chunk to fill
+	 * @throws IOException Thrown if the map file could not be read
+	 */
+	private void readSource(long index, Chunk chunk) throws IOException {
+		int firstRow = (int) (index / chunkColumns) * CHUNK_SIZE;
+		int firstColumn = (int) (index % chunkColumns) * CHUNK_SIZE;
+		int columns = Math.min(CHUNK_SIZE, width - firstColumn);
+		
+		for (int row = 0; row < CHUNK_SIZE && firstRow + row < height; row++) {
+			ByteBuffer buffer = ByteBuffer.wrap(chunk.bases, row * CHUNK_SIZE, columns);
+			long position = rowOffsets[firstRow + row] + firstColumn;
+			while (buffer.hasRemaining()) {
+				if (source.read(buffer, position + buffer.position() - row * CHUNK_SIZE) < 0) {
+					throw new IOException("The map file is shorter than when it was opened");
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Drops the least recently used chunks that have no players in or next to them, writing
+	 * them to the swap file first if they have changed. An eighth of the chunks are dropped at
+	 * once, so that finding them is not repeated for every load. Chunks with players nearby are
+	 * never dropped, and while they fill the store it is allowed to grow. Only called while holding both the load lock and the write lock.
+	 */
+	private void evict() {
+		// Find the chunks next to players
+		HashSet<Long> pinned = new HashSet<Long>();
+		for (Chunk chunk : chunks.values()) {
+			if (chunk.occupantCount == 0) {
+				continue;
+			}
+			
+			long chunkRow = chunk.index / chunkColumns;
+			long chunkColumn = chunk.index % chunkColumns;
+			for (long row = chunkRow - 1; row <= chunkRow + 1; row++) {
+				for (long column = chunkColumn - 1; column <= chunkColumn + 1; column++) {
+					if (row >= 0 && column >= 0 && row < chunkRows && column < chunkColumns) {
+						pinned.add(row * chunkColumns + column);
+					}
+				}
+			}
+		}
+		
+		ArrayList<Chunk> unpinned = new ArrayList<Chunk>();
+		for (Chunk chunk : chunks.values()) {
+			if (!pinned.contains(chunk.index)) {
+				unpinned.add(chunk);
+			}
+		}
+		Collections.sort(unpinned, new Comparator<Chunk>() {
+			@Override
+			public int compare(Chunk first, Chunk second) {
+				return Long.compare(first.lastUsed, second.lastUsed);
+			}
+		});
+		
+		int count = Math.min(unpinned.size(), Math.max(chunks.size() - maxChunks + 1, maxChunks / 8));
+		for (int i = 0; i < count; i++) {
+			Chunk chunk = unpinned.get(i);
+			if (chunk.dirty) {
+				try {
+					swap.write(ByteBuffer.wrap(chunk.bases), chunk.index * CHUNK_TILES);
+				} catch (IOException e) {
+					// Keep the changed chunk in memory rather than lose the changes
+					continue;
+				}
+				swapped.put(chunk.index, Boolean.TRUE);
+				writeBacks.incrementAndGet();
+			}
+			
+			chunk.evicted = true;
+			chunks.remove(chunk.index);
+			evictions.incrementAndGet();
+		}
+		
+		// If too many chunks have players nearby, allow more before looking again
+		evictionThreshold = Math.max(maxChunks, chunks.size() + Math.max(1, maxChunks / 8));
+	}
+	
+	/**
+	 * Gets where a tile is within its chunk
+	 * 
+	 * @param row    The row of the tile
+	 * @param column The column of the tile
+	 * @return       The offset of the tile in its chunk
+	 */
+	private int offsetOf(long row, int column) {
+		return (int) (row % CHUNK_SIZE) * CHUNK_SIZE + column % CHUNK_SIZE;
+	}
+}
@@ -1,5 +1,3 @@
-import java.util.TimerTask;
-
 /**
  * The ClientMessage class handles a message received from the client
  * 
@@ -11,87 +9,246 @@ public class ClientMessage {
 	private Game game;
 	private Player player;
 	
-	private String command;
+	// The message being handled, parsed in place
+	private String message;
+	private int opcode;
+	private int parameterStart;
 	private String parameter;
 	
 	/**
-	 * Constructor splits the command from the argument
+	 * Constructor creates the reusable message handler for a client. Each message from the
+	 * client is parsed into this object instead of a new one.
 	 * 
-	 * @param message    The message received from the client
-	 * @param client     The connection to the client
+	 * @param client The connection to the client
 	 */
-	public ClientMessage(String message, Connection client) {
+	public ClientMessage(Connection client) {
 		this.client = client;
 		game = client.getGame();
+	}
+	
+	/**
+	 * Parses and handles a text message. The command word is looked up straight from the
+	 * message, and the parameter is only copied out if a command needs it as a string.
+	 * 
+	 * @param message The message received from the client
+	 */
+	public void handle(String message) {
+		handle(message, 0);
+	}
+	
+	/**
+	 * Parses and handles a text message that starts part way into a line, such as after the
+	 * line count of a framed message
+	 * 
+	 * @param message The line received from the client
+	 * @param start   The index the message starts at
+	 */
+	public void handle(String message, int start) {
+		int space = message.indexOf(' ', start);
 		
-		if (client.isInGame()) {
-			player = client.getPlayer();
-		} else {
-			player = null;
-		}
+		this.message = message;
+		opcode = ClientCommands.TABLE.getOpcode(message, start, space < 0 ? message.length() : space, false);
+		parameterStart = space < 0 ? -1 : space + 1;
+		parameter = null;
 		
-		command = message.split(" ", 2)[0];
+		game.getLock().lock();
+		try {
+			handle();
+		} finally {
+			game.getLock().unlock();
+		}
+	}
+	
+	/**
+	 * Handles a message that has already been split, such as a binary frame
+	 * 
+	 * @param command   The command word
+	 * @param parameter The command's argument, <code>null</code> if there is none
+	 */
+	public void handle(String command, String parameter) {
+		message = null;
+		opcode = ClientCommands.TABLE.getOpcode(command);
+		parameterStart = -1;
+		this.parameter = parameter;
 		
-		if (message.contains(" ")) {
-			parameter = message.split(" ", 2)[1];
+		game.getLock().lock();
+		try {
+			handle();
+		} finally {
+			game.getLock().unlock();
+		}
+	}
+	
+	/**
+	 * Checks if the message has a parameter
+	 * 
+	 * @return <code>true</code> if the message has a parameter, <code>false</code> otherwise
+	 */
+	public boolean hasParameter() {
+		return parameter != null || parameterStart >= 0;
+	}
+	
+	/**
+	 * Gets the parameter of the message
+	 * 
+	 * @return The parameter, <code>null</code> if there is none
+	 */
+	public String getParameter() {
+		if (parameter == null && parameterStart >= 0) {
+			parameter = message.substring(parameterStart);
+		}
+		return parameter;
+	}
+	
+	/**
+	 * Gets the direction given as the parameter of the message
+	 * 
+	 * @return N, S, E or W, <code>0</code> if the parameter is not a direction
+	 */
+	private char getDirection() {
+		char direction;
+		if (parameter != null && parameter.length() == 1) {
+			direction = parameter.charAt(0);
+		} else if (parameter == null && parameterStart >= 0 && message.length() == parameterStart + 1) {
+			direction = message.charAt(parameterStart);
 		} else {
-			parameter = null;
+			return 0;
 		}
 		
-		handle();
+		if (direction == 'N' || direction == 'S' || direction == 'E' || direction == 'W') {
+			return direction;
+		}
+		return 0;
 	}
 	
 	/**
-	 * Checks which command has been sent
+	 * Checks which command has been sent. The caller must hold the game lock, so the turn can
+	 * not move on while the command runs.
 	 */
 	public void handle() {
-		if (command.equals("HELLO")) {
+		player = client.getPlayer();
+		
+		if (opcode == ClientCommands.HELLO) {
 			if (client.getUsername() == null) {
 				clientHello();
 			} else {
 				client.sendMessage("FAIL Must be sent before any other command");
 			}
-		} else if (client.isInGame()) {
-			if (command.equals("LOOK")) {
-				clientLook();
-			} else if (command.equals("MOVE")) {
-				clientMove();
-			} else if (command.equals("ATTACK")) {
-				clientAttack();
-			} else if (command.equals("PICKUP")) {
-				clientPickUp();
-			} else if (command.equals("SHOUT")) {
-				clientShout();
-			} else if (command.equals("ENDTURN")) {
-				clientEndTurn();
-			} else if (command.equals("STARTTYPING")) {
-				clientStartTyping();
-			} else if (command.equals("ENDTYPING")) {
-				clientEndTyping();
-			} else if (command.equals("CHAT")) {
-				clientChat();
+		} else if (opcode == ClientCommands.RESUME) {
+			if (client.getUsername() == null) {
+				clientResume();
 			} else {
-				client.sendMessage("FAIL Invalid command.");
+				client.sendMessage("FAIL Must be sent before any other command");
+			}
+		} else if (opcode == ClientCommands.FRAMING) {
+			clientFraming();
+		} else if (client.isInGame()) {
+			switch (opcode) {
+				case ClientCommands.LOOK:
+					if (checkRateLimit(Connection.RATE_LOOK)) {
+						clientLook();
+					}
+					break;
+				case ClientCommands.MOVE:
+					if (checkRateLimit(Connection.RATE_MOVE)) {
+						clientMove();
+					}
+					break;
+				case ClientCommands.ATTACK:
+					if (checkRateLimit(Connection.RATE_MOVE)) {
+						clientAttack();
+					}
+					break;
+				case ClientCommands.PICKUP:
+					clientPickUp();
+					break;
+				case ClientCommands.SHOUT:
+					clientShout();
+					break;
+				case ClientCommands.ENDTURN:
+					clientEndTurn();
+					break;
+				case ClientCommands.STARTTYPING:
+					clientStartTyping();
+					break;
+				case ClientCommands.ENDTYPING:
+					clientEndTyping();
+					break;
+				case ClientCommands.CHAT:
+					clientChat();
+					break;
+				case ClientCommands.VIEW:
+					clientView();
+					break;
+				default:
+					client.sendMessage("FAIL Invalid command.");
 			}
 		} else {
-			client.setUsername();
-			game.join(client);
-			handle();
+			// Clients turned away from a full dungeon keep their name when they try again
+			if (client.getUsername() == null) {
+				client.setUsername();
+			}
+			if (game.join(client)) {
+				handle();
+			}
 		}
 	}
 	
+	/**
+	 * Checks that the client has not sent this class of command too often
+	 * 
+	 * @param rateClass One of the <code>Connection.RATE_*</code> command classes
+	 * @return          <code>true</code> if the command may go ahead, <code>false</code> otherwise
+	 */
+	private boolean checkRateLimit(int rateClass) {
+		if (client.takeToken(rateClass) < 0) {
+			client.sendMessage("FAIL Too many " + ClientCommands.TABLE.getName(opcode) + " commands, please slow down.");
+			return false;
+		}
+		return true;
+	}
+	
 	/**
 	 * Handles the HELLO command
 	 */
 	public void clientHello() {
-		if (parameter != null) {
-			client.setUsername(parameter);
+		if (hasParameter()) {
+			client.setUsername(getParameter());
 			game.join(client);
 		} else {
 			client.sendMessage("FAIL Must include name.");
 		}
 	}
 	
+	/**
+	 * Handles the RESUME command, which a client sends instead of HELLO to take back the player
+	 * it had before its connection was lost
+	 */
+	public void clientResume() {
+		if (!hasParameter()) {
+			client.sendMessage("FAIL Must include session.");
+		} else if (!game.resume(client, getParameter())) {
+			client.sendMessage("FAIL Unknown or expired session, send HELLO to join again.");
+		}
+	}
+	
+	/**
+	 * Handles the FRAMING command
+	 */
+	public void clientFraming() {
+		int offered = Connection.getOfferedFraming();
+		
+		if (client.getFraming() != Connection.FRAMING_TEXT) {
+			client.sendMessage("FAIL Framing has already been agreed.");
+		} else if (offered >= Connection.FRAMING_LINES && ("ACCEPT".equals(getParameter()) || "ACCEPT LINES".equals(getParameter()))) {
+			client.enableFraming(Connection.FRAMING_LINES);
+		} else if (offered >= Connection.FRAMING_BINARY && "ACCEPT BINARY".equals(getParameter())) {
+			client.enableFraming(Connection.FRAMING_BINARY);
+		} else {
+			client.sendMessage("FAIL Unknown framing option.");
+		}
+	}
+	
 	/**
 	 * Handles the LOOK command
 	 */
@@ -99,6 +256,22 @@ public class ClientMessage {
 		game.playerLook(player);
 	}
 	
+	/**
+	 * Handles the VIEW command. <code>VIEW UPDATES</code> asks for the tiles that change
+	 * around the player to be pushed instead of <code>CHANGE</code>, starting with the whole
+	 * view, and <code>VIEW CHANGE</code> goes back to <code>CHANGE</code>.
+	 */
+	public void clientView() {
+		if ("UPDATES".equals(getParameter())) {
+			player.setView(new PlayerView());
+			game.playerLook(player);
+		} else if ("CHANGE".equals(getParameter())) {
+			player.setView(null);
+		} else {
+			client.sendMessage("FAIL Unknown view option.");
+		}
+	}
+	
 	/**
 	 * Handles the MOVE command
 	 */
@@ -106,9 +279,10 @@ public class ClientMessage {
 		if (!game.isFinished()) {
 			if (!player.isDead()) {
 				if (player.isTurn()) {
-					if (parameter != null) {
-						if (parameter.matches("[NSEW]")) {
-							game.playerMove(parameter.charAt(0));
+					if (hasParameter()) {
+						char direction = getDirection();
+						if (direction != 0) {
+							game.playerMove(direction);
 						} else {
 							client.sendMessage("FAIL Direction must be N, S, E or W.");
 						}
@@ -133,9 +307,10 @@ public class ClientMessage {
 		if (!game.isFinished()) {
 			if (!player.isDead()) {
 				if (player.isTurn()) {
-					if (parameter != null) {
-						if (parameter.matches("[NSEW]")) {
-							game.playerAttack(parameter.charAt(0));
+					if (hasParameter()) {
+						char direction = getDirection();
+						if (direction != 0) {
+							game.playerAttack(direction);
 						}
 					} else {
 						client.sendMessage("FAIL Attack must include direction.");
@@ -174,8 +349,8 @@ public class ClientMessage {
 	 * Handles the SHOUT command
 	 */
 	public void clientShout() {
-		if (parameter != null) {
-			game.playerShout(client.getPlayer(), parameter);
+		if (hasParameter()) {
+			game.playerShout(client.getPlayer(), getParameter());
 		} else {
 			client.sendMessage("FAIL Must include message.");
 		}
@@ -214,195 +389,32 @@ public class ClientMessage {
 	 * Handles the CHAT command
 	 */
 	public void clientChat() {
-		if (parameter.length() > 0) {
+		String parameter = getParameter();
+		
+		if (parameter != null && parameter.length() > 0) {
 			if (!client.isMuted()) {
 				// If the user's message starts with a "/" then perform a chat command, else just send the chat message
 				if (parameter.charAt(0) == '/') {
-					String[] chatParameters = parameter.split(" ", 3);
-					String chatCommand = chatParameters[0];
-					String chatParameter = null;
-					String chatMessage = null;
-					
-					if (chatParameters.length > 1) {
-						chatParameter = chatParameters[1];
-						if (chatParameters.length > 2) {
-							chatMessage = chatParameters[2];
-						}
-					}
-						
-					// Whisper chat command
-					if (chatCommand.equalsIgnoreCase("/whisper")) {
-						if (chatParameter != null) {
-							Player receivingPlayer = game.getPlayer(chatParameter);
-							if (receivingPlayer != null) {
-								if (chatMessage != null) {
-									receivingPlayer.getClient().sendMessage("WHISPERFROM " + client.getUsername() + " " + chatMessage);
-									client.sendMessage("WHISPERTO " + receivingPlayer.getClient().getUsername() + " " + chatMessage);
-								} else {
-									client.sendMessage("FAIL Must include a message to whisper.");
-								}
-							} else {
-								client.sendMessage("FAIL Player '" + chatParameter + "' does not exist.");
-							}
-						} else {
-							client.sendMessage("FAIL Must include a player to whisper to.");
-						}
-					}
-					
-					// Hug chat command
-					else if (chatCommand.equalsIgnoreCase("/hug")) {
-						if (chatParameter != null) {
-							Player receivingPlayer = game.getPlayer(chatParameter);
-							if (receivingPlayer != null) {
-								game.sendToAll("HUG " + client.getUsername() + " " + receivingPlayer.getClient().getUsername());
-							} else {
-								client.sendMessage("FAIL Player '" + chatParameter + "' does not exist.");
-							}
-						} else {
-							client.sendMessage("FAIL Must include a player to hug.");
-						}
-					}
-					
-					// Agree chat command
-					else if (chatCommand.equalsIgnoreCase("/agree")) {
-						if (chatParameter != null) {
-							Player receivingPlayer = game.getPlayer(chatParameter);
-							if (receivingPlayer != null) {
-								game.sendToAll("AGREE " + client.getUsername() + " " + receivingPlayer.getClient().getUsername());
-							} else {
-								client.sendMessage("FAIL Player '" + chatParameter + "' does not exist.");
-							}
-						} else {
-							client.sendMessage("FAIL Must include a player to agree with.");
-						}
-					}
-					
-					// Disagree chat command
-					else if (chatCommand.equalsIgnoreCase("/disagree")) {
-						if (chatParameter != null) {
-							Player receivingPlayer = game.getPlayer(chatParameter);
-							if (receivingPlayer != null) {
-								game.sendToAll("DISAGREE " + client.getUsername() + " " + receivingPlayer.getClient().getUsername());
-							} else {
-								client.sendMessage("FAIL Player '" + chatParameter + "' does not exist.");
-							}
-						} else {
-							client.sendMessage("FAIL Must include a player to disagree with.");
-						}
-					}
-					
-					// Lol chat command
-					else if (chatCommand.equalsIgnoreCase("/lol")) {
-						game.sendToAll("LOL " + client.getUsername());
-					}
-					
-					// Coffee chat command
-					else if (chatCommand.equalsIgnoreCase("/coffee")) {
-						game.sendToAll("COFFEE " + client.getUsername());
-					}
-					
-					// Beer chat command
-					else if (chatCommand.equalsIgnoreCase("/beer")) {
-						game.sendToAll("BEER " + client.getUsername());
-					}
-					
-					// Gift chat command
-					else if (chatCommand.equalsIgnoreCase("/gift")) {
-						if (chatParameter != null) {
-							Player receivingPlayer = game.getPlayer(chatParameter);
-							if (receivingPlayer != null) {
-								game.sendToAll("GIFT " + client.getUsername() + " " + receivingPlayer.getClient().getUsername());
-							} else {
-								client.sendMessage("FAIL Player '" + chatParameter + "' does not exist.");
-							}
-						} else {
-							client.sendMessage("FAIL Must include a player to give a gift.");
-						}
-					}
-					
-					// Angry chat command
-					else if (chatCommand.equalsIgnoreCase("/angry")) {
-						game.sendToAll("ANGRY " + client.getUsername());
-					}
-					
-					// Confused chat command
-					else if (chatCommand.equalsIgnoreCase("/confused")) {
-						game.sendToAll("CONFUSED " + client.getUsername());
-					}
-					
-					// Tired chat command
-					else if (chatCommand.equalsIgnoreCase("/tired")) {
-						game.sendToAll("TIRED " + client.getUsername());
-					}
-					
-					// Pizza chat command
-					else if (chatCommand.equalsIgnoreCase("/pizza")) {
-						game.sendToAll("PIZZA " + client.getUsername());
-					}
-					
-					// Love chat command
-					else if (chatCommand.equalsIgnoreCase("/love")) {
-						if (chatParameter != null) {
-							Player receivingPlayer = game.getPlayer(chatParameter);
-							if (receivingPlayer != null) {
-								game.sendToAll("LOVE " + client.getUsername() + " " + receivingPlayer.getClient().getUsername());
-							} else {
-								client.sendMessage("FAIL Player '" + chatParameter + "' does not exist.");
-							}
-						} else {
-							client.sendMessage("FAIL Must include a player to love.");
-						}
+					int commandEnd = parameter.indexOf(' ');
+					if (commandEnd < 0) {
+						commandEnd = parameter.length();
 					}
 					
-					// Brb chat command
-					else if (chatCommand.equalsIgnoreCase("/brb")) {
-						game.sendToAll("BRB " + client.getUsername());
-					}
-					
-					// Kiss chat command
-					else if (chatCommand.equalsIgnoreCase("/kiss")) {
-						if (chatParameter != null) {
-							Player receivingPlayer = game.getPlayer(chatParameter);
-							if (receivingPlayer != null) {
-								game.sendToAll("KISS " + client.getUsername() + " " + receivingPlayer.getClient().getUsername());
-							} else {
-								client.sendMessage("FAIL Player '" + chatParameter + "' does not exist.");
-							}
-						} else {
-							client.sendMessage("FAIL Must include a player to kiss.");
-						}
-					}
-					
-					// Waiting chat command
-					else if (chatCommand.equalsIgnoreCase("/waiting")) {
-						game.sendToAll("WAITING " + client.getUsername());
-					}
-					
-					// If no matching command is found, send fail message
-					else {
-						client.sendMessage("FAIL Unknown chat command '" + chatCommand + "'.");
+					int chatOpcode = ChatCommands.TABLE.getOpcode(parameter, 0, commandEnd, true);
+					if (chatOpcode == CommandTable.UNKNOWN) {
+						client.sendMessage("FAIL Unknown chat command '" + parameter.substring(0, commandEnd) + "'.");
+					} else if (ChatCommands.TABLE.getLayout(chatOpcode) == CommandTable.NONE) {
+						game.sendToAll(ChatCommands.getBroadcast(chatOpcode) + client.getUsername());
+					} else {
+						chatWithPlayer(chatOpcode, parameter, commandEnd);
 					}
 				} else {
 					game.sendToAll("CHAT " + client.getUsername() + " " + parameter);
 				}
 				
-				// Anti-spam
-				client.incrementSpamCount();
-				client.getSpamTimer().schedule(new TimerTask() {
-					@Override
-					public void run() {
-						client.decrementSpamCount();
-					}
-				}, 3000); // decrement the spam count 3 seconds after receiving a chat message
-				
-				if (client.getSpamCount() >= 5) {
-					client.setMuted(true);
-					client.getSpamTimer().schedule(new TimerTask() {
-						@Override
-						public void run() {
-							client.setMuted(false);
-						}
-					}, 10000);
+				// Anti-spam, players who use up their chat quota are muted for a while
+				if (client.takeToken(Connection.RATE_CHAT) <= 0) {
+					client.muteFor(10000);
 				}
 			} else {
 				client.sendMessage("FAIL You are muted and cannot chat.");
@@ -411,4 +423,36 @@ public class ClientMessage {
 			client.sendMessage("FAIL You must include a chat message.");
 		}
 	}
+	
+	/**
+	 * Handles a chat command that is aimed at another player, such as <code>/hug bob</code>
+	 * 
+	 * @param chatOpcode The opcode of the chat command
+	 * @param parameter  The chat message holding the command
+	 * @param commandEnd The index after the chat command word
+	 */
+	private void chatWithPlayer(int chatOpcode, String parameter, int commandEnd) {
+		if (commandEnd == parameter.length()) {
+			client.sendMessage(ChatCommands.getMissingPlayer(chatOpcode));
+			return;
+		}
+		
+		int nameEnd = parameter.indexOf(' ', commandEnd + 1);
+		String chatParameter = parameter.substring(commandEnd + 1, nameEnd < 0 ? parameter.length() : nameEnd);
+		String chatMessage = nameEnd < 0 ? null : parameter.substring(nameEnd + 1);
+		
+		Player receivingPlayer = game.getPlayer(chatParameter);
+		if (receivingPlayer == null) {
+			client.sendMessage("FAIL Player '" + chatParameter + "' does not exist.");
+		} else if (chatOpcode == ChatCommands.WHISPER) {
+			if (chatMessage != null) {
+				receivingPlayer.getClient().sendMessage("WHISPERFROM " + client.getUsername() + " " + chatMessage);
+				client.sendMessage("WHISPERTO " + receivingPlayer.getClient().getUsername() + " " + chatMessage);
+			} else {
+				client.sendMessage("FAIL Must include a message to whisper.");
+			}
+		} else {
+			game.sendToAll(ChatCommands.getBroadcast(chatOpcode) + client.getUsername() + " " + receivingPlayer.getClient().getUsername());
+		}
+	}
 }
@@ -0,0 +1,321 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The CompiledMap class reads and writes maps in the binary <code>.dmap</code> format, which
+ * needs no parsing. A compiled map starts with a header holding the name, goal and size of the
+ * map, the SHA-256 hash of the text file it was compiled from, the number of gold and walkable
+ * tiles and the position of every exit. The tiles follow, one byte each, row after row, so
+ * they can be mapped and copied straight into a {@link TileStore}, or read a chunk at a time
+ * by a {@link ChunkedTileStore}.
+ *
+ * Text maps are compiled into a cache directory, under the hash of their contents, so that a
+ * map is only parsed the first time it is loaded, see {@link Map#setCacheDirectory}.
+ *
+ * <pre>
+ * int    magic, "DMAP"
+ * int    format version
+ * byte[] SHA-256 hash of the text map, 32 bytes
+ * int    width, height, goal
+ * long   gold tiles, walkable tiles
+ * int    name length in bytes, followed by the name in UTF-8
+ * int    number of exits, followed by the tile number of each as a long
+ * byte[] tiles, width * height bytes
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class CompiledMap {
+	// Start of every compiled map
+	public static final int MAGIC = 0x444D4150;
+
+	// Format version, changed whenever the layout changes
+	public static final int VERSION = 1;
+
+	// File name extension of compiled maps
+	public static final String EXTENSION = ".dmap";
+
+	private static final int HASH_SIZE = 32;
+
+	// Largest part of the tiles mapped at once
+	private static final long MAPPING_SIZE = 1L << 30;
+
+	private FileChannel channel;
+	private MapReport report;
+	private long tilesStart;
+
+	/**
+	 * Constructor opens a compiled map and reads its header
+	 *
+	 * @param fileName     The name of the compiled map file
+	 * @param sourceName   The name the map is reported under
+	 * @throws IOException Thrown if the file could not be read or is not a compiled map
+	 */
+	public CompiledMap(String fileName, String sourceName) throws IOException {
+		channel = new RandomAccessFile(fileName, "r").getChannel();
+
+		try {
+			readHeader(sourceName);
+		} catch (IOException e) {
+			close();
+			throw e;
+		} catch (RuntimeException e) {
+			close();
+			throw new IOException("Broken compiled map header", e);
+		}
+	}
+
+	/**
+	 * Gets what the header says about the map
+	 *
+	 * @return The report, which is always valid
+	 */
+	public MapReport getReport() {
+		return report;
+	}
+
+	/**
+	 * Gets where each row of tiles starts in the file
+	 *
+	 * @return The position in the file of the first tile of each row
+	 */
+	public long[] getRowOffsets() {
+		long[] rowOffsets = new long[report.getHeight()];
+		for (int row = 0; row < rowOffsets.length; row++) {
+			rowOffsets[row] = tilesStart + (long) row * report.getWidth();
+		}
+		return rowOffsets;
+	}
+
+	/**
+	 * Copies the tiles into a store. Maps smaller than a gigabyte are copied from a single
+	 * mapping of the file.
+	 *
+	 * @param store        The store, with room for every tile
+	 * @throws IOException Thrown if the file could not be read
+	 */
+	public void copyTiles(TileStore store) throws IOException {
+		long tiles = (long) report.getWidth() * report.getHeight();
+
+		for (long tile = 0; tile < tiles; tile += MAPPING_SIZE) {
+			int length = (int) Math.min(MAPPING_SIZE, tiles - tile);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, tilesStart + tile, length);
+			store.setBases(tile, buffer, 0, length);
+		}
+	}
+
+	/**
+	 * Closes the file
+	 */
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Nothing more to do with it
+		}
+	}
+
+	/**
+	 * Checks if a file is a compiled map
+	 *
+	 * @param fileName The name of the file
+	 * @return         <code>true</code> if the file starts like a compiled map, <code>false</code> otherwise
+	 */
+	public static boolean isCompiled(String fileName) {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			return file.length() >= 4 && file.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the file a text map is compiled to in a cache directory. The file is named after the
+	 * hash of the text, so a changed map gets a new file and an unchanged map is found again
+	 * whatever it is called.
+	 *
+	 * @param cacheDirectory The cache directory
+	 * @param hash           The hash of the text map, see {@link #hash}
+	 * @return               The compiled map file, which may not exist yet
+	 */
+	public static File getCacheFile(File cacheDirectory, byte[] hash) {
+		StringBuilder name = new StringBuilder(HASH_SIZE * 2 + EXTENSION.length());
+		for (byte b : hash) {
+			name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return new File(cacheDirectory, name.append(EXTENSION).toString());
+	}
+
+	/**
+	 * Compiles a checked text map. The map is written to a temporary file that is then renamed,
+	 * so a server stopped part way through never leaves half a map in the cache.
+	 *
+	 * @param target       The compiled map file to write
+	 * @param hash         The hash of the text map
+	 * @param parser       The parser that checked the text map, still open
+	 * @throws IOException Thrown if the text map could not be read or the compiled map written
+	 */
+	public static void write(File target, byte[] hash, MapParser parser) throws IOException {
+		MapReport report = parser.getReport();
+		File directory = target.getAbsoluteFile().getParentFile();
+		directory.mkdirs();
+
+		File temporary = File.createTempFile("compiling", EXTENSION, directory);
+		try {
+			try (FileChannel channel = new RandomAccessFile(temporary, "rw").getChannel()) {
+				ByteBuffer header = ByteBuffer.wrap(writeHeader(report, hash));
+				while (header.hasRemaining()) {
+					channel.write(header);
+				}
+				parser.writeTiles(channel, header.capacity());
+			}
+			Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temporary.delete();
+		}
+	}
+
+	/**
+	 * Hashes the contents of a file
+	 *
+	 * @param fileName     The name of the file
+	 * @return             The SHA-256 hash
+	 * @throws IOException Thrown if the file could not be read
+	 */
+	public static byte[] hash(String fileName) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+
+		try (FileChannel channel = new RandomAccessFile(fileName, "r").getChannel()) {
+			long size = channel.size();
+			for (long position = 0; position < size; position += MAPPING_SIZE) {
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPING_SIZE, size - position)));
+			}
+		}
+		return digest.digest();
+	}
+
+	/**
+	 * Builds the header of a compiled map
+	 *
+	 * @param report       The report of the checked map
+	 * @param hash         The hash of the text map
+	 * @return             The header
+	 * @throws IOException Never thrown, the header is built in memory
+	 */
+	private static byte[] writeHeader(MapReport report, byte[] hash) throws IOException {
+		long[] exits = report.getExits();
+		byte[] name = report.getName().getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + name.length + exits.length * 8);
+		DataOutputStream header = new DataOutputStream(bytes);
+
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.write(hash);
+		header.writeInt(report.getWidth());
+		header.writeInt(report.getHeight());
+		header.writeInt(report.getGoal());
+		header.writeLong(report.getGoldCount());
+		header.writeLong(report.getWalkableCount());
+		header.writeInt(name.length);
+		header.write(name);
+		header.writeInt(exits.length);
+		for (long exit : exits) {
+			header.writeLong(exit);
+		}
+		header.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads the header, checking that it matches the size of the file
+	 *
+	 * @param sourceName   The name the map is reported under
+	 * @throws IOException Thrown if the file could not be read or is not a compiled map
+	 */
+	private void readHeader(String sourceName) throws IOException {
+		long size = channel.size();
+		ByteBuffer fixed = read(0, 4 + 4 + HASH_SIZE + 4 * 3 + 8 * 2 + 4);
+
+		if (fixed.getInt() != MAGIC) {
+			throw new IOException("Not a compiled map");
+		}
+		if (fixed.getInt() != VERSION) {
+			throw new IOException("Compiled with a different format version");
+		}
+		fixed.position(fixed.position() + HASH_SIZE);
+
+		int width = fixed.getInt();
+		int height = fixed.getInt();
+		int goal = fixed.getInt();
+		long goldCount = fixed.getLong();
+		long walkableCount = fixed.getLong();
+		int nameLength = fixed.getInt();
+		if (width <= 0 || height <= 0 || nameLength < 0 || nameLength > size) {
+			throw new IOException("Broken compiled map header");
+		}
+
+		long position = fixed.capacity();
+		byte[] name = new byte[nameLength];
+		read(position, nameLength).get(name);
+		position += nameLength;
+
+		int exitCount = read(position, 4).getInt();
+		position += 4;
+		if (exitCount < 0 || exitCount > Integer.MAX_VALUE / 8 || position + exitCount * 8L > size) {
+			throw new IOException("Broken compiled map header");
+		}
+		long[] exits = new long[exitCount];
+		read(position, exitCount * 8).asLongBuffer().get(exits);
+		position += exitCount * 8L;
+
+		tilesStart = position;
+		if (size != tilesStart + (long) width * height) {
+			throw new IOException("Compiled map is " + size + " bytes, expected " + (tilesStart + (long) width * height));
+		}
+
+		report = new MapReport(sourceName);
+		report.setName(new String(name, StandardCharsets.UTF_8));
+		report.setGoal(goal);
+		report.setSize(width, height);
+		report.setGoldCount(goldCount);
+		report.setWalkableCount(walkableCount);
+		report.setExits(exits);
+	}
+
+	/**
+	 * Reads part of the file
+	 *
+	 * @param position     The position to read from
+	 * @param length       The number of bytes to read
+	 * @return             The bytes, ready to be read
+	 * @throws IOException Thrown if the file ends first
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Compiled map ends early");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
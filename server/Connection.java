@@ -1,10 +1,18 @@
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.util.Timer;
-import java.util.Vector;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The Connection class handles the data sent and received from a client
@@ -12,9 +20,45 @@ import java.util.Vector;
  * @author Sean Stinson, ss938
  *
  */
-public class Connection extends Thread {
-	public static Vector<Connection> connections = new Vector<Connection>();
-	private static int nameCount = 0;
+public class Connection implements Runnable {
+	private static final UsernameRegistry<Connection> usernames = new UsernameRegistry<Connection>();
+	private static final AtomicInteger nameCount = new AtomicInteger();
+	
+	public static final Charset CHARSET = Charset.defaultCharset();
+	public static final String LINE_SEPARATOR = System.lineSeparator();
+	
+	// Largest batch size tracked on its own, bigger batches are counted together
+	public static final int MAX_TRACKED_BATCH = 16;
+	
+	// Framing modes, in the order they are preferred
+	public static final int FRAMING_TEXT   = 0;
+	public static final int FRAMING_LINES  = 1;
+	public static final int FRAMING_BINARY = 2;
+	
+	// Longest frame a client may announce, the lines after the first are skipped
+	public static final int MAX_FRAME_LINES = 64;
+	
+	// Classes of command that have their own rate limit
+	public static final int RATE_CHAT = 0;
+	public static final int RATE_LOOK = 1;
+	public static final int RATE_MOVE = 2;
+	
+	// One scheduler thread is shared by every client for the unmute, flush and resume timers
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "ConnectionScheduler");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	private static volatile int flushWindow = 0;
+	private static volatile int offeredFraming = FRAMING_BINARY;
+	// Chat is a sliding window, muting anyone who sends five messages within three seconds
+	private static final RateLimit[] rateLimits = {
+		new RateLimit(5, 3000, true), new RateLimit(10, 1000), new RateLimit(10, 1000)
+	};
 	
 	private Game game;
 	
@@ -22,33 +66,130 @@ public class Connection extends Thread {
 	private String username;
 	
 	private Socket sock;
-	private BufferedReader input;
-	private PrintWriter output;
+	private InputStream input;
+	private OutputStream output;
+	private ByteArrayOutputStream inboundLine;
+	private boolean skipLineFeed;
+	private ClientMessage inbound;
 
-	private Timer spamTimer;
-	private int spamCount;
-	private boolean muted;
+	private TokenBucket[] rateBuckets;
+	private volatile boolean muted;
+	private volatile long muteId;
+	
+	// Outbound queue, guarded by locks rather than monitors so a virtual thread that blocks in a
+	// write does not pin its carrier thread
+	private final ReentrantLock queueLock = new ReentrantLock();
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private ArrayList<byte[]> outbound;
+	private int outboundLength;
+	private int queuedLines;
+	private boolean flushScheduled;
+	
+	// Framing mode, agreed with the client after HELLO
+	private volatile int framing;
+	private int skippedFrameLines;
+	
+	// Outbound counters, guarded by writeLock
+	private long writeCount;
+	private long lineCount;
+	private long[] batchSizes;
 	
 	/**
 	 * Constructor sets up the input and output streams
 	 * 
-	 * @param sock The socket connection to the client
+	 * @param sock         The socket connection to the client
+	 * @param game         The game the client will join
+	 * @throws IOException Thrown if the socket streams could not be opened
 	 */
-	public Connection(Socket sock, Game game) {
-		this.game = game;
+	public Connection(Socket sock, Game game) throws IOException {
+		this(game);
 		this.sock = sock;
-		spamTimer = new Timer();
 		
-		try {
-			input = new BufferedReader(new InputStreamReader(sock.getInputStream()));
-			output = new PrintWriter(sock.getOutputStream(), false);
-			
-			start();
-		} catch (IOException e) {
-			// Allow the thread to die quietly
+		// Lines are read from the raw bytes so the stream can switch to binary frames part way
+		input = new BufferedInputStream(sock.getInputStream());
+		output = sock.getOutputStream();
+		inboundLine = new ByteArrayOutputStream();
+	}
+	
+	/**
+	 * Constructor for connections that handle their own transport
+	 * 
+	 * @param game The game the client will join
+	 */
+	protected Connection(Game game) {
+		this.game = game;
+		inbound = new ClientMessage(this);
+		
+		outbound = new ArrayList<byte[]>();
+		outboundLength = 0;
+		queuedLines = 0;
+		framing = FRAMING_TEXT;
+		flushScheduled = false;
+		batchSizes = new long[MAX_TRACKED_BATCH + 1];
+		
+		rateBuckets = new TokenBucket[rateLimits.length];
+		for (int i = 0; i < rateLimits.length; i++) {
+			rateBuckets[i] = rateLimits[i].newBucket();
 		}
 	}
 	
+	/**
+	 * Gets the micro-batching window shared by all clients
+	 * 
+	 * @return The longest time in milliseconds a queued message may wait to be flushed
+	 */
+	public static int getFlushWindow() {
+		return flushWindow;
+	}
+	
+	/**
+	 * Sets the micro-batching window shared by all clients. With a window of <code>0</code>
+	 * messages are flushed as soon as the command that produced them has been handled.
+	 * 
+	 * @param flushWindow The longest time in milliseconds a queued message may wait to be flushed
+	 */
+	public static void setFlushWindow(int flushWindow) {
+		Connection.flushWindow = flushWindow;
+	}
+	
+	/**
+	 * Gets the richest framing mode new clients are offered after HELLO
+	 * 
+	 * @return The offered framing mode, {@link #FRAMING_TEXT} if framing is not offered
+	 */
+	public static int getOfferedFraming() {
+		return offeredFraming;
+	}
+	
+	/**
+	 * Sets the richest framing mode new clients are offered after HELLO
+	 * 
+	 * @param offeredFraming The offered framing mode, {@link #FRAMING_TEXT} to not offer framing
+	 */
+	public static void setOfferedFraming(int offeredFraming) {
+		Connection.offeredFraming = offeredFraming;
+	}
+	
+	/**
+	 * Gets the rate limit for a class of command
+	 * 
+	 * @param rateClass One of the <code>RATE_*</code> command classes
+	 * @return          The rate limit
+	 */
+	public static RateLimit getRateLimit(int rateClass) {
+		return rateLimits[rateClass];
+	}
+	
+	/**
+	 * Sets the rate limit for a class of command. Clients that connect afterwards get the new limit.
+	 * 
+	 * @param rateClass One of the <code>RATE_*</code> command classes
+	 * @param limit     The new rate limit
+	 */
+	public static void setRateLimit(int rateClass, RateLimit limit) {
+		rateLimits[rateClass] = limit;
+	}
+	
 	/**
 	 * Gets the game the client is playing
 	 * 
@@ -82,92 +223,96 @@ public class Connection extends Thread {
 	 * @param name The new name for the player
 	 */
 	public void setUsername(String username) {
-		// Check that the name is unique
-		boolean unique = false;
-		String temp = username;
-
-		int counter = 2;
-		while (!unique) {
-			unique = true;
-			
-			for (Connection c : connections) {
-				if (c.getUsername().equalsIgnoreCase(temp)) {
-					temp = username + counter++;
-					unique = false;
-					break;
-				}
-			}
-		}
-		
-		this.username = temp;
-		connections.add(this);
+		// Reserve a unique name, adding a number to the end if it is taken
+		this.username = usernames.reserve(username, this);
 		sendMessage("HELLO " + this.username);
+		offerFraming();
 	}
 	
 	/**
-	 * Sets the player name to a unique default name
+	 * Takes over the name of a connection that was lost, for a client resuming its session
+	 * 
+	 * @param lost The lost connection, which still holds its name
+	 * @return     <code>true</code> if the name was taken over, <code>false</code> if the lost connection no longer holds it
 	 */
-	public void setUsername() {
-		setUsername("Player " + ++nameCount);
+	public boolean takeOverUsername(Connection lost) {
+		if (lost.username == null || !usernames.transfer(lost.username, lost, this)) {
+			return false;
+		}
+		username = lost.username;
+		return true;
 	}
 	
 	/**
-	 * Gets the player for the connection
-	 * 
-	 * @return The player being used by the connection
+	 * Frees the name of the client so another client can use it
 	 */
-	public Player getPlayer() {
-		return player;
+	public void releaseUsername() {
+		if (username != null) {
+			usernames.release(username, this);
+		}
 	}
 	
 	/**
-	 * Sets the player for the connection
-	 * 
-	 * @param player The new player being used by the connection
+	 * Offers the client the framing modes the server allows. Clients that do not understand the
+	 * offer just ignore it.
 	 */
-	public void setPlayer(Player player) {
-		this.player = player;
+	public void offerFraming() {
+		if (offeredFraming == FRAMING_LINES) {
+			sendMessage("FRAMING OFFER LINES");
+		} else if (offeredFraming == FRAMING_BINARY) {
+			sendMessage("FRAMING OFFER LINES BINARY");
+		}
 	}
-
+	
 	/**
-	 * Gets the spam timer object for this client
+	 * Runs a task once after a delay on the scheduler shared by every client
 	 * 
-	 * @return The spam timer object for this client
+	 * @param task   The task
+	 * @param millis The delay in milliseconds
+	 * @return       The scheduled task, which can be cancelled
 	 */
-	public Timer getSpamTimer() {
-		return spamTimer;
+	public static ScheduledFuture<?> schedule(Runnable task, long millis) {
+		return scheduler.schedule(task, millis, TimeUnit.MILLISECONDS);
 	}
-
+	
 	/**
-	 * Gets the spam count number for this client
-	 * 
-	 * @return The spam count number
+	 * Sets the player name to a unique default name
 	 */
-	public int getSpamCount() {
-		return spamCount;
+	public void setUsername() {
+		setUsername("Player " + nameCount.incrementAndGet());
 	}
-
+	
 	/**
-	 * Sets the spam count number for this client
+	 * Gets the player for the connection
 	 * 
-	 * @param spamCount The new spam count number
+	 * @return The player being used by the connection
 	 */
-	public void setSpamCount(int spamCount) {
-		this.spamCount = spamCount;
+	public Player getPlayer() {
+		return player;
 	}
 	
 	/**
-	 * Increases the spam count by one
+	 * Sets the player for the connection
+	 * 
+	 * @param player The new player being used by the connection
 	 */
-	public void incrementSpamCount() {
-		spamCount++;
+	public void setPlayer(Player player) {
+		this.player = player;
 	}
-	
+
 	/**
-	 * Decreases the spam count by one
+	 * Takes a token from the client's rate limit for a class of command
+	 * 
+	 * @param rateClass One of the <code>RATE_*</code> command classes
+	 * @return          The commands the client may still send straight away, <code>-1</code> if
+	 *                  the client is over the limit
 	 */
-	public void decrementSpamCount() {
-		spamCount--;
+	public int takeToken(int rateClass) {
+		TokenBucket bucket = rateBuckets[rateClass];
+		if (bucket == null) {
+			return Integer.MAX_VALUE;
+		}
+		return bucket.take();
 	}
 
 	/**
@@ -186,6 +331,7 @@ public class Connection extends Thread {
 	 */
 	public void setMuted(boolean muted) {
 		this.muted = muted;
+		muteId++;
 		
 		if (muted) {
 			sendMessage("MUTE");
@@ -194,6 +340,26 @@ public class Connection extends Thread {
 		}
 	}
 
+	/**
+	 * Mutes the client's chat for a while
+	 * 
+	 * @param millis The time in milliseconds before the client is unmuted
+	 */
+	public void muteFor(long millis) {
+		setMuted(true);
+		
+		// Muting or unmuting the client again in the meantime cancels the unmute
+		final long id = muteId;
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (muteId == id && muted) {
+					setMuted(false);
+				}
+			}
+		}, millis, TimeUnit.MILLISECONDS);
+	}
+
 	/**
 	 * Listens for incoming messages from the client
 	 */
@@ -201,31 +367,419 @@ public class Connection extends Thread {
 	public void run() {
 		try {
 			while (true) {
-				String message = input.readLine();
-				
-				if (message == null) {
-					throw new IOException();
+				if (framing == FRAMING_BINARY) {
+					handleFrame(readFrame());
+				} else {
+					handleLine(readLine());
 				}
-				
-				new ClientMessage(message, this);
 			}
-		} catch (IOException e) {
-			if (player != null) {
-				player.leaveGame();
+		} catch (IOException | RuntimeException e) {
+			// A command that fails only drops its own client
+			disconnect();
+			try {
+				close();
+			} catch (IOException closeError) {
+				// The socket is being dropped anyway
+			}
+		}
+	}
+	
+	/**
+	 * Reads a line from the client. Lines end with \n, \r or \r\n, as in
+	 * <code>BufferedReader.readLine()</code>.
+	 * 
+	 * @return             The line, without its terminator
+	 * @throws IOException Thrown if the connection is broken
+	 */
+	private String readLine() throws IOException {
+		while (true) {
+			int b = input.read();
+			if (b < 0) {
+				throw new IOException();
 			}
 			
-			connections.remove(this);
+			if (b == '\n' && skipLineFeed) {
+				skipLineFeed = false;
+			} else if (b == '\n' || b == '\r') {
+				skipLineFeed = (b == '\r');
+				String line = new String(inboundLine.toByteArray(), CHARSET);
+				inboundLine.reset();
+				return line;
+			} else {
+				skipLineFeed = false;
+				inboundLine.write(b);
+			}
 		}
 	}
 	
 	/**
-	 * Sends a message to the client
+	 * Reads a binary frame from the client
+	 * 
+	 * @return             The frame body
+	 * @throws IOException Thrown if the connection is broken or the frame is malformed
+	 */
+	private byte[] readFrame() throws IOException {
+		// Skip the \n of a \r\n that ended the last text line
+		if (skipLineFeed) {
+			skipLineFeed = false;
+			input.mark(1);
+			if (input.read() != '\n') {
+				input.reset();
+			}
+		}
+		
+		return BinaryCodec.readFrame(input);
+	}
+	
+	/**
+	 * Handles a binary frame received from the client
+	 * 
+	 * @param body         The frame body
+	 * @throws IOException Thrown if the frame is malformed
+	 */
+	public void handleFrame(byte[] body) throws IOException {
+		BinaryCodec.Message message = BinaryCodec.decodeClientMessage(body);
+		
+		OutboundBatch batch = OutboundBatch.begin();
+		try {
+			inbound.handle(message.command, message.parameter);
+		} finally {
+			batch.end();
+		}
+	}
+	
+	/**
+	 * Handles a single line received from the client. In the framed mode every command must be
+	 * a single line, so the extra lines of a longer frame are skipped and the frame is refused.
+	 * Joining them would let a client slip its own lines into the messages sent to others.
+	 * 
+	 * @param line The line received from the client
+	 */
+	public void handleLine(String line) {
+		if (framing == FRAMING_TEXT) {
+			handleMessage(line);
+			return;
+		}
+		
+		if (skippedFrameLines > 0) {
+			skippedFrameLines--;
+			if (skippedFrameLines == 0) {
+				sendMessage("FAIL Commands must be a single line.");
+			}
+			return;
+		}
+		
+		// Read the line count in place, at most four digits so it can not overflow
+		int lines = 0;
+		int digits = 0;
+		while (digits < line.length() && digits <= 4) {
+			char c = line.charAt(digits);
+			if (c < '0' || c > '9') {
+				break;
+			}
+			lines = lines * 10 + (c - '0');
+			digits++;
+		}
+		
+		if (digits == 0 || digits > 4 || digits == line.length() || line.charAt(digits) != ' '
+				|| lines < 1 || lines > MAX_FRAME_LINES) {
+			sendMessage("FAIL Invalid frame.");
+		} else if (lines > 1) {
+			skippedFrameLines = lines - 1;
+		} else {
+			handleMessage(line, digits + 1);
+		}
+	}
+	
+	/**
+	 * Handles a single line received from the client
+	 * 
+	 * @param message The message received from the client
+	 */
+	public void handleMessage(String message) {
+		handleMessage(message, 0);
+	}
+	
+	/**
+	 * Handles a message that starts part way into a line received from the client
+	 * 
+	 * @param line  The line received from the client
+	 * @param start The index the message starts at
+	 */
+	public void handleMessage(String line, int start) {
+		OutboundBatch batch = OutboundBatch.begin();
+		try {
+			inbound.handle(line, start);
+		} finally {
+			batch.end();
+		}
+	}
+	
+	/**
+	 * Removes the client from the game once the connection has been lost. If the game lets
+	 * sessions be resumed the player is kept, along with the client's name, until the client
+	 * comes back or the grace period runs out.
+	 */
+	public void disconnect() {
+		boolean parked = false;
+		
+		OutboundBatch batch = OutboundBatch.begin();
+		try {
+			if (player != null) {
+				ReentrantLock gameLock = player.getGame().getLock();
+				gameLock.lock();
+				try {
+					parked = player.getGame().park(player);
+					if (!parked) {
+						player.leaveGame();
+					}
+				} finally {
+					gameLock.unlock();
+				}
+			}
+		} finally {
+			batch.end();
+		}
+		
+		if (!parked) {
+			releaseUsername();
+		}
+	}
+	
+	/**
+	 * Queues a message to be sent to the client. Inside a command the message is flushed with
+	 * the rest of the command's output, otherwise it is flushed straight away.
 	 * 
 	 * @param message The message to be sent
 	 */
 	public void sendMessage(String message) {
-		output.println(message);
-		output.flush();
+		queueLock.lock();
+		try {
+			queue(EncodedMessage.encode(message, framing));
+		} finally {
+			queueLock.unlock();
+		}
+		
+		flushAfterCommand();
+	}
+	
+	/**
+	 * Queues a message that is being sent to many clients. The message is only encoded once
+	 * for each framing mode, and its bytes are shared with the other clients.
+	 * 
+	 * @param message The message to be sent
+	 */
+	public void sendMessage(EncodedMessage message) {
+		queueLock.lock();
+		try {
+			queue(message.getBytes(framing));
+		} finally {
+			queueLock.unlock();
+		}
+		
+		flushAfterCommand();
+	}
+	
+	/**
+	 * Switches the client to a framing mode. The switch is confirmed with an unframed
+	 * <code>FRAMING ON</code> message, after which every message in both directions starts
+	 * with its line count, or <code>FRAMING ON BINARY</code>, after which every message is a
+	 * binary frame.
+	 * 
+	 * @param mode The framing mode, {@link #FRAMING_LINES} or {@link #FRAMING_BINARY}
+	 */
+	public void enableFraming(int mode) {
+		queueLock.lock();
+		try {
+			if (framing != FRAMING_TEXT) {
+				return;
+			}
+			queue(EncodedMessage.encode(mode == FRAMING_BINARY ? "FRAMING ON BINARY" : "FRAMING ON", FRAMING_TEXT));
+			framing = mode;
+		} finally {
+			queueLock.unlock();
+		}
+		
+		flushAfterCommand();
+	}
+	
+	/**
+	 * Checks if the client is sent changes to the player list instead of the whole list. Only
+	 * clients that agreed a framing mode are, since they know the commands added with it.
+	 * 
+	 * @return <code>true</code> if the client accepts <code>PLAYERJOIN</code> and
+	 *         <code>PLAYERLEAVE</code>, <code>false</code> otherwise
+	 */
+	public boolean acceptsRosterChanges() {
+		return framing != FRAMING_TEXT;
+	}
+	
+	/**
+	 * Gets the framing mode used with the client
+	 * 
+	 * @return {@link #FRAMING_TEXT}, {@link #FRAMING_LINES} or {@link #FRAMING_BINARY}
+	 */
+	public int getFraming() {
+		return framing;
+	}
+	
+	/**
+	 * Adds an encoded message to the outbound queue. The bytes are queued as they are, not
+	 * copied. The caller must hold the queue lock.
+	 * 
+	 * @param bytes The encoded message
+	 */
+	private void queue(byte[] bytes) {
+		outbound.add(bytes);
+		outboundLength += bytes.length;
+		queuedLines++;
+	}
+	
+	/**
+	 * Flushes the queued messages when the current command is finished, or straight away if
+	 * the current thread is not handling a command
+	 */
+	private void flushAfterCommand() {
+		OutboundBatch batch = OutboundBatch.current();
+		if (batch != null) {
+			batch.add(this);
+		} else {
+			requestFlush();
+		}
+	}
+	
+	/**
+	 * Flushes the queued messages now, or within the flush window if one is set
+	 */
+	public void requestFlush() {
+		if (flushWindow <= 0) {
+			flush();
+			return;
+		}
+		
+		queueLock.lock();
+		try {
+			if (flushScheduled || queuedLines == 0) {
+				return;
+			}
+			flushScheduled = true;
+		} finally {
+			queueLock.unlock();
+		}
+		
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, flushWindow, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Writes every queued message to the client in a single write
+	 */
+	public void flush() {
+		writeLock.lock();
+		try {
+			byte[][] segments;
+			int length;
+			int lineTotal;
+			
+			queueLock.lock();
+			try {
+				flushScheduled = false;
+				if (queuedLines == 0) {
+					return;
+				}
+				
+				segments = outbound.toArray(new byte[outbound.size()][]);
+				length = outboundLength;
+				lineTotal = queuedLines;
+				outbound.clear();
+				outboundLength = 0;
+				queuedLines = 0;
+			} finally {
+				queueLock.unlock();
+			}
+			
+			writeCount++;
+			lineCount += lineTotal;
+			batchSizes[Math.min(lineTotal, MAX_TRACKED_BATCH)]++;
+			
+			write(segments, length);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Writes a block of encoded messages to the client in one write. Only called by
+	 * {@link #flush()}.
+	 * 
+	 * @param segments The encoded messages, which may be shared with other clients
+	 * @param length   The total length of the messages
+	 */
+	protected void write(byte[][] segments, int length) {
+		byte[] bytes = segments[0];
+		if (segments.length > 1) {
+			bytes = new byte[length];
+			int position = 0;
+			for (byte[] segment : segments) {
+				System.arraycopy(segment, 0, bytes, position, segment.length);
+				position += segment.length;
+			}
+		}
+		
+		try {
+			output.write(bytes);
+			output.flush();
+		} catch (IOException e) {
+			// The reading thread notices the broken connection and cleans up
+		}
+	}
+	
+	/**
+	 * Gets the number of writes made to the client
+	 * 
+	 * @return The number of writes
+	 */
+	public long getWriteCount() {
+		writeLock.lock();
+		try {
+			return writeCount;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets the number of lines written to the client
+	 * 
+	 * @return The number of lines
+	 */
+	public long getLineCount() {
+		writeLock.lock();
+		try {
+			return lineCount;
+		} finally {
+			writeLock.unlock();
+		}
+	}
+	
+	/**
+	 * Gets how many writes carried each number of lines. Index <code>n</code> counts the writes
+	 * of <code>n</code> lines, with the last index counting every write of
+	 * {@link #MAX_TRACKED_BATCH} lines or more.
+	 * 
+	 * @return The number of writes for each batch size
+	 */
+	public long[] getBatchSizes() {
+		writeLock.lock();
+		try {
+			return batchSizes.clone();
+		} finally {
+			writeLock.unlock();
+		}
 	}
 	
 	/**
@@ -0,0 +1,86 @@
+/**
+ * The EncodedMessage class is a message that is sent to many clients. It is encoded once for
+ * each framing mode in use, and the same bytes are then queued for every client that uses that
+ * mode, so sending it to more clients adds no more encoding work.
+ *
+ * The encoded bytes are shared, so they must never be changed once they have been handed out.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class EncodedMessage {
+	private String message;
+
+	// Encoded bytes for each framing mode, filled in the first time each mode is needed
+	private volatile byte[] text;
+	private volatile byte[] lines;
+	private volatile byte[] binary;
+
+	/**
+	 * Constructor passes parameter values to the fields
+	 *
+	 * @param message The message, with the lines of multi-line messages separated by <code>\n</code>
+	 */
+	public EncodedMessage(String message) {
+		this.message = message;
+	}
+
+	/**
+	 * Gets the message before it was encoded
+	 *
+	 * @return The message
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Gets the message encoded for a framing mode
+	 *
+	 * @param framing One of the <code>Connection.FRAMING_*</code> modes
+	 * @return        The encoded message, which must not be changed
+	 */
+	public byte[] getBytes(int framing) {
+		byte[] bytes;
+
+		if (framing == Connection.FRAMING_BINARY) {
+			bytes = binary;
+			if (bytes == null) {
+				binary = bytes = encode(message, framing);
+			}
+		} else if (framing == Connection.FRAMING_LINES) {
+			bytes = lines;
+			if (bytes == null) {
+				lines = bytes = encode(message, framing);
+			}
+		} else {
+			bytes = text;
+			if (bytes == null) {
+				text = bytes = encode(message, framing);
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes a message for a framing mode
+	 *
+	 * @param message The message, with the lines of multi-line messages separated by <code>\n</code>
+	 * @param framing One of the <code>Connection.FRAMING_*</code> modes
+	 * @return        The encoded message
+	 */
+	public static byte[] encode(String message, int framing) {
+		if (framing == Connection.FRAMING_BINARY) {
+			return BinaryCodec.encodeServerMessage(message);
+		} else if (framing == Connection.FRAMING_LINES) {
+			int lineCount = 1;
+			for (int i = 0; i < message.length(); i++) {
+				if (message.charAt(i) == '\n') {
+					lineCount++;
+				}
+			}
+			return (lineCount + " " + message + Connection.LINE_SEPARATOR).getBytes(Connection.CHARSET);
+		}
+		return (message + Connection.LINE_SEPARATOR).getBytes(Connection.CHARSET);
+	}
+}
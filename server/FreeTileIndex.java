@@ -0,0 +1,192 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The FreeTileIndex class keeps track of the tiles a player could be placed on, those that are
+ * neither walls nor occupied, so that a free tile can be picked at random without searching the
+ * map. The map is split into 8x8 blocks and each block keeps one bit per tile in a
+ * <code>long</code>. The blocks with at least one free tile are kept in a list, and a block is
+ * moved in or out of the list as its first tile is freed or its last tile is taken.
+ *
+ * A random tile is picked by choosing a block from the list and a bit in it, trying again if the
+ * tile is not free. Every free tile is equally likely to be picked, and as every block in the list
+ * has a free tile this takes at most 64 tries on average, however full the map is. The index
+ * takes about two bits per tile, so it stays small on the largest maps.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class FreeTileIndex {
+	// Width and height of a block in tiles, so that a block fits in a long
+	public static final int BLOCK_SIZE = 8;
+
+	// Returned by pick when no tile is free
+	public static final long NONE = -1;
+
+	private int width;
+	private int height;
+	private int blockColumns;
+	private long[] blocks;
+	private int[] freeBlocks;
+	private int[] freeBlockSlots;
+	private int freeBlockCount;
+	private long freeTileCount;
+
+	/**
+	 * Constructor creates an index for a map with no free tiles
+	 *
+	 * @param width  The width of the map in tiles
+	 * @param height The height of the map in tiles
+	 */
+	public FreeTileIndex(int width, int height) {
+		this.width = width;
+		this.height = height;
+		blockColumns = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		long blockCount = (long) blockColumns * ((height + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		if (blockCount > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Map is too large to index: " + width + "x" + height);
+		}
+
+		blocks = new long[(int) blockCount];
+		freeBlocks = new int[(int) blockCount];
+		freeBlockSlots = new int[(int) blockCount];
+		Arrays.fill(freeBlockSlots, -1);
+		freeBlockCount = 0;
+		freeTileCount = 0;
+	}
+
+	/**
+	 * Marks a tile as free. Tiles that are already free are ignored.
+	 *
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 */
+	public synchronized void add(int x, int y) {
+		int block = blockOf(x, y);
+		long bit = bitOf(x, y);
+		if ((blocks[block] & bit) != 0) {
+			return;
+		}
+
+		if (blocks[block] == 0) {
+			freeBlockSlots[block] = freeBlockCount;
+			freeBlocks[freeBlockCount++] = block;
+		}
+		blocks[block] |= bit;
+		freeTileCount++;
+	}
+
+	/**
+	 * Marks tiles in a block as free, more quickly than adding them one at a time
+	 *
+	 * @param blockX The X position of the block, in blocks
+	 * @param blockY The Y position of the block, in blocks
+	 * @param tiles  A bit for each tile to mark, bit <code>y * BLOCK_SIZE + x</code> for the tile at x,y in the block
+	 */
+	public synchronized void addBlock(int blockX, int blockY, long tiles) {
+		int block = blockY * blockColumns + blockX;
+		long added = tiles & ~blocks[block];
+		if (added == 0) {
+			return;
+		}
+
+		if (blocks[block] == 0) {
+			freeBlockSlots[block] = freeBlockCount;
+			freeBlocks[freeBlockCount++] = block;
+		}
+		blocks[block] |= added;
+		freeTileCount += Long.bitCount(added);
+	}
+
+	/**
+	 * Marks a tile as taken. Tiles that are not free are ignored.
+	 *
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 */
+	public synchronized void remove(int x, int y) {
+		int block = blockOf(x, y);
+		long bit = bitOf(x, y);
+		if ((blocks[block] & bit) == 0) {
+			return;
+		}
+
+		blocks[block] &= ~bit;
+		freeTileCount--;
+		if (blocks[block] == 0) {
+			// Move the last block in the list into the gap
+			int slot = freeBlockSlots[block];
+			int last = freeBlocks[--freeBlockCount];
+			freeBlocks[slot] = last;
+			freeBlockSlots[last] = slot;
+			freeBlockSlots[block] = -1;
+		}
+	}
+
+	/**
+	 * Checks if a tile is free
+	 *
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 * @return  <code>true</code> if the tile is free, <code>false</code> otherwise
+	 */
+	public synchronized boolean isFree(int x, int y) {
+		return (blocks[blockOf(x, y)] & bitOf(x, y)) != 0;
+	}
+
+	/**
+	 * Gets the number of free tiles
+	 *
+	 * @return The number of free tiles
+	 */
+	public synchronized long getFreeCount() {
+		return freeTileCount;
+	}
+
+	/**
+	 * Picks a free tile at random, each free tile being equally likely. The tile is not taken.
+	 *
+	 * @param random The source of random numbers
+	 * @return       The tile number, <code>y * width + x</code>, or {@link #NONE} if no tile is free
+	 */
+	public synchronized long pick(SplittableRandom random) {
+		if (freeTileCount == 0) {
+			return NONE;
+		}
+
+		while (true) {
+			int block = freeBlocks[random.nextInt(freeBlockCount)];
+			int bit = random.nextInt(BLOCK_SIZE * BLOCK_SIZE);
+			if ((blocks[block] >>> bit & 1) != 0) {
+				long x = (long) (block % blockColumns) * BLOCK_SIZE + bit % BLOCK_SIZE;
+				long y = (long) (block / blockColumns) * BLOCK_SIZE + bit / BLOCK_SIZE;
+				return y * width + x;
+			}
+		}
+	}
+
+	/**
+	 * Gets the block a tile is in
+	 *
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 * @return  The block index
+	 */
+	private int blockOf(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			throw new IndexOutOfBoundsException("Tile " + x + "," + y + " is outside the map");
+		}
+		return (y / BLOCK_SIZE) * blockColumns + x / BLOCK_SIZE;
+	}
+
+	/**
+	 * Gets the bit of a tile in its block
+	 *
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 * @return  The bit, as a mask
+	 */
+	private static long bitOf(int x, int y) {
+		return 1L << ((y % BLOCK_SIZE) * BLOCK_SIZE + x % BLOCK_SIZE);
+	}
+}
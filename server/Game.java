@@ -1,19 +1,108 @@
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The Game class represents a game of Dungeon of Dooom.
  * 
+ * Client commands, disconnects and the turn timers all hold the game lock, see
+ * {@link #getLock()}, while they change the game, so a turn can not move on part way through a
+ * command. It is a <code>ReentrantLock</code> rather than a monitor so that a virtual thread
+ * waiting on it, or blocking while it holds it, does not pin its carrier thread.
+ * 
  * @author Sean Stinson, ss938
  *
  */
 public class Game extends Observable {
+	// Messages sent to many players, encoded once
+	private static final EncodedMessage CHANGE = new EncodedMessage("CHANGE");
+	
+	// Sent to a player that cannot be placed because every tile is a wall or occupied
+	private static final String DUNGEON_FULL = "FAIL The dungeon is full, send any command to try joining again.";
+	
 	private Vector<Player> players;
+	private final ReentrantLock gameLock = new ReentrantLock();
+	private UsernameRegistry<Player> playerNames;
+	private SpatialIndex spatialIndex;
+	private LookCache lookCache;
 	private int currentPlayer;
 	private Player player;
 	
+	// Seed every game starts with, null to pick a new seed for each game
+	private static volatile Long fixedSeed = null;
+	
+	// Where each game's journal is written, null to not keep journals
+	private static volatile File journalDirectory = null;
+	
+	private GameJournal journal;
+	
+	// Time between snapshots unless told otherwise, in milliseconds
+	public static final int DEFAULT_SNAPSHOT_INTERVAL = 5000;
+	
+	// Where the latest snapshot of the game is kept, null to not take snapshots
+	private static volatile File snapshotDirectory = null;
+	private static volatile int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+	
+	private SnapshotWriter snapshots;
+	
+	// Players restored from a snapshot who have not joined again yet, by user name
+	private HashMap<String, GameSnapshot.SavedPlayer> restoredPlayers;
+	
+	// How long a player whose connection was lost is kept for their client to resume, 0 to remove them at once
+	private static volatile int resumeGrace = 0;
+	
+	// Makes the session tokens, which must not be guessable
+	private static final SecureRandom sessionRandom = new SecureRandom();
+	
+	// Players by session token, and the players waiting to be resumed with the timers that remove them
+	private HashMap<String, Player> sessions;
+	private HashMap<Player, ScheduledFuture<?>> parkedPlayers;
+	
+	// Turn limits unless told otherwise, in milliseconds
+	public static final int DEFAULT_TURN_TIMEOUT = 60000;
+	public static final int DEFAULT_TURN_WARNING = 10000;
+	
+	// How long a player has for their turn, 0 for no limit, and how long before the end they are warned
+	private static volatile int turnTimeout = DEFAULT_TURN_TIMEOUT;
+	private static volatile int turnWarning = DEFAULT_TURN_WARNING;
+	
+	// The timing wheel only hands expired turn timers on to these threads, as ending a turn writes to
+	// sockets and a client that is slow to read must not hold up the deadlines of every other game
+	private static final ExecutorService turnTimers = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "TurnTimer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	// Timers of the current turn, on the timing wheel shared by every game, guarded by turnLock
+	private final Object turnLock = new Object();
+	
+	// Counts the turns, so a timer can tell if the turn it was set for is still going
+	private long turnNumber;
+	private final TurnStats turnStats = new TurnStats();
+	private long turnStart;
+	private TimingWheel.Timeout turnWarningTimer;
+	private TimingWheel.Timeout turnDeadline;
+	
+	// Every random draw comes from the seed, spawns and combat each having their own stream
+	private long seed;
+	private SplittableRandom spawnRandom;
+	private SplittableRandom combatRandom;
+	
 	private boolean finished;
 	
 	private Map map;
@@ -23,9 +112,18 @@ public class Game extends Observable {
 	 */
 	public Game() {
 		players = new Vector<Player>();
+		playerNames = new UsernameRegistry<Player>();
 		currentPlayer = -1;
 		finished = false;
 		map = new Map();
+		spatialIndex = new SpatialIndex(map.getWidth(), map.getHeight());
+		lookCache = new LookCache();
+		restoredPlayers = new HashMap<String, GameSnapshot.SavedPlayer>();
+		sessions = new HashMap<String, Player>();
+		parkedPlayers = new HashMap<Player, ScheduledFuture<?>>();
+		reseed(nextSeed());
+		openJournal();
+		startSnapshots();
 	}
 	
 	/**
@@ -34,10 +132,315 @@ public class Game extends Observable {
 	 * @param mapFile The map file to load
 	 */
 	public Game(String mapFile) {
+		this(mapFile, nextSeed());
+	}
+	
+	/**
+	 * Constructor initialises fields and uses a given map file and seed, so that a game can be
+	 * played again exactly by sending it the same commands
+	 * 
+	 * @param mapFile The map file to load
+	 * @param seed    The seed of the game's random numbers
+	 */
+	public Game(String mapFile, long seed) {
 		players = new Vector<Player>();
+		playerNames = new UsernameRegistry<Player>();
 		currentPlayer = -1;
 		finished = false;
 		map = new Map(mapFile);
+		spatialIndex = new SpatialIndex(map.getWidth(), map.getHeight());
+		lookCache = new LookCache();
+		restoredPlayers = new HashMap<String, GameSnapshot.SavedPlayer>();
+		sessions = new HashMap<String, Player>();
+		parkedPlayers = new HashMap<Player, ScheduledFuture<?>>();
+		reseed(seed);
+		openJournal();
+		startSnapshots();
+	}
+	
+	/**
+	 * Constructor restores a game from a snapshot. The map is loaded again and the tiles that had
+	 * changed are put back, unless the map file has changed since. Players get back what they had
+	 * when they join again with the same name, and turns start again with whoever joins first.
+	 * 
+	 * @param snapshot The snapshot
+	 */
+	public Game(GameSnapshot snapshot) {
+		players = new Vector<Player>();
+		playerNames = new UsernameRegistry<Player>();
+		currentPlayer = -1;
+		finished = snapshot.isFinished();
+		map = snapshot.getMapFile() == null ? new Map() : new Map(snapshot.getMapFile());
+		spatialIndex = new SpatialIndex(map.getWidth(), map.getHeight());
+		lookCache = new LookCache();
+		
+		if (Arrays.equals(GameSnapshot.hashOf(map), snapshot.getMapHash())) {
+			for (GameSnapshot.SavedRegion region : snapshot.getRegions()) {
+				if (region.getRegion() >= 0 && region.getRegion() < map.getRegionCount()) {
+					map.setRegion(region.getRegion(), region.getBases(), region.getAmounts());
+				}
+			}
+		} else {
+			System.out.println("The map has changed since the snapshot was taken, only restoring the players.");
+		}
+		
+		sessions = new HashMap<String, Player>();
+		parkedPlayers = new HashMap<Player, ScheduledFuture<?>>();
+		restoredPlayers = new HashMap<String, GameSnapshot.SavedPlayer>();
+		for (GameSnapshot.SavedPlayer saved : snapshot.getPlayers()) {
+			restoredPlayers.put(saved.getName(), saved);
+		}
+		
+		System.out.println("Restored " + snapshot.getRegions().size() + " changed regions and " + restoredPlayers.size()
+				+ " players from the snapshot of seed " + snapshot.getSeed() + ".");
+		reseed(nextSeed());
+		openJournal();
+		startSnapshots();
+	}
+	
+	/**
+	 * Creates the game a server starts with, restored from the latest snapshot if snapshots are
+	 * taken and there is one
+	 * 
+	 * @return The restored game, or a game on the default map
+	 */
+	public static Game recover() {
+		File directory = snapshotDirectory;
+		if (directory != null) {
+			File file = new File(directory, GameSnapshot.FILE_NAME);
+			if (file.isFile()) {
+				try {
+					return new Game(GameSnapshot.read(file));
+				} catch (IOException e) {
+					System.out.println("Unable to restore snapshot " + file + ": " + e.getMessage());
+				}
+			}
+		}
+		return new Game();
+	}
+	
+	/**
+	 * Gets the seed every game starts with
+	 * 
+	 * @return The seed, <code>null</code> if each game picks a new seed
+	 */
+	public static Long getFixedSeed() {
+		return fixedSeed;
+	}
+	
+	/**
+	 * Sets the seed every game started from now on starts with
+	 * 
+	 * @param fixedSeed The seed, <code>null</code> for each game to pick a new seed
+	 */
+	public static void setFixedSeed(Long fixedSeed) {
+		Game.fixedSeed = fixedSeed;
+	}
+	
+	/**
+	 * Gets the directory each game's journal is written to
+	 * 
+	 * @return The directory, <code>null</code> if journals are not kept
+	 */
+	public static File getJournalDirectory() {
+		return journalDirectory;
+	}
+	
+	/**
+	 * Sets the directory the journal of each game started from now on is written to, see
+	 * {@link GameJournal}
+	 * 
+	 * @param journalDirectory The directory, <code>null</code> to not keep journals
+	 */
+	public static void setJournalDirectory(File journalDirectory) {
+		Game.journalDirectory = journalDirectory;
+	}
+	
+	/**
+	 * Gets the journal of the current game
+	 * 
+	 * @return The journal, <code>null</code> if the game is not keeping one
+	 */
+	public GameJournal getJournal() {
+		return journal;
+	}
+	
+	/**
+	 * Records the final state of the current game in its journal and closes it. Nothing more
+	 * is recorded until a new game is started.
+	 */
+	public void closeJournal() {
+		GameJournal ended = journal;
+		if (ended != null) {
+			journal = null;
+			gameLock.lock();
+			try {
+				ended.end(players, player, finished);
+			} finally {
+				gameLock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Gets the directory the latest snapshot of the game is kept in
+	 * 
+	 * @return The directory, <code>null</code> if snapshots are not taken
+	 */
+	public static File getSnapshotDirectory() {
+		return snapshotDirectory;
+	}
+	
+	/**
+	 * Sets the directory the latest snapshot of each game created from now on is kept in, see
+	 * {@link SnapshotWriter}
+	 * 
+	 * @param snapshotDirectory The directory, <code>null</code> to not take snapshots
+	 */
+	public static void setSnapshotDirectory(File snapshotDirectory) {
+		Game.snapshotDirectory = snapshotDirectory;
+	}
+	
+	/**
+	 * Gets the time between snapshots
+	 * 
+	 * @return The time in milliseconds
+	 */
+	public static int getSnapshotInterval() {
+		return snapshotInterval;
+	}
+	
+	/**
+	 * Sets the time between snapshots of each game created from now on
+	 * 
+	 * @param snapshotInterval The time in milliseconds
+	 */
+	public static void setSnapshotInterval(int snapshotInterval) {
+		Game.snapshotInterval = snapshotInterval;
+	}
+	
+	/**
+	 * Gets how long a player whose connection was lost is kept for their client to resume
+	 * 
+	 * @return The grace period in milliseconds, <code>0</code> if players are removed at once
+	 */
+	public static int getResumeGrace() {
+		return resumeGrace;
+	}
+	
+	/**
+	 * Sets how long a player whose connection was lost is kept for their client to resume. With
+	 * a grace period each player is sent a <code>SESSION</code> token when they join, which a
+	 * new connection sends with <code>RESUME</code> to take the player back.
+	 * 
+	 * @param resumeGrace The grace period in milliseconds, <code>0</code> to remove players at once
+	 */
+	public static void setResumeGrace(int resumeGrace) {
+		Game.resumeGrace = resumeGrace;
+	}
+	
+	/**
+	 * Gets how long a player has for their turn
+	 * 
+	 * @return The time in milliseconds, <code>0</code> if turns have no limit
+	 */
+	public static int getTurnTimeout() {
+		return turnTimeout;
+	}
+	
+	/**
+	 * Sets how long a player has for their turn, for turns started from now on. A player who
+	 * runs out of time has their turn ended for them.
+	 * 
+	 * @param turnTimeout The time in milliseconds, <code>0</code> for no limit
+	 */
+	public static void setTurnTimeout(int turnTimeout) {
+		Game.turnTimeout = turnTimeout;
+	}
+	
+	/**
+	 * Gets how long before the end of their turn a player is warned
+	 * 
+	 * @return The time in milliseconds, <code>0</code> if players are not warned
+	 */
+	public static int getTurnWarning() {
+		return turnWarning;
+	}
+	
+	/**
+	 * Sets how long before the end of their turn a player is warned, for turns started from now on
+	 * 
+	 * @param turnWarning The time in milliseconds, <code>0</code> to not warn players
+	 */
+	public static void setTurnWarning(int turnWarning) {
+		Game.turnWarning = turnWarning;
+	}
+	
+	/**
+	 * Gets how long turns have taken
+	 * 
+	 * @return The turn statistics of the game
+	 */
+	public TurnStats getTurnStats() {
+		return turnStats;
+	}
+	
+	/**
+	 * Gets what takes the game's snapshots
+	 * 
+	 * @return The snapshot writer, <code>null</code> if snapshots are not taken
+	 */
+	public SnapshotWriter getSnapshots() {
+		return snapshots;
+	}
+	
+	/**
+	 * Copies the players and the turn into a snapshot. Players restored from the last snapshot
+	 * who have not joined again yet are kept in it too.
+	 * 
+	 * @param snapshot The snapshot to fill
+	 */
+	public void saveState(GameSnapshot snapshot) {
+		gameLock.lock();
+		try {
+			snapshot.setSeed(seed);
+			snapshot.setFinished(finished);
+			Player turn = player;
+			snapshot.setTurn(turn == null ? "" : turn.getClient().getUsername());
+			
+			for (Player p : players) {
+				snapshot.getPlayers().add(new GameSnapshot.SavedPlayer(p));
+			}
+			snapshot.getPlayers().addAll(restoredPlayers.values());
+		} finally {
+			gameLock.unlock();
+		}
+	}
+	
+	/**
+	 * Stops the game keeping records, writing a last snapshot and closing the journal. Called
+	 * when the game is replaced or the server stops.
+	 */
+	public void close() {
+		stopTurnClock(false);
+		System.out.println(turnStats);
+		
+		SnapshotWriter writer = snapshots;
+		if (writer != null) {
+			snapshots = null;
+			writer.close();
+		}
+		closeJournal();
+	}
+	
+	/**
+	 * Gets the seed of the current game's random numbers. Playing the same map with the same
+	 * seed and the same commands gives the same game.
+	 * 
+	 * @return The seed
+	 */
+	public long getSeed() {
+		return seed;
 	}
 	
 	/**
@@ -49,6 +452,16 @@ public class Game extends Observable {
 		return players;
 	}
 	
+	/**
+	 * Gets the game lock, which is held while a command, disconnect or turn timer changes the
+	 * game
+	 * 
+	 * @return The game lock
+	 */
+	public ReentrantLock getLock() {
+		return gameLock;
+	}
+	
 	/**
 	 * Gets whether the game has finished or not
 	 * 
@@ -83,12 +496,7 @@ public class Game extends Observable {
 	 * @return         The player that is using the given user name
 	 */
 	public Player getPlayer(String username) {
-		for (Player p : players) {
-			if (p.getClient().getUsername().equalsIgnoreCase(username)) {
-				return p;
-			}
-		}
-		return null;
+		return playerNames.get(username);
 	}
 
 	/**
@@ -98,6 +506,9 @@ public class Game extends Observable {
 	 */
 	public void setPlayer(Player player) {
 		this.player = player;
+		if (journal != null) {
+			journal.turn(player);
+		}
 	}
 	
 	/**
@@ -109,6 +520,24 @@ public class Game extends Observable {
 		return map;
 	}
 	
+	/**
+	 * Gets the index used to find the players near a location
+	 * 
+	 * @return The spatial index of the players
+	 */
+	public SpatialIndex getSpatialIndex() {
+		return spatialIndex;
+	}
+	
+	/**
+	 * Gets the cache of rendered views, which also counts how often it is used
+	 * 
+	 * @return The LOOK cache for the current map
+	 */
+	public LookCache getLookCache() {
+		return lookCache;
+	}
+	
 	/**
 	 * Gets the tile at a given position
 	 * 
@@ -117,7 +546,7 @@ public class Game extends Observable {
 	 * @return      The Tile at the position
 	 */
 	public Tile getTile(int tileX, int tileY) {
-		return map.getTiles()[tileY][tileX];
+		return map.getTile(tileX, tileY);
 	}
 	
 	/**
@@ -126,40 +555,108 @@ public class Game extends Observable {
 	 * @param mapFile
 	 */
 	public void startNewGame(String mapFile) {
-		map = new Map(mapFile);
-		
-		// Relocate players
-		for (Player p : players) {
-			p.reset();
-			
-			randomLocation(p);
+		// Messages are written once the game lock has been let go
+		OutboundBatch batch = OutboundBatch.begin();
+		try {
+			// Commands and turn timers must not run while the game is being replaced
+			gameLock.lock();
+			try {
+				closeJournal();
+				map = new Map(mapFile);
+				spatialIndex = new SpatialIndex(map.getWidth(), map.getHeight());
+				lookCache = new LookCache();
+				reseed(nextSeed());
+				openJournal();
+				restoredPlayers.clear();
+				
+				// Relocate players, turning away any that the new map has no room for
+				Vector<Player> unplaced = new Vector<Player>();
+				for (Player p : players) {
+					p.reset();
+				
+					spatialIndex.add(p);
+					if (!randomLocation(p)) {
+						unplaced.add(p);
+					} else if (journal != null) {
+						journal.join(p);
+					}
+				}
+				
+				finished = false;
+				if (unplaced.isEmpty()) {
+					updateView();
+					return;
+				}
+				
+				for (Player p : unplaced) {
+					turnAway(p);
+				}
+				updateClientPlayers();
+			} finally {
+				gameLock.unlock();
+			}
+		} finally {
+			batch.end();
 		}
-		
-		finished = false;
-		updateView();
 	}
 	
 	/**
-	 * Joins a new client to the game, creating a Player for them to control
+	 * Joins a new client to the game, creating a Player for them to control. A client that
+	 * cannot be placed because the dungeon is full is told so and left out of the game.
 	 * 
 	 * @param client The client that joined the game
+	 * @return       <code>true</code> if the client joined, <code>false</code> if there was no free tile
 	 */
-	public void join(Connection client) {
+	public boolean join(Connection client) {
 		Player newPlayer = new Player(client, this);
-		randomLocation(newPlayer);
+		GameSnapshot.SavedPlayer saved;
+		gameLock.lock();
+		try {
+			saved = restoredPlayers.remove(client.getUsername());
+		} finally {
+			gameLock.unlock();
+		}
+		
+		if (saved != null ? !restorePlayer(newPlayer, saved) : !randomLocation(newPlayer)) {
+			if (saved != null) {
+				gameLock.lock();
+				try {
+					restoredPlayers.put(saved.getName(), saved);
+				} finally {
+					gameLock.unlock();
+				}
+			}
+			client.setPlayer(null);
+			client.sendMessage(DUNGEON_FULL);
+			return false;
+		}
 		
 		newPlayer.getClient().sendMessage("GOAL " + map.getGoal());
 		newPlayer.getClient().sendMessage("DUNGEON " + map.getName());
 		
-		synchronized (players) {
+		gameLock.lock();
+		try {
 			players.add(newPlayer);
+			playerNames.reserve(newPlayer.getClient().getUsername(), newPlayer);
+			spatialIndex.add(newPlayer);
+			if (journal != null) {
+				journal.join(newPlayer);
+			}
+			if (resumeGrace > 0) {
+				openSession(newPlayer);
+			}
 			sendToAll("MESSAGE " + newPlayer.getClient().getUsername() + " joined the game.");
 			
-			if (players.size() == 1 && !finished) {
+			// Start the turns again if no one else can take one
+			if (player == null && !finished) {
 				newTurn();
 			}
+			
+			updateClientPlayers(newPlayer, new EncodedMessage("PLAYERJOIN " + newPlayer.getClient().getUsername()));
+		} finally {
+			gameLock.unlock();
 		}
-		updateClientPlayers();
+		return true;
 	}
 	
 	/**
@@ -168,8 +665,15 @@ public class Game extends Observable {
 	 * @param removedPlayer The player to remove
 	 */
 	public void leave(Player removedPlayer) {
+		if (journal != null) {
+			journal.leave(removedPlayer);
+		}
+		closeSession(removedPlayer);
 		players.remove(removedPlayer);
-		removedPlayer.getCurrentTile().unOccupy();
+		playerNames.release(removedPlayer.getClient().getUsername(), removedPlayer);
+		spatialIndex.remove(removedPlayer);
+		
+		removedPlayer.getCurrentTile().unOccupy(removedPlayer);
 		updateChange(removedPlayer.getX(), removedPlayer.getY());
 		
 		if (removedPlayer.isTurn()) {
@@ -178,95 +682,536 @@ public class Game extends Observable {
 			newTurn();
 		}
 		
-		// Update the map to remove the dead player and drop their gold
+		// Drop the player's gold, unless they died and dropped it then
 		Tile leftTile = getTile(removedPlayer.getX(), removedPlayer.getY());
-		leftTile.unOccupy();
+		map.removePlayer(removedPlayer);
 		
-		if (removedPlayer.getGold() > 0) {
+		if (!removedPlayer.isDead() && removedPlayer.getGold() > 0) {
 			leftTile.setBase('G');
 			leftTile.addGold(removedPlayer.getGold());
 		}
 		
 		sendToAll("MESSAGE " + removedPlayer.getClient().getUsername() + " left the game.");
-		updateClientPlayers();
+		
+		gameLock.lock();
+		try {
+			updateClientPlayers(null, new EncodedMessage("PLAYERLEAVE " + removedPlayer.getClient().getUsername()));
+		} finally {
+			gameLock.unlock();
+		}
 	}
 	
 	/**
-	 * Notifies all clients in the game if there is a change in the player list
+	 * Keeps a player whose connection was lost in the game, so that their client can resume the
+	 * session. Their turns are skipped until they come back, and they are removed from the game
+	 * if they have not come back when the grace period runs out.
+	 * 
+	 * @param parkedPlayer The player
+	 * @return             <code>true</code> if the player was kept, <code>false</code> if they must leave the game
 	 */
-	public void updateClientPlayers() {
-		synchronized (players) {
-			for (Player p : players) {
-				String playerMessage = "PLAYERS " + players.size();
-				
-				for (Player p2 : players) {
-					int chat = 1;
-					int dead = 0;
-					
-					if (p2 == p) {
-						chat = 0;
-					}
-					if (p2.isDead()) {
-						dead = 1;
-					}
-					
-					playerMessage += "\n" + p2.getClient().getUsername() + " " + dead + " " + chat;
+	public boolean park(final Player parkedPlayer) {
+		int grace = resumeGrace;
+		if (grace <= 0 || parkedPlayer.isKicked() || parkedPlayer.getSession() == null) {
+			return false;
+		}
+		
+		gameLock.lock();
+		try {
+			if (!players.contains(parkedPlayer)) {
+				return false;
+			}
+			parkedPlayer.setOnline(false);
+			parkedPlayer.setView(null);
+			parkedPlayers.put(parkedPlayer, Connection.schedule(new Runnable() {
+				@Override
+				public void run() {
+					expire(parkedPlayer);
+				}
+			}, grace));
+		} finally {
+			gameLock.unlock();
+		}
+		
+		if (parkedPlayer.isTurn()) {
+			newTurn();
+		}
+		return true;
+	}
+	
+	/**
+	 * Gives a player whose connection was lost to a new client, which is sent the player's state
+	 * instead of joining the game again. The other players are not told.
+	 * 
+	 * @param client  The new client, which has not joined the game
+	 * @param session The session token the player was given when they joined
+	 * @return        <code>true</code> if the player was resumed, <code>false</code> if the token is unknown or the player is still online
+	 */
+	public boolean resume(Connection client, String session) {
+		Player resumedPlayer;
+		
+		gameLock.lock();
+		try {
+			resumedPlayer = sessions.get(session);
+			if (resumedPlayer == null || resumedPlayer.isOnline() || !client.takeOverUsername(resumedPlayer.getClient())) {
+				return false;
+			}
+			
+			parkedPlayers.remove(resumedPlayer).cancel(false);
+			resumedPlayer.setClient(client);
+			resumedPlayer.setOnline(true);
+		} finally {
+			gameLock.unlock();
+		}
+		
+		client.sendMessage("RESUMED " + client.getUsername());
+		client.offerFraming();
+		client.sendMessage("STATE " + map.getGoal() + " " + resumedPlayer.getHp() + " " + resumedPlayer.getGold() + " "
+				+ resumedPlayer.getLantern() + " " + resumedPlayer.getSword() + " " + resumedPlayer.getArmour());
+		gameLock.lock();
+		try {
+			sendPlayers(resumedPlayer);
+			if (player == null && !finished) {
+				newTurn();
+			}
+		} finally {
+			gameLock.unlock();
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes a player whose grace period has run out without their client coming back
+	 * 
+	 * @param parkedPlayer The player
+	 */
+	private void expire(Player parkedPlayer) {
+		OutboundBatch batch = OutboundBatch.begin();
+		try {
+			gameLock.lock();
+			try {
+				if (parkedPlayers.remove(parkedPlayer) == null) {
+					return;
 				}
 				
-				p.getClient().sendMessage(playerMessage);
+				// Forget the session at once, so the client can not resume a player who is leaving
+				closeSession(parkedPlayer);
+				leave(parkedPlayer);
+			} finally {
+				gameLock.unlock();
 			}
+		} finally {
+			batch.end();
+		}
+		parkedPlayer.getClient().releaseUsername();
+	}
+	
+	/**
+	 * Gives a player a session token and sends it to their client. The caller must hold the
+	 * game lock.
+	 * 
+	 * @param sessionPlayer The player
+	 */
+	private void openSession(Player sessionPlayer) {
+		byte[] bytes = new byte[16];
+		sessionRandom.nextBytes(bytes);
+		StringBuilder token = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			token.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		
+		sessionPlayer.setSession(token.toString());
+		sessions.put(sessionPlayer.getSession(), sessionPlayer);
+		sessionPlayer.getClient().sendMessage("SESSION " + sessionPlayer.getSession());
+	}
+	
+	/**
+	 * Forgets the session of a player who is leaving the game
+	 * 
+	 * @param sessionPlayer The player
+	 */
+	private void closeSession(Player sessionPlayer) {
+		gameLock.lock();
+		try {
+			if (sessionPlayer.getSession() != null) {
+				sessions.remove(sessionPlayer.getSession());
+				sessionPlayer.setSession(null);
+			}
+			ScheduledFuture<?> timer = parkedPlayers.remove(sessionPlayer);
+			if (timer != null) {
+				timer.cancel(false);
+			}
+		} finally {
+			gameLock.unlock();
+		}
+	}
+	
+	/**
+	 * Gives a player what they had when the snapshot was taken and puts them back where they
+	 * were, or somewhere else if that tile has since been taken. Dead players stay dead and are
+	 * not placed.
+	 * 
+	 * @param restoredPlayer The player, who has just joined
+	 * @param saved          What the player had
+	 * @return               <code>true</code> if the player was restored, <code>false</code> if there was no free tile
+	 */
+	private boolean restorePlayer(Player restoredPlayer, GameSnapshot.SavedPlayer saved) {
+		int x = saved.getX();
+		int y = saved.getY();
+		boolean inside = x >= 0 && y >= 0 && x < map.getWidth() && y < map.getHeight();
+		
+		if (saved.isDead()) {
+			restoredPlayer.setX(inside ? x : 0);
+			restoredPlayer.setY(inside ? y : 0);
+		} else {
+			boolean placed = false;
+			synchronized (map) {
+				if (inside && getTile(x, y).isWalkable()) {
+					getTile(x, y).occupy(restoredPlayer);
+					placed = true;
+				}
+			}
+			
+			if (placed) {
+				restoredPlayer.setX(x);
+				restoredPlayer.setY(y);
+				map.prefetchAround(x, y);
+				updateChange(x, y);
+			} else if (!randomLocation(restoredPlayer)) {
+				return false;
+			}
+		}
+		
+		restoredPlayer.setLantern(saved.getLantern());
+		restoredPlayer.setSword(saved.getSword());
+		restoredPlayer.setArmour(saved.getArmour());
+		restoredPlayer.setGold(saved.getGold());
+		restoredPlayer.setDead(saved.isDead());
+		if (!saved.isDead()) {
+			restoredPlayer.setHp(saved.getHp());
+		}
+		return true;
+	}
+	
+	/**
+	 * Opens a snapshot writer for the game, if snapshots are taken
+	 */
+	private void startSnapshots() {
+		File directory = snapshotDirectory;
+		if (directory != null) {
+			snapshots = new SnapshotWriter(this, new File(directory, GameSnapshot.FILE_NAME), snapshotInterval);
+		}
+	}
+	
+	/**
+	 * Starts the game's random numbers from a seed, which is logged so the game can be played again
+	 * 
+	 * @param seed The seed
+	 */
+	private void reseed(long seed) {
+		this.seed = seed;
+		
+		// Splitting gives each use its own stream, so a change in how many numbers one use draws does not change the others
+		SplittableRandom random = new SplittableRandom(seed);
+		spawnRandom = random.split();
+		combatRandom = random.split();
+		
+		System.out.println("Started " + map.getName() + " with seed " + seed + ".");
+	}
+	
+	/**
+	 * Opens a journal for the current game, if journals are kept, and records the start of the game
+	 */
+	private void openJournal() {
+		File directory = journalDirectory;
+		if (directory == null) {
+			journal = null;
+			return;
+		}
+		
+		try {
+			directory.mkdirs();
+			File file = File.createTempFile("game-" + System.currentTimeMillis() + "-", GameJournal.EXTENSION, directory);
+			journal = new GameJournal(file);
+			journal.start(seed, map);
+			journal.turn(player);
+		} catch (IOException e) {
+			System.out.println("Unable to open a journal in " + directory + ": " + e.getMessage());
+			journal = null;
+		}
+	}
+	
+	/**
+	 * Gets the seed for a new game
+	 * 
+	 * @return The fixed seed if there is one, otherwise a new seed
+	 */
+	private static long nextSeed() {
+		Long seed = fixedSeed;
+		return seed != null ? seed : new SplittableRandom().nextLong();
+	}
+	
+	/**
+	 * Takes a player that could not be placed on a new map out of the game. The client stays
+	 * connected and joins again with its next command.
+	 * 
+	 * @param unplacedPlayer The player, who is not on any tile
+	 */
+	private void turnAway(Player unplacedPlayer) {
+		closeSession(unplacedPlayer);
+		players.remove(unplacedPlayer);
+		playerNames.release(unplacedPlayer.getClient().getUsername(), unplacedPlayer);
+		spatialIndex.remove(unplacedPlayer);
+		map.removePlayer(unplacedPlayer);
+		
+		if (unplacedPlayer.isTurn()) {
+			player = null;
+			currentPlayer--;
+			newTurn();
+		}
+		
+		unplacedPlayer.getClient().setPlayer(null);
+		unplacedPlayer.getClient().sendMessage(DUNGEON_FULL);
+	}
+	
+	/**
+	 * Notifies all clients in the game of a change in the player list. Clients that accept
+	 * roster changes are sent just the change, other clients are sent the whole list. The
+	 * caller must hold the game lock, so every client sees changes in the same order.
+	 * 
+	 * @param newPlayer The player that has just joined and needs the whole list, <code>null</code> if none
+	 * @param change    The change, as a <code>PLAYERJOIN</code> or <code>PLAYERLEAVE</code> message
+	 */
+	private void updateClientPlayers(Player newPlayer, EncodedMessage change) {
+		for (Player p : players) {
+			if (p != newPlayer && p.getClient().acceptsRosterChanges()) {
+				p.getClient().sendMessage(change);
+			} else {
+				sendPlayers(p);
+			}
+		}
+		
+		updateView();
+	}
+	
+	/**
+	 * Sends the whole player list to every client in the game
+	 */
+	public void updateClientPlayers() {
+		gameLock.lock();
+		try {
+			for (Player p : players) {
+				sendPlayers(p);
+			}
+		} finally {
+			gameLock.unlock();
 		}
 		
 		updateView();
 	}
 	
 	/**
-	 * Generates a random position for a player. A new position is generated until a
-	 * free tile is found.
+	 * Sends the whole player list to one client. The client's own player is marked as one
+	 * they cannot chat with.
+	 * 
+	 * @param recipient The player to send the list to
+	 */
+	private void sendPlayers(Player recipient) {
+		StringBuilder playerMessage = new StringBuilder("PLAYERS ").append(players.size());
+		
+		for (Player p : players) {
+			playerMessage.append('\n').append(p.getClient().getUsername());
+			playerMessage.append(p.isDead() ? " 1" : " 0");
+			playerMessage.append(p == recipient ? " 0" : " 1");
+		}
+		
+		recipient.getClient().sendMessage(playerMessage.toString());
+	}
+	
+	/**
+	 * Places a player on a random free tile, each free tile being equally likely. Free tiles
+	 * are picked from the map's index of them, so this takes the same time however full the
+	 * map is.
 	 * 
 	 * @param locatedPlayer The player to locate to a random position
+	 * @return              <code>true</code> if the player was placed, <code>false</code> if every tile is a wall or occupied
 	 */
-	public void randomLocation(Player locatedPlayer) {
-		Random rand = new Random();
-		int newX = locatedPlayer.getX();
-		int newY = locatedPlayer.getY();
+	public boolean randomLocation(Player locatedPlayer) {
+		int newX;
+		int newY;
 		
 		synchronized (map) {
-			// Continue to generate a random location until a free tile is found
-			while (true) {
-				if (newX < 0 || newY < 0 || !getTile(newX, newY).isWalkable()) {
-					newX = rand.nextInt(map.getWidth());
-					newY = rand.nextInt(map.getHeight());
-				} else {
-					break;
-				}
+			long tile = map.randomFreeTile(spawnRandom);
+			if (tile == FreeTileIndex.NONE) {
+				return false;
 			}
 			
+			newX = (int) (tile % map.getWidth());
+			newY = (int) (tile / map.getWidth());
 			getTile(newX, newY).occupy(locatedPlayer);
 		}
 		
 		// Update the player's position
 		locatedPlayer.setX(newX);
 		locatedPlayer.setY(newY);
+		spatialIndex.update(locatedPlayer);
+		map.prefetchAround(newX, newY);
 		
 		// Notify clients of the newly positioned player on the map
 		updateChange(newX, newY);
+		return true;
 	}
 	
 	/**
 	 * Starts a new turn
 	 */
 	public void newTurn() {
+		newTurn(false);
+	}
+	
+	/**
+	 * Starts a new turn, recording how long the last one took
+	 * 
+	 * @param timedOut <code>true</code> if the last turn is being ended because the player ran out of time, <code>false</code> otherwise
+	 */
+	private void newTurn(boolean timedOut) {
 		if (player != null) {
 			player.getClient().sendMessage("ENDTURN");
 		}
+		stopTurnClock(timedOut);
+		turnNumber++;
 		
 		changePlayer();
+		if (journal != null) {
+			journal.turn(player);
+		}
 		
 		if (player != null) {
 			sendToAll("MESSAGE It is now " + player.getClient().getUsername() + "'s turn.");
 			player.setAp(6 - player.getSword() - player.getArmour() - player.getLantern());
 			player.getClient().sendMessage("STARTTURN");
+			startTurnClock(player, turnNumber);
+		}
+	}
+	
+	/**
+	 * Starts timing a player's turn, setting the timers that warn them and end the turn if
+	 * there is a turn limit
+	 * 
+	 * @param turnPlayer The player whose turn has started
+	 * @param turn       The number of the turn
+	 */
+	private void startTurnClock(final Player turnPlayer, final long turn) {
+		int timeout = turnTimeout;
+		int warning = turnWarning;
+		
+		synchronized (turnLock) {
+			turnStart = System.nanoTime();
+			if (timeout <= 0) {
+				return;
+			}
+			
+			TimingWheel wheel = TimingWheel.getShared();
+			if (warning > 0 && warning < timeout) {
+				final int seconds = (warning + 999) / 1000;
+				turnWarningTimer = wheel.schedule(onTurnTimer(new Runnable() {
+					@Override
+					public void run() {
+						warnTurnEnding(turnPlayer, turn, seconds);
+					}
+				}), timeout - warning);
+			}
+			turnDeadline = wheel.schedule(onTurnTimer(new Runnable() {
+				@Override
+				public void run() {
+					turnTimedOut(turnPlayer, turn);
+				}
+			}), timeout);
+		}
+	}
+	
+	/**
+	 * Wraps a turn timer so the timing wheel's thread only hands it on to a turn timer thread.
+	 * 
+	 * @param task The work to do once the timer goes off
+	 * @return The task to put on the timing wheel
+	 */
+	private static Runnable onTurnTimer(final Runnable task) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				turnTimers.execute(task);
+			}
+		};
+	}
+	
+	/**
+	 * Stops timing the current turn, cancelling its timers and recording how long it took
+	 * 
+	 * @param timedOut <code>true</code> if the turn is ending because the player ran out of time, <code>false</code> otherwise
+	 */
+	private void stopTurnClock(boolean timedOut) {
+		synchronized (turnLock) {
+			if (turnWarningTimer != null) {
+				turnWarningTimer.cancel();
+				turnWarningTimer = null;
+			}
+			if (turnDeadline != null) {
+				turnDeadline.cancel();
+				turnDeadline = null;
+			}
+			if (turnStart != 0) {
+				turnStats.record(System.nanoTime() - turnStart, timedOut);
+				turnStart = 0;
+			}
+		}
+	}
+	
+	/**
+	 * Warns a player that their turn is about to run out. Called on a turn timer thread.
+	 * 
+	 * @param turnPlayer The player whose turn it was when the timer was set
+	 * @param turn       The number of the turn the timer was set for
+	 * @param seconds    The seconds left in the turn
+	 */
+	private void warnTurnEnding(Player turnPlayer, long turn, int seconds) {
+		OutboundBatch batch = OutboundBatch.begin();
+		try {
+			gameLock.lock();
+			try {
+				if (turn == turnNumber && !finished) {
+					turnPlayer.getClient().sendMessage("MESSAGE Your turn ends in " + seconds + (seconds == 1 ? " second." : " seconds."));
+				}
+			} finally {
+				gameLock.unlock();
+			}
+		} finally {
+			batch.end();
+		}
+	}
+	
+	/**
+	 * Ends a player's turn for them once they have run out of time. Called on a turn timer
+	 * thread.
+	 * 
+	 * @param idlePlayer The player whose turn it was when the timer was set
+	 * @param turn       The number of the turn the timer was set for
+	 */
+	private void turnTimedOut(Player idlePlayer, long turn) {
+		OutboundBatch batch = OutboundBatch.begin();
+		try {
+			gameLock.lock();
+			try {
+				// The turn may have ended while the timer was going off, even if the same player has the next turn
+				if (turn != turnNumber || finished) {
+					return;
+				}
+				sendToAll("MESSAGE " + idlePlayer.getClient().getUsername() + " ran out of time.");
+				newTurn(true);
+			} finally {
+				gameLock.unlock();
+			}
+		} finally {
+			batch.end();
 		}
 	}
 	
@@ -289,6 +1234,9 @@ public class Game extends Observable {
 	 * Sends the appropriate win or lose message to the players and ends the game
 	 */
 	public void winGame() {
+		if (journal != null) {
+			journal.win(player);
+		}
 		sendToAll("MESSAGE " + player.getClient().getUsername() + " won the game.");
 		player.getClient().sendMessage("WIN");
 		
@@ -306,17 +1254,18 @@ public class Game extends Observable {
 	 */
 	public void endGame() {
 		finished = true;
+		stopTurnClock(false);
 	}
 	
 	/**
 	 * Changes which player is having their turn
 	 */
 	public void changePlayer() {
-		// Check if at least one player is alive
+		// Check if at least one player is alive and online
 		boolean playerAlive = false;
 		
 		for (Player p : players) {
-			if (!p.isDead()) {
+			if (!p.isDead() && p.isOnline()) {
 				playerAlive = true;
 				break;
 			}
@@ -333,8 +1282,8 @@ public class Game extends Observable {
 				currentPlayer = 0;
 			}
 			
-			// Skip over dead players
-			if (!players.get(currentPlayer).isDead()) {
+			// Skip over dead players and players waiting to be resumed
+			if (!players.get(currentPlayer).isDead() && players.get(currentPlayer).isOnline()) {
 				player = players.get(currentPlayer);
 				break;
 			}
@@ -349,11 +1298,18 @@ public class Game extends Observable {
 	 * @param skipCurrent <code>true</code> to skip the player whose turn it is, <code>false</code> to include them
 	 */
 	public void sendToAll(String message, boolean skipCurrent) {
-		for (Player p : players) {
-			if (skipCurrent && p == player) {
-				continue;
+		EncodedMessage encoded = new EncodedMessage(message);
+		
+		gameLock.lock();
+		try {
+			for (Player p : players) {
+				if (skipCurrent && p == player || !p.isOnline()) {
+					continue;
+				}
+				p.getClient().sendMessage(encoded);
 			}
-			p.getClient().sendMessage(message);
+		} finally {
+			gameLock.unlock();
 		}
 	}
 	
@@ -367,7 +1323,8 @@ public class Game extends Observable {
 	}
 	
 	/**
-	 * Notifies all of the clients that can see one of two changes on the map
+	 * Notifies all of the clients that can see one of two changes on the map. Clients that
+	 * asked for view updates are sent the changed tiles instead of <code>CHANGE</code>.
 	 * 
 	 * @param changeX1 The first change X position
 	 * @param changeY1 The first change Y position
@@ -375,9 +1332,27 @@ public class Game extends Observable {
 	 * @param changeY2 The second change Y position. <code>-1</code> if there is only one change.
 	 */
 	public void updateChange(int changeX1, int changeY1, int changeX2, int changeY2) {
-		for (Player p : players) {
+		int minX = changeX1;
+		int minY = changeY1;
+		int maxX = changeX1;
+		int maxY = changeY1;
+		if (changeX2 >= 0 && changeY2 >= 0) {
+			minX = Math.min(minX, changeX2);
+			minY = Math.min(minY, changeY2);
+			maxX = Math.max(maxX, changeX2);
+			maxY = Math.max(maxY, changeY2);
+		}
+		
+		for (Player p : spatialIndex.getPlayersNear(minX, minY, maxX, maxY)) {
+			if (!p.isOnline()) {
+				continue;
+			}
 			if (p.canSeeLocation(changeX1, changeY1) || (changeX2 >= 0 && changeY2 >= 0 && p.canSeeLocation(changeX2, changeY2))) {
-				p.getClient().sendMessage("CHANGE");
+				if (p.getView() != null) {
+					pushView(p);
+				} else {
+					p.getClient().sendMessage(CHANGE);
+				}
 			}
 		}
 		
@@ -440,11 +1415,16 @@ public class Game extends Observable {
 			if (newX >= 0 && newY >= 0 && newX < map.getWidth() && newY < map.getHeight() && getTile(newX, newY).isWalkable()) {
 				// Update tile occupation
 				getTile(newX, newY).occupy(player);
-				getTile(oldX, oldY).unOccupy();
+				getTile(oldX, oldY).unOccupy(player);
 				
 				// Update player position
 				player.setX(newX);
 				player.setY(newY);
+				if (journal != null) {
+					journal.move(player, newX, newY);
+				}
+				spatialIndex.update(player);
+				map.prefetchAround(newX, newY);
 				
 				// Update action points
 				player.setAp(player.getAp() - 1);
@@ -464,47 +1444,123 @@ public class Game extends Observable {
 	}
 	
 	/**
-	 * Sends the area of the map that the player can see to the client
+	 * Sends the area of the map that the player can see to the client. For clients that asked
+	 * for view updates this is also the view later updates are based on.
 	 * 
 	 * @param lookPlayer The player to send the map to
 	 */
 	public void playerLook(Player lookPlayer) {
-		String lookReply = "LOOKREPLY";
+		LookCache.Entry look = getLook(lookPlayer);
+		PlayerView view = lookPlayer.getView();
+		
+		if (view == null) {
+			lookPlayer.getClient().sendMessage(look.getReply());
+		} else {
+			synchronized (view) {
+				view.reset(look.getLook(), lookPlayer.getX(), lookPlayer.getY());
+				lookPlayer.getClient().sendMessage(look.getReply());
+			}
+		}
+	}
+	
+	/**
+	 * Sends a player only the tiles of their view that have changed since it was last sent
+	 * 
+	 * @param viewPlayer The player, whose client asked for view updates
+	 */
+	private void pushView(Player viewPlayer) {
+		PlayerView view = viewPlayer.getView();
+		
+		synchronized (view) {
+			LookCache.Entry look = getLook(viewPlayer);
+			String update = view.update(look.getLook(), viewPlayer.getX(), viewPlayer.getY());
+			
+			if (update == null) {
+				view.reset(look.getLook(), viewPlayer.getX(), viewPlayer.getY());
+				viewPlayer.getClient().sendMessage(look.getReply());
+			} else if (update.length() > 0) {
+				viewPlayer.getClient().sendMessage(update);
+			}
+		}
+	}
+	
+	/**
+	 * Gets the view a player can see, from the LOOK cache if nothing in it has changed since
+	 * it was last rendered
+	 * 
+	 * @param lookPlayer The player that is looking
+	 * @return           The view and its LOOKREPLY message
+	 */
+	private LookCache.Entry getLook(Player lookPlayer) {
+		int x = lookPlayer.getX();
+		int y = lookPlayer.getY();
+		int radius = lookPlayer.getVisionDistance();
+		
+		// Read before rendering, so a change made meanwhile is not hidden
+		long version = map.getVersion(x - radius, y - radius, x + radius, y + radius);
 		
-		int maxDistance = lookPlayer.getVisionDistance();
-		int centerX = lookPlayer.getX();
-		int centerY = lookPlayer.getY();
+		LookCache.Entry look = lookCache.get(x, y, radius, version);
+		if (look == null) {
+			char[][] tiles = renderLook(x, y, radius);
+			look = lookCache.put(x, y, radius, version, tiles, new EncodedMessage(formatLook(tiles)));
+		}
+		return look;
+	}
+	
+	/**
+	 * Gets the tiles that can be seen from a position. Other players show as <code>P</code>,
+	 * but the tile in the centre, where the player looking stands, shows what is under them.
+	 * 
+	 * @param centerX     The X position of the player looking
+	 * @param centerY     The Y position of the player looking
+	 * @param maxDistance The vision distance of the player looking
+	 * @return            The tiles, in rows and columns centred on the position
+	 */
+	private char[][] renderLook(int centerX, int centerY, int maxDistance) {
+		char[][] look = new char[maxDistance * 2 + 1][maxDistance * 2 + 1];
 		
 		// Iterate through rows
 		for (int row = -maxDistance; row <= maxDistance; row++) {
-			lookReply += "\n";
 			
 			// Iterate through columns
 			for (int col = -maxDistance; col <= maxDistance; col++) {
 				int xPos = centerX + col;
 				int yPos = centerY + row;
 				int distance = Math.abs(row) + Math.abs(col);
+				char tile;
 				
 				// Assume tiles outside of the map to be walls
 				if (distance > maxDistance + 1) {
-					lookReply += "X";
-					continue;
+					tile = 'X';
 				} else if (xPos < 0 || yPos < 0 || xPos >= map.getWidth() || yPos >= map.getHeight()) {
-					lookReply += "#";
-					continue;
-				}
-				
-				Tile currentTile = getTile(xPos, yPos);
-				
-				if (currentTile != lookPlayer.getCurrentTile() && currentTile.isOccupied()) {
-					lookReply += "P";
+					tile = '#';
 				} else {
-					lookReply += currentTile.getBase();
+					if ((row != 0 || col != 0) && map.isOccupied(xPos, yPos)) {
+						tile = 'P';
+					} else {
+						tile = map.getBase(xPos, yPos);
+					}
 				}
+				
+				look[row + maxDistance][col + maxDistance] = tile;
 			}
 		}
 		
-		lookPlayer.getClient().sendMessage(lookReply);
+		return look;
+	}
+	
+	/**
+	 * Formats a view as a LOOKREPLY message
+	 * 
+	 * @param look The tiles, in rows and columns
+	 * @return     The LOOKREPLY message
+	 */
+	private static String formatLook(char[][] look) {
+		StringBuilder lookReply = new StringBuilder("LOOKREPLY");
+		for (char[] row : look) {
+			lookReply.append('\n').append(row);
+		}
+		return lookReply.toString();
 	}
 	
 	/**
@@ -524,6 +1580,7 @@ public class Game extends Observable {
 				// Remove the gold from the tile and give to the player
 				int amount = tile.popGold();
 				player.addGold(amount);
+				recordPickUp(Tile.GOLD, amount);
 				
 				// Notify clients of change
 				updateChange(player.getX(), player.getY());
@@ -538,6 +1595,7 @@ public class Game extends Observable {
 				if (player.getArmour() == 0) {
 					// Give the armour to the player
 					player.setArmour(1);
+					recordPickUp(Tile.ARMOUR, 0);
 					
 					// Remove the armour from the tile
 					tile.setBase(Tile.FLOOR);
@@ -557,6 +1615,7 @@ public class Game extends Observable {
 			case Tile.HEALTH:
 				// Give the health to the player
 				player.setHp(player.getHp() + 1);
+				recordPickUp(Tile.HEALTH, 0);
 				
 				// Remove the health from the tile
 				tile.setBase(Tile.FLOOR);
@@ -574,6 +1633,8 @@ public class Game extends Observable {
 				if (player.getLantern() == 0) {
 					// Give the lantern to the player
 					player.setLantern(1);
+					recordPickUp(Tile.LANTERN, 0);
+					spatialIndex.update(player);
 					
 					// Remove the lantern from the tile
 					tile.setBase(Tile.FLOOR);
@@ -594,6 +1655,7 @@ public class Game extends Observable {
 				if (player.getSword() == 0) {
 					// Give the sword to the player
 					player.setSword(1);
+					recordPickUp(Tile.SWORD, 0);
 					
 					// Remove the sword from the tile
 					tile.setBase(Tile.FLOOR);
@@ -612,6 +1674,18 @@ public class Game extends Observable {
 		}
 	}
 	
+	/**
+	 * Records the current player picking up an item in the journal
+	 * 
+	 * @param item The item, one of the <code>Tile</code> item constants
+	 * @param gold The amount of gold picked up, <code>0</code> for other items
+	 */
+	private void recordPickUp(char item, int gold) {
+		if (journal != null) {
+			journal.pickUp(player, item, gold);
+		}
+	}
+	
 	/**
 	 * Sends a shouted message to all players within range of the player that sent the shouted
 	 * 
@@ -619,9 +1693,14 @@ public class Game extends Observable {
 	 * @param message     The message sent in the shout
 	 */
 	public void playerShout(Player shoutPlayer, String message) {
-		for (Player p : players) {
-			if (p.canSeeLocation(shoutPlayer.getX(), shoutPlayer.getY())) {
-				p.getClient().sendMessage("SHOUT " + shoutPlayer.getClient().getUsername() + " " + message);
+		EncodedMessage shout = new EncodedMessage("SHOUT " + shoutPlayer.getClient().getUsername() + " " + message);
+		
+		int shoutX = shoutPlayer.getX();
+		int shoutY = shoutPlayer.getY();
+		
+		for (Player p : spatialIndex.getPlayersNear(shoutX, shoutY, shoutX, shoutY)) {
+			if (p.canSeeLocation(shoutX, shoutY)) {
+				p.getClient().sendMessage(shout);
 			}
 		}
 	}
@@ -653,17 +1732,22 @@ public class Game extends Observable {
 		}
 		
 		// Check if there is a player stood in the target direction
-		Tile targetTile = getTile(targetX, targetY);
-		if (targetTile.isOccupied()) {
-			Player targetPlayer = targetTile.getPlayer();
+		boolean inside = targetX >= 0 && targetY >= 0 && targetX < map.getWidth() && targetY < map.getHeight();
+		if (inside && getTile(targetX, targetY).isOccupied()) {
+			Player targetPlayer = getTile(targetX, targetY).getPlayer();
 			
 			// 75% chance of harming the other player
-			Random rand = new Random();
-			int randomInt = rand.nextInt(4);
+			int randomInt;
+			synchronized (combatRandom) {
+				randomInt = combatRandom.nextInt(4);
+			}
 			
 			// If the player hits the target
 			if (randomInt < 3) {
 				int damage = 1 + player.getSword() - targetPlayer.getArmour();
+				if (journal != null) {
+					journal.attack(player, targetPlayer, damage);
+				}
 				
 				if (damage == 0) {
 					player.getClient().sendMessage("ATTACKWARNING " + targetPlayer.getClient().getUsername() + "'s armour prevented any damage.");
@@ -674,6 +1758,9 @@ public class Game extends Observable {
 					targetPlayer.setHp(targetPlayer.getHp() - damage);
 				}
 			} else {
+				if (journal != null) {
+					journal.attack(player, targetPlayer, -1);
+				}
 				targetPlayer.getClient().sendMessage("ATTACKWARNING " + player.getClient().getUsername() + " attempted to attack but failed.");
 				player.getClient().sendMessage("ATTACKWARNING Your attack missed the target.");
 			}
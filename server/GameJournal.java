@@ -0,0 +1,410 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The GameJournal class records everything that changes the state of a game in an append-only
+ * binary file, so that the game can be rebuilt afterwards by a {@link JournalReplayer}. Each
+ * game, from its start until a new map is loaded, has its own journal.
+ *
+ * Records are added to one of two buffers made when the journal is opened, and a background
+ * thread writes each buffer to the file once it is full, or every {@link #FLUSH_INTERVAL}
+ * milliseconds. Adding a record never waits for the disk. If both buffers are full because the
+ * disk has fallen behind, records are dropped and a {@link #GAP} record saying how many were
+ * lost is added once there is room, so a replay knows the journal is incomplete.
+ *
+ * <pre>
+ * int  magic, "DJNL"
+ * int  format version
+ * then records, each a type byte followed by its fields:
+ * START  long seed, int width, int height, int goal, name
+ * JOIN   int player, int x, int y, int hp, int gold, byte lantern, byte sword, byte armour, byte dead, name
+ * MOVE   int player, int x, int y
+ * LEAVE  int player
+ * ATTACK int attacker, int target, int damage, 0 if stopped by armour, -1 for a miss
+ * PICKUP int player, byte item, int gold
+ * TURN   int player, 0 for none
+ * WIN    int player
+ * GAP    long records lost
+ * END    int turn player, byte finished, int players, then for each the JOIN fields without the name
+ * </pre>
+ *
+ * Names are a short length followed by that many bytes of UTF-8.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class GameJournal {
+	// Start of every journal
+	public static final int MAGIC = 0x444A4E4C;
+
+	// Format version, changed whenever a record changes
+	public static final int VERSION = 1;
+
+	// File name extension of journals
+	public static final String EXTENSION = ".journal";
+
+	// Record types
+	public static final byte START  = 1;
+	public static final byte JOIN   = 2;
+	public static final byte MOVE   = 3;
+	public static final byte LEAVE  = 4;
+	public static final byte ATTACK = 5;
+	public static final byte PICKUP = 6;
+	public static final byte TURN   = 7;
+	public static final byte WIN    = 8;
+	public static final byte GAP    = 9;
+	public static final byte END    = 10;
+
+	// Size of each of the two buffers
+	public static final int BUFFER_SIZE = 1 << 20;
+
+	// Longest time in milliseconds a record waits before it is written
+	public static final int FLUSH_INTERVAL = 100;
+
+	// Longest name kept, in bytes
+	private static final int MAX_NAME = 1024;
+
+	// Bytes taken by a player's state, and by a gap record
+	private static final int PLAYER_SIZE = 4 * 5 + 4;
+	private static final int GAP_SIZE = 1 + 8;
+
+	private File file;
+	private FileChannel channel;
+	private Thread writer;
+
+	// Guards the buffers, which are swapped between the game and the writer
+	private final Object lock = new Object();
+	private ByteBuffer filling;
+	private ByteBuffer full;
+	private ByteBuffer empty;
+	private long dropped;
+	private long droppedTotal;
+	private boolean closing;
+	private IOException failure;
+
+	/**
+	 * Constructor creates a journal file and starts the thread that writes it
+	 *
+	 * @param file         The journal file, replaced if it exists
+	 * @throws IOException Thrown if the file could not be created
+	 */
+	public GameJournal(File file) throws IOException {
+		this.file = file;
+		File directory = file.getAbsoluteFile().getParentFile();
+		directory.mkdirs();
+
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+		output.setLength(0);
+		channel = output.getChannel();
+
+		filling = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		empty = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		filling.putInt(MAGIC).putInt(VERSION);
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "Journal " + file.getName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Gets the journal file
+	 *
+	 * @return The file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the number of records dropped because the disk fell behind
+	 *
+	 * @return The number of records lost
+	 */
+	public long getDropped() {
+		synchronized (lock) {
+			return droppedTotal;
+		}
+	}
+
+	/**
+	 * Records the start of a game
+	 *
+	 * @param seed The seed of the game's random numbers
+	 * @param map  The map the game is played on
+	 */
+	public void start(long seed, Map map) {
+		byte[] name = nameBytes(map.getName());
+		synchronized (lock) {
+			if (reserve(1 + 8 + 4 * 3 + 2 + name.length)) {
+				filling.put(START).putLong(seed).putInt(map.getWidth()).putInt(map.getHeight()).putInt(map.getGoal());
+				filling.putShort((short) name.length).put(name);
+			}
+		}
+	}
+
+	/**
+	 * Records a player joining the game, once they have been placed
+	 *
+	 * @param player The player
+	 */
+	public void join(Player player) {
+		byte[] name = nameBytes(player.getClient().getUsername());
+		synchronized (lock) {
+			if (reserve(1 + PLAYER_SIZE + 2 + name.length)) {
+				filling.put(JOIN);
+				putPlayer(player);
+				filling.putShort((short) name.length).put(name);
+			}
+		}
+	}
+
+	/**
+	 * Records a player moving
+	 *
+	 * @param player The player
+	 * @param x      The X position the player moved to
+	 * @param y      The Y position the player moved to
+	 */
+	public void move(Player player, int x, int y) {
+		synchronized (lock) {
+			if (reserve(1 + 4 * 3)) {
+				filling.put(MOVE).putInt(player.getId()).putInt(x).putInt(y);
+			}
+		}
+	}
+
+	/**
+	 * Records a player leaving the game
+	 *
+	 * @param player The player
+	 */
+	public void leave(Player player) {
+		synchronized (lock) {
+			if (reserve(1 + 4)) {
+				filling.put(LEAVE).putInt(player.getId());
+			}
+		}
+	}
+
+	/**
+	 * Records an attack
+	 *
+	 * @param attacker The attacking player
+	 * @param target   The attacked player
+	 * @param damage   The hit points taken from the target, <code>-1</code> if the attack missed
+	 */
+	public void attack(Player attacker, Player target, int damage) {
+		synchronized (lock) {
+			if (reserve(1 + 4 * 3)) {
+				filling.put(ATTACK).putInt(attacker.getId()).putInt(target.getId()).putInt(damage);
+			}
+		}
+	}
+
+	/**
+	 * Records a player picking up an item
+	 *
+	 * @param player The player
+	 * @param item   The item, one of the <code>Tile</code> item constants
+	 * @param gold   The amount of gold picked up, <code>0</code> for other items
+	 */
+	public void pickUp(Player player, char item, int gold) {
+		synchronized (lock) {
+			if (reserve(1 + 4 + 1 + 4)) {
+				filling.put(PICKUP).putInt(player.getId()).put((byte) item).putInt(gold);
+			}
+		}
+	}
+
+	/**
+	 * Records the start of a player's turn
+	 *
+	 * @param player The player whose turn it is, <code>null</code> if no player is alive
+	 */
+	public void turn(Player player) {
+		synchronized (lock) {
+			if (reserve(1 + 4)) {
+				filling.put(TURN).putInt(player == null ? 0 : player.getId());
+			}
+		}
+	}
+
+	/**
+	 * Records a player winning the game
+	 *
+	 * @param player The player
+	 */
+	public void win(Player player) {
+		synchronized (lock) {
+			if (reserve(1 + 4)) {
+				filling.put(WIN).putInt(player.getId());
+			}
+		}
+	}
+
+	/**
+	 * Records the state the game ended in, writes everything recorded and closes the journal. A
+	 * replay checks that it ends in the same state.
+	 *
+	 * @param players  The players in the game
+	 * @param turn     The player whose turn it is, <code>null</code> if none
+	 * @param finished <code>true</code> if the game has been won, <code>false</code> otherwise
+	 */
+	public void end(List<Player> players, Player turn, boolean finished) {
+		synchronized (lock) {
+			if (reserve(1 + 4 + 1 + 4 + players.size() * PLAYER_SIZE)) {
+				filling.put(END).putInt(turn == null ? 0 : turn.getId()).put((byte) (finished ? 1 : 0)).putInt(players.size());
+				for (Player player : players) {
+					putPlayer(player);
+				}
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Writes everything recorded so far and closes the journal. Records added afterwards are
+	 * ignored.
+	 */
+	public void close() {
+		synchronized (lock) {
+			if (closing) {
+				return;
+			}
+			closing = true;
+			lock.notifyAll();
+		}
+
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Nothing more to write
+		}
+
+		if (failure != null) {
+			System.out.println("Unable to write journal " + file + ": " + failure.getMessage());
+		}
+	}
+
+	/**
+	 * Adds a player's state to the buffer being filled
+	 *
+	 * @param player The player
+	 */
+	private void putPlayer(Player player) {
+		filling.putInt(player.getId()).putInt(player.getX()).putInt(player.getY()).putInt(player.getHp()).putInt(player.getGold());
+		filling.put((byte) player.getLantern()).put((byte) player.getSword()).put((byte) player.getArmour()).put((byte) (player.isDead() ? 1 : 0));
+	}
+
+	/**
+	 * Makes room for a record in the buffer being filled, handing the buffer to the writer if it
+	 * is full. The caller must hold the lock.
+	 *
+	 * @param size The size of the record in bytes
+	 * @return     <code>true</code> if there is room, <code>false</code> if the record must be dropped
+	 */
+	private boolean reserve(int size) {
+		if (closing) {
+			return false;
+		}
+
+		int needed = size + (dropped > 0 ? GAP_SIZE : 0);
+		if (filling.remaining() < needed) {
+			if (empty == null || needed > BUFFER_SIZE) {
+				// The writer still has the other buffer
+				dropped++;
+				droppedTotal++;
+				return false;
+			}
+			full = filling;
+			filling = empty;
+			empty = null;
+			lock.notifyAll();
+		}
+
+		if (dropped > 0) {
+			filling.put(GAP).putLong(dropped);
+			dropped = 0;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes buffers to the file as they fill, and the buffer being filled every flush interval,
+	 * until the journal is closed
+	 */
+	private void write() {
+		while (true) {
+			ByteBuffer buffer;
+			boolean last;
+
+			synchronized (lock) {
+				if (full == null && !closing) {
+					try {
+						lock.wait(FLUSH_INTERVAL);
+					} catch (InterruptedException e) {
+						closing = true;
+					}
+				}
+
+				// Take whatever has been recorded if no buffer has filled up
+				if (full == null && empty != null && filling.position() > 0) {
+					full = filling;
+					filling = empty;
+					empty = null;
+				}
+				buffer = full;
+				last = closing && filling.position() == 0;
+			}
+
+			if (buffer != null) {
+				buffer.flip();
+				try {
+					while (buffer.hasRemaining() && failure == null) {
+						channel.write(buffer);
+					}
+				} catch (IOException e) {
+					failure = e;
+				}
+				buffer.clear();
+
+				synchronized (lock) {
+					full = null;
+					empty = buffer;
+				}
+			} else if (last) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Encodes a name, cutting it short if it is too long
+	 *
+	 * @param name The name
+	 * @return     The UTF-8 bytes
+	 */
+	private static byte[] nameBytes(String name) {
+		byte[] bytes = (name == null ? "" : name).getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_NAME) {
+			bytes = Arrays.copyOf(bytes, MAX_NAME);
+		}
+		return bytes;
+	}
+}
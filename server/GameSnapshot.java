@@ -0,0 +1,499 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The GameSnapshot class is an image of a game that a server can be restarted from: the tiles of
+ * the map that have changed since it was loaded, the gold on them, the players and whose turn it
+ * is. Tiles that have not changed are read from the map file again, so the map is checked
+ * against the hash of the file the snapshot was taken from before any tiles are restored.
+ *
+ * Tiles are kept in regions of <code>Map.REGION_SIZE</code> by <code>Map.REGION_SIZE</code>
+ * tiles, see {@link Map#getRegion(long, byte[], int[])}.
+ *
+ * <pre>
+ * int  magic, "DSNP"
+ * int  format version
+ * long time the snapshot was taken, in milliseconds
+ * byte 1 if a map file follows, 0 for the default map
+ * UTF  map file
+ * short hash length, then the SHA-256 hash of the map file
+ * long seed
+ * byte finished
+ * UTF  name of the player whose turn it is, empty for none
+ * int  regions, each a long region number, the bases of its tiles, a short count of gold tiles
+ *      and for each a byte tile and an int amount of gold
+ * int  players, each a UTF name, int x, int y, int hp, int gold, byte lantern, byte sword,
+ *      byte armour and byte dead
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class GameSnapshot {
+	// Start of every snapshot
+	public static final int MAGIC = 0x44534E50;
+
+	// Format version, changed whenever the layout changes
+	public static final int VERSION = 1;
+
+	// Name of the latest snapshot in the snapshot directory
+	public static final String FILE_NAME = "game.snapshot";
+
+	// Tiles in a region
+	public static final int REGION_TILES = Map.REGION_SIZE * Map.REGION_SIZE;
+
+	private long time;
+	private String mapFile;
+	private byte[] mapHash;
+	private long seed;
+	private boolean finished;
+	private String turn;
+	private List<SavedRegion> regions;
+	private List<SavedPlayer> players;
+
+	/**
+	 * The SavedRegion class holds the tiles of one region of the map
+	 */
+	public static class SavedRegion {
+		private long region;
+		private byte[] bases;
+		private int[] amounts;
+
+		/**
+		 * Constructor creates a region with room for every tile
+		 *
+		 * @param region The number of the region
+		 */
+		public SavedRegion(long region) {
+			this.region = region;
+			bases = new byte[REGION_TILES];
+			amounts = new int[REGION_TILES];
+		}
+
+		/**
+		 * Gets the number of the region
+		 *
+		 * @return The region number
+		 */
+		public long getRegion() {
+			return region;
+		}
+
+		/**
+		 * Gets the base of each tile, row by row
+		 *
+		 * @return The bases
+		 */
+		public byte[] getBases() {
+			return bases;
+		}
+
+		/**
+		 * Gets the amount of gold on each tile, row by row
+		 *
+		 * @return The amounts of gold
+		 */
+		public int[] getAmounts() {
+			return amounts;
+		}
+	}
+
+	/**
+	 * The SavedPlayer class holds what a player had when the snapshot was taken
+	 */
+	public static class SavedPlayer {
+		private String name;
+		private int x;
+		private int y;
+		private int hp;
+		private int gold;
+		private int lantern;
+		private int sword;
+		private int armour;
+		private boolean dead;
+
+		/**
+		 * Constructor sets every field
+		 *
+		 * @param name    The user name of the player
+		 * @param x       The X position of the player
+		 * @param y       The Y position of the player
+		 * @param hp      The hit points of the player
+		 * @param gold    The gold the player carries
+		 * @param lantern <code>1</code> if the player has a lantern, <code>0</code> otherwise
+		 * @param sword   <code>1</code> if the player has a sword, <code>0</code> otherwise
+		 * @param armour  <code>1</code> if the player has armour, <code>0</code> otherwise
+		 * @param dead    <code>true</code> if the player is dead, <code>false</code> otherwise
+		 */
+		public SavedPlayer(String name, int x, int y, int hp, int gold, int lantern, int sword, int armour, boolean dead) {
+			this.name = name;
+			this.x = x;
+			this.y = y;
+			this.hp = hp;
+			this.gold = gold;
+			this.lantern = lantern;
+			this.sword = sword;
+			this.armour = armour;
+			this.dead = dead;
+		}
+
+		/**
+		 * Constructor copies a player's state
+		 *
+		 * @param player The player
+		 */
+		public SavedPlayer(Player player) {
+			this(player.getClient().getUsername(), player.getX(), player.getY(), player.getHp(), player.getGold(),
+					player.getLantern(), player.getSword(), player.getArmour(), player.isDead());
+		}
+
+		/**
+		 * Gets the user name of the player
+		 *
+		 * @return The user name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the X position of the player
+		 *
+		 * @return The X position
+		 */
+		public int getX() {
+			return x;
+		}
+
+		/**
+		 * Gets the Y position of the player
+		 *
+		 * @return The Y position
+		 */
+		public int getY() {
+			return y;
+		}
+
+		/**
+		 * Gets the hit points of the player
+		 *
+		 * @return The hit points
+		 */
+		public int getHp() {
+			return hp;
+		}
+
+		/**
+		 * Gets the gold the player carries
+		 *
+		 * @return The amount of gold
+		 */
+		public int getGold() {
+			return gold;
+		}
+
+		/**
+		 * Gets the player lantern value
+		 *
+		 * @return <code>1</code> if the player has a lantern, <code>0</code> otherwise
+		 */
+		public int getLantern() {
+			return lantern;
+		}
+
+		/**
+		 * Gets the player sword value
+		 *
+		 * @return <code>1</code> if the player has a sword, <code>0</code> otherwise
+		 */
+		public int getSword() {
+			return sword;
+		}
+
+		/**
+		 * Gets the player armour value
+		 *
+		 * @return <code>1</code> if the player has armour, <code>0</code> otherwise
+		 */
+		public int getArmour() {
+			return armour;
+		}
+
+		/**
+		 * Gets whether the player is dead
+		 *
+		 * @return <code>true</code> if the player is dead, <code>false</code> otherwise
+		 */
+		public boolean isDead() {
+			return dead;
+		}
+	}
+
+	/**
+	 * Constructor creates an empty snapshot of a map
+	 *
+	 * @param mapFile The map file, <code>null</code> for the default map
+	 * @param mapHash The hash of the map file, see {@link #hashOf(Map)}
+	 */
+	public GameSnapshot(String mapFile, byte[] mapHash) {
+		this.mapFile = mapFile;
+		this.mapHash = mapHash;
+		time = System.currentTimeMillis();
+		turn = "";
+		regions = new ArrayList<SavedRegion>();
+		players = new ArrayList<SavedPlayer>();
+	}
+
+	/**
+	 * Gets when the snapshot was taken
+	 *
+	 * @return The time in milliseconds
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Gets the map file the game was played on
+	 *
+	 * @return The map file, <code>null</code> for the default map
+	 */
+	public String getMapFile() {
+		return mapFile;
+	}
+
+	/**
+	 * Gets the hash of the map file the game was played on
+	 *
+	 * @return The hash, empty if the map file could not be read
+	 */
+	public byte[] getMapHash() {
+		return mapHash;
+	}
+
+	/**
+	 * Gets the seed of the game's random numbers
+	 *
+	 * @return The seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Sets the seed of the game's random numbers
+	 *
+	 * @param seed The seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Gets whether the game had finished
+	 *
+	 * @return <code>true</code> if the game had been won, <code>false</code> otherwise
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Sets whether the game had finished
+	 *
+	 * @param finished <code>true</code> if the game had been won, <code>false</code> otherwise
+	 */
+	public void setFinished(boolean finished) {
+		this.finished = finished;
+	}
+
+	/**
+	 * Gets the name of the player whose turn it was
+	 *
+	 * @return The user name, empty if it was no one's turn
+	 */
+	public String getTurn() {
+		return turn;
+	}
+
+	/**
+	 * Sets the name of the player whose turn it was
+	 *
+	 * @param turn The user name, empty if it was no one's turn
+	 */
+	public void setTurn(String turn) {
+		this.turn = turn;
+	}
+
+	/**
+	 * Gets the regions of the map that had changed since it was loaded
+	 *
+	 * @return The regions
+	 */
+	public List<SavedRegion> getRegions() {
+		return regions;
+	}
+
+	/**
+	 * Gets the players, including those not yet back since the last restart
+	 *
+	 * @return The players
+	 */
+	public List<SavedPlayer> getPlayers() {
+		return players;
+	}
+
+	/**
+	 * Writes the snapshot next to a file and then moves it over the file, so that the file is
+	 * never left half written
+	 *
+	 * @param file         The snapshot file
+	 * @return             The size of the snapshot in bytes
+	 * @throws IOException Thrown if the snapshot could not be written
+	 */
+	public long write(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		directory.mkdirs();
+		File temp = new File(directory, file.getName() + ".tmp");
+
+		FileOutputStream stream = new FileOutputStream(temp);
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(time);
+			output.writeBoolean(mapFile != null);
+			if (mapFile != null) {
+				output.writeUTF(mapFile);
+			}
+			output.writeShort(mapHash.length);
+			output.write(mapHash);
+			output.writeLong(seed);
+			output.writeBoolean(finished);
+			output.writeUTF(turn);
+
+			output.writeInt(regions.size());
+			for (SavedRegion region : regions) {
+				output.writeLong(region.region);
+				output.write(region.bases);
+				int goldTiles = 0;
+				for (byte base : region.bases) {
+					goldTiles += base == Tile.GOLD ? 1 : 0;
+				}
+				output.writeShort(goldTiles);
+				for (int tile = 0; tile < REGION_TILES; tile++) {
+					if (region.bases[tile] == Tile.GOLD) {
+						output.writeByte(tile);
+						output.writeInt(region.amounts[tile]);
+					}
+				}
+			}
+
+			output.writeInt(players.size());
+			for (SavedPlayer player : players) {
+				output.writeUTF(player.name);
+				output.writeInt(player.x);
+				output.writeInt(player.y);
+				output.writeInt(player.hp);
+				output.writeInt(player.gold);
+				output.writeByte(player.lantern);
+				output.writeByte(player.sword);
+				output.writeByte(player.armour);
+				output.writeBoolean(player.dead);
+			}
+
+			output.flush();
+			stream.getFD().sync();
+		} finally {
+			output.close();
+		}
+
+		long size = temp.length();
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return size;
+	}
+
+	/**
+	 * Reads a snapshot
+	 *
+	 * @param file         The snapshot file
+	 * @return             The snapshot
+	 * @throws IOException Thrown if the file is not a snapshot or could not be read
+	 */
+	public static GameSnapshot read(File file) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (input.readInt() != MAGIC) {
+				throw new IOException(file + " is not a snapshot");
+			}
+			int version = input.readInt();
+			if (version != VERSION) {
+				throw new IOException(file + " is snapshot version " + version + ", expected " + VERSION);
+			}
+
+			long time = input.readLong();
+			String mapFile = input.readBoolean() ? input.readUTF() : null;
+			byte[] mapHash = new byte[input.readUnsignedShort()];
+			input.readFully(mapHash);
+
+			GameSnapshot snapshot = new GameSnapshot(mapFile, mapHash);
+			snapshot.time = time;
+			snapshot.seed = input.readLong();
+			snapshot.finished = input.readBoolean();
+			snapshot.turn = input.readUTF();
+
+			int regionCount = input.readInt();
+			for (int i = 0; i < regionCount; i++) {
+				SavedRegion region = new SavedRegion(input.readLong());
+				input.readFully(region.bases);
+				int goldTiles = input.readUnsignedShort();
+				for (int j = 0; j < goldTiles; j++) {
+					int tile = input.readUnsignedByte();
+					if (tile >= REGION_TILES) {
+						throw new IOException(file + " has a gold tile outside its region");
+					}
+					region.amounts[tile] = input.readInt();
+				}
+				snapshot.regions.add(region);
+			}
+
+			int playerCount = input.readInt();
+			for (int i = 0; i < playerCount; i++) {
+				snapshot.players.add(new SavedPlayer(input.readUTF(), input.readInt(), input.readInt(), input.readInt(), input.readInt(),
+						input.readByte(), input.readByte(), input.readByte(), input.readBoolean()));
+			}
+			return snapshot;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Gets the hash a snapshot of a map records, so that a snapshot is only restored onto the
+	 * same map
+	 *
+	 * @param map The map
+	 * @return    The hash of the map file, empty for the default map or if the file could not be read
+	 */
+	public static byte[] hashOf(Map map) {
+		if (map.getFileName() == null) {
+			return new byte[0];
+		}
+
+		try {
+			return CompiledMap.hash(map.getFileName());
+		} catch (IOException e) {
+			return new byte[0];
+		}
+	}
+}
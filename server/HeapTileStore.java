@@ -0,0 +1,71 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The HeapTileStore class keeps the tiles of a map in arrays on the Java heap. It is the
+ * fastest store, but a map can have no more than about two billion tiles.
+ * 
+ * @author Sean Stinson, ss938
+ *
+ */
+public class HeapTileStore extends TileStore {
+	private byte[] bases;
+	private int[] occupants;
+	private AtomicIntegerArray versions;
+	
+	/**
+	 * Constructor creates an empty store
+	 * 
+	 * @param tiles   The number of tiles
+	 * @param regions The number of regions
+	 */
+	public HeapTileStore(long tiles, long regions) {
+		if (tiles > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("A map of " + tiles + " tiles is too large to keep on the heap.");
+		}
+		
+		bases = new byte[(int) tiles];
+		occupants = new int[(int) tiles];
+		versions = new AtomicIntegerArray((int) Math.max(1, regions));
+	}
+	
+	@Override
+	public char getBase(long tile) {
+		return (char) (bases[(int) tile] & 0xFF);
+	}
+	
+	@Override
+	public void setBase(long tile, char base) {
+		bases[(int) tile] = (byte) base;
+	}
+	
+	@Override
+	public void getBases(long tile, byte[] bytes, int offset, int length) {
+		System.arraycopy(bases, (int) tile, bytes, offset, length);
+	}
+	
+	@Override
+	public void setBases(long tile, ByteBuffer bytes, int offset, int length) {
+		bytes.get(offset, bases, (int) tile, length);
+	}
+	
+	@Override
+	public int getOccupant(long tile) {
+		return occupants[(int) tile];
+	}
+	
+	@Override
+	public void setOccupant(long tile, int id) {
+		occupants[(int) tile] = id;
+	}
+	
+	@Override
+	public int getVersion(long region) {
+		return versions.get((int) region);
+	}
+	
+	@Override
+	public void incrementVersion(long region) {
+		versions.incrementAndGet((int) region);
+	}
+}
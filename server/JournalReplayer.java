@@ -0,0 +1,481 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The JournalReplayer class rebuilds the state of a game from its {@link GameJournal}, applying
+ * each record in turn to the players it describes, and checks the result against the state the
+ * journal ended with. Only the players are rebuilt, not the map, which keeps the replay to a few
+ * array writes per record.
+ *
+ * <pre>
+ * java -cp target/classes:../protocol/target/classes JournalReplayer journals/game-1700000000000.journal
+ * </pre>
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class JournalReplayer {
+	private static final int INITIAL_PLAYERS = 64;
+
+	private long seed;
+	private String mapName;
+	private int width;
+	private int height;
+	private int goal;
+
+	// Players by id, each with a slot in the state arrays
+	private HashMap<Integer, Integer> slots;
+	private int playerCount;
+	private int[] ids;
+	private String[] names;
+	private int[] xs;
+	private int[] ys;
+	private int[] hps;
+	private int[] golds;
+	private byte[] lanterns;
+	private byte[] swords;
+	private byte[] armours;
+	private byte[] dead;
+
+	private int turn;
+	private boolean finished;
+	private long records;
+	private long lost;
+	private boolean ended;
+	private List<String> differences;
+
+	/**
+	 * Constructor creates a replayer with no players
+	 */
+	public JournalReplayer() {
+		slots = new HashMap<Integer, Integer>();
+		ids = new int[INITIAL_PLAYERS];
+		names = new String[INITIAL_PLAYERS];
+		xs = new int[INITIAL_PLAYERS];
+		ys = new int[INITIAL_PLAYERS];
+		hps = new int[INITIAL_PLAYERS];
+		golds = new int[INITIAL_PLAYERS];
+		lanterns = new byte[INITIAL_PLAYERS];
+		swords = new byte[INITIAL_PLAYERS];
+		armours = new byte[INITIAL_PLAYERS];
+		dead = new byte[INITIAL_PLAYERS];
+		differences = new ArrayList<String>();
+	}
+
+	/**
+	 * Replays a journal file
+	 *
+	 * @param fileName     The name of the journal file
+	 * @throws IOException Thrown if the file could not be read or is not a journal
+	 */
+	public void replay(String fileName) throws IOException {
+		try (FileChannel channel = new RandomAccessFile(fileName, "r").getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Journal is too large to replay in one piece");
+			}
+			replay(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Replays a journal. A journal cut off part way through a record, as when the server stops
+	 * suddenly, is replayed up to the last whole record.
+	 *
+	 * @param journal      The journal, from its start
+	 * @throws IOException Thrown if the journal is not a journal or holds an unknown record
+	 */
+	public void replay(ByteBuffer journal) throws IOException {
+		if (journal.remaining() < 8 || journal.getInt() != GameJournal.MAGIC) {
+			throw new IOException("Not a journal");
+		}
+		if (journal.getInt() != GameJournal.VERSION) {
+			throw new IOException("Journal written with a different format version");
+		}
+
+		int start = journal.position();
+		try {
+			while (journal.hasRemaining()) {
+				start = journal.position();
+				apply(journal);
+				records++;
+			}
+		} catch (BufferUnderflowException e) {
+			// The last record was never finished
+			journal.position(start);
+		}
+	}
+
+	/**
+	 * Applies the next record to the state
+	 *
+	 * @param journal      The journal, at the start of a record
+	 * @throws IOException Thrown if the record is of an unknown type
+	 */
+	private void apply(ByteBuffer journal) throws IOException {
+		byte type = journal.get();
+		int slot;
+
+		switch (type) {
+			case GameJournal.START:
+				seed = journal.getLong();
+				width = journal.getInt();
+				height = journal.getInt();
+				goal = journal.getInt();
+				mapName = getName(journal);
+				break;
+
+			case GameJournal.JOIN:
+				slot = join(journal.getInt());
+				getPlayer(journal, slot);
+				names[slot] = getName(journal);
+				break;
+
+			case GameJournal.MOVE:
+				slot = slotOf(journal.getInt(), type);
+				xs[slot] = journal.getInt();
+				ys[slot] = journal.getInt();
+				break;
+
+			case GameJournal.LEAVE:
+				leave(journal.getInt());
+				break;
+
+			case GameJournal.ATTACK:
+				slotOf(journal.getInt(), type);
+				slot = slotOf(journal.getInt(), type);
+				int damage = journal.getInt();
+				if (damage > 0) {
+					// Players die as soon as they run out of hit points
+					hps[slot] = Math.max(0, hps[slot] - damage);
+					if (hps[slot] == 0) {
+						dead[slot] = 1;
+					}
+				}
+				break;
+
+			case GameJournal.PICKUP:
+				slot = slotOf(journal.getInt(), type);
+				char item = (char) journal.get();
+				int gold = journal.getInt();
+				switch (item) {
+					case Tile.GOLD: golds[slot] += gold; break;
+					case Tile.ARMOUR: armours[slot] = 1; break;
+					case Tile.HEALTH: hps[slot]++; break;
+					case Tile.LANTERN: lanterns[slot] = 1; break;
+					case Tile.SWORD: swords[slot] = 1; break;
+				}
+				break;
+
+			case GameJournal.TURN:
+				turn = journal.getInt();
+				break;
+
+			case GameJournal.WIN:
+				slotOf(journal.getInt(), type);
+				finished = true;
+				break;
+
+			case GameJournal.GAP:
+				lost += journal.getLong();
+				break;
+
+			case GameJournal.END:
+				check(journal);
+				ended = true;
+				break;
+
+			default:
+				throw new IOException("Unknown record type " + type + " at byte " + (journal.position() - 1));
+		}
+	}
+
+	/**
+	 * Checks the state against the state a journal ended with
+	 *
+	 * @param journal The journal, after the type of an END record
+	 */
+	private void check(ByteBuffer journal) {
+		int endTurn = journal.getInt();
+		boolean endFinished = journal.get() != 0;
+		int endCount = journal.getInt();
+
+		if (endTurn != turn) {
+			differences.add("Turn is player " + turn + ", journal ended on player " + endTurn);
+		}
+		if (endFinished != finished) {
+			differences.add("Game is " + (finished ? "" : "not ") + "finished, journal ended " + (endFinished ? "" : "not ") + "finished");
+		}
+		if (endCount != playerCount) {
+			differences.add(playerCount + " players, journal ended with " + endCount);
+		}
+
+		// Read each player into a spare slot past the end, then compare it with the replayed one
+		for (int i = 0; i < endCount; i++) {
+			int id = journal.getInt();
+			int spare = playerCount;
+			grow(spare + 1);
+			getPlayer(journal, spare);
+
+			Integer slot = slots.get(id);
+			if (slot == null) {
+				differences.add("Player " + id + " is missing");
+			} else if (xs[slot] != xs[spare] || ys[slot] != ys[spare] || hps[slot] != hps[spare] || golds[slot] != golds[spare]
+					|| lanterns[slot] != lanterns[spare] || swords[slot] != swords[spare] || armours[slot] != armours[spare] || dead[slot] != dead[spare]) {
+				differences.add("Player " + id + " is " + describe(slot) + ", journal ended with " + describe(spare));
+			}
+		}
+	}
+
+	/**
+	 * Reads the state of a player into a slot
+	 *
+	 * @param journal The journal, after the player id
+	 * @param slot    The slot
+	 */
+	private void getPlayer(ByteBuffer journal, int slot) {
+		xs[slot] = journal.getInt();
+		ys[slot] = journal.getInt();
+		hps[slot] = journal.getInt();
+		golds[slot] = journal.getInt();
+		lanterns[slot] = journal.get();
+		swords[slot] = journal.get();
+		armours[slot] = journal.get();
+		dead[slot] = journal.get();
+	}
+
+	/**
+	 * Reads a name
+	 *
+	 * @param journal The journal, at the start of the name
+	 * @return        The name
+	 */
+	private static String getName(ByteBuffer journal) {
+		byte[] name = new byte[journal.getShort() & 0xFFFF];
+		journal.get(name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Adds a player, or finds the slot of a player that is already in the game
+	 *
+	 * @param id The player id
+	 * @return   The slot of the player
+	 */
+	private int join(int id) {
+		Integer slot = slots.get(id);
+		if (slot != null) {
+			return slot;
+		}
+
+		grow(playerCount + 1);
+		slots.put(id, playerCount);
+		ids[playerCount] = id;
+		return playerCount++;
+	}
+
+	/**
+	 * Removes a player, moving the last player into their slot
+	 *
+	 * @param id The player id
+	 */
+	private void leave(int id) {
+		Integer slot = slots.remove(id);
+		if (slot == null) {
+			differences.add("Record " + records + ": LEAVE for player " + id + " who is not in the game");
+			return;
+		}
+
+		int last = --playerCount;
+		if (slot != last) {
+			ids[slot] = ids[last];
+			names[slot] = names[last];
+			xs[slot] = xs[last];
+			ys[slot] = ys[last];
+			hps[slot] = hps[last];
+			golds[slot] = golds[last];
+			lanterns[slot] = lanterns[last];
+			swords[slot] = swords[last];
+			armours[slot] = armours[last];
+			dead[slot] = dead[last];
+			slots.put(ids[slot], slot);
+		}
+		names[last] = null;
+	}
+
+	/**
+	 * Finds the slot of a player in the game
+	 *
+	 * @param id   The player id
+	 * @param type The type of the record naming the player
+	 * @return     The slot of the player, or a spare slot if the player is not in the game
+	 */
+	private int slotOf(int id, byte type) {
+		Integer slot = slots.get(id);
+		if (slot == null) {
+			differences.add("Record " + records + ": type " + type + " for player " + id + " who is not in the game");
+			grow(playerCount + 1);
+			return playerCount;
+		}
+		return slot;
+	}
+
+	/**
+	 * Makes room in the state arrays
+	 *
+	 * @param size The number of slots needed
+	 */
+	private void grow(int size) {
+		if (size <= ids.length) {
+			return;
+		}
+
+		int length = Math.max(size, ids.length * 2);
+		ids = Arrays.copyOf(ids, length);
+		names = Arrays.copyOf(names, length);
+		xs = Arrays.copyOf(xs, length);
+		ys = Arrays.copyOf(ys, length);
+		hps = Arrays.copyOf(hps, length);
+		golds = Arrays.copyOf(golds, length);
+		lanterns = Arrays.copyOf(lanterns, length);
+		swords = Arrays.copyOf(swords, length);
+		armours = Arrays.copyOf(armours, length);
+		dead = Arrays.copyOf(dead, length);
+	}
+
+	/**
+	 * Describes the state of a player
+	 *
+	 * @param slot The slot of the player
+	 * @return     The description
+	 */
+	private String describe(int slot) {
+		return "at " + xs[slot] + "," + ys[slot] + " with " + hps[slot] + " hp, " + golds[slot] + " gold, lantern " + lanterns[slot]
+				+ ", sword " + swords[slot] + ", armour " + armours[slot] + (dead[slot] != 0 ? ", dead" : "");
+	}
+
+	/**
+	 * Gets the number of records replayed
+	 *
+	 * @return The number of records
+	 */
+	public long getRecords() {
+		return records;
+	}
+
+	/**
+	 * Gets the seed of the game's random numbers
+	 *
+	 * @return The seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Gets the number of players in the game
+	 *
+	 * @return The number of players
+	 */
+	public int getPlayerCount() {
+		return playerCount;
+	}
+
+	/**
+	 * Checks if the journal ended with a record of the final state
+	 *
+	 * @return <code>true</code> if the final state was recorded, <code>false</code> if the journal stops short
+	 */
+	public boolean isEnded() {
+		return ended;
+	}
+
+	/**
+	 * Gets the number of records the game dropped because the disk fell behind
+	 *
+	 * @return The number of records lost
+	 */
+	public long getLost() {
+		return lost;
+	}
+
+	/**
+	 * Gets the differences between the replayed state and the state recorded in the journal
+	 *
+	 * @return The differences, empty if the replay matches
+	 */
+	public List<String> getDifferences() {
+		return differences;
+	}
+
+	/**
+	 * Checks that the replay rebuilt exactly the state the journal ended with
+	 *
+	 * @return <code>true</code> if it did, <code>false</code> if the state differs, records were lost or the journal stops short
+	 */
+	public boolean matches() {
+		return ended && lost == 0 && differences.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append(mapName).append(", ").append(width).append('x').append(height).append(", ").append(goal).append(" to win, seed ").append(seed);
+		report.append("\n").append(playerCount).append(playerCount == 1 ? " player" : " players");
+		report.append(", turn of player ").append(turn).append(finished ? ", won" : "");
+		return report.toString();
+	}
+
+	/**
+	 * The main method.
+	 *
+	 * @param args The journal files to replay
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: JournalReplayer <journal>...");
+			return;
+		}
+
+		boolean allMatch = true;
+		for (String fileName : args) {
+			JournalReplayer replayer = new JournalReplayer();
+			long start = System.nanoTime();
+			try {
+				replayer.replay(fileName);
+			} catch (IOException e) {
+				System.out.println(fileName + ": " + e.getMessage());
+				allMatch = false;
+				continue;
+			}
+			double seconds = (System.nanoTime() - start) / 1000000000.0;
+
+			System.out.println(fileName + ": " + replayer.getRecords() + " records in " + String.format("%.1f ms, %.1f million a second",
+					seconds * 1000, replayer.getRecords() / seconds / 1000000));
+			System.out.println(replayer);
+
+			if (replayer.getLost() > 0) {
+				System.out.println(replayer.getLost() + " records were lost while the game was played");
+			}
+			if (!replayer.isEnded()) {
+				System.out.println("The journal stops before the end of the game, so the final state can not be checked");
+			}
+			for (String difference : replayer.getDifferences()) {
+				System.out.println(difference);
+			}
+			if (replayer.matches()) {
+				System.out.println("Final state matches");
+			}
+			allMatch &= replayer.matches();
+		}
+
+		System.exit(allMatch ? 0 : 1);
+	}
+}
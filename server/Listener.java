@@ -1,6 +1,7 @@
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.ExecutorService;
 
 /**
  * The Listener class listens for clients connecting to the server. The class listens in a new thread.
@@ -10,15 +11,62 @@ import java.net.Socket;
  */
 public class Listener extends Thread {
 	private ServerSocket serverSock;
+	private ExecutorService connectionExecutor;
 	
 	private Game game;
 	
+	/**
+	 * Constructor starts listening, giving each client its own platform thread
+	 * 
+	 * @param serverSock The bound server socket
+	 * @param game       The game new clients will join
+	 */
 	public Listener(ServerSocket serverSock, Game game) {
+		this(serverSock, game, null);
+	}
+	
+	/**
+	 * Constructor starts listening, running each client on a given executor
+	 * 
+	 * @param serverSock         The bound server socket
+	 * @param game               The game new clients will join
+	 * @param connectionExecutor The executor to run clients on. <code>null</code> for a platform thread per client.
+	 */
+	public Listener(ServerSocket serverSock, Game game, ExecutorService connectionExecutor) {
 		this.game = game;
 		this.serverSock = serverSock;
+		this.connectionExecutor = connectionExecutor;
 		start();
 	}
 	
+	/**
+	 * Constructor for listeners that accept clients without a <code>ServerSocket</code>.
+	 * The subclass must start the thread itself.
+	 * 
+	 * @param game The game new clients will join
+	 */
+	protected Listener(Game game) {
+		this.game = game;
+	}
+	
+	/**
+	 * Gets the game new clients will join
+	 * 
+	 * @return The game new clients will join
+	 */
+	public Game getGame() {
+		return game;
+	}
+	
+	/**
+	 * Gets the port the listener is accepting clients on
+	 * 
+	 * @return The local port
+	 */
+	public int getPort() {
+		return serverSock.getLocalPort();
+	}
+	
 	/**
 	 * Starts listening in a new thread
 	 */
@@ -35,13 +83,37 @@ public class Listener extends Thread {
 			while (true) {
 				Socket newSock = serverSock.accept();
 				
-				new Connection(newSock, game);
+				try {
+					Connection connection = new Connection(newSock, game);
+					
+					if (connectionExecutor != null) {
+						connectionExecutor.execute(connection);
+					} else {
+						new Thread(connection).start();
+					}
+				} catch (IOException e) {
+					// Drop the client but keep listening
+					closeQuietly(newSock);
+				}
 			}
 		} catch (IOException e) {
 			// Just let the thread die quietly
 		}
 	}
 	
+	/**
+	 * Closes a client socket, ignoring any errors
+	 * 
+	 * @param sock The socket to close
+	 */
+	private void closeQuietly(Socket sock) {
+		try {
+			sock.close();
+		} catch (IOException e) {
+			// Nothing more can be done with the socket
+		}
+	}
+	
 	/**
 	 * Closes the server socket listener
 	 * 
@@ -49,5 +121,10 @@ public class Listener extends Thread {
 	 */
 	public void close() throws IOException {
 		serverSock.close();
+		
+		// Clients that are already connected keep running
+		if (connectionExecutor != null) {
+			connectionExecutor.shutdown();
+		}
 	}
 }
@@ -0,0 +1,175 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The LookCache class keeps recently rendered views of the map so that a LOOK from a position
+ * nothing has changed around is answered without rendering the view again. Each view is
+ * stored with the version of the area it covers, see {@link Map#getVersion}, and is only
+ * used while that version is unchanged.
+ *
+ * Every position has one slot, shared with other positions, and a newer view simply replaces
+ * whatever was in the slot. Stored entries are never changed, so they can be read without
+ * locking.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class LookCache {
+	// Number of slots, a power of two
+	public static final int DEFAULT_SIZE = 4096;
+
+	private Entry[] slots;
+	private AtomicLong hits;
+	private AtomicLong misses;
+
+	/**
+	 * The Entry class is one rendered view and its reply
+	 */
+	public static class Entry {
+		private final int x;
+		private final int y;
+		private final int radius;
+		private final long version;
+		private final char[][] look;
+		private final EncodedMessage reply;
+
+		/**
+		 * Constructor passes parameter values to the fields
+		 *
+		 * @param x       The X position the view is centred on
+		 * @param y       The Y position the view is centred on
+		 * @param radius  The vision distance of the view
+		 * @param version The version of the area when the view was rendered
+		 * @param look    The tiles of the view
+		 * @param reply   The LOOKREPLY message for the view
+		 */
+		private Entry(int x, int y, int radius, long version, char[][] look, EncodedMessage reply) {
+			this.x = x;
+			this.y = y;
+			this.radius = radius;
+			this.version = version;
+			this.look = look;
+			this.reply = reply;
+		}
+
+		/**
+		 * Gets the tiles of the view
+		 *
+		 * @return The tiles, in rows and columns, which must not be changed
+		 */
+		public char[][] getLook() {
+			return look;
+		}
+
+		/**
+		 * Gets the LOOKREPLY message for the view
+		 *
+		 * @return The LOOKREPLY message
+		 */
+		public EncodedMessage getReply() {
+			return reply;
+		}
+	}
+
+	/**
+	 * Constructor creates an empty cache with the default number of slots
+	 */
+	public LookCache() {
+		this(DEFAULT_SIZE);
+	}
+
+	/**
+	 * Constructor creates an empty cache
+	 *
+	 * @param size The number of slots, rounded up to a power of two
+	 */
+	public LookCache(int size) {
+		slots = new Entry[Integer.highestOneBit(Math.max(1, size - 1)) << 1];
+		hits = new AtomicLong();
+		misses = new AtomicLong();
+	}
+
+	/**
+	 * Gets a stored view
+	 *
+	 * @param x       The X position the view is centred on
+	 * @param y       The Y position the view is centred on
+	 * @param radius  The vision distance of the view
+	 * @param version The current version of the area the view covers
+	 * @return        The view, <code>null</code> if there is no up to date view stored
+	 */
+	public Entry get(int x, int y, int radius, long version) {
+		Entry entry = slots[slotOf(x, y, radius)];
+
+		if (entry != null && entry.x == x && entry.y == y && entry.radius == radius && entry.version == version) {
+			hits.incrementAndGet();
+			return entry;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Stores a view. The version must have been read before the view was rendered, so that a
+	 * change made while rendering makes the stored view out of date.
+	 *
+	 * @param x       The X position the view is centred on
+	 * @param y       The Y position the view is centred on
+	 * @param radius  The vision distance of the view
+	 * @param version The version of the area before the view was rendered
+	 * @param look    The tiles of the view, which must not be changed afterwards
+	 * @param reply   The LOOKREPLY message for the view
+	 * @return        The stored entry
+	 */
+	public Entry put(int x, int y, int radius, long version, char[][] look, EncodedMessage reply) {
+		Entry entry = new Entry(x, y, radius, version, look, reply);
+		slots[slotOf(x, y, radius)] = entry;
+		return entry;
+	}
+
+	/**
+	 * Gets the number of lookups answered from the cache
+	 *
+	 * @return The number of hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of lookups that had to render the view
+	 *
+	 * @return The number of misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the share of lookups answered from the cache
+	 *
+	 * @return The hit rate between <code>0</code> and <code>1</code>, <code>0</code> before any lookups
+	 */
+	public double getHitRate() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+	/**
+	 * Gets the slot for a view
+	 *
+	 * @param x      The X position the view is centred on
+	 * @param y      The Y position the view is centred on
+	 * @param radius The vision distance of the view
+	 * @return       The slot index
+	 */
+	private int slotOf(int x, int y, int radius) {
+		int hash = (x * 0x9E3779B1) ^ (y * 0x85EBCA6B) ^ radius;
+		return (hash ^ (hash >>> 16)) & (slots.length - 1);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("LOOK cache: %d hits, %d misses, %.1f%% hit rate", getHits(), getMisses(), getHitRate() * 100);
+	}
+}
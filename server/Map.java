@@ -1,50 +1,121 @@
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-
-import javax.swing.JOptionPane;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The Map class handles loading a dungeon map from a file and arranging the dungeon tiles
  * 
+ * Tiles are not stored as objects. The base of every tile is one byte and the player on every
+ * tile is an id, both kept in a {@link TileStore}. Gold tiles hold one gold, and other amounts
+ * are only stored for the few tiles where gold has been dropped or taken. {@link Tile} objects
+ * are views of a position, made when they are asked for.
+ * Map files are checked and read by a {@link MapParser}, or loaded from their compiled form. A
+ * file that can not be played is replaced by the default map, and the reasons are kept in a
+ * {@link MapReport}.
+ * Very large maps can keep their tiles off the Java heap, or keep only the parts of the map
+ * near players in memory, see {@link #setStorage}.
+ * 
  * @author Sean Stinson, ss938
  *
  */
 public class Map {
+	// Width and height of the regions whose changes are counted, in tiles
+	public static final int REGION_SIZE = 8;
+	
 	private String name = "Default Dungeon";
 	private int goal = 2;
 	private int height = 5;
 	private int width = 5;
 	
 	// Default map
-	private Tile[][] tiles = {
-			{new Tile(Tile.WALL),    new Tile(Tile.WALL),  new Tile(Tile.ARMOUR), new Tile(Tile.WALL),   new Tile(Tile.WALL)   },
-			{new Tile(Tile.WALL),    new Tile(Tile.EXIT),  new Tile(Tile.GOLD),   new Tile(Tile.FLOOR),  new Tile(Tile.GOLD)   },
-			{new Tile(Tile.LANTERN), new Tile(Tile.GOLD),  new Tile(Tile.FLOOR),  new Tile(Tile.HEALTH), new Tile(Tile.LANTERN)},
-			{new Tile(Tile.WALL),    new Tile(Tile.SWORD), new Tile(Tile.FLOOR),  new Tile(Tile.ARMOUR), new Tile(Tile.GOLD)   },
-			{new Tile(Tile.WALL),    new Tile(Tile.WALL),  new Tile(Tile.SWORD),  new Tile(Tile.WALL),   new Tile(Tile.WALL)   }
+	private static final String[] DEFAULT_TILES = {
+			"##A##",
+			"#EG.G",
+			"LG.HL",
+			"#S.AG",
+			"##S##"
 	};
 	
+	// Where maps keep their tiles
+	public static final int STORAGE_HEAP     = 0;
+	public static final int STORAGE_OFF_HEAP = 1;
+	public static final int STORAGE_CHUNKED  = 2;
+	
+	// Where maps loaded from now on keep their tiles
+	private static volatile int storage = STORAGE_HEAP;
+	private static volatile int maxChunks = ChunkedTileStore.DEFAULT_MAX_CHUNKS;
+	
+	// Where text maps are compiled to, null to parse them every time
+	private static volatile File cacheDirectory = null;
+	
+	// Tiles, row by row
+	private TileStore store;
+	private HashMap<Long, Integer> gold;
+	
+	// Players standing on the map, by their id
+	private ConcurrentHashMap<Integer, Player> occupantPlayers;
+	
+	// What was found when the map file was checked
+	private MapReport report;
+	
+	// Tiles that are neither walls nor occupied, for placing players
+	private FreeTileIndex freeTiles;
+	
+	// Number of columns of regions, whose changes the store counts for telling when a view is out of date
+	private int regionColumns;
+	
+	// Regions whose bases or gold have changed since they were last taken for a snapshot, guarded by the gold lock
+	private HashSet<Long> changedRegions;
+	
+	// The file the map was asked to be loaded from, null for the default map
+	private String fileName;
+	
 	/**
 	 * Constructor attempts to read a map from a file and uses the default map if this fails
 	 * 
 	 * @param fileName The name of the file to read
 	 */
 	public Map(String fileName) {
-		try {
-			ArrayList<String> lines = loadFile(fileName);
-			if (lines.size() >= 3) {
-				parseMap(lines);
-			} else {
-				JOptionPane.showMessageDialog(null, "Missing map file elements, using default map", "Using Default Map", JOptionPane.WARNING_MESSAGE);
+		this.fileName = fileName;
+		boolean compiled = CompiledMap.isCompiled(fileName);
+		byte[] hash = null;
+		File cached = null;
+		
+		// Text maps that have been loaded before are read from the cache
+		if (!compiled && cacheDirectory != null) {
+			try {
+				hash = CompiledMap.hash(fileName);
+				cached = CompiledMap.getCacheFile(cacheDirectory, hash);
+			} catch (IOException e) {
+				// Reported by the parser
 			}
-		} catch (FileNotFoundException e) {
-			JOptionPane.showMessageDialog(null, "File not found, using default map", "Using Default Map", JOptionPane.WARNING_MESSAGE);
-		} catch (IOException e) {
-			JOptionPane.showMessageDialog(null, "Unable to load map, using default map", "Using Default Map", JOptionPane.WARNING_MESSAGE);
 		}
+		
+		if (compiled || cached != null && cached.isFile()) {
+			try {
+				loadCompiled(compiled ? fileName : cached.getPath(), fileName);
+			} catch (IOException e) {
+				System.out.println("Unable to load compiled map: " + e.getMessage());
+				report = null;
+			}
+		}
+		
+		if (report == null) {
+			loadText(fileName, compiled ? null : cached, hash);
+		}
+		
+		if (report.isValid()) {
+			name = report.getName();
+			goal = report.getGoal();
+		} else {
+			System.out.println("Using the default map. " + report);
+			setTiles(DEFAULT_TILES, 0, DEFAULT_TILES.length, DEFAULT_TILES[0].length());
+		}
+		indexFreeTiles();
 	}
 	
 	/**
@@ -52,6 +123,91 @@ public class Map {
 	 */
 	public Map() {
 		// Keep default map values
+		report = new MapReport("default map");
+		report.setName(name);
+		report.setGoal(goal);
+		report.setSize(DEFAULT_TILES[0].length(), DEFAULT_TILES.length);
+		setTiles(DEFAULT_TILES, 0, DEFAULT_TILES.length, DEFAULT_TILES[0].length());
+		indexFreeTiles();
+	}
+	
+	/**
+	 * Gets where maps loaded from now on keep their tiles
+	 * 
+	 * @return One of the <code>STORAGE_*</code> modes
+	 */
+	public static int getStorage() {
+		return storage;
+	}
+	
+	/**
+	 * Sets where maps loaded from now on keep their tiles. Maps off the heap are a little
+	 * slower, but do not add to garbage collection pauses however large they are. Chunked maps
+	 * are read from their file a part at a time as players reach them, so they can be larger
+	 * than memory.
+	 * 
+	 * @param storage One of the <code>STORAGE_*</code> modes
+	 */
+	public static void setStorage(int storage) {
+		Map.storage = storage;
+	}
+	
+	/**
+	 * Gets the most chunks of a chunked map kept in memory
+	 * 
+	 * @return The number of chunks
+	 */
+	public static int getMaxChunks() {
+		return maxChunks;
+	}
+	
+	/**
+	 * Sets the most chunks of a chunked map kept in memory, for maps loaded from now on. Chunks
+	 * with players in or next to them are kept even if there are more.
+	 * 
+	 * @param maxChunks The number of chunks
+	 */
+	public static void setMaxChunks(int maxChunks) {
+		Map.maxChunks = maxChunks;
+	}
+	
+	/**
+	 * Gets the report of checking the map file, which lists the problems that made the default
+	 * map be used instead
+	 * 
+	 * @return The report
+	 */
+	public MapReport getReport() {
+		return report;
+	}
+	
+	/**
+	 * Gets the directory text maps are compiled into
+	 * 
+	 * @return The cache directory, <code>null</code> if maps are not compiled
+	 */
+	public static File getCacheDirectory() {
+		return cacheDirectory;
+	}
+	
+	/**
+	 * Sets the directory text maps are compiled into. A text map is parsed the first time it is
+	 * loaded and compiled into the directory, see {@link CompiledMap}, and later loads of the
+	 * same map read the compiled form.
+	 * 
+	 * @param cacheDirectory The cache directory, <code>null</code> to parse maps every time
+	 */
+	public static void setCacheDirectory(File cacheDirectory) {
+		Map.cacheDirectory = cacheDirectory;
+	}
+	
+	/**
+	 * Gets the file the map was loaded from
+	 * 
+	 * @return The name of the map file, <code>null</code> for the default map
+	 */
+	public String getFileName() {
+		return fileName;
 	}
 	
 	/**
@@ -127,125 +283,558 @@ public class Map {
 	}
 
 	/**
-	 * Gets the map
+	 * Gets a view of the tile at a position
 	 * 
-	 * @return The map
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 * @return  The tile
 	 */
-	public Tile[][] getTiles() {
-		return tiles;
+	public Tile getTile(int x, int y) {
+		return new Tile(this, x, y);
 	}
-
+	
+	/**
+	 * Gets the base tile content at a position
+	 * 
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 * @return  The base tile content
+	 */
+	public char getBase(int x, int y) {
+		return store.getBase(index(x, y));
+	}
+	
 	/**
-	 * Loads the map from a file
+	 * Sets the base tile content at a position
 	 * 
-	 * @param fileName     The name of the file to load
-	 * @return             An ArrayList of lines read from the file
-	 * @throws IOException Thrown if there was a problem reading from the file
+	 * @param x    The X position of the tile
+	 * @param y    The Y position of the tile
+	 * @param base The new base tile content
 	 */
-	private ArrayList<String> loadFile(String fileName) throws IOException {
-		ArrayList<String> lines = new ArrayList<String>();
+	public void setBase(int x, int y, char base) {
+		long index = index(x, y);
+		
+		synchronized (gold) {
+			// A tile that becomes a gold tile starts with no gold, rather than the one of a loaded gold tile
+			if (base == Tile.GOLD && store.getBase(index) != Tile.GOLD) {
+				gold.put(index, 0);
+			}
+			store.setBase(index, base);
+			contentChanged(x, y);
+		}
 		
-		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		if (base == Tile.WALL) {
+			freeTiles.remove(x, y);
+		} else if (!isOccupied(x, y)) {
+			freeTiles.add(x, y);
+		}
+		tileChanged(x, y);
+	}
+	
+	/**
+	 * Gets the amount of gold at a position. Gold tiles hold one gold unless the amount has
+	 * been changed since the map was loaded.
+	 * 
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 * @return  The amount of gold on the tile
+	 */
+	public int getGold(int x, int y) {
+		long index = index(x, y);
 		
-		String line;
-		while ((line = reader.readLine()) != null) {
-			lines.add(line);
+		synchronized (gold) {
+			Integer amount = gold.get(index);
+			if (amount != null) {
+				return amount;
+			}
+			return store.getBase(index) == Tile.GOLD ? 1 : 0;
 		}
+	}
+	
+	/**
+	 * Sets the amount of gold at a position. Any gold makes the tile a gold tile.
+	 * 
+	 * @param x      The X position of the tile
+	 * @param y      The Y position of the tile
+	 * @param amount The new amount of gold on the tile
+	 */
+	public void setGold(int x, int y, int amount) {
+		long index = index(x, y);
 		
-		reader.close();
-		return lines;
+		synchronized (gold) {
+			if (amount > 0) {
+				store.setBase(index, Tile.GOLD);
+				gold.put(index, amount);
+			} else if (store.getBase(index) == Tile.GOLD) {
+				gold.put(index, 0);
+			} else {
+				gold.remove(index);
+			}
+			contentChanged(x, y);
+		}
+		tileChanged(x, y);
 	}
 	
 	/**
-	 * Converts the map from String to Tile format
+	 * Adds gold at a position. Any gold makes the tile a gold tile.
 	 * 
-	 * @param lines The lines read from the map file
+	 * @param x      The X position of the tile
+	 * @param y      The Y position of the tile
+	 * @param amount The amount of gold to add to the tile
 	 */
-	private void parseMap(ArrayList<String> lines) {
-		// Parse map name
-		String first = lines.get(0);
-		String tempName = "";
-		if (first.matches("name .*")) {
-			tempName = lines.get(0).split(" ", 2)[1];
-		} else {
-			JOptionPane.showMessageDialog(null, "No map name found, using default map", "Using Default Map", JOptionPane.WARNING_MESSAGE);
-			return;
+	public void addGold(int x, int y, int amount) {
+		synchronized (gold) {
+			setGold(x, y, getGold(x, y) + amount);
 		}
+	}
+	
+	/**
+	 * Removes all of the gold at a position, leaving floor
+	 * 
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 * @return  The amount of gold that was on the tile
+	 */
+	public int popGold(int x, int y) {
+		long index = index(x, y);
+		int amount;
 		
-		// Parse map goal
-		String second = lines.get(1);
-		int tempGoal;
-		String goalString;
-		if (second.matches("win [0-9]+")) {
-			goalString = second.split(" ", 2)[1];
-			tempGoal = Integer.parseInt(goalString);
-		} else {
-			JOptionPane.showMessageDialog(null, "No goal found, using default map", "Using Default Map", JOptionPane.WARNING_MESSAGE);
+		synchronized (gold) {
+			amount = getGold(x, y);
+			gold.remove(index);
+			store.setBase(index, Tile.FLOOR);
+			contentChanged(x, y);
+		}
+		tileChanged(x, y);
+		return amount;
+	}
+	
+	/**
+	 * Gets the player standing at a position
+	 * 
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 * @return  The player on the tile, <code>null</code> if the tile has no player
+	 */
+	public Player getOccupant(int x, int y) {
+		int id = store.getOccupant(index(x, y));
+		return id == 0 ? null : occupantPlayers.get(id);
+	}
+	
+	/**
+	 * Checks if a player is standing at a position
+	 * 
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 * @return  <code>true</code> if the tile is occupied by a player, <code>false</code> otherwise
+	 */
+	public boolean isOccupied(int x, int y) {
+		return store.getOccupant(index(x, y)) != 0;
+	}
+	
+	/**
+	 * Puts a player on a position
+	 * 
+	 * @param x      The X position of the tile
+	 * @param y      The Y position of the tile
+	 * @param player The player to occupy the tile
+	 */
+	public void occupy(int x, int y, Player player) {
+		occupantPlayers.put(player.getId(), player);
+		store.setOccupant(index(x, y), player.getId());
+		freeTiles.remove(x, y);
+		tileChanged(x, y);
+	}
+	
+	/**
+	 * Removes a player from a position. Nothing happens if another player has since taken the
+	 * tile, such as the tile of a player who died before leaving.
+	 * 
+	 * @param x      The X position of the tile
+	 * @param y      The Y position of the tile
+	 * @param player The player leaving the tile
+	 */
+	public void unOccupy(int x, int y, Player player) {
+		if (store.getOccupant(index(x, y)) != player.getId()) {
 			return;
 		}
+		store.setOccupant(index(x, y), 0);
+		if (store.getBase(index(x, y)) != Tile.WALL) {
+			freeTiles.add(x, y);
+		}
+		tileChanged(x, y);
+	}
+	
+	/**
+	 * Picks a tile a player could be placed on at random, each free tile being equally likely
+	 * 
+	 * @param random The source of random numbers
+	 * @return       The tile number, <code>y * width + x</code>, or {@link FreeTileIndex#NONE} if every tile is a wall or occupied
+	 */
+	public long randomFreeTile(SplittableRandom random) {
+		return freeTiles.pick(random);
+	}
+	
+	/**
+	 * Gets the number of tiles a player could be placed on
+	 * 
+	 * @return The number of tiles that are neither walls nor occupied
+	 */
+	public long getFreeTileCount() {
+		return freeTiles.getFreeCount();
+	}
+	
+	/**
+	 * Forgets a player that has left the game. The player must not be on any tile.
+	 * 
+	 * @param player The player that left
+	 */
+	public void removePlayer(Player player) {
+		occupantPlayers.remove(player.getId());
+	}
+	
+	/**
+	 * Starts loading the part of the map around a position, if it is not already in memory, so
+	 * that a player there does not wait for it. Does nothing unless the map is chunked.
+	 * 
+	 * @param x The X position
+	 * @param y The Y position
+	 */
+	public void prefetchAround(int x, int y) {
+		store.prefetch(x, y);
+	}
+	
+	/**
+	 * Gets the tile store
+	 * 
+	 * @return The tile store
+	 */
+	public TileStore getStore() {
+		return store;
+	}
+	
+	/**
+	 * Gets a number that changes whenever a tile in an area changes. Only numbers for the same
+	 * area can be compared.
+	 * 
+	 * @param minX The left edge of the area
+	 * @param minY The top edge of the area
+	 * @param maxX The right edge of the area
+	 * @param maxY The bottom edge of the area
+	 * @return     The version of the area
+	 */
+	public long getVersion(int minX, int minY, int maxX, int maxY) {
+		int firstColumn = Math.max(0, minX) / REGION_SIZE;
+		int lastColumn = Math.min(width - 1, maxX) / REGION_SIZE;
+		int firstRow = Math.max(0, minY) / REGION_SIZE;
+		int lastRow = Math.min(height - 1, maxY) / REGION_SIZE;
 		
-		// Get map dimensions
-		int tempHeight = lines.size() - 2;
-		int tempWidth = lines.get(3).length();
+		// Versions only go up, so their sum changes whenever any of them does
+		long version = 0;
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				version += store.getVersion((long) row * regionColumns + column);
+			}
+		}
+		return version;
+	}
+	
+	/**
+	 * Gets the number of regions, which are numbered row by row from the top left
+	 * 
+	 * @return The number of regions
+	 */
+	public long getRegionCount() {
+		return (long) regionColumns * ((height + REGION_SIZE - 1) / REGION_SIZE);
+	}
+	
+	/**
+	 * Gets the regions whose bases or gold have changed since this was last called, and starts
+	 * collecting changes again
+	 * 
+	 * @return The numbers of the changed regions
+	 */
+	public long[] takeChangedRegions() {
+		synchronized (gold) {
+			long[] regions = new long[changedRegions.size()];
+			int i = 0;
+			for (long region : changedRegions) {
+				regions[i++] = region;
+			}
+			changedRegions.clear();
+			return regions;
+		}
+	}
+	
+	/**
+	 * Copies the bases and gold of the tiles in a region. Tiles are copied row by row, each row
+	 * <code>REGION_SIZE</code> long, and tiles past the edge of the map are left as they are.
+	 * 
+	 * @param region  The number of the region
+	 * @param bases   Filled with the base of each tile
+	 * @param amounts Filled with the amount of gold on each tile
+	 */
+	public void getRegion(long region, byte[] bases, int[] amounts) {
+		int firstX = (int) (region % regionColumns) * REGION_SIZE;
+		int firstY = (int) (region / regionColumns) * REGION_SIZE;
+		int columns = Math.min(REGION_SIZE, width - firstX);
+		int rows = Math.min(REGION_SIZE, height - firstY);
 		
-		// Parse map tiles
-		Tile[][] tempMap = new Tile[tempHeight][tempWidth];
-		int goldCount = 0;
+		synchronized (gold) {
+			for (int row = 0; row < rows; row++) {
+				int offset = row * REGION_SIZE;
+				store.getBases((long) (firstY + row) * width + firstX, bases, offset, columns);
+				for (int column = 0; column < columns; column++) {
+					amounts[offset + column] = bases[offset + column] == Tile.GOLD ? getGold(firstX + column, firstY + row) : 0;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Changes the bases and gold of the tiles in a region to those copied by
+	 * {@link #getRegion(long, byte[], int[])}
+	 * 
+	 * @param region  The number of the region
+	 * @param bases   The base of each tile
+	 * @param amounts The amount of gold on each tile
+	 */
+	public void setRegion(long region, byte[] bases, int[] amounts) {
+		int firstX = (int) (region % regionColumns) * REGION_SIZE;
+		int firstY = (int) (region / regionColumns) * REGION_SIZE;
+		int columns = Math.min(REGION_SIZE, width - firstX);
+		int rows = Math.min(REGION_SIZE, height - firstY);
 		
-		for (int row = 0; row < tempHeight; row++) {
-			String rowString = lines.get(row + 2);
-			
-			if (!rowString.matches("[ASLGHE.#]*")) {
-				JOptionPane.showMessageDialog(null, "Invalid map characters, using default map", "Using Default Map", JOptionPane.WARNING_MESSAGE);
-				return;
+		for (int row = 0; row < rows; row++) {
+			for (int column = 0; column < columns; column++) {
+				int x = firstX + column;
+				int y = firstY + row;
+				char base = (char) bases[row * REGION_SIZE + column];
+				if (getBase(x, y) != base) {
+					setBase(x, y, base);
+				}
+				if (base == Tile.GOLD) {
+					setGold(x, y, amounts[row * REGION_SIZE + column]);
+				}
 			}
-			
-			for (int col = 0; col < tempWidth; col++) {
-				char currentChar = rowString.charAt(col);
-				
-				tempMap[row][col] = new Tile(currentChar);
+		}
+	}
+	
+	/**
+	 * Gets the number of a tile
+	 * 
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 * @return  The tile number
+	 * @throws IndexOutOfBoundsException Thrown if the position is not on the map
+	 */
+	private long index(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			throw new IndexOutOfBoundsException("Tile " + x + "," + y + " is outside the " + width + "x" + height + " map");
+		}
+		return (long) y * width + x;
+	}
+	
+	/**
+	 * Counts a change to a tile. Called after the tile has changed.
+	 * 
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 */
+	private void tileChanged(int x, int y) {
+		store.incrementVersion((long) (y / REGION_SIZE) * regionColumns + x / REGION_SIZE);
+	}
+	
+	/**
+	 * Notes a change to the base or gold of a tile for the next snapshot. The caller must hold
+	 * the gold lock.
+	 * 
+	 * @param x The X position of the tile
+	 * @param y The Y position of the tile
+	 */
+	private void contentChanged(int x, int y) {
+		changedRegions.add((long) (y / REGION_SIZE) * regionColumns + x / REGION_SIZE);
+	}
+	
+	/**
+	 * Fills the tiles from rows of tile characters and starts counting changes
+	 * 
+	 * @param rows      The rows of tile characters
+	 * @param first     The index of the first row of tiles
+	 * @param rowCount  The number of rows of tiles
+	 * @param rowLength The number of tiles in each row
+	 */
+	private void setTiles(String[] rows, int first, int rowCount, int rowLength) {
+		setStore(createStore(rowLength, rowCount), rowCount, rowLength);
+		
+		for (int row = 0; row < height; row++) {
+			String rowString = rows[first + row];
+			for (int col = 0; col < width; col++) {
+				char base = rowString.charAt(col);
+				store.setBase((long) row * width + col, base);
+			}
+		}
+	}
+	
+	/**
+	 * Uses a new store for the tiles and starts counting changes
+	 * 
+	 * @param store     The store, already holding the tiles
+	 * @param rowCount  The number of rows of tiles
+	 * @param rowLength The number of tiles in each row
+	 */
+	private void setStore(TileStore store, int rowCount, int rowLength) {
+		height = rowCount;
+		width = rowLength;
+		regionColumns = (width + REGION_SIZE - 1) / REGION_SIZE;
+		this.store = store;
+		gold = new HashMap<Long, Integer>();
+		changedRegions = new HashSet<Long>();
+		occupantPlayers = new ConcurrentHashMap<Integer, Player>();
+	}
+	
+	/**
+	 * Indexes the tiles that are not walls, once the map has been loaded and before any player
+	 * is placed on it
+	 */
+	private void indexFreeTiles() {
+		freeTiles = new FreeTileIndex(width, height);
+		int blockSize = FreeTileIndex.BLOCK_SIZE;
+		int span = ChunkedTileStore.CHUNK_SIZE;
+		long[] blocks = new long[span / blockSize];
+		byte[] row = new byte[span];
+		
+		// Scan a chunk sized square at a time, so a chunked map reads each chunk from its file once
+		for (int top = 0; top < height; top += span) {
+			int bottom = Math.min(top + span, height);
+			for (int left = 0; left < width; left += span) {
+				int columns = Math.min(span, width - left);
+				int blockCount = (columns + blockSize - 1) / blockSize;
 				
-				if (currentChar == 'G') {
-					goldCount++;
+				// Build each row of blocks up a row of tiles at a time
+				for (int y = top; y < bottom; y++) {
+					store.getBases((long) y * width + left, row, 0, columns);
+					int shift = (y % blockSize) * blockSize;
+					for (int block = 0; block < blockCount; block++) {
+						int first = block * blockSize;
+						int last = Math.min(first + blockSize, columns);
+						long bits = 0;
+						for (int x = first; x < last; x++) {
+							if (row[x] != Tile.WALL) {
+								bits |= 1L << (x - first);
+							}
+						}
+						blocks[block] |= bits << shift;
+					}
+					
+					if (y % blockSize == blockSize - 1 || y == bottom - 1) {
+						for (int block = 0; block < blockCount; block++) {
+							freeTiles.addBlock(left / blockSize + block, y / blockSize, blocks[block]);
+						}
+						Arrays.fill(blocks, 0);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Loads a text map file, compiling it into the cache if it can be played
+	 * 
+	 * @param fileName The name of the file
+	 * @param cached   The compiled map file to write, <code>null</code> to not compile the map
+	 * @param hash     The hash of the file, if it is to be compiled
+	 */
+	private void loadText(String fileName, File cached, byte[] hash) {
+		MapParser parser = new MapParser(fileName);
+		report = parser.parse();
+		
+		try {
+			if (report.isValid()) {
+				if (storage == STORAGE_CHUNKED) {
+					// Chunks are read from the file when they are used
+					setStore(new ChunkedTileStore(fileName, parser.getRowOffsets(), report.getWidth(), maxChunks), report.getHeight(), report.getWidth());
+				} else {
+					TileStore tiles = createStore(report.getWidth(), report.getHeight());
+					parser.copyTiles(tiles);
+					setStore(tiles, report.getHeight(), report.getWidth());
 				}
 			}
+		} catch (IOException e) {
+			report.addProblem(0, 0, "Unable to load map: " + e.getMessage());
 		}
 		
-		// If there's enough gold, initialise map
-		if (goldCount >= tempGoal) {
-			name = tempName;
-			goal = tempGoal;
-			width = tempWidth;
-			height = tempHeight;
-			tiles = tempMap;
-		} else {
-			JOptionPane.showMessageDialog(null, "Not enough gold on the map, using default map", "Using Default Map", JOptionPane.WARNING_MESSAGE);
-			return;
+		try {
+			if (report.isValid() && cached != null) {
+				CompiledMap.write(cached, hash, parser);
+			}
+		} catch (IOException e) {
+			System.out.println("Unable to compile map into " + cached + ": " + e.getMessage());
+		} finally {
+			parser.close();
 		}
 	}
 	
+	/**
+	 * Loads a compiled map file
+	 * 
+	 * @param fileName     The name of the compiled file
+	 * @param sourceName   The name of the map file that was asked for
+	 * @throws IOException Thrown if the file is not a compiled map or could not be read
+	 */
+	private void loadCompiled(String fileName, String sourceName) throws IOException {
+		CompiledMap compiledMap = new CompiledMap(fileName, sourceName);
+		
+		try {
+			MapReport header = compiledMap.getReport();
+			if (storage == STORAGE_CHUNKED) {
+				setStore(new ChunkedTileStore(fileName, compiledMap.getRowOffsets(), header.getWidth(), maxChunks), header.getHeight(), header.getWidth());
+			} else {
+				TileStore tiles = createStore(header.getWidth(), header.getHeight());
+				compiledMap.copyTiles(tiles);
+				setStore(tiles, header.getHeight(), header.getWidth());
+			}
+			report = header;
+		} finally {
+			compiledMap.close();
+		}
+	}
+	
+	/**
+	 * Creates an empty heap or off-heap store
+	 * 
+	 * @param rowLength The number of tiles in each row
+	 * @param rowCount  The number of rows of tiles
+	 * @return          The store
+	 */
+	private static TileStore createStore(int rowLength, int rowCount) {
+		long regionColumnCount = (rowLength + REGION_SIZE - 1) / REGION_SIZE;
+		long regionRows = (rowCount + REGION_SIZE - 1) / REGION_SIZE;
+		return TileStore.create((long) rowLength * rowCount, regionColumnCount * regionRows, storage == STORAGE_OFF_HEAP);
+	}
+	
 	/**
 	 * Converts the entire map into String format
 	 * 
 	 * @return The entire map as a String
 	 */
 	public String toString() {
-		String mapString = "";
+		StringBuilder mapString = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, (long) height * (width + 1)));
 		
 		for (int row = 0; row < height; row++) {
 			for (int col = 0; col < width; col++) {
-				if (tiles[row][col].isOccupied()) {
-					mapString += "P";
+				if (store.getOccupant((long) row * width + col) != 0) {
+					mapString.append('P');
 				} else {
-					mapString += tiles[row][col].getBase();
+					mapString.append(store.getBase((long) row * width + col));
 				}
 			}
 			
 			if (row != height - 1) {
-				mapString += "\n";
+				mapString.append('\n');
 			}
 		}
 		
-		return mapString;
+		return mapString.toString();
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,553 @@
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The MapParser class checks a map file and copies its tiles into a {@link TileStore}. The
+ * file is memory mapped and read a byte at a time, with no line strings made, and every tile
+ * is checked against a lookup table while gold is counted in the same pass.
+ *
+ * Large files are split into blocks of whole rows, which are checked and copied in parallel.
+ * Problems are collected in a {@link MapReport} rather than shown to anyone, so maps can be
+ * loaded on a server with no screen.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class MapParser {
+	// Number of bytes of rows checked by each task
+	public static final int BLOCK_SIZE = 8 << 20;
+
+	// Characters a tile may be
+	private static final boolean[] VALID_TILES = new boolean[256];
+	static {
+		for (char tile : "ASLGHE.#".toCharArray()) {
+			VALID_TILES[tile] = true;
+		}
+	}
+
+	private String fileName;
+	private FileChannel channel;
+	private MapReport report;
+	private ArrayList<Block> blocks;
+	private long[] rowOffsets;
+
+	/**
+	 * The Block class is a range of whole rows of the file, and what was found in them
+	 */
+	private static class Block {
+		private long start;
+		private long end;
+		private int firstRow;
+		private int rows;
+		private long[] rowStarts;
+		private int[] rowLengths;
+		private long goldCount;
+		private long wallCount;
+
+		// Exits as row and column, packed into one number each
+		private long[] exits;
+		private int exitCount;
+
+		// Invalid tiles as row, column and character, limited to the number a report keeps
+		private ArrayList<int[]> badTiles;
+		private long badTileCount;
+
+		/**
+		 * Constructor passes parameter values to the fields
+		 *
+		 * @param start The position of the first byte of the block
+		 * @param end   The position after the last byte of the block
+		 */
+		public Block(long start, long end) {
+			this.start = start;
+			this.end = end;
+			rowStarts = new long[64];
+			rowLengths = new int[64];
+			exits = new long[4];
+			badTiles = new ArrayList<int[]>();
+		}
+
+		/**
+		 * Checks the rows of the block
+		 *
+		 * @param buffer The bytes of the block
+		 */
+		private void scan(MappedByteBuffer buffer) {
+			int size = buffer.limit();
+			long rowStart = start;
+			int length = 0;
+			boolean carriageReturn = false;
+
+			for (int i = 0; i < size; i++) {
+				int tile = buffer.get(i) & 0xFF;
+
+				if (tile == '\n') {
+					addRow(rowStart, length);
+					rowStart = start + i + 1;
+					length = 0;
+					carriageReturn = false;
+					continue;
+				}
+
+				// A carriage return is only allowed at the end of a line
+				if (carriageReturn) {
+					addBadTile(length, '\r');
+					length++;
+					carriageReturn = false;
+				}
+
+				if (tile == '\r') {
+					carriageReturn = true;
+				} else {
+					if (!VALID_TILES[tile]) {
+						addBadTile(length, tile);
+					} else if (tile == Tile.GOLD) {
+						goldCount++;
+					} else if (tile == Tile.WALL) {
+						wallCount++;
+					} else if (tile == Tile.EXIT) {
+						addExit(length);
+					}
+					length++;
+				}
+			}
+
+			// The last row of the file may have no new line
+			if (rowStart < start + size) {
+				addRow(rowStart, length);
+			}
+		}
+
+		/**
+		 * Records a row of the block
+		 *
+		 * @param rowStart The position of the row
+		 * @param length   The number of tiles in the row
+		 */
+		private void addRow(long rowStart, int length) {
+			if (rows == rowStarts.length) {
+				rowStarts = Arrays.copyOf(rowStarts, rows * 2);
+				rowLengths = Arrays.copyOf(rowLengths, rows * 2);
+			}
+			rowStarts[rows] = rowStart;
+			rowLengths[rows] = length;
+			rows++;
+		}
+
+		/**
+		 * Records an exit in the current row
+		 *
+		 * @param column The column of the exit, starting from 0
+		 */
+		private void addExit(int column) {
+			if (exitCount == exits.length) {
+				exits = Arrays.copyOf(exits, exitCount * 2);
+			}
+			exits[exitCount++] = (long) rows << 32 | column;
+		}
+
+		/**
+		 * Records a character that is not a tile in the current row
+		 *
+		 * @param column The column of the character, starting from 0
+		 * @param tile   The character
+		 */
+		private void addBadTile(int column, int tile) {
+			if (badTiles.size() < MapReport.MAX_PROBLEMS) {
+				badTiles.add(new int[] {rows, column, tile});
+			}
+			badTileCount++;
+		}
+	}
+
+	/**
+	 * The BlockTask interface is work done on each block of rows
+	 */
+	private interface BlockTask {
+		/**
+		 * Does the work for one block
+		 *
+		 * @param block        The block
+		 * @param buffer       The bytes of the block
+		 * @throws IOException Thrown if the work could not be done
+		 */
+		void run(Block block, MappedByteBuffer buffer) throws IOException;
+	}
+
+	/**
+	 * Constructor passes parameter values to the fields
+	 *
+	 * @param fileName The name of the map file
+	 */
+	public MapParser(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * Checks the map file. The file is kept open afterwards so its tiles can be copied, until
+	 * {@link #close} is called.
+	 *
+	 * @return The report of what was found, which is valid if the map can be played
+	 */
+	public MapReport parse() {
+		report = new MapReport(fileName);
+
+		try {
+			channel = new RandomAccessFile(fileName, "r").getChannel();
+			parseFile();
+		} catch (FileNotFoundException e) {
+			report.addProblem(0, 0, "File not found");
+		} catch (IOException e) {
+			report.addProblem(0, 0, "Unable to load map: " + e.getMessage());
+		}
+		return report;
+	}
+
+	/**
+	 * Gets the report of the last parse
+	 *
+	 * @return The report, <code>null</code> before the file is parsed
+	 */
+	public MapReport getReport() {
+		return report;
+	}
+
+	/**
+	 * Gets where each row of tiles starts in the file. Only known once a valid file has been
+	 * parsed.
+	 *
+	 * @return The position in the file of the first tile of each row
+	 */
+	public long[] getRowOffsets() {
+		return rowOffsets;
+	}
+
+	/**
+	 * Copies the tiles of a valid map file into a store
+	 *
+	 * @param store        The store, with room for every tile
+	 * @throws IOException Thrown if the file could not be read
+	 */
+	public void copyTiles(final TileStore store) throws IOException {
+		final long width = report.getWidth();
+
+		forEachBlock(new BlockTask() {
+			@Override
+			public void run(Block block, MappedByteBuffer buffer) {
+				for (int row = 0; row < block.rows; row++) {
+					store.setBases((block.firstRow + row) * width, buffer, (int) (block.rowStarts[row] - block.start), (int) width);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes the tiles of a valid map file to another file, row after row with nothing between
+	 *
+	 * @param target       The file to write to
+	 * @param position     The position in the file of the first tile
+	 * @throws IOException Thrown if either file could not be used
+	 */
+	public void writeTiles(final FileChannel target, final long position) throws IOException {
+		final long width = report.getWidth();
+
+		forEachBlock(new BlockTask() {
+			@Override
+			public void run(Block block, MappedByteBuffer buffer) throws IOException {
+				for (int row = 0; row < block.rows; row++) {
+					int offset = (int) (block.rowStarts[row] - block.start);
+					ByteBuffer tiles = buffer.slice(offset, (int) width);
+					long tilePosition = position + (block.firstRow + row) * width;
+
+					while (tiles.hasRemaining()) {
+						tilePosition += target.write(tiles, tilePosition);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Closes the map file
+	 */
+	public void close() {
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			// Nothing more to do with it
+		}
+	}
+
+	/**
+	 * Checks the header and every row of the file, filling in the report
+	 *
+	 * @throws IOException Thrown if there was a problem reading from the file
+	 */
+	private void parseFile() throws IOException {
+		// Parse map name and goal
+		long size = channel.size();
+		byte[] first = readLine(0, size);
+		byte[] second = first == null ? null : readLine(first.length + 1, size);
+		if (second == null) {
+			report.addProblem(0, 0, "Missing map file elements");
+			return;
+		}
+		long bodyStart = first.length + second.length + 2;
+
+		String nameLine = headerLine(first);
+		String goalLine = headerLine(second);
+		if (nameLine.matches("name .*")) {
+			report.setName(nameLine.split(" ", 2)[1]);
+		} else {
+			report.addProblem(1, 0, "No map name found");
+		}
+		if (goalLine.matches("win [0-9]{1,9}")) {
+			report.setGoal(Integer.parseInt(goalLine.split(" ", 2)[1]));
+		} else {
+			report.addProblem(2, 0, "No goal found");
+		}
+
+		if (bodyStart >= size) {
+			report.addProblem(0, 0, "Missing map file elements");
+			return;
+		}
+
+		// Check map tiles
+		blocks = splitBlocks(bodyStart, size);
+		forEachBlock(new BlockTask() {
+			@Override
+			public void run(Block block, MappedByteBuffer buffer) {
+				block.scan(buffer);
+			}
+		});
+		collectRows();
+	}
+
+	/**
+	 * Puts the rows found in every block together, checking that they are all as long as the
+	 * first row and that there is enough gold to win
+	 */
+	private void collectRows() {
+		long height = 0;
+		for (Block block : blocks) {
+			height += block.rows;
+		}
+		if (height > Integer.MAX_VALUE - 8) {
+			report.addProblem(0, 0, "Too many rows");
+			return;
+		}
+
+		int width = blocks.get(0).rowLengths[0];
+		long goldCount = 0;
+		long wallCount = 0;
+		long exitCount = 0;
+		for (Block block : blocks) {
+			exitCount += block.exitCount;
+		}
+		if (exitCount > Integer.MAX_VALUE - 8) {
+			report.addProblem(0, 0, "Too many exits");
+			return;
+		}
+
+		rowOffsets = new long[(int) height];
+		long[] exits = new long[(int) exitCount];
+		int row = 0;
+		int exit = 0;
+
+		for (Block block : blocks) {
+			block.firstRow = row;
+			System.arraycopy(block.rowStarts, 0, rowOffsets, row, block.rows);
+			goldCount += block.goldCount;
+			wallCount += block.wallCount;
+
+			for (int i = 0; i < block.exitCount; i++) {
+				exits[exit++] = (row + (block.exits[i] >>> 32)) * width + (int) block.exits[i];
+			}
+
+			for (int[] badTile : block.badTiles) {
+				report.addProblem(row + badTile[0] + 3L, badTile[1] + 1, String.format("Invalid map character '%s'", describe(badTile[2])));
+			}
+			report.countProblems(block.badTileCount - block.badTiles.size());
+
+			for (int i = 0; i < block.rows; i++) {
+				if (block.rowLengths[i] != width) {
+					report.addProblem(row + i + 3L, 0, "Row is " + block.rowLengths[i] + " tiles long, the first row is " + width);
+				}
+			}
+			row += block.rows;
+		}
+
+		if (width == 0) {
+			report.addProblem(3, 0, "Missing map file elements");
+		}
+		report.setSize(width, (int) height);
+		report.setGoldCount(goldCount);
+		report.setWalkableCount((long) width * height - wallCount);
+		report.setExits(exits);
+
+		if (report.isValid() && goldCount < report.getGoal()) {
+			report.addProblem(0, 0, "Not enough gold on the map");
+		}
+	}
+
+	/**
+	 * Splits the rows of the file into blocks of about {@link #BLOCK_SIZE} bytes, each starting
+	 * at the start of a row
+	 *
+	 * @param start        The position of the first row
+	 * @param size         The size of the file
+	 * @return             The blocks
+	 * @throws IOException Thrown if there was a problem reading from the file
+	 */
+	private ArrayList<Block> splitBlocks(long start, long size) throws IOException {
+		ArrayList<Block> split = new ArrayList<Block>();
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+		while (start < size) {
+			long end = start + BLOCK_SIZE;
+
+			// Move the end of the block past the next new line
+			while (end < size) {
+				buffer.clear();
+				int read = channel.read(buffer, end);
+				int newLine = -1;
+				for (int i = 0; i < read && newLine < 0; i++) {
+					if (buffer.get(i) == '\n') {
+						newLine = i;
+					}
+				}
+
+				if (newLine >= 0) {
+					end += newLine + 1;
+					break;
+				}
+				end += Math.max(read, 0);
+				if (read <= 0) {
+					end = size;
+				}
+			}
+
+			end = Math.min(end, size);
+			if (end - start > Integer.MAX_VALUE) {
+				throw new IOException("A row of the map is too long");
+			}
+			split.add(new Block(start, end));
+			start = end;
+		}
+		return split;
+	}
+
+	/**
+	 * Runs a task on every block, in parallel if there is more than one
+	 *
+	 * @param task         The task
+	 * @throws IOException Thrown if the task failed on any block
+	 */
+	private void forEachBlock(final BlockTask task) throws IOException {
+		if (blocks.size() == 1) {
+			Block block = blocks.get(0);
+			task.run(block, channel.map(FileChannel.MapMode.READ_ONLY, block.start, block.end - block.start));
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(blocks.size(), Runtime.getRuntime().availableProcessors()));
+		try {
+			ArrayList<Future<Object>> results = new ArrayList<Future<Object>>();
+			for (final Block block : blocks) {
+				results.add(executor.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws IOException {
+						task.run(block, channel.map(FileChannel.MapMode.READ_ONLY, block.start, block.end - block.start));
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Object> result : results) {
+				result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading the map", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Unable to load map", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads one header line of the file
+	 *
+	 * @param position     The position of the line
+	 * @param size         The size of the file
+	 * @return             The bytes of the line without its new line, <code>null</code> if the file ends first
+	 * @throws IOException Thrown if there was a problem reading from the file
+	 */
+	private byte[] readLine(long position, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		byte[] line = new byte[0];
+
+		while (position + line.length < size) {
+			buffer.clear();
+			int read = channel.read(buffer, position + line.length);
+			if (read <= 0) {
+				return null;
+			}
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') {
+					int length = line.length;
+					line = Arrays.copyOf(line, length + i);
+					System.arraycopy(buffer.array(), 0, line, length, i);
+					return line;
+				}
+			}
+
+			int length = line.length;
+			line = Arrays.copyOf(line, length + read);
+			System.arraycopy(buffer.array(), 0, line, length, read);
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes a header line, dropping a carriage return at its end
+	 *
+	 * @param line The bytes of the line
+	 * @return     The line
+	 */
+	private static String headerLine(byte[] line) {
+		int length = line.length > 0 && line[line.length - 1] == '\r' ? line.length - 1 : line.length;
+		return new String(line, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Describes a character for a report
+	 *
+	 * @param tile The character
+	 * @return     The character, or its code if it can not be printed
+	 */
+	private static String describe(int tile) {
+		if (tile >= 0x20 && tile < 0x7F) {
+			return String.valueOf((char) tile);
+		}
+		return String.format("\\x%02X", tile);
+	}
+}
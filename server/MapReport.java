@@ -0,0 +1,298 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The MapReport class holds the result of checking a map file: what was found in it, and every
+ * problem that stops it from being played. A map with no problems is valid.
+ *
+ * Broken files can have a problem on every tile, so only the first {@link #MAX_PROBLEMS}
+ * problems are kept, although all of them are counted.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class MapReport {
+	// Most problems kept in a report
+	public static final int MAX_PROBLEMS = 100;
+
+	private String fileName;
+	private String name;
+	private int goal;
+	private int width;
+	private int height;
+	private long goldCount;
+	private long walkableCount;
+	private long[] exits;
+	private ArrayList<Problem> problems;
+	private long problemCount;
+
+	/**
+	 * The Problem class is one reason a map file can not be played
+	 */
+	public static class Problem {
+		private long line;
+		private int column;
+		private String message;
+
+		/**
+		 * Constructor passes parameter values to the fields
+		 *
+		 * @param line    The line of the file the problem is on, starting from 1, <code>0</code> for the whole file
+		 * @param column  The column of the line the problem is at, starting from 1, <code>0</code> for the whole line
+		 * @param message A description of the problem
+		 */
+		public Problem(long line, int column, String message) {
+			this.line = line;
+			this.column = column;
+			this.message = message;
+		}
+
+		/**
+		 * Gets the line of the file the problem is on
+		 *
+		 * @return The line, starting from 1, <code>0</code> if the problem is with the whole file
+		 */
+		public long getLine() {
+			return line;
+		}
+
+		/**
+		 * Gets the column of the line the problem is at
+		 *
+		 * @return The column, starting from 1, <code>0</code> if the problem is with the whole line
+		 */
+		public int getColumn() {
+			return column;
+		}
+
+		/**
+		 * Gets a description of the problem
+		 *
+		 * @return The description
+		 */
+		public String getMessage() {
+			return message;
+		}
+
+		@Override
+		public String toString() {
+			if (line == 0) {
+				return message;
+			} else if (column == 0) {
+				return "Line " + line + ": " + message;
+			}
+			return "Line " + line + ", column " + column + ": " + message;
+		}
+	}
+
+	/**
+	 * Constructor creates an empty report
+	 *
+	 * @param fileName The name of the map file
+	 */
+	public MapReport(String fileName) {
+		this.fileName = fileName;
+		problems = new ArrayList<Problem>();
+	}
+
+	/**
+	 * Adds a problem to the report
+	 *
+	 * @param line    The line of the file the problem is on, starting from 1, <code>0</code> for the whole file
+	 * @param column  The column of the line the problem is at, starting from 1, <code>0</code> for the whole line
+	 * @param message A description of the problem
+	 */
+	public synchronized void addProblem(long line, int column, String message) {
+		if (problems.size() < MAX_PROBLEMS) {
+			problems.add(new Problem(line, column, message));
+		}
+		problemCount++;
+	}
+
+	/**
+	 * Counts problems without describing them, when too many of the same problem were found
+	 *
+	 * @param count The number of problems
+	 */
+	public synchronized void countProblems(long count) {
+		problemCount += count;
+	}
+
+	/**
+	 * Checks if the map can be played
+	 *
+	 * @return <code>true</code> if no problems were found, <code>false</code> otherwise
+	 */
+	public synchronized boolean isValid() {
+		return problemCount == 0;
+	}
+
+	/**
+	 * Gets the problems found, up to {@link #MAX_PROBLEMS} of them
+	 *
+	 * @return The problems, in the order they were found
+	 */
+	public synchronized List<Problem> getProblems() {
+		return new ArrayList<Problem>(problems);
+	}
+
+	/**
+	 * Gets the number of problems found, including any that were not kept
+	 *
+	 * @return The number of problems
+	 */
+	public synchronized long getProblemCount() {
+		return problemCount;
+	}
+
+	/**
+	 * Gets the name of the map file
+	 *
+	 * @return The file name
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Gets the name of the dungeon
+	 *
+	 * @return The name of the dungeon, <code>null</code> if none was found
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Sets the name of the dungeon
+	 *
+	 * @param name The name of the dungeon
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Gets the amount of gold needed to win
+	 *
+	 * @return The amount of gold needed to win
+	 */
+	public int getGoal() {
+		return goal;
+	}
+
+	/**
+	 * Sets the amount of gold needed to win
+	 *
+	 * @param goal The amount of gold needed to win
+	 */
+	public void setGoal(int goal) {
+		this.goal = goal;
+	}
+
+	/**
+	 * Gets the width of the map
+	 *
+	 * @return The number of tiles in each row
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the height of the map
+	 *
+	 * @return The number of rows of tiles
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Sets the size of the map
+	 *
+	 * @param width  The number of tiles in each row
+	 * @param height The number of rows of tiles
+	 */
+	public void setSize(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Gets the number of gold tiles on the map
+	 *
+	 * @return The number of gold tiles
+	 */
+	public long getGoldCount() {
+		return goldCount;
+	}
+
+	/**
+	 * Sets the number of gold tiles on the map
+	 *
+	 * @param goldCount The number of gold tiles
+	 */
+	public void setGoldCount(long goldCount) {
+		this.goldCount = goldCount;
+	}
+
+	/**
+	 * Gets the number of tiles on the map that are not walls
+	 *
+	 * @return The number of walkable tiles
+	 */
+	public long getWalkableCount() {
+		return walkableCount;
+	}
+
+	/**
+	 * Sets the number of tiles on the map that are not walls
+	 *
+	 * @param walkableCount The number of walkable tiles
+	 */
+	public void setWalkableCount(long walkableCount) {
+		this.walkableCount = walkableCount;
+	}
+
+	/**
+	 * Gets the exits of the map
+	 *
+	 * @return The tile numbers of the exits, row by row, <code>null</code> if they are not known
+	 */
+	public long[] getExits() {
+		return exits;
+	}
+
+	/**
+	 * Sets the exits of the map
+	 *
+	 * @param exits The tile numbers of the exits, row by row
+	 */
+	public void setExits(long[] exits) {
+		this.exits = exits;
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder report = new StringBuilder(fileName);
+
+		if (problemCount == 0) {
+			report.append(": ").append(name).append(", ").append(width).append('x').append(height)
+					.append(", ").append(goldCount).append(" gold, ").append(goal).append(" to win");
+			if (exits != null) {
+				report.append(", ").append(exits.length).append(exits.length == 1 ? " exit" : " exits");
+			}
+			return report.toString();
+		}
+
+		report.append(": ").append(problemCount).append(problemCount == 1 ? " problem" : " problems");
+		for (Problem problem : problems) {
+			report.append('\n').append(problem);
+		}
+		if (problemCount > problems.size()) {
+			report.append("\n...and ").append(problemCount - problems.size()).append(" more");
+		}
+		return report.toString();
+	}
+}
@@ -0,0 +1,242 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The NioConnection class handles the data sent and received from a client in the NIO server
+ * mode. Lines are framed and written exactly as the blocking <code>Connection</code> does, so
+ * clients cannot tell the two modes apart.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class NioConnection extends Connection {
+	private SocketChannel channel;
+	private NioWorker worker;
+	private SelectionKey key;
+
+	private ByteArrayOutputStream lineBuffer;
+	private boolean skipLineFeed;
+
+	// Binary frame being read
+	private int frameLength;
+	private int frameShift;
+	private byte[] frameBody;
+	private int framePosition;
+
+	private ConcurrentLinkedQueue<ByteBuffer> channelQueue;
+	private volatile boolean closeRequested;
+	private volatile boolean closed;
+
+	/**
+	 * Constructor sets up the buffers and hands the channel to a worker
+	 *
+	 * @param channel The socket channel connected to the client
+	 * @param game    The game the client will join
+	 * @param worker  The selector thread that will serve the client
+	 */
+	public NioConnection(SocketChannel channel, Game game, NioWorker worker) {
+		super(game);
+		this.channel = channel;
+		this.worker = worker;
+
+		lineBuffer = new ByteArrayOutputStream();
+		frameLength = 0;
+		frameShift = 0;
+		channelQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+
+		worker.register(this);
+	}
+
+	/**
+	 * Gets the socket channel connected to the client
+	 *
+	 * @return The socket channel connected to the client
+	 */
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Sets the selection key of the channel once the worker has registered it
+	 *
+	 * @param key The selection key of the channel
+	 */
+	public void setKey(SelectionKey key) {
+		this.key = key;
+		flushChannel();
+	}
+
+	/**
+	 * Reads whatever is available from the channel and handles every complete line. Only
+	 * called by the worker thread.
+	 *
+	 * @param buffer The worker's read buffer
+	 */
+	public void read(ByteBuffer buffer) {
+		try {
+			buffer.clear();
+			if (channel.read(buffer) < 0) {
+				throw new IOException();
+			}
+			buffer.flip();
+
+			while (buffer.hasRemaining() && !closed) {
+				if (getFraming() == FRAMING_BINARY) {
+					readFrame(buffer);
+					continue;
+				}
+
+				byte b = buffer.get();
+
+				// Lines end with \n, \r or \r\n, as in BufferedReader.readLine()
+				if (b == '\n' && skipLineFeed) {
+					skipLineFeed = false;
+				} else if (b == '\n' || b == '\r') {
+					skipLineFeed = (b == '\r');
+					String message = new String(lineBuffer.toByteArray(), CHARSET);
+					lineBuffer.reset();
+					handleLine(message);
+				} else {
+					skipLineFeed = false;
+					lineBuffer.write(b);
+				}
+			}
+		} catch (IOException e) {
+			disconnect();
+		}
+	}
+
+	/**
+	 * Reads part of a binary frame from the buffer, handling the frame once it is complete
+	 *
+	 * @param buffer       The worker's read buffer
+	 * @throws IOException Thrown if the frame is malformed
+	 */
+	private void readFrame(ByteBuffer buffer) throws IOException {
+		if (frameBody == null) {
+			byte b = buffer.get();
+
+			// Skip the \n of a \r\n that ended the last text line
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				if (b == '\n') {
+					return;
+				}
+			}
+
+			frameLength |= (b & 0x7F) << frameShift;
+			if ((b & 0x80) != 0) {
+				frameShift += 7;
+				if (frameShift > 28) {
+					throw new IOException("Invalid frame length.");
+				}
+				return;
+			}
+
+			if (frameLength < 0 || frameLength > BinaryCodec.MAX_FRAME) {
+				throw new IOException("Frame too large.");
+			}
+			frameBody = new byte[frameLength];
+			framePosition = 0;
+		} else {
+			int count = Math.min(buffer.remaining(), frameBody.length - framePosition);
+			buffer.get(frameBody, framePosition, count);
+			framePosition += count;
+		}
+
+		if (framePosition == frameBody.length) {
+			byte[] body = frameBody;
+			frameBody = null;
+			frameLength = 0;
+			frameShift = 0;
+			handleFrame(body);
+		}
+	}
+
+	/**
+	 * Hands a block of encoded messages to the worker thread to be written to the channel. The
+	 * messages are not copied, so messages shared with other clients are only held once.
+	 *
+	 * @param segments The encoded messages, which may be shared with other clients
+	 * @param length   The total length of the messages
+	 */
+	@Override
+	protected void write(byte[][] segments, int length) {
+		if (closed) {
+			return;
+		}
+
+		for (byte[] segment : segments) {
+			channelQueue.add(ByteBuffer.wrap(segment));
+		}
+		worker.requestWrite(this);
+	}
+
+	/**
+	 * Writes as much of the queued output as the channel accepts, waiting for the channel to
+	 * become writable if it is full. Only called by the worker thread.
+	 */
+	public void flushChannel() {
+		if (key == null || closed) {
+			return;
+		}
+
+		try {
+			while (!channelQueue.isEmpty()) {
+				// Gather every queued message into one write
+				ByteBuffer[] buffers = channelQueue.toArray(new ByteBuffer[0]);
+				channel.write(buffers);
+
+				for (ByteBuffer buffer : buffers) {
+					if (buffer.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						return;
+					}
+					channelQueue.poll();
+				}
+			}
+			key.interestOps(SelectionKey.OP_READ);
+
+			if (closeRequested) {
+				disconnect();
+			}
+		} catch (IOException e) {
+			disconnect();
+		}
+	}
+
+	/**
+	 * Closes the connection to the client once the worker has written out the queued messages
+	 */
+	@Override
+	public void close() {
+		closeRequested = true;
+		worker.requestWrite(this);
+	}
+
+	/**
+	 * Closes the channel and removes the client from the game. Only called by the worker thread.
+	 */
+	@Override
+	public void disconnect() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// The channel is being dropped anyway
+		}
+
+		super.disconnect();
+	}
+}
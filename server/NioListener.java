@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The NioListener class accepts clients for the NIO server mode. Instead of a thread per client,
+ * accepted channels are shared between a small, fixed pool of selector threads.
+ * 
+ * @author Sean Stinson, ss938
+ *
+ */
+public class NioListener extends Listener {
+	private ServerSocketChannel serverChannel;
+	
+	private NioWorker[] workers;
+	private int nextWorker;
+	
+	/**
+	 * Constructor starts the selector threads and starts listening in a new thread
+	 * 
+	 * @param serverChannel The bound server socket channel
+	 * @param game          The game new clients will join
+	 * @param workerCount   The number of selector threads to serve clients with
+	 * @throws IOException  Thrown if a selector could not be opened
+	 */
+	public NioListener(ServerSocketChannel serverChannel, Game game, int workerCount) throws IOException {
+		super(game);
+		this.serverChannel = serverChannel;
+		
+		workers = new NioWorker[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = new NioWorker("NioWorker-" + i);
+		}
+		nextWorker = 0;
+		
+		start();
+	}
+	
+	/**
+	 * Gets the port the listener is accepting clients on
+	 * 
+	 * @return The local port
+	 */
+	@Override
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+	
+	/**
+	 * Listens for new clients to connect and hands them to the selector threads in turn
+	 */
+	@Override
+	public void listen() {
+		try {
+			while (true) {
+				SocketChannel newChannel = serverChannel.accept();
+				
+				new NioConnection(newChannel, getGame(), workers[nextWorker]);
+				nextWorker = (nextWorker + 1) % workers.length;
+			}
+		} catch (IOException e) {
+			// Just let the thread die quietly
+		}
+	}
+	
+	/**
+	 * Closes the server socket channel. Clients that are already connected are still served
+	 * until they leave.
+	 * 
+	 * @throws IOException Thrown if there is a problem closing the server socket channel
+	 */
+	@Override
+	public void close() throws IOException {
+		serverChannel.close();
+		
+		for (NioWorker worker : workers) {
+			worker.shutdown();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The NioWorker class is one of the selector threads used by the NIO server mode. Each worker
+ * owns a share of the client channels, reads complete lines from them and writes any queued
+ * replies back out.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class NioWorker extends Thread {
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	private Selector selector;
+	private ByteBuffer readBuffer;
+
+	private ConcurrentLinkedQueue<NioConnection> registrations;
+	private ConcurrentLinkedQueue<NioConnection> pendingWrites;
+
+	private volatile boolean shuttingDown;
+
+	/**
+	 * Constructor opens the selector and starts the worker thread
+	 *
+	 * @param name         The name of the worker thread
+	 * @throws IOException Thrown if the selector could not be opened
+	 */
+	public NioWorker(String name) throws IOException {
+		super(name);
+
+		selector = Selector.open();
+		readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		registrations = new ConcurrentLinkedQueue<NioConnection>();
+		pendingWrites = new ConcurrentLinkedQueue<NioConnection>();
+
+		setDaemon(true);
+		start();
+	}
+
+	/**
+	 * Hands a new connection to the worker
+	 *
+	 * @param connection The connection to serve
+	 */
+	public void register(NioConnection connection) {
+		registrations.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Asks the worker to write out the queued messages of a connection
+	 *
+	 * @param connection The connection with messages waiting to be sent
+	 */
+	public void requestWrite(NioConnection connection) {
+		pendingWrites.add(connection);
+
+		// The worker writes out its own queue after each pass, so only wake it from other threads
+		if (Thread.currentThread() != this) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Lets the worker stop once its last connection has closed
+	 */
+	public void shutdown() {
+		shuttingDown = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * Serves the registered connections until the worker is shut down and idle
+	 */
+	@Override
+	public void run() {
+		try {
+			while (!shuttingDown || !selector.keys().isEmpty()) {
+				selector.select();
+
+				addRegistrations();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					NioConnection connection = (NioConnection) key.attachment();
+					try {
+						if (key.isValid() && key.isReadable()) {
+							connection.read(readBuffer);
+						}
+						if (key.isValid() && key.isWritable()) {
+							connection.flushChannel();
+						}
+					} catch (RuntimeException e) {
+						drop(connection, e);
+					}
+				}
+
+				flushPendingWrites();
+			}
+			selector.close();
+		} catch (IOException e) {
+			// The selector has failed, let the thread die quietly
+		}
+	}
+
+	/**
+	 * Registers any connections that were handed over since the last pass
+	 */
+	private void addRegistrations() {
+		NioConnection connection;
+		while ((connection = registrations.poll()) != null) {
+			try {
+				SocketChannel channel = connection.getChannel();
+				channel.configureBlocking(false);
+				connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+			} catch (IOException e) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Writes out the connections that have queued messages
+	 */
+	private void flushPendingWrites() {
+		NioConnection connection;
+		while ((connection = pendingWrites.poll()) != null) {
+			try {
+				connection.flushChannel();
+			} catch (RuntimeException e) {
+				drop(connection, e);
+			}
+		}
+	}
+	
+	/**
+	 * Closes a connection whose command failed, so the other clients of the worker are still
+	 * served
+	 *
+	 * @param connection The connection that failed
+	 * @param cause      The exception thrown while serving it
+	 */
+	private void drop(NioConnection connection, RuntimeException cause) {
+		System.out.println("Closing a connection after an error in " + getName() + ": " + cause);
+		try {
+			connection.disconnect();
+		} catch (RuntimeException e) {
+			// The channel is already closed, which is all the worker needs
+		}
+	}
+}
@@ -0,0 +1,117 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The OffHeapTileStore class keeps the tiles of a map in direct buffers outside the Java heap,
+ * so even a map of several gigabytes adds almost nothing to the heap or to garbage collection
+ * pauses. Each buffer holds at most a gigabyte, and a map uses as many as it needs.
+ * 
+ * Direct memory is limited by <code>-XX:MaxDirectMemorySize</code>, which defaults to the
+ * largest heap size.
+ * 
+ * @author Sean Stinson, ss938
+ *
+ */
+public class OffHeapTileStore extends TileStore {
+	// Each buffer holds 2^BLOCK_SHIFT bytes
+	private static final int BLOCK_SHIFT = 30;
+	private static final long BLOCK_MASK = (1L << BLOCK_SHIFT) - 1;
+	
+	// Atomic access to the ints in a direct buffer
+	private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+	
+	private ByteBuffer[] bases;
+	private ByteBuffer[] occupants;
+	private ByteBuffer[] versions;
+	
+	/**
+	 * Constructor creates an empty store
+	 * 
+	 * @param tiles   The number of tiles
+	 * @param regions The number of regions
+	 */
+	public OffHeapTileStore(long tiles, long regions) {
+		bases = allocate(tiles);
+		occupants = allocate(tiles * 4);
+		versions = allocate(Math.max(1, regions) * 4);
+	}
+	
+	@Override
+	public char getBase(long tile) {
+		return (char) (bases[(int) (tile >>> BLOCK_SHIFT)].get((int) (tile & BLOCK_MASK)) & 0xFF);
+	}
+	
+	@Override
+	public void setBase(long tile, char base) {
+		bases[(int) (tile >>> BLOCK_SHIFT)].put((int) (tile & BLOCK_MASK), (byte) base);
+	}
+	
+	@Override
+	public void getBases(long tile, byte[] bytes, int offset, int length) {
+		while (length > 0) {
+			// Runs can cross from one buffer into the next
+			int index = (int) (tile & BLOCK_MASK);
+			int count = (int) Math.min(length, (1L << BLOCK_SHIFT) - index);
+			bases[(int) (tile >>> BLOCK_SHIFT)].get(index, bytes, offset, count);
+			tile += count;
+			offset += count;
+			length -= count;
+		}
+	}
+	
+	@Override
+	public void setBases(long tile, ByteBuffer bytes, int offset, int length) {
+		while (length > 0) {
+			// Runs can cross from one buffer into the next
+			int index = (int) (tile & BLOCK_MASK);
+			int count = (int) Math.min(length, (1L << BLOCK_SHIFT) - index);
+			bases[(int) (tile >>> BLOCK_SHIFT)].put(index, bytes, offset, count);
+			tile += count;
+			offset += count;
+			length -= count;
+		}
+	}
+	
+	@Override
+	public int getOccupant(long tile) {
+		long offset = tile * 4;
+		return occupants[(int) (offset >>> BLOCK_SHIFT)].getInt((int) (offset & BLOCK_MASK));
+	}
+	
+	@Override
+	public void setOccupant(long tile, int id) {
+		long offset = tile * 4;
+		occupants[(int) (offset >>> BLOCK_SHIFT)].putInt((int) (offset & BLOCK_MASK), id);
+	}
+	
+	@Override
+	public int getVersion(long region) {
+		long offset = region * 4;
+		return (int) INT.getVolatile(versions[(int) (offset >>> BLOCK_SHIFT)], (int) (offset & BLOCK_MASK));
+	}
+	
+	@Override
+	public void incrementVersion(long region) {
+		long offset = region * 4;
+		INT.getAndAdd(versions[(int) (offset >>> BLOCK_SHIFT)], (int) (offset & BLOCK_MASK), 1);
+	}
+	
+	/**
+	 * Allocates zeroed direct buffers
+	 * 
+	 * @param bytes The total number of bytes
+	 * @return      The buffers, each full size except the last
+	 */
+	private static ByteBuffer[] allocate(long bytes) {
+		int count = (int) ((bytes + BLOCK_MASK) >>> BLOCK_SHIFT);
+		ByteBuffer[] blocks = new ByteBuffer[Math.max(1, count)];
+		
+		for (int i = 0; i < blocks.length; i++) {
+			long size = Math.min(1L << BLOCK_SHIFT, bytes - ((long) i << BLOCK_SHIFT));
+			blocks[i] = ByteBuffer.allocateDirect((int) Math.max(0, size)).order(ByteOrder.nativeOrder());
+		}
+		return blocks;
+	}
+}
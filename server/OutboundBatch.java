@@ -0,0 +1,79 @@
+import java.util.LinkedHashSet;
+
+/**
+ * The OutboundBatch class collects the clients that were sent messages while the current thread
+ * handles one inbound command. Their queued messages are flushed together when the command is
+ * finished, so each client gets a single write per command. Each thread keeps its batch between
+ * commands so starting one does not create any objects.
+ * 
+ * @author Sean Stinson, ss938
+ *
+ */
+public class OutboundBatch {
+	private static final ThreadLocal<OutboundBatch> current = new ThreadLocal<OutboundBatch>();
+	
+	private LinkedHashSet<Connection> connections;
+	private int depth;
+	
+	/**
+	 * Constructor initialises the fields
+	 */
+	private OutboundBatch() {
+		connections = new LinkedHashSet<Connection>();
+		depth = 0;
+	}
+	
+	/**
+	 * Starts a batch on the current thread. Batches can be nested, in which case only the
+	 * outermost batch flushes.
+	 * 
+	 * @return The batch, which must be ended with {@link #end()}
+	 */
+	public static OutboundBatch begin() {
+		OutboundBatch batch = current.get();
+		if (batch == null) {
+			batch = new OutboundBatch();
+			current.set(batch);
+		}
+		
+		batch.depth++;
+		return batch;
+	}
+	
+	/**
+	 * Gets the batch running on the current thread
+	 * 
+	 * @return The current batch, <code>null</code> if there is none
+	 */
+	public static OutboundBatch current() {
+		OutboundBatch batch = current.get();
+		if (batch == null || batch.depth == 0) {
+			return null;
+		}
+		return batch;
+	}
+	
+	/**
+	 * Adds a client with queued messages to the batch
+	 * 
+	 * @param connection The client to flush when the batch ends
+	 */
+	public void add(Connection connection) {
+		connections.add(connection);
+	}
+	
+	/**
+	 * Ends the batch, flushing every client that was sent a message if this is the outermost batch
+	 */
+	public void end() {
+		depth--;
+		if (depth > 0) {
+			return;
+		}
+		
+		for (Connection connection : connections) {
+			connection.requestFlush();
+		}
+		connections.clear();
+	}
+}
@@ -1,4 +1,5 @@
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The Player class represents a user currently playing the game
@@ -7,11 +8,19 @@ import java.io.IOException;
  *
  */
 public class Player {
+	// Ids given to players, which are never 0
+	private static AtomicInteger nextId = new AtomicInteger(1);
+	
+	private int id;
 	private Connection client;
 	private Game game;
 	
 	private boolean dead;
 	private boolean online;
+	private volatile boolean kicked;
+	
+	// Token a new connection gives to take over the player, null if sessions cannot be resumed
+	private String session;
 	
 	// Position
 	private int x;
@@ -27,16 +36,21 @@ public class Player {
 	private int hp;
 	private int ap;
 	
+	// Last view sent, null unless the client asked for view updates
+	private PlayerView view;
+	
 	/**
 	 * Constructor sets up fields
 	 * 
 	 * @param client The client associated with this player
 	 */
 	public Player(Connection client, Game game) {
+		id = nextId.getAndIncrement();
 		this.client = client;
 		client.setPlayer(this);
 		
 		this.game = game;
+		online = true;
 		
 		x = -1;
 		y = -1;
@@ -60,6 +74,15 @@ public class Player {
 		setAp(0);
 	}
 	
+	/**
+	 * Gets the id of the player, which the map stores for the tile the player stands on
+	 * 
+	 * @return The id of the player
+	 */
+	public int getId() {
+		return id;
+	}
+	
 	/**
 	 * Gets the client connection for this player
 	 * 
@@ -69,6 +92,43 @@ public class Player {
 		return client;
 	}
 	
+	/**
+	 * Moves the player to a new client connection, when a client resumes the player's session
+	 * 
+	 * @param client The new client connection
+	 */
+	public void setClient(Connection client) {
+		this.client = client;
+		client.setPlayer(this);
+	}
+	
+	/**
+	 * Gets the token a client gives to resume the player's session
+	 * 
+	 * @return The session token, <code>null</code> if the session cannot be resumed
+	 */
+	public String getSession() {
+		return session;
+	}
+	
+	/**
+	 * Sets the token a client gives to resume the player's session
+	 * 
+	 * @param session The session token, <code>null</code> if the session cannot be resumed
+	 */
+	public void setSession(String session) {
+		this.session = session;
+	}
+	
+	/**
+	 * Checks if the player was kicked out by the server, rather than losing their connection
+	 * 
+	 * @return <code>true</code> if the player was kicked out, <code>false</code> otherwise
+	 */
+	public boolean isKicked() {
+		return kicked;
+	}
+	
 	/**
 	 * Gets the game the player belongs to
 	 * 
@@ -78,6 +138,24 @@ public class Player {
 		return game;
 	}
 
+	/**
+	 * Gets the last view of the map sent to the player's client
+	 * 
+	 * @return The view, <code>null</code> if the client is sent <code>CHANGE</code> instead
+	 */
+	public PlayerView getView() {
+		return view;
+	}
+	
+	/**
+	 * Sets the last view of the map sent to the player's client
+	 * 
+	 * @param view The view, <code>null</code> to send <code>CHANGE</code> instead
+	 */
+	public void setView(PlayerView view) {
+		this.view = view;
+	}
+
 	/**
 	 * Checks whether the player is dead or not
 	 * 
@@ -277,7 +355,8 @@ public class Player {
 	}
 	
 	/**
-	 * Checks if the player is currently online
+	 * Checks if the player is currently online. A player whose connection was lost is kept
+	 * offline for a while, so that their client can resume the session.
 	 * 
 	 * @return <code>true</code> if the player is online, <code>false</code> otherwise
 	 */
@@ -323,7 +402,7 @@ public class Player {
 		
 		// Update the map to remove the dead player and drop their gold
 		Tile deathTile = game.getTile(x, y);
-		deathTile.unOccupy();
+		deathTile.unOccupy(this);
 		
 		if (gold > 0) {
 			deathTile.setBase('G');
@@ -371,7 +450,12 @@ public class Player {
 		return game.getTile(x, y);
 	}
 	
+	/**
+	 * Kicks the player out by closing their connection. Kicked players are not kept for their
+	 * client to resume.
+	 */
 	public void kickOut() {
+		kicked = true;
 		try {
 			client.close();
 		} catch (IOException e) {
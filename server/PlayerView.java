@@ -0,0 +1,122 @@
+/**
+ * The PlayerView class remembers the last view of the map sent to a client that asked for
+ * view updates. When the map around the player changes, only the tiles that differ from what
+ * the client already has are sent in a <code>VIEWUPDATE</code> message, so the client does
+ * not have to answer every <code>CHANGE</code> with a <code>LOOK</code>.
+ *
+ * Views are kept as a 7x7 grid centred on the player, the size of the client's map, with
+ * tiles outside the player's vision set to <code>X</code>. A <code>VIEWUPDATE</code> first
+ * gives how far the player moved, by which the client shifts its grid, and then lists the
+ * changed tiles as a column digit, a row digit and the new tile, for example
+ * <code>VIEWUPDATE 0 -1 33P 52#</code>.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class PlayerView {
+	// Width and height of the view grid, enough for the farthest vision distance
+	public static final int SIZE = 7;
+
+	// Greatest move shifted into the old view rather than sending the whole view again
+	private static final int MAX_SHIFT = 1;
+
+	private char[][] tiles;
+	private int x;
+	private int y;
+
+	/**
+	 * Constructor creates a view that has not been sent yet
+	 */
+	public PlayerView() {
+		tiles = null;
+	}
+
+	/**
+	 * Records the view as having been sent in full
+	 *
+	 * @param look The view, as many rows and columns as the player can see
+	 * @param x    The X position of the player
+	 * @param y    The Y position of the player
+	 */
+	public void reset(char[][] look, int x, int y) {
+		tiles = toGrid(look);
+		this.x = x;
+		this.y = y;
+	}
+
+	/**
+	 * Gets the message that brings the client's view up to date, and records the view as sent
+	 *
+	 * @param look The view, as many rows and columns as the player can see
+	 * @param x    The X position of the player
+	 * @param y    The Y position of the player
+	 * @return     The <code>VIEWUPDATE</code> message, an empty string if nothing changed, or
+	 *             <code>null</code> if the whole view must be sent instead
+	 */
+	public String update(char[][] look, int x, int y) {
+		int dx = x - this.x;
+		int dy = y - this.y;
+		if (tiles == null || Math.abs(dx) > MAX_SHIFT || Math.abs(dy) > MAX_SHIFT) {
+			return null;
+		}
+
+		char[][] grid = toGrid(look);
+		StringBuilder update = new StringBuilder("VIEWUPDATE ").append(dx).append(' ').append(dy);
+		int changes = 0;
+
+		for (int row = 0; row < SIZE; row++) {
+			for (int col = 0; col < SIZE; col++) {
+				// The client shifts its grid by the move before applying the changes
+				int oldRow = row + dy;
+				int oldCol = col + dx;
+				char old = 'X';
+				if (oldRow >= 0 && oldCol >= 0 && oldRow < SIZE && oldCol < SIZE) {
+					old = tiles[oldRow][oldCol];
+				}
+
+				if (grid[row][col] != old) {
+					update.append(' ').append(col).append(row).append(grid[row][col]);
+					changes++;
+				}
+			}
+		}
+
+		// Past half the grid the whole view is shorter
+		if (changes > SIZE * SIZE / 2) {
+			return null;
+		}
+
+		tiles = grid;
+		this.x = x;
+		this.y = y;
+
+		if (changes == 0 && dx == 0 && dy == 0) {
+			return "";
+		}
+		return update.toString();
+	}
+
+	/**
+	 * Centres a view in a full size grid, filling the rest with <code>X</code>
+	 *
+	 * @param look The view, as many rows and columns as the player can see
+	 * @return     The view as a {@link #SIZE} by {@link #SIZE} grid
+	 */
+	private static char[][] toGrid(char[][] look) {
+		char[][] grid = new char[SIZE][SIZE];
+		int offset = (SIZE - look.length) / 2;
+
+		for (int row = 0; row < SIZE; row++) {
+			for (int col = 0; col < SIZE; col++) {
+				int lookRow = row - offset;
+				int lookCol = col - offset;
+				if (lookRow >= 0 && lookCol >= 0 && lookRow < look.length && lookCol < look.length) {
+					grid[row][col] = look[lookRow][lookCol];
+				} else {
+					grid[row][col] = 'X';
+				}
+			}
+		}
+		return grid;
+	}
+}
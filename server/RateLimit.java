@@ -0,0 +1,136 @@
+/**
+ * The RateLimit class is a quota for one class of command, such as five chat messages every
+ * three seconds. Each client gets its own {@link TokenBucket} for each quota.
+ *
+ * Quotas are written as <code>commands/milliseconds</code>, for example <code>5/3000</code>, or
+ * as <code>off</code> for no limit. A quota either earns commands back steadily, or as a
+ * sliding window that never allows more than the full burst within one period.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class RateLimit {
+	// A quota that never runs out
+	public static final RateLimit UNLIMITED = new RateLimit(0, 0);
+
+	private int commands;
+	private long period;
+	private boolean window;
+
+	/**
+	 * Constructor for a quota that earns commands back steadily
+	 *
+	 * @param commands The number of commands allowed in a burst, <code>0</code> for no limit
+	 * @param period   The time in milliseconds it takes to earn back a full burst
+	 */
+	public RateLimit(int commands, long period) {
+		this(commands, period, false);
+	}
+
+	/**
+	 * Constructor passes parameter values to the fields
+	 *
+	 * @param commands The number of commands allowed in a burst, <code>0</code> for no limit
+	 * @param period   The time in milliseconds it takes to earn back a full burst
+	 * @param window   <code>true</code> to earn each command back a period after it was sent,
+	 *                 <code>false</code> to earn commands back steadily
+	 */
+	public RateLimit(int commands, long period, boolean window) {
+		this.commands = commands;
+		this.period = period;
+		this.window = window;
+	}
+
+	/**
+	 * Reads a quota written as <code>commands/milliseconds</code> or <code>off</code>
+	 *
+	 * @param value The written quota
+	 * @return      The quota, <code>null</code> if it is not valid
+	 */
+	public static RateLimit parse(String value) {
+		if (value.equals("off")) {
+			return UNLIMITED;
+		}
+
+		String[] parts = value.split("/");
+		if (parts.length != 2 || !parts[0].matches("[0-9]{1,6}") || !parts[1].matches("[0-9]{1,9}")) {
+			return null;
+		}
+
+		int commands = Integer.parseInt(parts[0]);
+		long period = Long.parseLong(parts[1]);
+		if (commands < 1 || period < 1) {
+			return null;
+		}
+		return new RateLimit(commands, period);
+	}
+
+	/**
+	 * Gets the number of commands allowed in a burst
+	 *
+	 * @return The number of commands, <code>0</code> for no limit
+	 */
+	public int getCommands() {
+		return commands;
+	}
+
+	/**
+	 * Gets the time it takes to earn back a full burst
+	 *
+	 * @return The time in milliseconds
+	 */
+	public long getPeriod() {
+		return period;
+	}
+
+	/**
+	 * Checks if the quota is a sliding window
+	 *
+	 * @return <code>true</code> if each command is earned back a period after it was sent,
+	 *         <code>false</code> if commands are earned back steadily
+	 */
+	public boolean isWindow() {
+		return window;
+	}
+
+	/**
+	 * Gets the same quota as a sliding window
+	 *
+	 * @return The sliding window quota
+	 */
+	public RateLimit toWindow() {
+		if (isUnlimited() || window) {
+			return this;
+		}
+		return new RateLimit(commands, period, true);
+	}
+
+	/**
+	 * Checks if the quota never runs out
+	 *
+	 * @return <code>true</code> if there is no limit, <code>false</code> otherwise
+	 */
+	public boolean isUnlimited() {
+		return commands == 0;
+	}
+
+	/**
+	 * Creates a full bucket for one client
+	 *
+	 * @return The new bucket, <code>null</code> if there is no limit
+	 */
+	public TokenBucket newBucket() {
+		if (isUnlimited()) {
+			return null;
+		}
+		return new TokenBucket(commands, period, window);
+	}
+
+	@Override
+	public String toString() {
+		if (isUnlimited()) {
+			return "off";
+		}
+		return commands + "/" + period;
+	}
+}
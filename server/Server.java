@@ -2,8 +2,10 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 
 import javax.swing.JOptionPane;
 import javax.swing.UIManager;
@@ -16,6 +18,8 @@ import javax.swing.UIManager.LookAndFeelInfo;
  *
  */
 public class Server extends Thread {
+	private ServerConfig config;
+	
 	private Game game;
 	private ServerGUI view;
 	
@@ -25,15 +29,42 @@ public class Server extends Thread {
 	/**
 	 * Constructor initialises the GUI
 	 * 
+	 * @param config                The start up options for the server
 	 * @throws UnknownHostException Thrown if the server was unable to find a local host
 	 */
-	public Server() throws UnknownHostException {
+	public Server(ServerConfig config) throws UnknownHostException {
+		this.config = config;
+		Connection.setFlushWindow(config.getFlushWindow());
+		Connection.setOfferedFraming(config.getOfferedFraming());
+		Connection.setRateLimit(Connection.RATE_CHAT, config.getChatLimit());
+		Connection.setRateLimit(Connection.RATE_LOOK, config.getLookLimit());
+		Connection.setRateLimit(Connection.RATE_MOVE, config.getMoveLimit());
+		Map.setStorage(config.getMapStorage());
+		Map.setMaxChunks(config.getMapChunks());
+		Map.setCacheDirectory(config.getMapCache());
+		Game.setFixedSeed(config.getSeed());
+		Game.setJournalDirectory(config.getJournalDirectory());
+		Game.setSnapshotDirectory(config.getSnapshotDirectory());
+		Game.setSnapshotInterval(config.getSnapshotInterval());
+		Game.setResumeGrace(config.getResumeGrace());
+		Game.setTurnTimeout(config.getTurnTimeout());
+		Game.setTurnWarning(config.getTurnWarning());
+		
 		listening = false;
 		view = new ServerGUI(InetAddress.getLocalHost().getHostAddress());
 		
-		game = new Game();
+		// Pick up where the last server left off, if it kept snapshots
+		game = Game.recover();
 		game.addObserver(view);
 		
+		// Record how the game ended when the server is stopped
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				game.close();
+			}
+		});
+		
 		addEventListeners();
 		view.draw();
 	}
@@ -57,6 +88,11 @@ public class Server extends Thread {
 			public void actionPerformed(ActionEvent arg0) {
 				if (view.getLstPlayers().getModel().getSize() == 0) {
 					game.startNewGame(view.getTxtLoadMap().getText());
+					
+					MapReport report = game.getMap().getReport();
+					if (!report.isValid()) {
+						JOptionPane.showMessageDialog(view, report.toString() + "\n\nUsing the default map.", "Using Default Map", JOptionPane.WARNING_MESSAGE);
+					}
 				} else {
 					JOptionPane.showMessageDialog(view, "Cannot load a new map while there are players connected.", "Load Map", JOptionPane.ERROR_MESSAGE);
 				}
@@ -76,10 +112,8 @@ public class Server extends Thread {
 					
 					if (!listening) {
 						try {
-							ServerSocket serverSock = new ServerSocket(port);
-							
+							listener = createListener(port);
 							listening = true;
-							listener = new Listener(serverSock, game);
 							view.startListening();
 						} catch (IOException e) {
 							JOptionPane.showMessageDialog(view, e.getMessage(), "Server Socket Exception", JOptionPane.ERROR_MESSAGE);
@@ -100,6 +134,26 @@ public class Server extends Thread {
 		});
 	}
 	
+	/**
+	 * Opens a listener on a given port using the I/O mode chosen at start up
+	 * 
+	 * @param port         The port to listen on
+	 * @return             The listener accepting clients
+	 * @throws IOException Thrown if the port could not be bound
+	 */
+	public Listener createListener(int port) throws IOException {
+		if (config.getIoMode().equals(ServerConfig.IO_NIO)) {
+			ServerSocketChannel serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(port));
+			
+			return new NioListener(serverChannel, game, config.getIoThreads());
+		} else if (config.getIoMode().equals(ServerConfig.IO_VIRTUAL)) {
+			return new Listener(new ServerSocket(port), game, VirtualThreads.newPerTaskExecutor());
+		}
+		
+		return new Listener(new ServerSocket(port), game);
+	}
+	
 	/**
 	 * Adds the kick out button action listener
 	 */
@@ -149,6 +203,7 @@ public class Server extends Thread {
 	 * @param mapFile The map file to load
 	 */
 	public void loadGame(String mapFile) {
+		game.close();
 		if (mapFile.length() > 0) {
 			game = new Game(mapFile);
 		} else {
@@ -161,7 +216,8 @@ public class Server extends Thread {
 	/**
 	 * The main method.
 	 * 
-	 * @param args The command line args
+	 * @param args The command line args, for example <code>--io=virtual</code>
+	 *             or <code>--io=nio --io-threads=4 --flush-window=5</code>
 	 */
 	public static void main(String[] args) {
 		try {
@@ -176,7 +232,7 @@ public class Server extends Thread {
 		}
 		
 		try {
-			new Server();
+			new Server(new ServerConfig(args));
 		} catch (UnknownHostException e) {
 			System.out.println(e.toString());
 		}
@@ -0,0 +1,534 @@
+import java.io.File;
+
+/**
+ * The ServerConfig class holds the start up options for the server. Options are given on the
+ * command line in the form <code>--name=value</code>.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class ServerConfig {
+	// I/O modes
+	public static final String IO_THREAD  = "thread";
+	public static final String IO_VIRTUAL = "virtual";
+	public static final String IO_NIO     = "nio";
+
+	// Directory text maps are compiled into unless told otherwise
+	public static final String DEFAULT_MAP_CACHE = "map-cache";
+
+	private String ioMode;
+	private int ioThreads;
+	private int flushWindow;
+	private int offeredFraming;
+	private RateLimit chatLimit;
+	private RateLimit lookLimit;
+	private RateLimit moveLimit;
+	private int mapStorage;
+	private int mapChunks;
+	private File mapCache;
+	private Long seed;
+	private File journalDirectory;
+	private File snapshotDirectory;
+	private int snapshotInterval;
+	private int resumeGrace;
+	private int turnTimeout;
+	private int turnWarning;
+
+	/**
+	 * Constructor sets every option to its default value
+	 */
+	public ServerConfig() {
+		ioMode = IO_THREAD;
+		ioThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+		flushWindow = 0;
+		offeredFraming = Connection.FRAMING_BINARY;
+		chatLimit = Connection.getRateLimit(Connection.RATE_CHAT);
+		lookLimit = Connection.getRateLimit(Connection.RATE_LOOK);
+		moveLimit = Connection.getRateLimit(Connection.RATE_MOVE);
+		mapStorage = Map.getStorage();
+		mapChunks = Map.getMaxChunks();
+		mapCache = new File(DEFAULT_MAP_CACHE);
+		seed = Game.getFixedSeed();
+		journalDirectory = Game.getJournalDirectory();
+		snapshotDirectory = Game.getSnapshotDirectory();
+		snapshotInterval = Game.getSnapshotInterval();
+		resumeGrace = Game.getResumeGrace();
+		turnTimeout = Game.getTurnTimeout();
+		turnWarning = Game.getTurnWarning();
+	}
+
+	/**
+	 * Constructor reads the options from the command line args. Unknown or invalid options are
+	 * reported and ignored.
+	 *
+	 * @param args The command line args
+	 */
+	public ServerConfig(String[] args) {
+		this();
+
+		for (String arg : args) {
+			if (!parseOption(arg)) {
+				System.out.println("Ignoring invalid option '" + arg + "'.");
+			}
+		}
+	}
+
+	/**
+	 * Gets the I/O mode used to serve clients
+	 *
+	 * @return {@link #IO_THREAD} for one thread per client, {@link #IO_VIRTUAL} for one virtual
+	 *         thread per client or {@link #IO_NIO} for a selector pool
+	 */
+	public String getIoMode() {
+		return ioMode;
+	}
+
+	/**
+	 * Sets the I/O mode used to serve clients
+	 *
+	 * @param ioMode The new I/O mode
+	 */
+	public void setIoMode(String ioMode) {
+		this.ioMode = ioMode;
+	}
+
+	/**
+	 * Gets the number of selector threads used in the NIO mode
+	 *
+	 * @return The number of selector threads
+	 */
+	public int getIoThreads() {
+		return ioThreads;
+	}
+
+	/**
+	 * Sets the number of selector threads used in the NIO mode
+	 *
+	 * @param ioThreads The new number of selector threads
+	 */
+	public void setIoThreads(int ioThreads) {
+		this.ioThreads = ioThreads;
+	}
+
+	/**
+	 * Gets the micro-batching window for outbound messages
+	 *
+	 * @return The longest time in milliseconds a queued message may wait, <code>0</code> to flush
+	 *         after every command
+	 */
+	public int getFlushWindow() {
+		return flushWindow;
+	}
+
+	/**
+	 * Sets the micro-batching window for outbound messages
+	 *
+	 * @param flushWindow The longest time in milliseconds a queued message may wait
+	 */
+	public void setFlushWindow(int flushWindow) {
+		this.flushWindow = flushWindow;
+	}
+
+	/**
+	 * Gets the richest framing mode clients are offered after HELLO
+	 *
+	 * @return One of the <code>Connection.FRAMING_*</code> modes
+	 */
+	public int getOfferedFraming() {
+		return offeredFraming;
+	}
+
+	/**
+	 * Sets the richest framing mode clients are offered after HELLO
+	 *
+	 * @param offeredFraming One of the <code>Connection.FRAMING_*</code> modes
+	 */
+	public void setOfferedFraming(int offeredFraming) {
+		this.offeredFraming = offeredFraming;
+	}
+
+	/**
+	 * Gets the chat quota, which is always a sliding window. Clients that use it up are muted
+	 * for ten seconds.
+	 * 
+	 * @return The chat quota
+	 */
+	public RateLimit getChatLimit() {
+		return chatLimit;
+	}
+
+	/**
+	 * Sets the chat quota
+	 * 
+	 * @param chatLimit The new chat quota
+	 */
+	public void setChatLimit(RateLimit chatLimit) {
+		this.chatLimit = chatLimit;
+	}
+
+	/**
+	 * Gets the LOOK quota
+	 * 
+	 * @return The LOOK quota
+	 */
+	public RateLimit getLookLimit() {
+		return lookLimit;
+	}
+
+	/**
+	 * Sets the LOOK quota
+	 * 
+	 * @param lookLimit The new LOOK quota
+	 */
+	public void setLookLimit(RateLimit lookLimit) {
+		this.lookLimit = lookLimit;
+	}
+
+	/**
+	 * Gets the quota shared by the MOVE and ATTACK commands
+	 * 
+	 * @return The movement quota
+	 */
+	public RateLimit getMoveLimit() {
+		return moveLimit;
+	}
+
+	/**
+	 * Sets the quota shared by the MOVE and ATTACK commands
+	 * 
+	 * @param moveLimit The new movement quota
+	 */
+	public void setMoveLimit(RateLimit moveLimit) {
+		this.moveLimit = moveLimit;
+	}
+
+	/**
+	 * Gets where maps keep their tiles
+	 *
+	 * @return One of the <code>Map.STORAGE_*</code> modes
+	 */
+	public int getMapStorage() {
+		return mapStorage;
+	}
+
+	/**
+	 * Sets where maps keep their tiles
+	 *
+	 * @param mapStorage One of the <code>Map.STORAGE_*</code> modes
+	 */
+	public void setMapStorage(int mapStorage) {
+		this.mapStorage = mapStorage;
+	}
+
+	/**
+	 * Gets the most chunks of a chunked map kept in memory
+	 *
+	 * @return The number of chunks
+	 */
+	public int getMapChunks() {
+		return mapChunks;
+	}
+
+	/**
+	 * Sets the most chunks of a chunked map kept in memory
+	 *
+	 * @param mapChunks The new number of chunks
+	 */
+	public void setMapChunks(int mapChunks) {
+		this.mapChunks = mapChunks;
+	}
+
+	/**
+	 * Gets the directory text maps are compiled into
+	 *
+	 * @return The directory, <code>null</code> if maps are parsed every time
+	 */
+	public File getMapCache() {
+		return mapCache;
+	}
+
+	/**
+	 * Sets the directory text maps are compiled into
+	 *
+	 * @param mapCache The new directory, <code>null</code> to parse maps every time
+	 */
+	public void setMapCache(File mapCache) {
+		this.mapCache = mapCache;
+	}
+
+	/**
+	 * Gets the seed every game starts with
+	 *
+	 * @return The seed, <code>null</code> if each game picks a new seed
+	 */
+	public Long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Sets the seed every game starts with
+	 *
+	 * @param seed The new seed, <code>null</code> for each game to pick a new seed
+	 */
+	public void setSeed(Long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Gets the directory each game's journal is written to
+	 *
+	 * @return The directory, <code>null</code> if journals are not kept
+	 */
+	public File getJournalDirectory() {
+		return journalDirectory;
+	}
+
+	/**
+	 * Sets the directory each game's journal is written to
+	 *
+	 * @param journalDirectory The new directory, <code>null</code> to not keep journals
+	 */
+	public void setJournalDirectory(File journalDirectory) {
+		this.journalDirectory = journalDirectory;
+	}
+
+	/**
+	 * Gets the directory the latest snapshot of the game is kept in
+	 *
+	 * @return The directory, <code>null</code> if snapshots are not taken
+	 */
+	public File getSnapshotDirectory() {
+		return snapshotDirectory;
+	}
+
+	/**
+	 * Sets the directory the latest snapshot of the game is kept in
+	 *
+	 * @param snapshotDirectory The new directory, <code>null</code> to not take snapshots
+	 */
+	public void setSnapshotDirectory(File snapshotDirectory) {
+		this.snapshotDirectory = snapshotDirectory;
+	}
+
+	/**
+	 * Gets the time between snapshots
+	 *
+	 * @return The time in milliseconds
+	 */
+	public int getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
+	/**
+	 * Sets the time between snapshots
+	 *
+	 * @param snapshotInterval The new time in milliseconds
+	 */
+	public void setSnapshotInterval(int snapshotInterval) {
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * Gets how long a player whose connection was lost is kept for their client to resume
+	 *
+	 * @return The grace period in milliseconds, <code>0</code> if players are removed at once
+	 */
+	public int getResumeGrace() {
+		return resumeGrace;
+	}
+
+	/**
+	 * Sets how long a player whose connection was lost is kept for their client to resume
+	 *
+	 * @param resumeGrace The new grace period in milliseconds, <code>0</code> to remove players at once
+	 */
+	public void setResumeGrace(int resumeGrace) {
+		this.resumeGrace = resumeGrace;
+	}
+
+	/**
+	 * Gets how long a player has for their turn
+	 *
+	 * @return The time in milliseconds, <code>0</code> if turns have no limit
+	 */
+	public int getTurnTimeout() {
+		return turnTimeout;
+	}
+
+	/**
+	 * Sets how long a player has for their turn
+	 *
+	 * @param turnTimeout The new time in milliseconds, <code>0</code> for no limit
+	 */
+	public void setTurnTimeout(int turnTimeout) {
+		this.turnTimeout = turnTimeout;
+	}
+
+	/**
+	 * Gets how long before the end of their turn a player is warned
+	 *
+	 * @return The time in milliseconds, <code>0</code> if players are not warned
+	 */
+	public int getTurnWarning() {
+		return turnWarning;
+	}
+
+	/**
+	 * Sets how long before the end of their turn a player is warned
+	 *
+	 * @param turnWarning The new time in milliseconds, <code>0</code> to not warn players
+	 */
+	public void setTurnWarning(int turnWarning) {
+		this.turnWarning = turnWarning;
+	}
+
+	/**
+	 * Parses a single <code>--name=value</code> option
+	 *
+	 * @param arg The command line arg
+	 * @return    <code>true</code> if the option was understood, <code>false</code> otherwise
+	 */
+	private boolean parseOption(String arg) {
+		if (!arg.startsWith("--") || !arg.contains("=")) {
+			return false;
+		}
+
+		String[] option = arg.substring(2).split("=", 2);
+		String name = option[0];
+		String value = option[1];
+
+		if (name.equals("io")) {
+			if (value.equals(IO_VIRTUAL) && !VirtualThreads.isSupported()) {
+				System.out.println("Virtual threads need Java 21 or later, using the thread I/O mode.");
+				ioMode = IO_THREAD;
+				return true;
+			}
+			if (value.equals(IO_THREAD) || value.equals(IO_VIRTUAL) || value.equals(IO_NIO)) {
+				ioMode = value;
+				return true;
+			}
+		} else if (name.equals("io-threads")) {
+			if (parseNumber(value) > 0) {
+				ioThreads = parseNumber(value);
+				return true;
+			}
+		} else if (name.equals("framing")) {
+			if (value.equals("off")) {
+				offeredFraming = Connection.FRAMING_TEXT;
+				return true;
+			} else if (value.equals("lines")) {
+				offeredFraming = Connection.FRAMING_LINES;
+				return true;
+			} else if (value.equals("binary")) {
+				offeredFraming = Connection.FRAMING_BINARY;
+				return true;
+			}
+		} else if (name.equals("chat-limit") || name.equals("look-limit") || name.equals("move-limit")) {
+			RateLimit limit = RateLimit.parse(value);
+			if (limit == null) {
+				return false;
+			}
+
+			if (name.equals("chat-limit")) {
+				chatLimit = limit.toWindow();
+			} else if (name.equals("look-limit")) {
+				lookLimit = limit;
+			} else {
+				moveLimit = limit;
+			}
+			return true;
+		} else if (name.equals("map-storage")) {
+			if (value.equals("heap")) {
+				mapStorage = Map.STORAGE_HEAP;
+				return true;
+			} else if (value.equals("off-heap")) {
+				mapStorage = Map.STORAGE_OFF_HEAP;
+				return true;
+			} else if (value.equals("chunked")) {
+				mapStorage = Map.STORAGE_CHUNKED;
+				return true;
+			}
+		} else if (name.equals("map-chunks")) {
+			if (parseNumber(value) > 0) {
+				mapChunks = parseNumber(value);
+				return true;
+			}
+		} else if (name.equals("map-cache")) {
+			if (value.equals("off")) {
+				mapCache = null;
+				return true;
+			} else if (!value.isEmpty()) {
+				mapCache = new File(value);
+				return true;
+			}
+		} else if (name.equals("seed")) {
+			if (value.equals("random")) {
+				seed = null;
+				return true;
+			} else if (value.matches("-?[0-9]+")) {
+				try {
+					seed = Long.parseLong(value);
+					return true;
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			}
+		} else if (name.equals("journal")) {
+			if (value.equals("off")) {
+				journalDirectory = null;
+				return true;
+			} else if (!value.isEmpty()) {
+				journalDirectory = new File(value);
+				return true;
+			}
+		} else if (name.equals("snapshots")) {
+			if (value.equals("off")) {
+				snapshotDirectory = null;
+				return true;
+			} else if (!value.isEmpty()) {
+				snapshotDirectory = new File(value);
+				return true;
+			}
+		} else if (name.equals("snapshot-interval")) {
+			if (parseNumber(value) > 0) {
+				snapshotInterval = parseNumber(value);
+				return true;
+			}
+		} else if (name.equals("resume-grace")) {
+			if (parseNumber(value) >= 0) {
+				resumeGrace = parseNumber(value);
+				return true;
+			}
+		} else if (name.equals("turn-timeout") || name.equals("turn-warning")) {
+			if (parseNumber(value) >= 0) {
+				if (name.equals("turn-timeout")) {
+					turnTimeout = parseNumber(value);
+				} else {
+					turnWarning = parseNumber(value);
+				}
+				return true;
+			}
+		} else if (name.equals("flush-window")) {
+			if (parseNumber(value) >= 0) {
+				flushWindow = parseNumber(value);
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Reads a whole number option. Numbers are limited to nine digits so they always fit in an
+	 * <code>int</code>.
+	 *
+	 * @param value The written number
+	 * @return      The number, <code>-1</code> if it is not valid
+	 */
+	private static int parseNumber(String value) {
+		if (!value.matches("[0-9]{1,9}")) {
+			return -1;
+		}
+		return Integer.parseInt(value);
+	}
+}
@@ -27,6 +27,9 @@ import javax.swing.border.EmptyBorder;
 public class ServerGUI extends JFrame implements Observer {
 	private static final long serialVersionUID = -4722662871859003395L;
 	
+	// Largest map drawn in the map text area
+	private static final long MAX_SHOWN_TILES = 1 << 20;
+	
 	private JTextArea txtaMap;
 	private JTextField txtLoadMap;
 	private JButton btnLoadMap;
@@ -260,8 +263,13 @@ public class ServerGUI extends JFrame implements Observer {
 	public void update(Observable observable, Object value) {
 		Game game = (Game) observable;
 		
-		// Update the map
-		txtaMap.setText(game.getMap().toString());
+		// Update the map, unless it is too large to draw
+		Map map = game.getMap();
+		if ((long) map.getWidth() * map.getHeight() <= MAX_SHOWN_TILES) {
+			txtaMap.setText(map.toString());
+		} else {
+			txtaMap.setText(map.getName() + " is too large to show (" + map.getWidth() + "x" + map.getHeight() + ").");
+		}
 		
 		// Update the players
 		Vector<Player> players = game.getPlayers();
@@ -0,0 +1,184 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The SnapshotWriter class takes a {@link GameSnapshot} of a game at a fixed interval on a
+ * background thread, and writes it over the previous one.
+ *
+ * Taking a snapshot never copies the whole map. The map keeps a set of the regions whose tiles
+ * or gold have changed, and each snapshot copies only the regions changed since the one before
+ * into the copies kept here, which hold every region changed since the map was loaded. The game
+ * is only held up while those few regions and the players are copied; the snapshot is encoded
+ * and written to disk afterwards, while play goes on.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class SnapshotWriter {
+	private Game game;
+	private File file;
+	private ScheduledExecutorService executor;
+
+	// Copies of every region changed since the map was loaded, in the order they first changed
+	private Map map;
+	private byte[] mapHash;
+	private LinkedHashMap<Long, GameSnapshot.SavedRegion> regions;
+
+	// Statistics of the last snapshot
+	private long captureTime;
+	private long writeTime;
+	private int copiedRegions;
+	private long size;
+
+	/**
+	 * Constructor starts taking snapshots of a game
+	 *
+	 * @param game     The game
+	 * @param file     The file the latest snapshot is kept in
+	 * @param interval The time between snapshots, in milliseconds
+	 */
+	public SnapshotWriter(Game game, File file, int interval) {
+		this.game = game;
+		this.file = file;
+		regions = new LinkedHashMap<Long, GameSnapshot.SavedRegion>();
+
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "Snapshot writer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					snapshot();
+				} catch (IOException e) {
+					System.out.println("Unable to write snapshot " + SnapshotWriter.this.file + ": " + e.getMessage());
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the file the latest snapshot is kept in
+	 *
+	 * @return The snapshot file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets how long the game was held up by the last snapshot
+	 *
+	 * @return The time in nanoseconds spent copying the changed regions and the players
+	 */
+	public synchronized long getCaptureTime() {
+		return captureTime;
+	}
+
+	/**
+	 * Gets how long the last snapshot took to encode and write
+	 *
+	 * @return The time in nanoseconds
+	 */
+	public synchronized long getWriteTime() {
+		return writeTime;
+	}
+
+	/**
+	 * Gets the number of regions the last snapshot copied from the map
+	 *
+	 * @return The number of regions that had changed since the snapshot before
+	 */
+	public synchronized int getCopiedRegions() {
+		return copiedRegions;
+	}
+
+	/**
+	 * Gets the size of the last snapshot
+	 *
+	 * @return The size in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Takes a snapshot of the game now and writes it
+	 *
+	 * @throws IOException Thrown if the snapshot could not be written
+	 */
+	public synchronized void snapshot() throws IOException {
+		// Hold the game lock while capturing, so the map and the players are from the same moment
+		Map current;
+		GameSnapshot snapshot;
+		long start;
+		long[] changed;
+		ReentrantLock gameLock = game.getLock();
+		gameLock.lock();
+		try {
+			current = game.getMap();
+			if (current != map) {
+				// Regions copied from the last map no longer apply
+				map = current;
+				mapHash = GameSnapshot.hashOf(current);
+				regions.clear();
+			}
+
+			snapshot = new GameSnapshot(current.getFileName(), mapHash);
+			start = System.nanoTime();
+			changed = current.takeChangedRegions();
+			for (long region : changed) {
+				GameSnapshot.SavedRegion saved = regions.get(region);
+				if (saved == null) {
+					saved = new GameSnapshot.SavedRegion(region);
+					regions.put(region, saved);
+				}
+				current.getRegion(region, saved.getBases(), saved.getAmounts());
+			}
+			game.saveState(snapshot);
+		} finally {
+			gameLock.unlock();
+		}
+		captureTime = System.nanoTime() - start;
+
+		if (game.getMap() != current) {
+			// The players are already on the next map, which the next snapshot will take
+			return;
+		}
+
+		start = System.nanoTime();
+		snapshot.getRegions().addAll(regions.values());
+		size = snapshot.write(file);
+		writeTime = System.nanoTime() - start;
+		copiedRegions = changed.length;
+	}
+
+	/**
+	 * Stops taking snapshots, after writing one last snapshot
+	 */
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		try {
+			snapshot();
+		} catch (IOException e) {
+			System.out.println("Unable to write snapshot " + file + ": " + e.getMessage());
+		}
+	}
+}
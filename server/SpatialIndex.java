@@ -0,0 +1,171 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The SpatialIndex class finds the players that might see a location without checking every
+ * player in the game. The map is split into square cells and each player is kept in the cell
+ * they stand in. A location can only be seen from cells within the longest vision distance of
+ * it, so only a few cells have to be checked however many players there are. Only cells with
+ * players in are stored, so the index stays small on the largest maps.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class SpatialIndex {
+	// Width and height of a cell in tiles, wider than any view so a search covers at most 2x2 cells
+	public static final int CELL_SIZE = 8;
+
+	private int columns;
+	private int rows;
+	private HashMap<Long, ArrayList<Player>> cells;
+	private HashMap<Player, Long> playerCells;
+	private int maxVision;
+
+	/**
+	 * Constructor creates an empty index for a map
+	 *
+	 * @param width  The width of the map in tiles
+	 * @param height The height of the map in tiles
+	 */
+	public SpatialIndex(int width, int height) {
+		columns = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+		rows = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+
+		cells = new HashMap<Long, ArrayList<Player>>();
+		playerCells = new HashMap<Player, Long>();
+		maxVision = 0;
+	}
+
+	/**
+	 * Adds a player to the index at their current position
+	 *
+	 * @param player The player to add
+	 */
+	public synchronized void add(Player player) {
+		long cell = cellOf(player.getX(), player.getY());
+		addToCell(cell, player);
+		playerCells.put(player, cell);
+		maxVision = Math.max(maxVision, player.getVisionDistance());
+	}
+
+	/**
+	 * Removes a player from the index
+	 *
+	 * @param player The player to remove
+	 */
+	public synchronized void remove(Player player) {
+		Long cell = playerCells.remove(player);
+		if (cell != null) {
+			removeFromCell(cell, player);
+		}
+	}
+
+	/**
+	 * Moves a player to the cell of their current position. Players that are not in the index
+	 * are ignored.
+	 *
+	 * @param player The player that moved
+	 */
+	public synchronized void update(Player player) {
+		Long oldCell = playerCells.get(player);
+		if (oldCell == null) {
+			return;
+		}
+
+		long newCell = cellOf(player.getX(), player.getY());
+		if (newCell != oldCell) {
+			removeFromCell(oldCell, player);
+			addToCell(newCell, player);
+			playerCells.put(player, newCell);
+		}
+		maxVision = Math.max(maxVision, player.getVisionDistance());
+	}
+
+	/**
+	 * Gets the players close enough that they might see any location in an area. The caller
+	 * still has to check what each player can see.
+	 *
+	 * @param minX The left edge of the area
+	 * @param minY The top edge of the area
+	 * @param maxX The right edge of the area
+	 * @param maxY The bottom edge of the area
+	 * @return     The players in the cells within vision distance of the area
+	 */
+	public synchronized ArrayList<Player> getPlayersNear(int minX, int minY, int maxX, int maxY) {
+		int firstColumn = clamp((minX - maxVision) / CELL_SIZE, columns);
+		int lastColumn = clamp((maxX + maxVision) / CELL_SIZE, columns);
+		int firstRow = clamp((minY - maxVision) / CELL_SIZE, rows);
+		int lastRow = clamp((maxY + maxVision) / CELL_SIZE, rows);
+
+		ArrayList<Player> near = new ArrayList<Player>();
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				ArrayList<Player> cell = cells.get((long) row * columns + column);
+				if (cell != null) {
+					near.addAll(cell);
+				}
+			}
+		}
+		return near;
+	}
+
+	/**
+	 * Gets the number of players in the index
+	 *
+	 * @return The number of players
+	 */
+	public synchronized int size() {
+		return playerCells.size();
+	}
+
+	/**
+	 * Gets the cell holding a position
+	 *
+	 * @param x The X position
+	 * @param y The Y position
+	 * @return  The cell index
+	 */
+	private long cellOf(int x, int y) {
+		return (long) clamp(y / CELL_SIZE, rows) * columns + clamp(x / CELL_SIZE, columns);
+	}
+
+	/**
+	 * Adds a player to a cell, storing the cell if it was empty
+	 *
+	 * @param cell   The cell index
+	 * @param player The player
+	 */
+	private void addToCell(long cell, Player player) {
+		ArrayList<Player> cellPlayers = cells.get(cell);
+		if (cellPlayers == null) {
+			cellPlayers = new ArrayList<Player>();
+			cells.put(cell, cellPlayers);
+		}
+		cellPlayers.add(player);
+	}
+
+	/**
+	 * Removes a player from a cell, forgetting the cell once it is empty
+	 *
+	 * @param cell   The cell index
+	 * @param player The player
+	 */
+	private void removeFromCell(long cell, Player player) {
+		ArrayList<Player> cellPlayers = cells.get(cell);
+		cellPlayers.remove(player);
+		if (cellPlayers.isEmpty()) {
+			cells.remove(cell);
+		}
+	}
+
+	/**
+	 * Keeps a cell column or row inside the map
+	 *
+	 * @param value The column or row
+	 * @param count The number of columns or rows
+	 * @return      The column or row, moved inside the map if needed
+	 */
+	private static int clamp(int value, int count) {
+		return Math.max(0, Math.min(count - 1, value));
+	}
+}
@@ -1,5 +1,6 @@
 /**
- * The Tile class represents a square tile in the dungeon
+ * The Tile class represents a square tile in the dungeon. The tile's contents are stored by
+ * the {@link Map}, and a Tile is only a view of one position that reads and changes them.
  * 
  * @author Sean Stinson, ss938
  *
@@ -17,26 +18,21 @@ public class Tile {
 	public static final char LANTERN = 'L';
 	public static final char HEALTH  = 'H';
 	
-	private char base;
-	private int gold;
-	
-	private Player player;
+	private Map map;
+	private int x;
+	private int y;
 	
 	/**
-	 * Constructor initialises the base tile and item fields
+	 * Constructor creates a view of a position on a map
 	 * 
-	 * @param base The base tile content
+	 * @param map The map the tile is on
+	 * @param x   The X position of the tile
+	 * @param y   The Y position of the tile
 	 */
-	public Tile(char base) {
-		this.base = base;
-		
-		if (base == 'G') {
-			gold = 1;
-		} else {
-			gold = 0;
-		}
-		
-		player = null;
+	public Tile(Map map, int x, int y) {
+		this.map = map;
+		this.x = x;
+		this.y = y;
 	}
 
 	/**
@@ -45,7 +41,7 @@ public class Tile {
 	 * @return The base tile content
 	 */
 	public char getBase() {
-		return base;
+		return map.getBase(x, y);
 	}
 
 	/**
@@ -54,7 +50,7 @@ public class Tile {
 	 * @param base The new base tile content
 	 */
 	public void setBase(char base) {
-		this.base = base;
+		map.setBase(x, y, base);
 	}
 	
 	/**
@@ -63,7 +59,7 @@ public class Tile {
 	 * @return The amount of gold on the tile
 	 */
 	public int getGold() {
-		return gold;
+		return map.getGold(x, y);
 	}
 	
 	/**
@@ -72,10 +68,7 @@ public class Tile {
 	 * @param gold The new amount of gold on the tile
 	 */
 	public void setGold(int gold) {
-		if (gold > 0) {
-			base = 'G';
-		}
-		this.gold = gold;
+		map.setGold(x, y, gold);
 	}
 	
 	/**
@@ -84,10 +77,7 @@ public class Tile {
 	 * @param amount The amount of gold to add to the tile
 	 */
 	public void addGold(int amount) {
-		gold += amount;
-		if (gold > 0) {
-			base = 'G';
-		}
+		map.addGold(x, y, amount);
 	}
 	
 	/**
@@ -96,10 +86,7 @@ public class Tile {
 	 * @return The amount of gold on the tile
 	 */
 	public int popGold() {
-		int amount = gold;
-		gold = 0;
-		base = FLOOR;
-		return amount;
+		return map.popGold(x, y);
 	}
 	
 	/**
@@ -108,14 +95,16 @@ public class Tile {
 	 * @param player The player to occupy the tile
 	 */
 	public void occupy(Player player) {
-		this.player = player;
+		map.occupy(x, y, player);
 	}
 	
 	/**
-	 * Removes the player from the tile
+	 * Removes a player from the tile, if they are still on it
+	 * 
+	 * @param player The player leaving the tile
 	 */
-	public void unOccupy() {
-		player = null;
+	public void unOccupy(Player player) {
+		map.unOccupy(x, y, player);
 	}
 	
 	/**
@@ -124,7 +113,7 @@ public class Tile {
 	 * @return The player currently occupying the tile, <code>null</code> if tile has no player
 	 */
 	public Player getPlayer() {
-		return player;
+		return map.getOccupant(x, y);
 	}
 	
 	/**
@@ -133,10 +122,7 @@ public class Tile {
 	 * @return <code>true</code> if the tile is occupied by a player, <code>false</code> otherwise
 	 */
 	public boolean isOccupied() {
-		if (player == null) {
-			return false;
-		}
-		return true;
+		return map.isOccupied(x, y);
 	}
 	
 	/**
@@ -145,7 +131,7 @@ public class Tile {
 	 * @return <code>true</code> if the tile is walkable, <code>false</code> otherwise
 	 */
 	public boolean isWalkable() {
-		if (base == '#' || isOccupied()) {
+		if (getBase() == '#' || isOccupied()) {
 			return false;
 		}
 		return true;
@@ -0,0 +1,111 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The TileStore class holds the base and the occupant of every tile of a {@link Map}, and the
+ * number of changes made to each region of the map. Tiles and regions are numbered row by row.
+ * 
+ * @author Sean Stinson, ss938
+ *
+ */
+public abstract class TileStore {
+	/**
+	 * Creates an empty store
+	 * 
+	 * @param tiles   The number of tiles
+	 * @param regions The number of regions
+	 * @param offHeap <code>true</code> to keep the tiles in memory outside the Java heap
+	 * @return        The store
+	 */
+	public static TileStore create(long tiles, long regions, boolean offHeap) {
+		if (offHeap) {
+			return new OffHeapTileStore(tiles, regions);
+		}
+		return new HeapTileStore(tiles, regions);
+	}
+	
+	/**
+	 * Gets the base tile content of a tile
+	 * 
+	 * @param tile The tile number
+	 * @return     The base tile content
+	 */
+	public abstract char getBase(long tile);
+	
+	/**
+	 * Sets the base tile content of a tile
+	 * 
+	 * @param tile The tile number
+	 * @param base The new base tile content
+	 */
+	public abstract void setBase(long tile, char base);
+	
+	/**
+	 * Gets the base tile content of a run of tiles as bytes holding one tile each
+	 * 
+	 * @param tile   The number of the first tile
+	 * @param bytes  The bytes to fill
+	 * @param offset The index in the bytes of the first tile
+	 * @param length The number of tiles
+	 */
+	public void getBases(long tile, byte[] bytes, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			bytes[offset + i] = (byte) getBase(tile + i);
+		}
+	}
+	
+	/**
+	 * Sets the base tile content of a run of tiles from bytes holding one tile each
+	 * 
+	 * @param tile   The number of the first tile
+	 * @param bytes  The bytes
+	 * @param offset The index of the first tile in the bytes
+	 * @param length The number of tiles
+	 */
+	public void setBases(long tile, ByteBuffer bytes, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			setBase(tile + i, (char) (bytes.get(offset + i) & 0xFF));
+		}
+	}
+	
+	/**
+	 * Gets the id of the player on a tile
+	 * 
+	 * @param tile The tile number
+	 * @return     The player id, <code>0</code> if the tile has no player
+	 */
+	public abstract int getOccupant(long tile);
+	
+	/**
+	 * Sets the id of the player on a tile
+	 * 
+	 * @param tile The tile number
+	 * @param id   The player id, <code>0</code> for no player
+	 */
+	public abstract void setOccupant(long tile, int id);
+	
+	/**
+	 * Gets the number of changes made to a region
+	 * 
+	 * @param region The region number
+	 * @return       The number of changes
+	 */
+	public abstract int getVersion(long region);
+	
+	/**
+	 * Counts a change to a region. Changes to the region's tiles made before this are seen by
+	 * any thread that then reads the new version.
+	 * 
+	 * @param region The region number
+	 */
+	public abstract void incrementVersion(long region);
+	
+	/**
+	 * Gets the tiles around a position ready to be used soon. Stores that always hold every
+	 * tile in memory do nothing.
+	 * 
+	 * @param x The X position
+	 * @param y The Y position
+	 */
+	public void prefetch(int x, int y) {
+	}
+}
@@ -0,0 +1,215 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The TimingWheel class runs tasks after a delay, for timers that are set and cancelled far
+ * more often than they go off, such as turn deadlines. One thread serves every timer, however
+ * many games use it.
+ *
+ * Time is split into ticks, and the wheel is a ring of buckets, one for each tick of a
+ * rotation. A timer goes in the bucket of the tick it is due in, and each tick the thread
+ * looks through just that bucket, running the timers that are due and leaving those due in a
+ * later rotation. Setting or cancelling a timer takes the same short time however many timers
+ * there are, rather than the <code>log n</code> of a priority queue, at the cost of timers
+ * going off up to one tick late.
+ *
+ * New timers are handed to the thread through a queue, so setting a timer never waits for the
+ * wheel. Cancelled timers are only marked, and are dropped when the thread next reaches their
+ * bucket.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class TimingWheel {
+	// Length of a tick in milliseconds, and ticks in a rotation, a power of two
+	public static final int DEFAULT_TICK = 50;
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	// Timer states
+	private static final int WAITING   = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED   = 2;
+
+	private static TimingWheel shared;
+
+	private final long tickNanos;
+	private final Timeout[] buckets;
+	private final int mask;
+	private final ConcurrentLinkedQueue<Timeout> added;
+	private final long startTime;
+	private final Thread worker;
+
+	// Only used by the worker
+	private long tick;
+
+	/**
+	 * The Timeout class is a timer set on the wheel, which can be cancelled until it goes off
+	 */
+	public static class Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state;
+
+		// Neighbours in the bucket, only used by the worker
+		private Timeout previous;
+		private Timeout next;
+
+		/**
+		 * Constructor creates a timer that has not been added to a bucket
+		 *
+		 * @param task     The task to run
+		 * @param deadline The tick the task is due in
+		 */
+		private Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+			state = new AtomicInteger(WAITING);
+		}
+
+		/**
+		 * Stops the task from running
+		 *
+		 * @return <code>true</code> if the task was stopped, <code>false</code> if it has already run or been cancelled
+		 */
+		public boolean cancel() {
+			return state.compareAndSet(WAITING, CANCELLED);
+		}
+
+		/**
+		 * Checks if the task has been cancelled
+		 *
+		 * @return <code>true</code> if the timer was cancelled, <code>false</code> otherwise
+		 */
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		/**
+		 * Checks if the timer has gone off
+		 *
+		 * @return <code>true</code> if the task has been run or is running, <code>false</code> otherwise
+		 */
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+	}
+
+	/**
+	 * Constructor creates a wheel and starts its thread
+	 *
+	 * @param name      The name of the wheel's thread
+	 * @param tick      The length of a tick in milliseconds
+	 * @param wheelSize The number of ticks in a rotation, rounded up to a power of two
+	 */
+	public TimingWheel(String name, int tick, int wheelSize) {
+		tickNanos = tick * 1000000L;
+		buckets = new Timeout[Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1];
+		mask = buckets.length - 1;
+		for (int i = 0; i < buckets.length; i++) {
+			// Each bucket is a ring with a placeholder head, so timers can be unlinked without checks
+			Timeout head = new Timeout(null, Long.MAX_VALUE);
+			head.previous = head;
+			head.next = head;
+			buckets[i] = head;
+		}
+		added = new ConcurrentLinkedQueue<Timeout>();
+		startTime = System.nanoTime();
+
+		worker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				turn();
+			}
+		}, name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Gets the wheel shared by every game, starting it the first time
+	 *
+	 * @return The shared wheel
+	 */
+	public static synchronized TimingWheel getShared() {
+		if (shared == null) {
+			shared = new TimingWheel("Timing wheel", DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+		}
+		return shared;
+	}
+
+	/**
+	 * Runs a task once after a delay. Tasks are run on the wheel's thread, one after another,
+	 * so they must be quick.
+	 *
+	 * @param task   The task
+	 * @param millis The delay in milliseconds
+	 * @return       The timer, which can be cancelled
+	 */
+	public Timeout schedule(Runnable task, long millis) {
+		long elapsed = System.nanoTime() - startTime + millis * 1000000L;
+		Timeout timeout = new Timeout(task, (elapsed + tickNanos - 1) / tickNanos);
+		added.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Moves the wheel on a tick at a time, running the timers that are due, for as long as the
+	 * program runs
+	 */
+	private void turn() {
+		while (true) {
+			// Wait for the end of the current tick
+			long wait = startTime + (tick + 1) * tickNanos - System.nanoTime();
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				} catch (InterruptedException e) {
+					return;
+				}
+				continue;
+			}
+			tick++;
+
+			Timeout timeout;
+			while ((timeout = added.poll()) != null) {
+				if (!timeout.isCancelled()) {
+					// Timers already due go in this tick's bucket
+					Timeout head = buckets[(int) (Math.max(timeout.deadline, tick) & mask)];
+					timeout.previous = head.previous;
+					timeout.next = head;
+					head.previous.next = timeout;
+					head.previous = timeout;
+				}
+			}
+
+			expire(buckets[(int) (tick & mask)]);
+		}
+	}
+
+	/**
+	 * Runs the timers in a bucket that are due, and drops those that have been cancelled
+	 *
+	 * @param head The head of the bucket
+	 */
+	private void expire(Timeout head) {
+		Timeout timeout = head.next;
+		while (timeout != head) {
+			Timeout next = timeout.next;
+			if (timeout.isCancelled() || timeout.deadline <= tick) {
+				timeout.previous.next = next;
+				next.previous = timeout.previous;
+				timeout.previous = null;
+				timeout.next = null;
+
+				if (timeout.state.compareAndSet(WAITING, EXPIRED)) {
+					try {
+						timeout.task.run();
+					} catch (RuntimeException e) {
+						System.out.println("Timer failed: " + e);
+					}
+				}
+			}
+			timeout = next;
+		}
+	}
+}
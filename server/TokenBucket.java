@@ -0,0 +1,104 @@
+/**
+ * The TokenBucket class limits how often one client may send one class of command. Each
+ * command takes a token, and tokens are earned back at a steady rate up to a full bucket.
+ *
+ * Tokens are earned back from the time that has passed whenever the bucket is used, so no
+ * timer is needed however many clients there are. A bucket either earns tokens back steadily,
+ * or as a sliding window, where each token comes back a whole period after it was taken so no
+ * more than a full bucket is ever taken within one period.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class TokenBucket {
+	private long nanosPerToken;
+	private long capacity;
+
+	// Earned time in nanoseconds, one token is worth nanosPerToken
+	private long credit;
+	private long lastRefill;
+
+	// Sliding window, the times the last tokens were taken, oldest at takenIndex
+	private long periodNanos;
+	private long[] taken;
+	private int takenIndex;
+
+	/**
+	 * Constructor creates a full bucket that earns tokens back steadily
+	 *
+	 * @param tokens The size of the bucket
+	 * @param period The time in milliseconds it takes to earn back a full bucket
+	 */
+	public TokenBucket(int tokens, long period) {
+		this(tokens, period, false);
+	}
+
+	/**
+	 * Constructor creates a full bucket
+	 *
+	 * @param tokens The size of the bucket
+	 * @param period The time in milliseconds it takes to earn back a full bucket
+	 * @param window <code>true</code> to earn each token back a period after it was taken,
+	 *               <code>false</code> to earn tokens back steadily
+	 */
+	public TokenBucket(int tokens, long period, boolean window) {
+		long now = System.nanoTime();
+
+		if (window) {
+			periodNanos = period * 1000000;
+			taken = new long[tokens];
+			for (int i = 0; i < tokens; i++) {
+				taken[i] = now - periodNanos;
+			}
+			return;
+		}
+
+		nanosPerToken = Math.max(1, period * 1000000 / tokens);
+		capacity = nanosPerToken * tokens;
+		credit = capacity;
+		lastRefill = now;
+	}
+
+	/**
+	 * Takes a token from the bucket if there is one
+	 *
+	 * @return The whole tokens left after taking one, <code>-1</code> if the bucket was empty
+	 */
+	public synchronized int take() {
+		long now = System.nanoTime();
+		if (taken != null) {
+			return takeFromWindow(now);
+		}
+
+		credit = Math.min(capacity, credit + (now - lastRefill));
+		lastRefill = now;
+
+		if (credit < nanosPerToken) {
+			return -1;
+		}
+		credit -= nanosPerToken;
+		return (int) (credit / nanosPerToken);
+	}
+
+	/**
+	 * Takes a token from a sliding window bucket if the oldest token has been earned back
+	 *
+	 * @param now The current time in nanoseconds
+	 * @return    The whole tokens left after taking one, <code>-1</code> if the bucket was empty
+	 */
+	private int takeFromWindow(long now) {
+		if (now - taken[takenIndex] < periodNanos) {
+			return -1;
+		}
+		taken[takenIndex] = now;
+		takenIndex = (takenIndex + 1) % taken.length;
+
+		int left = 0;
+		for (long time : taken) {
+			if (now - time >= periodNanos) {
+				left++;
+			}
+		}
+		return left;
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * The TurnStats class records how long turns take, and how many were ended because the player
+ * ran out of time, to help choose a turn timeout that catches idle players without hurrying
+ * slow ones.
+ *
+ * @author Sean Stinson, ss938
+ *
+ */
+public class TurnStats {
+	// Upper bounds of the turn length buckets in seconds, the last bucket counting every longer turn
+	private static final int[] BOUNDS = {1, 5, 15, 30, 60, 120};
+
+	private long turns;
+	private long timedOut;
+	private long totalTime;
+	private long longestTime;
+	private long[] counts;
+
+	/**
+	 * Constructor starts with no turns
+	 */
+	public TurnStats() {
+		counts = new long[BOUNDS.length + 1];
+	}
+
+	/**
+	 * Records a turn that has ended
+	 *
+	 * @param nanos    The length of the turn in nanoseconds
+	 * @param timedOut <code>true</code> if the turn was ended because the player ran out of time, <code>false</code> otherwise
+	 */
+	public synchronized void record(long nanos, boolean timedOut) {
+		turns++;
+		if (timedOut) {
+			this.timedOut++;
+		}
+		totalTime += nanos;
+		longestTime = Math.max(longestTime, nanos);
+
+		int bucket = 0;
+		while (bucket < BOUNDS.length && nanos >= BOUNDS[bucket] * 1000000000L) {
+			bucket++;
+		}
+		counts[bucket]++;
+	}
+
+	/**
+	 * Gets the number of turns that have ended
+	 *
+	 * @return The number of turns
+	 */
+	public synchronized long getTurns() {
+		return turns;
+	}
+
+	/**
+	 * Gets the number of turns ended because the player ran out of time
+	 *
+	 * @return The number of turns that timed out
+	 */
+	public synchronized long getTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * Gets the mean length of a turn
+	 *
+	 * @return The mean length in milliseconds, <code>0</code> before any turns
+	 */
+	public synchronized double getMeanTime() {
+		return turns == 0 ? 0 : totalTime / 1000000.0 / turns;
+	}
+
+	/**
+	 * Gets the length of the longest turn
+	 *
+	 * @return The longest length in milliseconds
+	 */
+	public synchronized double getLongestTime() {
+		return longestTime / 1000000.0;
+	}
+
+	/**
+	 * Gets how many turns fell into each length bucket. Index <code>n</code> counts the turns
+	 * shorter than the <code>n</code>th bound in {@link #getBounds()}, and the last index counts
+	 * the rest.
+	 *
+	 * @return The number of turns in each bucket
+	 */
+	public synchronized long[] getCounts() {
+		return counts.clone();
+	}
+
+	/**
+	 * Gets the upper bounds of the turn length buckets
+	 *
+	 * @return The bounds in seconds
+	 */
+	public static int[] getBounds() {
+		return BOUNDS.clone();
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder summary = new StringBuilder(String.format("Turns: %d, %d timed out, %.1f s mean, %.1f s longest",
+				turns, timedOut, getMeanTime() / 1000, getLongestTime() / 1000));
+		for (int i = 0; i < counts.length; i++) {
+			summary.append(i < BOUNDS.length ? ", under " + BOUNDS[i] + " s " : ", longer ").append(counts[i]);
+		}
+		return summary.toString();
+	}
+}
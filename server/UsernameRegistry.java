@@ -0,0 +1,109 @@
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The UsernameRegistry class indexes objects by user name without regard to case. Names are
+ * reserved atomically, so two clients that join at the same time cannot end up with the same
+ * name, and lookups take constant time however many users are online.
+ *
+ * @author Sean Stinson, ss938
+ *
+ * @param <T> The type of object each name belongs to
+ */
+public class UsernameRegistry<T> {
+	private ConcurrentHashMap<String, T> names;
+
+	// The next number to try after a taken name, so repeated names are not rescanned from 2
+	private ConcurrentHashMap<String, AtomicInteger> suffixes;
+
+	/**
+	 * Constructor initialises the fields
+	 */
+	public UsernameRegistry() {
+		names = new ConcurrentHashMap<String, T>();
+		suffixes = new ConcurrentHashMap<String, AtomicInteger>();
+	}
+
+	/**
+	 * Reserves a unique name for an object. If the name is taken, a number is added to the
+	 * end of it, as in <code>Player2</code>.
+	 *
+	 * @param username The name wanted
+	 * @param value    The object the name belongs to
+	 * @return         The name that was reserved
+	 */
+	public String reserve(String username, T value) {
+		String key = key(username);
+		if (names.putIfAbsent(key, value) == null) {
+			return username;
+		}
+
+		AtomicInteger counter = suffixes.get(key);
+		if (counter == null) {
+			suffixes.putIfAbsent(key, new AtomicInteger(2));
+			counter = suffixes.get(key);
+		}
+
+		while (true) {
+			String candidate = username + counter.getAndIncrement();
+			if (names.putIfAbsent(key(candidate), value) == null) {
+				return candidate;
+			}
+		}
+	}
+
+	/**
+	 * Gets the object using a name
+	 *
+	 * @param username The name to search for, in any case
+	 * @return         The object using the name, <code>null</code> if there is none
+	 */
+	public T get(String username) {
+		return names.get(key(username));
+	}
+
+	/**
+	 * Frees a name so it can be used again
+	 *
+	 * @param username The name to free
+	 * @param value    The object the name belongs to, the name is only freed if it still belongs to it
+	 */
+	public void release(String username, T value) {
+		String key = key(username);
+		if (names.remove(key, value)) {
+			suffixes.remove(key);
+		}
+	}
+
+	/**
+	 * Gives a name to a new object, if it still belongs to an old one
+	 *
+	 * @param username The name
+	 * @param from     The object the name belongs to
+	 * @param to       The object to give the name to
+	 * @return         <code>true</code> if the name was given, <code>false</code> if it did not belong to the old object
+	 */
+	public boolean transfer(String username, T from, T to) {
+		return names.replace(key(username), from, to);
+	}
+
+	/**
+	 * Gets the number of names in use
+	 *
+	 * @return The number of names in use
+	 */
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * Gets the key a name is indexed by
+	 *
+	 * @param username The name
+	 * @return         The name in lower case
+	 */
+	private static String key(String username) {
+		return username.toLowerCase(Locale.ROOT);
+	}
+}
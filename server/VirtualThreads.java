@@ -0,0 +1,54 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The VirtualThreads class creates executors that run each task on a virtual thread. Virtual
+ * threads need Java 21 or later, so they are looked up at runtime to let the server still build
+ * and run on older JVMs.
+ * 
+ * @author Sean Stinson, ss938
+ *
+ */
+public class VirtualThreads {
+	/**
+	 * Checks if the running JVM supports virtual threads
+	 * 
+	 * @return <code>true</code> if virtual threads are available, <code>false</code> otherwise
+	 */
+	public static boolean isSupported() {
+		return findFactory() != null;
+	}
+	
+	/**
+	 * Creates an executor that starts a new virtual thread for every task
+	 * 
+	 * @return The new executor
+	 * @throws UnsupportedOperationException Thrown if the JVM does not support virtual threads
+	 */
+	public static ExecutorService newPerTaskExecutor() {
+		Method factory = findFactory();
+		if (factory == null) {
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or later.");
+		}
+		
+		try {
+			return (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			throw new UnsupportedOperationException("Unable to create a virtual thread executor.", e);
+		}
+	}
+	
+	/**
+	 * Looks up <code>Executors.newVirtualThreadPerTaskExecutor()</code>
+	 * 
+	 * @return The factory method, <code>null</code> if it does not exist
+	 */
+	private static Method findFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}